@@ -23,6 +23,7 @@ import lombok.extern.slf4j.Slf4j;
 public class DefaultAdvisorService implements AdvisorService {
 
     private final AbstractChatMemoryAdvisor<VectorStore> chatMemoryAdvisor;
+    private final SemanticCacheAdvisor semanticCacheAdvisor;
 
     @Override
     public List<Advisor> getEnabledAdvisors(CoreSettings settings) {
@@ -34,6 +35,11 @@ public class DefaultAdvisorService implements AdvisorService {
                 log.info("Enabling Chat Memory Advisor");
                 enabledAdvisors.add(chatMemoryAdvisor);
             }
+            if (semanticCacheAdvisor != null && advisorSettings.semanticCache() != null
+                    && advisorSettings.semanticCache().enabled()) {
+                log.info("Enabling Semantic Cache Advisor");
+                enabledAdvisors.add(semanticCacheAdvisor);
+            }
         } else {
             log.warn("No advisor configuration found, enabling all advisors by default");
             enabledAdvisors.add(chatMemoryAdvisor);
@@ -0,0 +1,111 @@
+package com.moguyn.deepdesk.advisor;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+import org.springframework.ai.chat.messages.Message;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * In-process recent history of conversations. Each conversation keeps its
+ * last turns in a bounded ring buffer, oldest messages dropping out first,
+ * along with what was last recalled for it from long-term memory. A recall
+ * is due again once a full window of messages has dropped out since.
+ * Conversations idle for longer than the idle timeout are dropped, and once
+ * the maximum is reached the least recently used ones go first.
+ */
+public class HotChatMemory {
+
+    private final int maxMessages;
+    private final Cache<String, Window> conversations;
+
+    /**
+     * @param turns number of turns, a user message and its reply, kept per
+     * conversation
+     */
+    public HotChatMemory(int turns, long maxConversations, Duration idleTimeout, MeterRegistry meterRegistry) {
+        this.maxMessages = Math.max(1, 2 * turns);
+        this.conversations = Caffeine.newBuilder()
+                .maximumSize(maxConversations)
+                .expireAfterAccess(idleTimeout)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, conversations, "deepdesk.memory.hot");
+    }
+
+    /**
+     * Returns the recent history of a conversation, or null when it is not
+     * held in memory
+     */
+    public History get(String conversationId) {
+        Window window = conversations.getIfPresent(conversationId);
+        if (window == null) {
+            return null;
+        }
+        synchronized (window) {
+            boolean recallDue = window.dropped > 0 && (window.recalled == null || window.dropped >= maxMessages);
+            return new History(List.copyOf(window.messages), recallDue, window.recalled);
+        }
+    }
+
+    /**
+     * Keeps what was recalled for a conversation from long-term memory,
+     * starting the conversation if it is not held yet
+     */
+    public void recalled(String conversationId, String memory) {
+        Window window = conversations.get(conversationId, id -> new Window());
+        synchronized (window) {
+            window.recalled = memory;
+            window.dropped = 0;
+        }
+    }
+
+    /**
+     * Appends messages to a conversation, starting it if it is not held yet
+     */
+    public void append(String conversationId, List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        Window window = conversations.get(conversationId, id -> new Window());
+        synchronized (window) {
+            for (Message message : messages) {
+                window.messages.addLast(message);
+                if (window.messages.size() > maxMessages) {
+                    window.messages.pollFirst();
+                    window.dropped++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Number of conversations currently held
+     */
+    public long size() {
+        conversations.cleanUp();
+        return conversations.estimatedSize();
+    }
+
+    /**
+     * Recent messages of a conversation, oldest first, and the long-term
+     * memory last recalled for it, or null
+     */
+    public record History(List<Message> messages, boolean recallDue, String recalled) {
+
+    }
+
+    private static final class Window {
+
+        private final Deque<Message> messages = new ArrayDeque<>();
+        private int dropped;
+        private String recalled;
+    }
+}
@@ -0,0 +1,196 @@
+package com.moguyn.deepdesk.advisor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.VectorStore;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Writes chat memory documents to the vector store behind the request. A
+ * single worker collects queued documents into batches of up to batchSize
+ * and writes each batch with one call, which embeds all of its documents
+ * together and upserts them at once. A batch is written when it is full or
+ * flushInterval after its first document arrived. The queue is bounded;
+ * when it is full the caller writes its documents itself, which slows
+ * producers down to the pace of the store instead of dropping memory.
+ * Failed batches are retried a few times. On shutdown the queue is drained
+ * before the store goes away. When disabled every write goes straight to
+ * the store.
+ */
+@Slf4j
+public class MemoryWriteBehind {
+
+    static final int MAX_ATTEMPTS = 3;
+
+    private final VectorStore vectorStore;
+    private final boolean enabled;
+    private final int batchSize;
+    private final Duration flushInterval;
+    private final Duration drainTimeout;
+    private final Duration retryBackoff;
+    private final BlockingQueue<Document> queue;
+    private final Thread worker;
+    private volatile boolean closed;
+
+    private final Counter queued;
+    private final Counter direct;
+    private final Counter failed;
+    private final Counter batches;
+
+    public MemoryWriteBehind(VectorStore vectorStore, boolean enabled, int batchSize, Duration flushInterval,
+            int maxQueued, Duration drainTimeout, MeterRegistry meterRegistry) {
+        this(vectorStore, enabled, batchSize, flushInterval, maxQueued, drainTimeout, Duration.ofSeconds(1),
+                meterRegistry);
+    }
+
+    MemoryWriteBehind(VectorStore vectorStore, boolean enabled, int batchSize, Duration flushInterval,
+            int maxQueued, Duration drainTimeout, Duration retryBackoff, MeterRegistry meterRegistry) {
+        this.vectorStore = vectorStore;
+        this.enabled = enabled;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushInterval = flushInterval != null && flushInterval.toMillis() > 0
+                ? flushInterval
+                : Duration.ofMillis(1);
+        this.drainTimeout = drainTimeout;
+        this.retryBackoff = retryBackoff;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, maxQueued));
+
+        this.queued = documents(meterRegistry, "queued");
+        this.direct = documents(meterRegistry, "direct");
+        this.failed = documents(meterRegistry, "failed");
+        this.batches = Counter.builder("deepdesk.memory.write.batches")
+                .description("Batched chat memory writes to the vector store")
+                .register(meterRegistry);
+        meterRegistry.gauge("deepdesk.memory.write.queued", queue, BlockingQueue::size);
+
+        this.worker = enabled
+                ? Thread.ofVirtual().name("deepdesk-memory-writer").start(this::run)
+                : null;
+    }
+
+    /**
+     * Queues documents for writing, or writes them right away when disabled,
+     * shut down or the queue is full
+     */
+    public void write(List<Document> documents) {
+        if (documents.isEmpty()) {
+            return;
+        }
+        List<Document> overflow = new ArrayList<>();
+        for (Document document : documents) {
+            if (enabled && !closed && queue.offer(document)) {
+                queued.increment();
+            } else {
+                overflow.add(document);
+            }
+        }
+        if (!overflow.isEmpty()) {
+            direct.increment(overflow.size());
+            vectorStore.write(overflow);
+        }
+    }
+
+    /**
+     * Documents waiting to be written
+     */
+    public int pending() {
+        return queue.size();
+    }
+
+    /**
+     * Stops accepting documents and waits up to the drain timeout for the
+     * queued ones to be written
+     */
+    public void shutdown() {
+        closed = true;
+        if (worker == null) {
+            return;
+        }
+        try {
+            if (!worker.join(drainTimeout.plus(flushInterval))) {
+                log.warn("{} chat memory documents were not written before shutdown", queue.size());
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        // Documents queued while the worker was finishing
+        List<Document> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) {
+            vectorStore.write(rest);
+        }
+    }
+
+    private void run() {
+        try {
+            while (!closed || !queue.isEmpty()) {
+                Document first = queue.poll(flushInterval.toNanos(), TimeUnit.NANOSECONDS);
+                if (first != null) {
+                    List<Document> batch = new ArrayList<>(batchSize);
+                    batch.add(first);
+                    fill(batch);
+                    flush(batch);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Adds queued documents to a batch until it is full or its flush
+     * interval has passed. While shutting down only what is queued is taken.
+     */
+    private void fill(List<Document> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + flushInterval.toNanos();
+        while (batch.size() < batchSize) {
+            long remaining = deadline - System.nanoTime();
+            if (closed || remaining <= 0) {
+                queue.drainTo(batch, batchSize - batch.size());
+                return;
+            }
+            Document next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void flush(List<Document> batch) throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                vectorStore.write(batch);
+                batches.increment();
+                return;
+            } catch (RuntimeException e) {
+                if (attempt >= MAX_ATTEMPTS) {
+                    log.error("Dropping {} chat memory documents after {} attempts: {}", batch.size(), attempt,
+                            e.getMessage());
+                    failed.increment(batch.size());
+                    return;
+                }
+                log.warn("Writing {} chat memory documents failed, retrying: {}", batch.size(), e.getMessage());
+                Thread.sleep(retryBackoff.multipliedBy(attempt).toMillis());
+            }
+        }
+    }
+
+    private static Counter documents(MeterRegistry meterRegistry, String path) {
+        return Counter.builder("deepdesk.memory.write.documents")
+                .description("Chat memory documents written to the vector store")
+                .tag("path", path)
+                .register(meterRegistry);
+    }
+}
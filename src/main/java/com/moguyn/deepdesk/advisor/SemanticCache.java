@@ -0,0 +1,146 @@
+package com.moguyn.deepdesk.advisor;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * In-process index of answered questions, searched by cosine similarity of
+ * their embeddings. Entries expire a fixed time after they were added, hits
+ * do not extend it. Once the index is full, Caffeine's size policy
+ * (W-TinyLFU) decides what goes, favouring entries that are hit often.
+ * Entries are also indexed by partition, so a lookup only scores the
+ * answers of its own partition; an entry leaves the index when Caffeine
+ * evicts it.
+ */
+public class SemanticCache {
+
+    private final double similarityThreshold;
+    private final Cache<Long, Entry> entries;
+    private final Map<String, Map<Long, Entry>> partitions = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    public SemanticCache(double similarityThreshold, long maxEntries, Duration ttl) {
+        this.similarityThreshold = similarityThreshold;
+        this.entries = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttl)
+                .<Long, Entry>evictionListener((key, entry, cause) -> unindex(key, entry))
+                .build();
+    }
+
+    /**
+     * Finds the closest answer in the same partition whose similarity
+     * reaches the threshold
+     */
+    public Optional<Hit> lookup(String partition, float[] embedding) {
+        Map<Long, Entry> candidates = partitions.get(partition);
+        if (candidates == null) {
+            return Optional.empty();
+        }
+        float[] query = normalize(embedding);
+        Long bestKey = null;
+        Entry best = null;
+        double bestScore = similarityThreshold;
+        for (Map.Entry<Long, Entry> candidate : candidates.entrySet()) {
+            Entry entry = candidate.getValue();
+            // Expired entries stay indexed until Caffeine cleans them up
+            if (entry.vector().length != query.length || !entries.asMap().containsKey(candidate.getKey())) {
+                continue;
+            }
+            double score = dot(query, entry.vector());
+            if (score >= bestScore) {
+                bestScore = score;
+                bestKey = candidate.getKey();
+                best = entry;
+            }
+        }
+        if (best == null) {
+            return Optional.empty();
+        }
+        // Record the hit so the size policy counts it towards the entry's frequency
+        entries.getIfPresent(bestKey);
+        return Optional.of(new Hit(best.answer(), bestScore));
+    }
+
+    /**
+     * Adds an answered question to the index
+     */
+    public void put(String partition, float[] embedding, String answer) {
+        long key = sequence.incrementAndGet();
+        Entry entry = new Entry(partition, normalize(embedding), answer);
+        // Indexed first, so an eviction of the new entry finds it to drop
+        partitions.compute(partition, (name, indexed) -> {
+            Map<Long, Entry> map = indexed != null ? indexed : new ConcurrentHashMap<>();
+            map.put(key, entry);
+            return map;
+        });
+        entries.put(key, entry);
+    }
+
+    /**
+     * Number of answers currently indexed
+     */
+    public long size() {
+        entries.cleanUp();
+        return entries.estimatedSize();
+    }
+
+    /**
+     * Number of partitions holding indexed answers
+     */
+    int partitionCount() {
+        entries.cleanUp();
+        return partitions.size();
+    }
+
+    private void unindex(Long key, Entry entry) {
+        if (key == null || entry == null) {
+            return;
+        }
+        partitions.computeIfPresent(entry.partition(), (name, indexed) -> {
+            indexed.remove(key);
+            return indexed.isEmpty() ? null : indexed;
+        });
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        float[] normalized = new float[vector.length];
+        if (norm == 0) {
+            return normalized;
+        }
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = (float) (vector[i] / norm);
+        }
+        return normalized;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * A cached answer and the similarity of its question to the query
+     */
+    public record Hit(String answer, double score) {
+
+    }
+
+    private record Entry(String partition, float[] vector, String answer) {
+
+    }
+}
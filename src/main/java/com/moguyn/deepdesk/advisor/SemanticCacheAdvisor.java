@@ -0,0 +1,226 @@
+package com.moguyn.deepdesk.advisor;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor;
+
+import org.springframework.ai.chat.client.advisor.api.AdvisedRequest;
+import org.springframework.ai.chat.client.advisor.api.AdvisedResponse;
+import org.springframework.ai.chat.client.advisor.api.Advisor;
+import org.springframework.ai.chat.client.advisor.api.CallAroundAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAroundAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAroundAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAroundAdvisorChain;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.metadata.ChatGenerationMetadata;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.util.StringUtils;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Answers a question from the semantic cache when a previous question was
+ * close enough, without calling the model. Only the last user turn is
+ * embedded, and answers are only shared within a conversation, under the same
+ * system prompt and model options. Requests that sample, with a temperature
+ * above zero or a top_p below one, and requests that limit the reply with
+ * max_tokens or stop sequences bypass the cache. Runs ahead of the chat
+ * memory advisor, so a hit skips memory retrieval as well; the answered turn
+ * is recorded in chat memory directly.
+ */
+@Slf4j
+public class SemanticCacheAdvisor implements CallAroundAdvisor, StreamAroundAdvisor {
+
+    /**
+     * Response metadata and advise context key holding the similarity score
+     * of a cache hit
+     */
+    public static final String SCORE_KEY = "semantic_cache_score";
+
+    private final EmbeddingModel embeddingModel;
+    private final SemanticCache cache;
+    private final TieredChatMemoryAdvisor chatMemory;
+
+    /**
+     * @param chatMemory chat memory hits are recorded in, or null when chat
+     * memory is off
+     */
+    public SemanticCacheAdvisor(EmbeddingModel embeddingModel, SemanticCache cache,
+            TieredChatMemoryAdvisor chatMemory) {
+        this.embeddingModel = embeddingModel;
+        this.cache = cache;
+        this.chatMemory = chatMemory;
+    }
+
+    @Override
+    public String getName() {
+        return SemanticCacheAdvisor.class.getSimpleName();
+    }
+
+    @Override
+    public int getOrder() {
+        return Advisor.DEFAULT_CHAT_MEMORY_PRECEDENCE_ORDER - 100;
+    }
+
+    @Override
+    public AdvisedResponse aroundCall(AdvisedRequest advisedRequest, CallAroundAdvisorChain chain) {
+        String question = lastUserText(advisedRequest);
+        if (!StringUtils.hasText(question) || !isCacheable(advisedRequest.chatOptions())) {
+            return chain.nextAroundCall(advisedRequest);
+        }
+
+        String partition = partition(advisedRequest);
+        float[] embedding = embeddingModel.embed(question);
+        var hit = cache.lookup(partition, embedding);
+        if (hit.isPresent()) {
+            return cachedResponse(advisedRequest, question, hit.get());
+        }
+
+        AdvisedResponse advisedResponse = chain.nextAroundCall(advisedRequest);
+        String answer = text(advisedResponse);
+        if (StringUtils.hasText(answer)) {
+            cache.put(partition, embedding, answer);
+        }
+        return advisedResponse;
+    }
+
+    @Override
+    public Flux<AdvisedResponse> aroundStream(AdvisedRequest advisedRequest, StreamAroundAdvisorChain chain) {
+        String question = lastUserText(advisedRequest);
+        if (!StringUtils.hasText(question) || !isCacheable(advisedRequest.chatOptions())) {
+            return chain.nextAroundStream(advisedRequest);
+        }
+
+        String partition = partition(advisedRequest);
+        return Mono.fromCallable(() -> embeddingModel.embed(question))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(embedding -> cache.lookup(partition, embedding)
+                        .map(hit -> Flux.just(cachedResponse(advisedRequest, question, hit)))
+                        .orElseGet(() -> generateAndCache(advisedRequest, chain, partition, embedding)));
+    }
+
+    /**
+     * Streams the model answer and caches it once the stream completes
+     */
+    private Flux<AdvisedResponse> generateAndCache(AdvisedRequest advisedRequest, StreamAroundAdvisorChain chain,
+            String partition, float[] embedding) {
+        StringBuilder answer = new StringBuilder();
+        return chain.nextAroundStream(advisedRequest)
+                .doOnNext(response -> {
+                    String text = text(response);
+                    if (text != null) {
+                        answer.append(text);
+                    }
+                })
+                .doOnComplete(() -> {
+                    if (StringUtils.hasText(answer)) {
+                        cache.put(partition, embedding, answer.toString());
+                    }
+                });
+    }
+
+    private AdvisedResponse cachedResponse(AdvisedRequest advisedRequest, String question, SemanticCache.Hit hit) {
+        log.debug("Semantic cache hit with similarity {}", hit.score());
+        if (chatMemory != null) {
+            chatMemory.remember(advisedRequest.adviseContext(), question, hit.answer());
+        }
+        ChatResponse response = ChatResponse.builder()
+                .generations(List.of(new Generation(new AssistantMessage(hit.answer()),
+                        ChatGenerationMetadata.builder().finishReason("STOP").build())))
+                .metadata(ChatResponseMetadata.builder()
+                        .keyValue(SCORE_KEY, hit.score())
+                        .build())
+                .build();
+        Map<String, Object> context = new HashMap<>(advisedRequest.adviseContext());
+        context.put(SCORE_KEY, hit.score());
+        return new AdvisedResponse(response, context);
+    }
+
+    private static String lastUserText(AdvisedRequest advisedRequest) {
+        if (StringUtils.hasText(advisedRequest.userText())) {
+            return advisedRequest.userText();
+        }
+        List<Message> messages = advisedRequest.messages();
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i) instanceof UserMessage userMessage) {
+                return userMessage.getText();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether the reply to a request with these options can stand in for
+     * another: the request neither samples nor limits the reply
+     */
+    static boolean isCacheable(ChatOptions options) {
+        if (options == null) {
+            return true;
+        }
+        boolean sampled = (options.getTemperature() != null && options.getTemperature() > 0)
+                || (options.getTopP() != null && options.getTopP() < 1);
+        boolean limited = options.getMaxTokens() != null
+                || (options instanceof OpenAiChatOptions openAi && openAi.getMaxCompletionTokens() != null)
+                || (options.getStopSequences() != null && !options.getStopSequences().isEmpty());
+        return !sampled && !limited;
+    }
+
+    /**
+     * Answers are only reused within the same conversation, system prompt
+     * and model options, identified by their SHA-256 to keep entries small
+     */
+    static String partition(AdvisedRequest advisedRequest) {
+        Object conversationId = advisedRequest.adviseContext()
+                .get(AbstractChatMemoryAdvisor.CHAT_MEMORY_CONVERSATION_ID_KEY);
+        StringBuilder key = new StringBuilder()
+                .append(conversationId != null ? conversationId : "").append('\0')
+                .append(advisedRequest.systemText() != null ? advisedRequest.systemText() : "").append('\0');
+        for (Message message : advisedRequest.messages()) {
+            if (message.getMessageType() == MessageType.SYSTEM) {
+                key.append(message.getText()).append('\0');
+            }
+        }
+        ChatOptions options = advisedRequest.chatOptions();
+        if (options != null) {
+            key.append(options.getModel()).append('\0')
+                    .append(options.getMaxTokens()).append('\0')
+                    .append(options instanceof OpenAiChatOptions openAi ? openAi.getMaxCompletionTokens() : null)
+                    .append('\0')
+                    .append(options.getTemperature()).append('\0')
+                    .append(options.getTopP()).append('\0')
+                    .append(options.getStopSequences());
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(key.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Unable to hash semantic cache partition", e);
+        }
+    }
+
+    private static String text(AdvisedResponse advisedResponse) {
+        ChatResponse response = advisedResponse.response();
+        if (response == null || response.getResult() == null || response.getResult().getOutput() == null) {
+            return null;
+        }
+        return response.getResult().getOutput().getText();
+    }
+}
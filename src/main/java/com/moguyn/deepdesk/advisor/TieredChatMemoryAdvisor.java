@@ -0,0 +1,273 @@
+package com.moguyn.deepdesk.advisor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor;
+import org.springframework.ai.chat.client.advisor.api.AdvisedRequest;
+import org.springframework.ai.chat.client.advisor.api.AdvisedResponse;
+import org.springframework.ai.chat.client.advisor.api.Advisor;
+import org.springframework.ai.chat.client.advisor.api.CallAroundAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAroundAdvisorChain;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.model.MessageAggregator;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.util.StringUtils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+
+/**
+ * Chat memory with a hot and a cold tier. The recent turns of a conversation
+ * come from the in-process hot tier and are added to the system text, leaving
+ * out the turns the request already carries. The vector store is the cold
+ * tier and is only searched for long-range recall: when the conversation is
+ * not held in the hot tier, or once a full window of turns has dropped out of
+ * it since the last search; in between, the last recall is reused. Every turn
+ * is recorded in both tiers, in the same documents as the vector store chat
+ * memory advisor writes; writes to the vector store go through the
+ * write-behind queue.
+ */
+@Slf4j
+public class TieredChatMemoryAdvisor extends AbstractChatMemoryAdvisor<VectorStore> {
+
+    /**
+     * Advise context key that, set to false, lets a request read the memory
+     * of its conversation without recording its turn, as for the extra
+     * choices generated for the same question
+     */
+    public static final String CHAT_MEMORY_RECORD_KEY = "chat_memory_record";
+
+    static final String DOCUMENT_METADATA_CONVERSATION_ID = "conversationId";
+    static final String DOCUMENT_METADATA_MESSAGE_TYPE = "messageType";
+
+    private static final String LONG_TERM_MEMORY_ADVISE = """
+
+            Use the long term conversation memory from the LONG_TERM_MEMORY section to provide accurate answers.
+
+            ---------------------
+            LONG_TERM_MEMORY:
+            {long_term_memory}
+            ---------------------
+            """;
+
+    private static final String RECENT_CONVERSATION_ADVISE = """
+
+            Use the recent turns of the conversation from the RECENT_CONVERSATION section to follow up on them.
+
+            ---------------------
+            RECENT_CONVERSATION:
+            {recent_conversation}
+            ---------------------
+            """;
+
+    private final HotChatMemory hotMemory;
+    private final MemoryWriteBehind coldWriter;
+    private final Counter hotRecalls;
+    private final Counter coldRecalls;
+
+    public TieredChatMemoryAdvisor(VectorStore vectorStore, HotChatMemory hotMemory, MemoryWriteBehind coldWriter,
+            int chatMemoryRetrieveSize, MeterRegistry meterRegistry) {
+        super(vectorStore, DEFAULT_CHAT_MEMORY_CONVERSATION_ID, chatMemoryRetrieveSize, true,
+                Advisor.DEFAULT_CHAT_MEMORY_PRECEDENCE_ORDER);
+        this.hotMemory = hotMemory;
+        this.coldWriter = coldWriter;
+        this.hotRecalls = recalls(meterRegistry, "hot");
+        this.coldRecalls = recalls(meterRegistry, "cold");
+    }
+
+    @Override
+    public AdvisedResponse aroundCall(AdvisedRequest advisedRequest, CallAroundAdvisorChain chain) {
+        AdvisedResponse advisedResponse = chain.nextAroundCall(before(advisedRequest));
+        after(advisedResponse);
+        return advisedResponse;
+    }
+
+    @Override
+    public Flux<AdvisedResponse> aroundStream(AdvisedRequest advisedRequest, StreamAroundAdvisorChain chain) {
+        Flux<AdvisedResponse> advisedResponses = doNextWithProtectFromBlockingBefore(advisedRequest, chain,
+                this::before);
+        return new MessageAggregator().aggregateAdvisedResponse(advisedResponses, this::after);
+    }
+
+    private AdvisedRequest before(AdvisedRequest advisedRequest) {
+        String conversationId = doGetConversationId(advisedRequest.adviseContext());
+        HotChatMemory.History history = hotMemory.get(conversationId);
+        String userText = lastUserText(advisedRequest);
+
+        List<Message> recentTurns = List.of();
+        String longTermMemory = null;
+        if (history != null) {
+            hotRecalls.increment();
+            recentTurns = notCarried(history.messages(), advisedRequest.messages());
+            longTermMemory = history.recalled();
+        }
+        if ((history == null || history.recallDue()) && StringUtils.hasText(userText)) {
+            coldRecalls.increment();
+            log.debug("Recalling conversation {} from the vector store", conversationId);
+            longTermMemory = recall(advisedRequest, userText, conversationId);
+            hotMemory.recalled(conversationId, longTermMemory);
+        }
+
+        AdvisedRequest advised = withMemory(advisedRequest, recentTurns, longTermMemory);
+        if (StringUtils.hasText(userText) && isRecording(advisedRequest.adviseContext())) {
+            remember(conversationId, List.of(new UserMessage(userText)));
+        }
+        return advised;
+    }
+
+    private void after(AdvisedResponse advisedResponse) {
+        if (advisedResponse.response() == null || !isRecording(advisedResponse.adviseContext())) {
+            return;
+        }
+        List<Message> replies = advisedResponse.response().getResults().stream()
+                .map(Generation::getOutput)
+                .filter(message -> StringUtils.hasText(message.getText()))
+                .map(Message.class::cast)
+                .toList();
+        remember(doGetConversationId(advisedResponse.adviseContext()), replies);
+    }
+
+    /**
+     * Finds the most similar earlier messages of the conversation
+     */
+    private String recall(AdvisedRequest advisedRequest, String query, String conversationId) {
+        SearchRequest searchRequest = SearchRequest.builder()
+                .query(query)
+                .topK(doGetChatMemoryRetrieveSize(advisedRequest.adviseContext()))
+                // Built as an expression, so a quote in the conversation id cannot widen the filter
+                .filterExpression(new FilterExpressionBuilder().eq(DOCUMENT_METADATA_CONVERSATION_ID, conversationId)
+                        .build())
+                .build();
+        List<Document> documents = getChatMemoryStore().similaritySearch(searchRequest);
+        return documents == null ? "" : documents.stream()
+                .map(Document::getText)
+                .collect(Collectors.joining(System.lineSeparator()));
+    }
+
+    /**
+     * Adds the recent turns and the long-term memory to the system text,
+     * leaving the messages of the request as they are
+     */
+    private static AdvisedRequest withMemory(AdvisedRequest advisedRequest, List<Message> recentTurns,
+            String longTermMemory) {
+        StringBuilder advise = new StringBuilder();
+        Map<String, Object> systemParams = new HashMap<>(advisedRequest.systemParams());
+        if (StringUtils.hasText(longTermMemory)) {
+            advise.append(LONG_TERM_MEMORY_ADVISE);
+            systemParams.put("long_term_memory", longTermMemory);
+        }
+        if (!recentTurns.isEmpty()) {
+            advise.append(RECENT_CONVERSATION_ADVISE);
+            systemParams.put("recent_conversation", recentTurns.stream()
+                    .map(message -> message.getMessageType().getValue() + ": " + message.getText())
+                    .collect(Collectors.joining(System.lineSeparator())));
+        }
+        if (advise.isEmpty()) {
+            return advisedRequest;
+        }
+        String systemText = StringUtils.hasText(advisedRequest.systemText())
+                ? advisedRequest.systemText() + System.lineSeparator() + advise
+                : advise.toString();
+        return AdvisedRequest.from(advisedRequest).systemText(systemText).systemParams(systemParams).build();
+    }
+
+    /**
+     * Turns of the hot tier that are not among the messages of the request,
+     * as clients that keep the history themselves send it along
+     */
+    private static List<Message> notCarried(List<Message> turns, List<Message> carried) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Message message : carried) {
+            counts.merge(key(message), 1, Integer::sum);
+        }
+        List<Message> missing = new ArrayList<>();
+        for (Message turn : turns) {
+            String key = key(turn);
+            Integer count = counts.get(key);
+            if (count == null) {
+                missing.add(turn);
+            } else if (count == 1) {
+                counts.remove(key);
+            } else {
+                counts.put(key, count - 1);
+            }
+        }
+        return missing;
+    }
+
+    private static String key(Message message) {
+        return message.getMessageType().getValue() + ":" + message.getText();
+    }
+
+    /**
+     * Records a turn that was answered without reaching this advisor, such
+     * as a semantic cache hit, in the conversation of the advise context
+     */
+    public void remember(Map<String, Object> adviseContext, String question, String answer) {
+        if (!isRecording(adviseContext)) {
+            return;
+        }
+        remember(doGetConversationId(adviseContext), List.of(new UserMessage(question), new AssistantMessage(answer)));
+    }
+
+    /**
+     * Records messages of a conversation in both tiers
+     */
+    private void remember(String conversationId, List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        hotMemory.append(conversationId, messages);
+        coldWriter.write(toDocuments(messages, conversationId));
+    }
+
+    private static boolean isRecording(Map<String, Object> adviseContext) {
+        return !Boolean.FALSE.equals(adviseContext.get(CHAT_MEMORY_RECORD_KEY));
+    }
+
+    private static List<Document> toDocuments(List<Message> messages, String conversationId) {
+        return messages.stream()
+                .filter(message -> message.getMessageType() == MessageType.USER
+                || message.getMessageType() == MessageType.ASSISTANT)
+                .map(message -> {
+                    Map<String, Object> metadata = new HashMap<>(message.getMetadata());
+                    metadata.put(DOCUMENT_METADATA_CONVERSATION_ID, conversationId);
+                    metadata.put(DOCUMENT_METADATA_MESSAGE_TYPE, message.getMessageType().name());
+                    return Document.builder().text(message.getText()).metadata(metadata).build();
+                })
+                .toList();
+    }
+
+    private static String lastUserText(AdvisedRequest advisedRequest) {
+        if (StringUtils.hasText(advisedRequest.userText())) {
+            return advisedRequest.userText();
+        }
+        List<Message> messages = advisedRequest.messages();
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i) instanceof UserMessage userMessage) {
+                return userMessage.getText();
+            }
+        }
+        return null;
+    }
+
+    private static Counter recalls(MeterRegistry meterRegistry, String tier) {
+        return Counter.builder("deepdesk.memory.recall")
+                .description("Chat memory recalls per tier")
+                .tag("tier", tier)
+                .register(meterRegistry);
+    }
+}
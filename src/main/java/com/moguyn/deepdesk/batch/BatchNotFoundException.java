@@ -0,0 +1,11 @@
+package com.moguyn.deepdesk.batch;
+
+/**
+ * Thrown when a batch id does not exist
+ */
+public class BatchNotFoundException extends RuntimeException {
+
+    public BatchNotFoundException(String id) {
+        super("No batch found with id " + id);
+    }
+}
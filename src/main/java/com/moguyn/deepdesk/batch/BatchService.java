@@ -0,0 +1,507 @@
+package com.moguyn.deepdesk.batch;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moguyn.deepdesk.chat.AdmissionControl;
+import com.moguyn.deepdesk.chat.CompletionLimiter;
+import com.moguyn.deepdesk.chat.OpenAiService;
+import com.moguyn.deepdesk.chat.RateLimitExceededException;
+import com.moguyn.deepdesk.chat.RateLimiter;
+import com.moguyn.deepdesk.openai.model.Batch;
+import com.moguyn.deepdesk.openai.model.BatchRequest;
+import com.moguyn.deepdesk.openai.model.BatchResult;
+import com.moguyn.deepdesk.openai.model.ChatCompletionRequest;
+import com.moguyn.deepdesk.openai.model.ChatCompletionResponse;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs offline batches of chat completions. Requests of all batches share a
+ * fixed number of worker slots with interactive traffic: a batch only
+ * dispatches its next request while more slots are free than interactive
+ * requests are in flight, nobody waits for admission or for a completion
+ * permit, and the admission control grants a permit without queueing. Each
+ * request is charged to the rate limit of its user, so a large batch soaks
+ * up idle capacity without starving chat clients or bypassing the per-user
+ * limits. Failed requests are retried with exponential backoff before they
+ * go to the error file. Progress is checkpointed to disk and batches that
+ * were in progress when the server stopped resume on startup.
+ */
+@Slf4j
+public class BatchService {
+
+    static final String ENDPOINT = "/v1/chat/completions";
+
+    /**
+     * How long the dispatcher backs off while interactive traffic is waiting
+     */
+    static final Duration YIELD_INTERVAL = Duration.ofMillis(50);
+
+    /**
+     * Minimum time between two checkpoints of a running batch
+     */
+    static final Duration CHECKPOINT_INTERVAL = Duration.ofSeconds(1);
+
+    private final BatchStore store;
+    private final OpenAiService openAiService;
+    private final AdmissionControl admissionControl;
+    private final CompletionLimiter completionLimiter;
+    private final RateLimiter rateLimiter;
+    private final ObjectMapper objectMapper;
+    private final Semaphore slots;
+    private final int maxAttempts;
+    private final Duration retryBackoff;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, Run> runs = new ConcurrentHashMap<>();
+
+    private final Counter succeeded;
+    private final Counter failed;
+    private final Counter retries;
+    private final Counter tokens;
+
+    public BatchService(BatchStore store, OpenAiService openAiService, AdmissionControl admissionControl,
+            CompletionLimiter completionLimiter, RateLimiter rateLimiter, ObjectMapper objectMapper,
+            int maxConcurrency, int maxAttempts, Duration retryBackoff, MeterRegistry meterRegistry) {
+        this.store = store;
+        this.openAiService = openAiService;
+        this.admissionControl = admissionControl;
+        this.completionLimiter = completionLimiter;
+        this.rateLimiter = rateLimiter;
+        this.objectMapper = objectMapper;
+        this.slots = new Semaphore(Math.max(1, maxConcurrency));
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryBackoff = retryBackoff != null ? retryBackoff : Duration.ZERO;
+
+        this.succeeded = requests(meterRegistry, "succeeded");
+        this.failed = requests(meterRegistry, "failed");
+        this.retries = Counter.builder("deepdesk.batch.retries")
+                .description("Batch requests retried after a failure")
+                .register(meterRegistry);
+        this.tokens = Counter.builder("deepdesk.batch.tokens")
+                .description("Tokens used by batch requests")
+                .register(meterRegistry);
+        meterRegistry.gauge("deepdesk.batch.active", runs, Map::size);
+    }
+
+    /**
+     * Validates a JSONL input file and starts processing it. Each line is
+     * either a request envelope with a custom_id and a body, or a bare chat
+     * completion request.
+     */
+    public Batch create(String input, Map<String, String> metadata) {
+        List<BatchRequest> requests = parse(input);
+        Batch batch = Batch.builder()
+                .id("batch_" + UUID.randomUUID().toString().replace("-", ""))
+                .object("batch")
+                .endpoint(ENDPOINT)
+                .status(Batch.VALIDATING)
+                .createdAt(Instant.now().getEpochSecond())
+                .requestCounts(new Batch.RequestCounts(requests.size(), 0, 0))
+                .metadata(metadata)
+                .build();
+        store.create(batch, requests);
+        start(batch, requests);
+        return snapshot(batch.getId());
+    }
+
+    public Batch get(String id) {
+        return snapshot(id);
+    }
+
+    public List<Batch> list() {
+        return store.list().stream()
+                .map(batch -> runs.containsKey(batch.getId()) ? snapshot(batch.getId()) : batch)
+                .toList();
+    }
+
+    /**
+     * Stops dispatching new requests. Requests already running finish and
+     * keep their results.
+     */
+    public Batch cancel(String id) {
+        Run run = runs.get(id);
+        if (run != null) {
+            synchronized (run) {
+                run.cancelled = true;
+                run.batch.setStatus(Batch.CANCELLING);
+            }
+            return snapshot(id);
+        }
+        Batch batch = load(id);
+        if (Batch.IN_PROGRESS.equals(batch.getStatus()) || Batch.VALIDATING.equals(batch.getStatus())
+                || Batch.CANCELLING.equals(batch.getStatus())) {
+            batch.setStatus(Batch.CANCELLED);
+            batch.setCancelledAt(Instant.now().getEpochSecond());
+            store.save(batch);
+        }
+        return batch;
+    }
+
+    /**
+     * Picks up batches left in progress by a previous run
+     */
+    public void resume() {
+        for (Batch batch : store.list()) {
+            if (Batch.CANCELLING.equals(batch.getStatus())) {
+                batch.setStatus(Batch.CANCELLED);
+                batch.setCancelledAt(Instant.now().getEpochSecond());
+                store.save(batch);
+            } else if (Batch.IN_PROGRESS.equals(batch.getStatus()) || Batch.VALIDATING.equals(batch.getStatus())) {
+                log.info("Resuming batch {}", batch.getId());
+                start(batch, store.readInput(batch.getId()));
+            }
+        }
+    }
+
+    /**
+     * Stops all batches and checkpoints their progress. They resume on the
+     * next startup.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        for (Run run : runs.values()) {
+            synchronized (run) {
+                store.save(run.batch);
+            }
+        }
+    }
+
+    /**
+     * Waits until a batch is no longer running
+     */
+    boolean awaitTermination(String id, Duration timeout) throws InterruptedException {
+        Run run = runs.get(id);
+        if (run == null) {
+            return true;
+        }
+        try {
+            run.done.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            return run.done.isDone();
+        }
+    }
+
+    private void start(Batch batch, List<BatchRequest> requests) {
+        Set<String> succeededIds = store.outputIds(batch.getId());
+        Set<String> failedIds = store.errorIds(batch.getId());
+        List<BatchRequest> pending = requests.stream()
+                .filter(request -> !succeededIds.contains(request.customId())
+                        && !failedIds.contains(request.customId()))
+                .toList();
+        // The files are the source of truth, the saved counts may lag a checkpoint behind
+        batch.setRequestCounts(new Batch.RequestCounts(requests.size(), succeededIds.size(), failedIds.size()));
+        batch.setStatus(Batch.IN_PROGRESS);
+        if (batch.getInProgressAt() == null) {
+            batch.setInProgressAt(Instant.now().getEpochSecond());
+        }
+        batch.setOutputFileId(batch.getId() + "-output");
+        batch.setErrorFileId(batch.getId() + "-errors");
+        store.save(batch);
+
+        Run run = new Run(batch);
+        runs.put(batch.getId(), run);
+        executor.execute(() -> {
+            try {
+                dispatch(run, pending);
+            } finally {
+                runs.remove(batch.getId());
+                run.done.complete(null);
+            }
+        });
+    }
+
+    private void dispatch(Run run, List<BatchRequest> pending) {
+        List<CompletableFuture<Void>> inFlight = new ArrayList<>();
+        try {
+            for (BatchRequest request : pending) {
+                if (run.cancelled) {
+                    break;
+                }
+                RateLimiter.Grant grant = awaitBudget(run, request);
+                if (grant == null) {
+                    break;
+                }
+                AdmissionControl.Permit permit = awaitIdleCapacity(request);
+                slots.acquire();
+                try {
+                    inFlight.add(CompletableFuture.runAsync(() -> {
+                        try {
+                            process(run, request, grant);
+                        } finally {
+                            permit.release();
+                            slots.release();
+                        }
+                    }, executor));
+                } catch (RuntimeException e) {
+                    permit.release();
+                    slots.release();
+                    throw e;
+                }
+            }
+            CompletableFuture.allOf(inFlight.toArray(CompletableFuture[]::new)).join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (RuntimeException e) {
+            if (executor.isShutdown()) {
+                return;
+            }
+            log.error("Batch {} stopped unexpectedly", run.batch.getId(), e);
+        }
+        finish(run);
+    }
+
+    /**
+     * Charges a request to its user's rate limit, waiting out rejections.
+     * Returns null when the batch is cancelled meanwhile.
+     */
+    private RateLimiter.Grant awaitBudget(Run run, BatchRequest request) throws InterruptedException {
+        while (!run.cancelled) {
+            try {
+                return rateLimiter.acquire(request.body());
+            } catch (RateLimitExceededException e) {
+                Thread.sleep(Math.max(e.getRetryAfter().toMillis(), YIELD_INTERVAL.toMillis()));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Backs off until a slot is left over by interactive requests, nobody is
+     * queued for admission or waiting for a completion permit, and the
+     * request's user is admitted
+     */
+    private AdmissionControl.Permit awaitIdleCapacity(BatchRequest request) throws InterruptedException {
+        while (true) {
+            if (admissionControl.queueDepth() == 0 && completionLimiter.availablePermits() > 0
+                    && admissionControl.inFlight() < slots.availablePermits()) {
+                AdmissionControl.Permit permit = admissionControl.tryAdmit(request.body().getUser());
+                if (permit != null) {
+                    return permit;
+                }
+            }
+            Thread.sleep(YIELD_INTERVAL);
+        }
+    }
+
+    private void process(Run run, BatchRequest request, RateLimiter.Grant grant) {
+        String resultId = "batch_req_" + UUID.randomUUID().toString().replace("-", "");
+        RuntimeException failure = null;
+        for (int attempt = 1; attempt <= maxAttempts && !run.cancelled; attempt++) {
+            try {
+                ChatCompletionResponse response = openAiService.processChat(request.body());
+                grant.complete(response);
+                long used = response.getUsage() != null && response.getUsage().totalTokens() != null
+                        ? response.getUsage().totalTokens() : 0;
+                store.appendOutput(run.batch.getId(), new BatchResult(resultId, request.customId(),
+                        new BatchResult.Response(200, response), null));
+                succeeded.increment();
+                tokens.increment(used);
+                run.record(true, used);
+                checkpoint(run, false);
+                return;
+            } catch (IllegalArgumentException e) {
+                failure = e;
+                break;
+            } catch (RuntimeException e) {
+                failure = e;
+                if (attempt < maxAttempts && !backoff(attempt)) {
+                    grant.reconcile(0);
+                    return;
+                }
+                if (attempt < maxAttempts) {
+                    retries.increment();
+                    log.debug("Retrying request {} of batch {}", request.customId(), run.batch.getId(), e);
+                }
+            }
+        }
+        // Nothing was generated, so nothing stays charged
+        grant.reconcile(0);
+        if (failure == null || executor.isShutdown()) {
+            // Cancelled or shutting down, the request has no result yet
+            return;
+        }
+        String code = failure instanceof IllegalArgumentException ? "invalid_request" : "server_error";
+        store.appendError(run.batch.getId(), new BatchResult(resultId, request.customId(), null,
+                new BatchResult.Error(code, String.valueOf(failure.getMessage()))));
+        failed.increment();
+        run.record(false, 0);
+        checkpoint(run, false);
+    }
+
+    private boolean backoff(int attempt) {
+        long delay = retryBackoff.toMillis() << Math.min(attempt - 1, 16);
+        try {
+            Thread.sleep(delay);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void finish(Run run) {
+        synchronized (run) {
+            long now = Instant.now().getEpochSecond();
+            if (run.cancelled) {
+                run.batch.setStatus(Batch.CANCELLED);
+                run.batch.setCancelledAt(now);
+            } else {
+                run.batch.setStatus(Batch.COMPLETED);
+                run.batch.setCompletedAt(now);
+            }
+        }
+        checkpoint(run, true);
+        Batch.Throughput throughput = run.batch.getThroughput();
+        log.info("Batch {} {}: {} requests/s, {} tokens/s", run.batch.getId(), run.batch.getStatus(),
+                throughput.requestsPerSecond(), throughput.tokensPerSecond());
+    }
+
+    private void checkpoint(Run run, boolean force) {
+        synchronized (run) {
+            long now = System.nanoTime();
+            run.batch.setThroughput(run.throughput(now));
+            if (force || now - run.lastCheckpoint >= CHECKPOINT_INTERVAL.toNanos()) {
+                run.lastCheckpoint = now;
+                store.save(run.batch);
+            }
+        }
+    }
+
+    private Batch snapshot(String id) {
+        Run run = runs.get(id);
+        if (run == null) {
+            return load(id);
+        }
+        synchronized (run) {
+            Batch batch = run.batch;
+            return batch.toBuilder()
+                    .throughput(run.throughput(System.nanoTime()))
+                    .build();
+        }
+    }
+
+    private Batch load(String id) {
+        return store.load(id).orElseThrow(() -> new BatchNotFoundException(id));
+    }
+
+    List<BatchRequest> parse(String input) {
+        if (input == null || input.isBlank()) {
+            throw new InvalidBatchException("Batch input file is empty");
+        }
+        List<BatchRequest> requests = new ArrayList<>();
+        Set<String> customIds = new HashSet<>();
+        String[] lines = input.split("\r?\n");
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i].isBlank()) {
+                continue;
+            }
+            BatchRequest request = parseLine(lines[i], i + 1, requests.size() + 1);
+            if (!customIds.add(request.customId())) {
+                throw new InvalidBatchException("Duplicate custom_id '" + request.customId() + "' on line " + (i + 1));
+            }
+            requests.add(request);
+        }
+        if (requests.isEmpty()) {
+            throw new InvalidBatchException("Batch input file is empty");
+        }
+        return requests;
+    }
+
+    private BatchRequest parseLine(String line, int lineNumber, int index) {
+        try {
+            JsonNode node = objectMapper.readTree(line);
+            if (!node.isObject()) {
+                throw new InvalidBatchException("Line " + lineNumber + " is not a JSON object");
+            }
+            BatchRequest request = node.has("body")
+                    ? objectMapper.treeToValue(node, BatchRequest.class)
+                    : new BatchRequest(null, null, null, objectMapper.treeToValue(node, ChatCompletionRequest.class));
+            if (request.url() != null && !request.url().endsWith("/chat/completions")) {
+                throw new InvalidBatchException("Unsupported url '" + request.url() + "' on line " + lineNumber);
+            }
+            ChatCompletionRequest body = request.body();
+            if (body == null || body.getMessages() == null || body.getMessages().isEmpty()) {
+                throw new InvalidBatchException("Request on line " + lineNumber + " has no messages");
+            }
+            body.setStream(false);
+            body.setStreamOptions(null);
+            String customId = request.customId() != null ? request.customId() : "request-" + index;
+            return new BatchRequest(customId, "POST", ENDPOINT, body);
+        } catch (JsonProcessingException e) {
+            throw new InvalidBatchException("Line " + lineNumber + " is not valid JSON: " + e.getOriginalMessage());
+        }
+    }
+
+    private static Counter requests(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("deepdesk.batch.requests")
+                .description("Batch requests processed")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Mutable progress of a running batch, guarded by its own monitor
+     */
+    private static final class Run {
+
+        private final Batch batch;
+        private final long startedAt = System.nanoTime();
+        private final long tokensBefore;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final AtomicInteger processed = new AtomicInteger();
+        private final AtomicLong runTokens = new AtomicLong();
+        private volatile boolean cancelled;
+        private long lastCheckpoint = startedAt;
+
+        private Run(Batch batch) {
+            this.batch = batch;
+            this.tokensBefore = batch.getThroughput() != null ? batch.getThroughput().totalTokens() : 0;
+        }
+
+        private synchronized void record(boolean success, long used) {
+            Batch.RequestCounts counts = batch.getRequestCounts();
+            batch.setRequestCounts(new Batch.RequestCounts(counts.total(),
+                    counts.completed() + (success ? 1 : 0), counts.failed() + (success ? 0 : 1)));
+            processed.incrementAndGet();
+            runTokens.addAndGet(used);
+        }
+
+        /**
+         * Rates over this run only, so time spent before a restart does not
+         * dilute them
+         */
+        private Batch.Throughput throughput(long now) {
+            double seconds = Math.max(now - startedAt, 1) / 1e9;
+            return new Batch.Throughput(round(processed.get() / seconds), round(runTokens.get() / seconds),
+                    tokensBefore + runTokens.get());
+        }
+
+        private static double round(double rate) {
+            return Math.round(rate * 100) / 100.0;
+        }
+    }
+}
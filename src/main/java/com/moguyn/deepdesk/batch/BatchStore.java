@@ -0,0 +1,201 @@
+package com.moguyn.deepdesk.batch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moguyn.deepdesk.openai.model.Batch;
+import com.moguyn.deepdesk.openai.model.BatchRequest;
+import com.moguyn.deepdesk.openai.model.BatchResult;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps batches on local disk, one directory per batch holding the batch
+ * object, the input file and the output and error files. Results are
+ * appended a line at a time, so the output and error files double as the
+ * checkpoint: a resumed batch skips every custom id already written.
+ * Workers append concurrently, so appends to one file are serialized and
+ * each line is written whole.
+ */
+@Slf4j
+public class BatchStore {
+
+    static final String BATCH_FILE = "batch.json";
+    static final String INPUT_FILE = "input.jsonl";
+    static final String OUTPUT_FILE = "output.jsonl";
+    static final String ERROR_FILE = "errors.jsonl";
+
+    private final Path root;
+    private final ObjectMapper objectMapper;
+    private final Map<Path, Object> appendLocks = new ConcurrentHashMap<>();
+
+    public BatchStore(Path root, ObjectMapper objectMapper) {
+        this.root = root;
+        this.objectMapper = objectMapper;
+    }
+
+    public void create(Batch batch, List<BatchRequest> requests) {
+        Path dir = root.resolve(batch.getId());
+        try {
+            Files.createDirectories(dir);
+            List<String> lines = new ArrayList<>(requests.size());
+            for (BatchRequest request : requests) {
+                lines.add(objectMapper.writeValueAsString(request));
+            }
+            Files.write(dir.resolve(INPUT_FILE), lines, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create batch " + batch.getId(), e);
+        }
+        save(batch);
+    }
+
+    /**
+     * Writes the batch object through a temporary file, so a crash never
+     * leaves a half-written one behind
+     */
+    public void save(Batch batch) {
+        Path dir = root.resolve(batch.getId());
+        Path tmp = dir.resolve(BATCH_FILE + ".tmp");
+        try {
+            Files.write(tmp, objectMapper.writeValueAsBytes(batch));
+            Files.move(tmp, dir.resolve(BATCH_FILE), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to save batch " + batch.getId(), e);
+        }
+    }
+
+    public Optional<Batch> load(String id) {
+        if (!isValidId(id)) {
+            return Optional.empty();
+        }
+        Path file = root.resolve(id).resolve(BATCH_FILE);
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(objectMapper.readValue(file.toFile(), Batch.class));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read batch " + id, e);
+        }
+    }
+
+    /**
+     * All stored batches, newest first
+     */
+    public List<Batch> list() {
+        if (!Files.isDirectory(root)) {
+            return List.of();
+        }
+        try (Stream<Path> dirs = Files.list(root)) {
+            return dirs.map(dir -> load(dir.getFileName().toString()))
+                    .flatMap(Optional::stream)
+                    .sorted(Comparator.comparing(Batch::getCreatedAt, Comparator.nullsLast(Comparator.reverseOrder())))
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to list batches", e);
+        }
+    }
+
+    public List<BatchRequest> readInput(String id) {
+        List<BatchRequest> requests = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(root.resolve(id).resolve(INPUT_FILE))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                requests.add(objectMapper.readValue(line, BatchRequest.class));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read input of batch " + id, e);
+        }
+        return requests;
+    }
+
+    /**
+     * Custom ids written to the output file. A line torn by a crash is
+     * ignored, so its request simply runs again.
+     */
+    public Set<String> outputIds(String id) {
+        return resultIds(outputFile(id));
+    }
+
+    /**
+     * Custom ids written to the error file
+     */
+    public Set<String> errorIds(String id) {
+        return resultIds(errorFile(id));
+    }
+
+    public void appendOutput(String id, BatchResult result) {
+        append(outputFile(id), result);
+    }
+
+    public void appendError(String id, BatchResult result) {
+        append(errorFile(id), result);
+    }
+
+    public Path outputFile(String id) {
+        return root.resolve(id).resolve(OUTPUT_FILE);
+    }
+
+    public Path errorFile(String id) {
+        return root.resolve(id).resolve(ERROR_FILE);
+    }
+
+    /**
+     * Batch ids become directory names, so only ids this store could have
+     * generated are accepted
+     */
+    static boolean isValidId(String id) {
+        return id != null && id.matches("batch_[0-9a-f]{32}");
+    }
+
+    private void append(Path file, BatchResult result) {
+        try {
+            byte[] line = (objectMapper.writeValueAsString(result) + "\n").getBytes(StandardCharsets.UTF_8);
+            // Files.write hands large lines to the file in pieces, which
+            // concurrent appends would interleave
+            synchronized (appendLocks.computeIfAbsent(file, key -> new Object())) {
+                Files.write(file, line, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write result to " + file, e);
+        }
+    }
+
+    private Set<String> resultIds(Path file) {
+        Set<String> ids = new HashSet<>();
+        if (!Files.exists(file)) {
+            return ids;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    ids.add(objectMapper.readValue(line, BatchResult.class).customId());
+                } catch (JsonProcessingException e) {
+                    log.warn("Skipping unreadable result line in {}", file);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + file, e);
+        }
+        return ids;
+    }
+}
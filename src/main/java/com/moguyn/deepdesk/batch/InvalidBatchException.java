@@ -0,0 +1,11 @@
+package com.moguyn.deepdesk.batch;
+
+/**
+ * Thrown when a batch input file cannot be accepted
+ */
+public class InvalidBatchException extends RuntimeException {
+
+    public InvalidBatchException(String message) {
+        super(message);
+    }
+}
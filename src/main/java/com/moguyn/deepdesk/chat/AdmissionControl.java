@@ -0,0 +1,294 @@
+package com.moguyn.deepdesk.chat;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+
+/**
+ * Admits chat requests against a global and a per-user concurrency limit.
+ * Per-user permits are counted in a concurrent map and never wait; a user's
+ * count is dropped once they hold no permits, so idle users cost nothing.
+ * Global permits are a semaphore. Requests over the global limit wait in a
+ * bounded FIFO queue until a permit frees up or the queue timeout passes, and
+ * are rejected right away once the queue is full. No lock is shared across
+ * requests: a freed permit goes back to the semaphore and is then handed to
+ * the head of the queue, so a request arriving in between may take it ahead
+ * of the queue. Limits of zero or less are disabled.
+ * Background work is admitted without waiting and only when no interactive
+ * request is queued, and is not counted as in flight.
+ */
+@Slf4j
+public class AdmissionControl {
+
+    private final int maxConcurrentPerUser;
+    private final int maxQueued;
+    private final Duration queueTimeout;
+    private final boolean globallyLimited;
+
+    private final Semaphore available;
+    private final ConcurrentLinkedDeque<Waiter> queue = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Map<String, Integer> userPermits = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final Timer waitTimer;
+    private final Counter queueFullRejections;
+    private final Counter timeoutRejections;
+    private final Counter userLimitRejections;
+
+    public AdmissionControl(int maxConcurrent, int maxConcurrentPerUser, int maxQueued, Duration queueTimeout,
+            MeterRegistry meterRegistry) {
+        this.globallyLimited = maxConcurrent > 0;
+        this.available = new Semaphore(Math.max(0, maxConcurrent));
+        this.maxConcurrentPerUser = maxConcurrentPerUser;
+        this.maxQueued = Math.max(0, maxQueued);
+        this.queueTimeout = queueTimeout;
+
+        this.waitTimer = Timer.builder("deepdesk.admission.wait")
+                .description("Time requests spent waiting for admission")
+                .register(meterRegistry);
+        this.queueFullRejections = rejections(meterRegistry, "queue_full");
+        this.timeoutRejections = rejections(meterRegistry, "timeout");
+        this.userLimitRejections = rejections(meterRegistry, "user_limit");
+        meterRegistry.gauge("deepdesk.admission.queue.depth", this, AdmissionControl::queueDepth);
+    }
+
+    /**
+     * Requests a permit. The returned future fails with
+     * {@link AdmissionRejectedException} when the request is not admitted.
+     * Cancelling the future gives up the place in the queue.
+     */
+    public CompletableFuture<Permit> admit(String user) {
+        if (!acquireUserPermit(user)) {
+            userLimitRejections.increment();
+            return CompletableFuture.failedFuture(
+                    new AdmissionRejectedException("Too many concurrent requests for this user", retryAfter()));
+        }
+        if (!globallyLimited) {
+            return CompletableFuture.completedFuture(new Permit(user, false, true));
+        }
+
+        if (queue.isEmpty() && available.tryAcquire()) {
+            waitTimer.record(Duration.ZERO);
+            return CompletableFuture.completedFuture(new Permit(user, true, true));
+        }
+        if (queued.getAndUpdate(depth -> depth < maxQueued ? depth + 1 : depth) >= maxQueued) {
+            releaseUserPermit(user);
+            queueFullRejections.increment();
+            return CompletableFuture.failedFuture(
+                    new AdmissionRejectedException("Server is busy, too many queued requests", retryAfter()));
+        }
+        Waiter waiter = new Waiter(user, System.nanoTime(), new CompletableFuture<>());
+        queue.addLast(waiter);
+        // A permit freed before the waiter was queued is handed out here
+        dispatch();
+
+        log.debug("Request queued for admission, queue depth {}", queueDepth());
+        CompletableFuture.delayedExecutor(queueTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .execute(() -> abandon(waiter,
+                        new AdmissionRejectedException("Timed out waiting for admission", retryAfter())));
+        waiter.future().whenComplete((permit, error) -> {
+            if (error instanceof CancellationException) {
+                abandon(waiter, null);
+            }
+        });
+        return waiter.future();
+    }
+
+    /**
+     * Blocks until admitted
+     */
+    public Permit acquire(String user) {
+        CompletableFuture<Permit> permit = admit(user);
+        try {
+            return permit.get();
+        } catch (InterruptedException e) {
+            permit.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for admission", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Admits on subscription without blocking. Cancelling the subscription
+     * gives up the place in the queue.
+     */
+    public Mono<Permit> mono(String user) {
+        return Mono.fromFuture(() -> admit(user), false);
+    }
+
+    /**
+     * Admits background work, such as batch requests, without waiting.
+     * Returns null unless the user is under their limit, a global permit is
+     * free and no interactive request is queued for one.
+     */
+    public Permit tryAdmit(String user) {
+        if (!acquireUserPermit(user)) {
+            return null;
+        }
+        if (!globallyLimited) {
+            return new Permit(user, false, false);
+        }
+        if (queue.isEmpty() && available.tryAcquire()) {
+            return new Permit(user, true, false);
+        }
+        releaseUserPermit(user);
+        return null;
+    }
+
+    /**
+     * Number of interactive requests admitted and not yet released
+     */
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Number of requests waiting for a global permit
+     */
+    public int queueDepth() {
+        return queued.get();
+    }
+
+    private void abandon(Waiter waiter, AdmissionRejectedException rejection) {
+        if (!queue.remove(waiter)) {
+            return;
+        }
+        queued.decrementAndGet();
+        releaseUserPermit(waiter.user());
+        if (rejection != null) {
+            timeoutRejections.increment();
+            waiter.future().completeExceptionally(rejection);
+        }
+    }
+
+    private void releaseGlobalPermit() {
+        available.release();
+        dispatch();
+    }
+
+    /**
+     * Hands free permits to the head of the queue. Both a release and a
+     * newly queued waiter call this after their change, so neither a free
+     * permit nor a waiter is overlooked.
+     */
+    private void dispatch() {
+        while (!queue.isEmpty() && available.tryAcquire()) {
+            Waiter next = queue.pollFirst();
+            if (next == null) {
+                available.release();
+                // A waiter may have been queued after the check
+                continue;
+            }
+            queued.decrementAndGet();
+            waitTimer.record(System.nanoTime() - next.queuedAt(), TimeUnit.NANOSECONDS);
+            if (!next.future().complete(new Permit(next.user(), true, true))) {
+                // The waiter gave up in the meantime, hand the permit on
+                inFlight.decrementAndGet();
+                releaseUserPermit(next.user());
+                available.release();
+            }
+        }
+    }
+
+    private boolean acquireUserPermit(String user) {
+        if (user == null || maxConcurrentPerUser <= 0) {
+            return true;
+        }
+        AtomicBoolean acquired = new AtomicBoolean();
+        userPermits.compute(user, (key, held) -> {
+            int current = held != null ? held : 0;
+            if (current >= maxConcurrentPerUser) {
+                return held;
+            }
+            acquired.set(true);
+            return current + 1;
+        });
+        return acquired.get();
+    }
+
+    private void releaseUserPermit(String user) {
+        if (user == null || maxConcurrentPerUser <= 0) {
+            return;
+        }
+        userPermits.computeIfPresent(user, (key, held) -> held > 1 ? held - 1 : null);
+    }
+
+    /**
+     * Number of users currently holding permits
+     */
+    int usersHoldingPermits() {
+        return userPermits.size();
+    }
+
+    private Duration retryAfter() {
+        return queueTimeout.compareTo(Duration.ofSeconds(1)) < 0 ? Duration.ofSeconds(1) : queueTimeout;
+    }
+
+    private static Counter rejections(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("deepdesk.admission.rejected")
+                .description("Requests rejected by admission control")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    private record Waiter(String user, long queuedAt, CompletableFuture<Permit> future) {
+
+    }
+
+    /**
+     * An admitted request. Releasing is idempotent.
+     */
+    public final class Permit implements AutoCloseable {
+
+        private final String user;
+        private final boolean global;
+        private final boolean interactive;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(String user, boolean global, boolean interactive) {
+            this.user = user;
+            this.global = global;
+            this.interactive = interactive;
+            if (interactive) {
+                inFlight.incrementAndGet();
+            }
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                if (interactive) {
+                    inFlight.decrementAndGet();
+                }
+                releaseUserPermit(user);
+                if (global) {
+                    releaseGlobalPermit();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            release();
+        }
+    }
+}
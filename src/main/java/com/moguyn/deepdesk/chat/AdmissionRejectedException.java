@@ -0,0 +1,21 @@
+package com.moguyn.deepdesk.chat;
+
+import java.time.Duration;
+
+/**
+ * Thrown when a chat request is not admitted, carrying how long the client
+ * should wait before retrying
+ */
+public class AdmissionRejectedException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public AdmissionRejectedException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
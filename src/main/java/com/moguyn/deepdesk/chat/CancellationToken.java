@@ -0,0 +1,114 @@
+package com.moguyn.deepdesk.chat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.springframework.ai.chat.model.ToolContext;
+
+/**
+ * Cancels one upstream generation. Blocking work such as tool calls runs
+ * through the token, so cancelling interrupts the threads still blocked in
+ * it, and work started afterwards fails fast instead of continuing the agent
+ * loop. The token travels to tools in the {@link ToolContext}.
+ */
+public final class CancellationToken {
+
+    public static final String CONTEXT_KEY = "deepdesk.cancellation";
+
+    private final Consumer<String> onCancel;
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile String reason;
+
+    public CancellationToken() {
+        this(reason -> {
+        });
+    }
+
+    CancellationToken(Consumer<String> onCancel) {
+        this.onCancel = onCancel;
+    }
+
+    /**
+     * Returns the token carried by a tool context, or null
+     */
+    public static CancellationToken from(ToolContext toolContext) {
+        if (toolContext == null || toolContext.getContext() == null) {
+            return null;
+        }
+        return toolContext.getContext().get(CONTEXT_KEY) instanceof CancellationToken token ? token : null;
+    }
+
+    /**
+     * Cancels with a reason, interrupting any thread running work through
+     * this token. Only the first call has an effect.
+     */
+    public boolean cancel(String reason) {
+        synchronized (this) {
+            if (this.reason != null) {
+                return false;
+            }
+            this.reason = reason;
+        }
+        // Record the cancellation before the interrupted work can observe it
+        onCancel.accept(reason);
+        synchronized (this) {
+            threads.forEach(Thread::interrupt);
+        }
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return reason != null;
+    }
+
+    /**
+     * Why the token was cancelled, or null while it is not
+     */
+    public String reason() {
+        return reason;
+    }
+
+    /**
+     * Runs blocking work that is interrupted on cancellation. Whatever the
+     * work throws after a cancellation surfaces as a
+     * {@link CancellationException}.
+     */
+    public <T> T run(Supplier<T> work) {
+        Thread current = Thread.currentThread();
+        synchronized (this) {
+            throwIfCancelled();
+            threads.add(current);
+        }
+        try {
+            return work.get();
+        } catch (RuntimeException e) {
+            if (isCancelled()) {
+                CancellationException cancelled = cancellation();
+                cancelled.initCause(e);
+                throw cancelled;
+            }
+            throw e;
+        } finally {
+            synchronized (this) {
+                threads.remove(current);
+            }
+            if (isCancelled()) {
+                // Do not leak our interrupt into whatever the thread runs next
+                Thread.interrupted();
+            }
+        }
+    }
+
+    public void throwIfCancelled() {
+        if (isCancelled()) {
+            throw cancellation();
+        }
+    }
+
+    private CancellationException cancellation() {
+        return new CancellationException("Completion cancelled: " + reason);
+    }
+}
@@ -0,0 +1,102 @@
+package com.moguyn.deepdesk.chat;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Ties upstream generations to the lifetime of the client request. A client
+ * that goes away cancels the model subscription and any tool call still in
+ * progress, and so does a non-streaming completion that runs past the
+ * completion timeout. Cancellations are counted by reason.
+ */
+@Slf4j
+public class Cancellations {
+
+    public static final String CLIENT_DISCONNECT = "client_disconnect";
+    public static final String TIMEOUT = "timeout";
+
+    private final Duration completionTimeout;
+    private final MeterRegistry meterRegistry;
+
+    public Cancellations(Duration completionTimeout, MeterRegistry meterRegistry) {
+        this.completionTimeout = completionTimeout;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Creates the token for one upstream generation
+     */
+    public CancellationToken newToken() {
+        return new CancellationToken(reason -> {
+            log.debug("Completion cancelled: {}", reason);
+            Counter.builder("deepdesk.completion.cancelled")
+                    .description("Upstream generations cancelled before they finished")
+                    .tag("reason", reason)
+                    .register(meterRegistry)
+                    .increment();
+        });
+    }
+
+    /**
+     * Runs a blocking completion, interrupting it once the completion
+     * timeout passes
+     *
+     * @throws CompletionTimeoutException when the timeout passed
+     */
+    public <T> T call(CancellationToken token, Supplier<T> completion) {
+        if (!hasTimeout()) {
+            return token.run(completion);
+        }
+        CompletableFuture<Void> timer = CompletableFuture.runAsync(() -> token.cancel(TIMEOUT),
+                CompletableFuture.delayedExecutor(completionTimeout.toMillis(), TimeUnit.MILLISECONDS));
+        try {
+            return token.run(completion);
+        } catch (CancellationException e) {
+            if (TIMEOUT.equals(token.reason())) {
+                throw new CompletionTimeoutException(completionTimeout);
+            }
+            throw e;
+        } finally {
+            timer.cancel(false);
+        }
+    }
+
+    /**
+     * Cancels the token when the subscriber goes away or the completion
+     * timeout passes
+     */
+    public <T> Mono<T> mono(CancellationToken token, Mono<T> completion) {
+        Mono<T> guarded = completion.doOnCancel(() -> token.cancel(CLIENT_DISCONNECT));
+        if (!hasTimeout()) {
+            return guarded;
+        }
+        // The timeout claims the token before the source sees the cancel,
+        // so it is not counted as a disconnect
+        return guarded
+                .takeUntilOther(Mono.delay(completionTimeout).doOnNext(tick -> token.cancel(TIMEOUT)))
+                .switchIfEmpty(Mono.defer(() -> TIMEOUT.equals(token.reason())
+                        ? Mono.error(new CompletionTimeoutException(completionTimeout))
+                        : Mono.empty()));
+    }
+
+    /**
+     * Cancels the token when the subscriber goes away. Streams have no
+     * overall timeout, the client decides how long to listen.
+     */
+    public <T> Flux<T> stream(CancellationToken token, Flux<T> completion) {
+        return completion.doOnCancel(() -> token.cancel(CLIENT_DISCONNECT));
+    }
+
+    private boolean hasTimeout() {
+        return completionTimeout != null && !completionTimeout.isZero() && !completionTimeout.isNegative();
+    }
+}
@@ -0,0 +1,100 @@
+package com.moguyn.deepdesk.chat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+import com.moguyn.deepdesk.openai.model.ChatCompletionRequest;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Runs the n choices of a completion request as independent generations at
+ * the same time, so a request for several choices takes about as long as one.
+ * Each generation still takes its own completion permit, and n is capped per
+ * request.
+ */
+public class ChoiceFanOut {
+
+    private final int maxChoices;
+
+    public ChoiceFanOut(int maxChoices) {
+        this.maxChoices = Math.max(1, maxChoices);
+    }
+
+    /**
+     * Number of choices a request asks for
+     *
+     * @throws InvalidRequestException when n is below one or above the cap
+     */
+    public int choices(ChatCompletionRequest request) {
+        Integer n = request.getN();
+        if (n == null) {
+            return 1;
+        }
+        if (n < 1 || n > maxChoices) {
+            throw new InvalidRequestException("n must be between 1 and " + maxChoices + ", got " + n, "n");
+        }
+        return n;
+    }
+
+    /**
+     * Runs blocking generations on virtual threads and returns their results
+     * by choice index. When one fails, the others are interrupted.
+     */
+    public <T> List<T> call(int n, IntFunction<T> generation) {
+        if (n == 1) {
+            return List.of(generation.apply(0));
+        }
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<T>> futures = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                int index = i;
+                futures.add(executor.submit(() -> generation.apply(index)));
+            }
+            try {
+                List<T> results = new ArrayList<>(n);
+                for (Future<T> future : futures) {
+                    results.add(future.get());
+                }
+                return results;
+            } catch (InterruptedException e) {
+                futures.forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for choices", e);
+            } catch (ExecutionException e) {
+                futures.forEach(future -> future.cancel(true));
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Subscribes to all generations at once and emits their results by
+     * choice index
+     */
+    public <T> Mono<List<T>> mono(int n, IntFunction<Mono<T>> generation) {
+        return Flux.range(0, n)
+                .flatMapSequential(generation::apply, n)
+                .collectList();
+    }
+
+    /**
+     * Interleaves the streams of all generations as their elements arrive
+     */
+    public <T> Flux<T> stream(int n, IntFunction<Flux<T>> generation) {
+        if (n == 1) {
+            return generation.apply(0);
+        }
+        return Flux.range(0, n)
+                .flatMap(generation::apply, n);
+    }
+}
@@ -0,0 +1,328 @@
+package com.moguyn.deepdesk.chat;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.reactivestreams.Subscription;
+import org.springframework.ai.openai.api.OpenAiApi;
+
+import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
+import com.moguyn.deepdesk.openai.model.ChatMessage;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Merges consecutive content deltas of a completion stream so that a burst of
+ * one- or two-character tokens is sent as a single SSE event. Buffered content
+ * is flushed once it reaches {@code maxBytes} of UTF-8 or has been held for
+ * {@code maxDelay}. Until the first visible token has gone out, and for any
+ * chunk that carries a finish reason or usage, chunks are passed through
+ * immediately so time-to-first-token and stream termination are unaffected.
+ * A zero delay disables coalescing.
+ * <p>
+ * Upstream chunks are requested one at a time and only while downstream has
+ * demand, so a slow client holds back the model stream instead of having
+ * chunks buffered for it; at most the merged content and one more chunk wait
+ * for demand.
+ */
+public class ChunkCoalescer implements Function<Flux<ChatCompletionChunk>, Flux<ChatCompletionChunk>> {
+
+    private final Duration maxDelay;
+    private final int maxBytes;
+    private final Scheduler timer;
+
+    public ChunkCoalescer(Duration maxDelay, int maxBytes) {
+        this(maxDelay, maxBytes, Schedulers.parallel());
+    }
+
+    ChunkCoalescer(Duration maxDelay, int maxBytes, Scheduler timer) {
+        this.maxDelay = maxDelay != null ? maxDelay : Duration.ZERO;
+        this.maxBytes = maxBytes;
+        this.timer = timer;
+    }
+
+    public boolean isEnabled() {
+        return !maxDelay.isZero() && !maxDelay.isNegative() && maxBytes > 0;
+    }
+
+    @Override
+    public Flux<ChatCompletionChunk> apply(Flux<ChatCompletionChunk> chunks) {
+        if (!isEnabled()) {
+            return chunks;
+        }
+        // Chunks are only emitted against demand, so none should overflow
+        return Flux.create(sink -> {
+            Window window = new Window(sink);
+            sink.onRequest(requested -> window.drain());
+            sink.onDispose(window::stop);
+            chunks.subscribe(window);
+        }, FluxSink.OverflowStrategy.ERROR);
+    }
+
+    /**
+     * Per-subscription coalescing state. Upstream signals, downstream
+     * requests and the flush timer race, hence all access is synchronized on
+     * the window.
+     */
+    private final class Window extends BaseSubscriber<ChatCompletionChunk> {
+
+        private final FluxSink<ChatCompletionChunk> sink;
+        private final List<ChatCompletionChunk> pending = new ArrayList<>();
+        private final Deque<ChatCompletionChunk> ready = new ArrayDeque<>();
+        private boolean firstTokenSent;
+        private int pendingBytes;
+        private Disposable flushTimer;
+        private boolean awaitingUpstream;
+        private boolean done;
+        private boolean terminated;
+        private Throwable error;
+        private boolean draining;
+        private boolean drainAgain;
+
+        Window(FluxSink<ChatCompletionChunk> sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            drain();
+        }
+
+        @Override
+        protected synchronized void hookOnNext(ChatCompletionChunk chunk) {
+            awaitingUpstream = false;
+            int bytes = contentBytes(chunk);
+            if (!firstTokenSent || bytes < 0) {
+                flush();
+                ready.add(chunk);
+                firstTokenSent |= bytes > 0;
+            } else {
+                pending.add(chunk);
+                pendingBytes += bytes;
+                if (pendingBytes >= maxBytes) {
+                    flush();
+                } else if (flushTimer == null) {
+                    flushTimer = timer.schedule(this::flushOnTimer, maxDelay.toMillis(), TimeUnit.MILLISECONDS);
+                }
+            }
+            drain();
+        }
+
+        @Override
+        protected synchronized void hookOnError(Throwable throwable) {
+            flush();
+            error = throwable;
+            done = true;
+            drain();
+        }
+
+        @Override
+        protected synchronized void hookOnComplete() {
+            flush();
+            done = true;
+            drain();
+        }
+
+        synchronized void stop() {
+            dispose();
+            cancelTimer();
+        }
+
+        /**
+         * Emits ready chunks as far as downstream has asked for them, then
+         * terminates once upstream has and nothing is left, or else asks
+         * upstream for one more chunk if nothing is waiting for demand
+         */
+        synchronized void drain() {
+            if (terminated) {
+                return;
+            }
+            // Upstream may deliver within request(1); the outer call then
+            // drains again rather than recursing
+            if (draining) {
+                drainAgain = true;
+                return;
+            }
+            draining = true;
+            try {
+                do {
+                    drainAgain = false;
+                    while (!ready.isEmpty() && sink.requestedFromDownstream() > 0) {
+                        sink.next(ready.poll());
+                    }
+                    if (done) {
+                        if (ready.isEmpty() && pending.isEmpty()) {
+                            terminated = true;
+                            if (error != null) {
+                                sink.error(error);
+                            } else {
+                                sink.complete();
+                            }
+                        }
+                    } else if (ready.isEmpty() && !awaitingUpstream && sink.requestedFromDownstream() > 0
+                            && upstream() != null) {
+                        awaitingUpstream = true;
+                        request(1);
+                    }
+                } while (drainAgain && !terminated);
+            } finally {
+                draining = false;
+            }
+        }
+
+        private void cancelTimer() {
+            if (flushTimer != null) {
+                flushTimer.dispose();
+                flushTimer = null;
+            }
+        }
+
+        private synchronized void flushOnTimer() {
+            flushTimer = null;
+            flush();
+            drain();
+        }
+
+        private void flush() {
+            cancelTimer();
+            if (pending.isEmpty()) {
+                return;
+            }
+            ready.add(pending.size() == 1 ? pending.get(0) : merge(pending));
+            pending.clear();
+            pendingBytes = 0;
+        }
+    }
+
+    /**
+     * Returns the UTF-8 size of the chunk's delta content, or -1 when the
+     * chunk is not a plain content delta and must not be merged. Deltas with
+     * logprobs of a shape {@link #merge} cannot concatenate are not merged
+     * either.
+     */
+    static int contentBytes(ChatCompletionChunk chunk) {
+        if (chunk.getUsage() != null || chunk.getChoices() == null || chunk.getChoices().isEmpty()) {
+            return -1;
+        }
+        int bytes = 0;
+        for (ChatCompletionChunk.ChunkChoice choice : chunk.getChoices()) {
+            if (choice.getFinishReason() != null || choice.getDelta() == null || choice.getDelta().content() == null
+                    || !(choice.getLogprobs() == null || choice.getLogprobs() instanceof OpenAiApi.LogProbs
+                    || choice.getLogprobs() instanceof Map)) {
+                return -1;
+            }
+            bytes += utf8Length(choice.getDelta().content());
+        }
+        return bytes;
+    }
+
+    /**
+     * Merges buffered deltas into one chunk, concatenating content and the
+     * token logprobs per choice index and keeping the envelope of the latest
+     * chunk
+     */
+    static ChatCompletionChunk merge(List<ChatCompletionChunk> chunks) {
+        Map<Integer, StringBuilder> contents = new LinkedHashMap<>();
+        Map<Integer, String> roles = new LinkedHashMap<>();
+        Map<Integer, List<Object>> logprobs = new LinkedHashMap<>();
+        for (ChatCompletionChunk chunk : chunks) {
+            for (ChatCompletionChunk.ChunkChoice choice : chunk.getChoices()) {
+                contents.computeIfAbsent(choice.getIndex(), i -> new StringBuilder()).append(choice.getDelta().content());
+                roles.putIfAbsent(choice.getIndex(), choice.getDelta().role());
+                if (choice.getLogprobs() != null) {
+                    logprobs.computeIfAbsent(choice.getIndex(), i -> new ArrayList<>()).add(choice.getLogprobs());
+                }
+            }
+        }
+
+        List<ChatCompletionChunk.ChunkChoice> choices = new ArrayList<>(contents.size());
+        contents.forEach((index, content) -> choices.add(ChatCompletionChunk.ChunkChoice.builder()
+                .index(index)
+                .delta(ChatMessage.of(roles.get(index), content.toString()))
+                .logprobs(logprobs.containsKey(index) ? mergeLogprobs(logprobs.get(index)) : null)
+                .build()));
+
+        ChatCompletionChunk last = chunks.get(chunks.size() - 1);
+        return ChatCompletionChunk.builder()
+                .id(last.getId())
+                .object(last.getObject())
+                .created(last.getCreated())
+                .model(last.getModel())
+                .systemFingerprint(last.getSystemFingerprint())
+                .choices(choices)
+                .build();
+    }
+
+    /**
+     * Concatenates the token lists of logprobs, either as the client library
+     * gives them or as plain maps of field to tokens
+     */
+    @SuppressWarnings("unchecked")
+    private static Object mergeLogprobs(List<Object> logprobs) {
+        if (logprobs.size() == 1) {
+            return logprobs.get(0);
+        }
+        if (logprobs.stream().allMatch(OpenAiApi.LogProbs.class::isInstance)) {
+            List<OpenAiApi.LogProbs.Content> content = new ArrayList<>();
+            List<OpenAiApi.LogProbs.Content> refusal = new ArrayList<>();
+            for (Object each : logprobs) {
+                OpenAiApi.LogProbs probs = (OpenAiApi.LogProbs) each;
+                if (probs.content() != null) {
+                    content.addAll(probs.content());
+                }
+                if (probs.refusal() != null) {
+                    refusal.addAll(probs.refusal());
+                }
+            }
+            return new OpenAiApi.LogProbs(content, refusal.isEmpty() ? null : refusal);
+        }
+        Map<String, Object> merged = new LinkedHashMap<>();
+        for (Object each : logprobs) {
+            Map<String, Object> probs = new LinkedHashMap<>();
+            if (each instanceof OpenAiApi.LogProbs typed) {
+                probs.put("content", typed.content());
+                probs.put("refusal", typed.refusal());
+            } else {
+                probs.putAll((Map<String, Object>) each);
+            }
+            probs.forEach((field, tokens) -> {
+                if (tokens instanceof List<?> list) {
+                    ((List<Object>) merged.computeIfAbsent(field, f -> new ArrayList<>())).addAll(list);
+                } else if (tokens != null) {
+                    merged.putIfAbsent(field, tokens);
+                }
+            });
+        }
+        return merged;
+    }
+
+    private static int utf8Length(String text) {
+        int bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+}
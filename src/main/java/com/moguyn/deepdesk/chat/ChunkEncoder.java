@@ -0,0 +1,187 @@
+package com.moguyn.deepdesk.chat;
+
+import java.util.List;
+import java.util.Objects;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
+import com.moguyn.deepdesk.openai.model.ChatMessage;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Serializes the chunks of one completion stream to JSON. The envelope fields
+ * (id, object, created, model and system fingerprint) do not change within a
+ * stream, so they are rendered once and reused; for each chunk only the delta
+ * and finish reason are escaped. Chunks that do not have the plain
+ * single-delta shape fall back to Jackson.
+ * <p>
+ * An encoder holds per-stream state and must not be shared between streams.
+ * Every chunk becomes a new {@link String}, which both the servlet and the
+ * reactive SSE writers pass through without another serialization pass.
+ */
+public class ChunkEncoder {
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final ObjectMapper objectMapper;
+    private final StringBuilder buffer = new StringBuilder(256);
+
+    private ChatCompletionChunk envelope;
+    private String prefix;
+    private String suffix;
+
+    public ChunkEncoder(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Encodes every chunk of a stream with a dedicated encoder
+     */
+    public static Flux<String> encode(Flux<ChatCompletionChunk> chunks, ObjectMapper objectMapper) {
+        return Flux.defer(() -> {
+            ChunkEncoder encoder = new ChunkEncoder(objectMapper);
+            return chunks.map(encoder::encode);
+        });
+    }
+
+    /**
+     * Encodes a single chunk
+     */
+    public String encode(ChatCompletionChunk chunk) {
+        if (!isTemplated(chunk)) {
+            return writeWithJackson(chunk);
+        }
+        ChatCompletionChunk.ChunkChoice choice = chunk.getChoices().get(0);
+        ChatMessage delta = choice.getDelta();
+
+        renderEnvelope(chunk);
+        buffer.setLength(0);
+        buffer.append(prefix);
+        buffer.append("[{\"index\":").append(choice.getIndex().intValue());
+        if (delta != null) {
+            buffer.append(",\"delta\":{");
+            boolean hasRole = delta.role() != null;
+            if (hasRole) {
+                buffer.append("\"role\":");
+                appendString(delta.role());
+            }
+            if (delta.content() != null) {
+                buffer.append(hasRole ? ",\"content\":" : "\"content\":");
+                appendString(delta.content());
+            }
+            buffer.append('}');
+        }
+        if (choice.getFinishReason() != null) {
+            buffer.append(",\"finish_reason\":");
+            appendString(choice.getFinishReason());
+        }
+        buffer.append("}]").append(suffix);
+        return buffer.toString();
+    }
+
+    /**
+     * Only single-choice deltas without usage, logprobs or tool calls use the
+     * template; everything else is rare enough to go through Jackson.
+     */
+    private static boolean isTemplated(ChatCompletionChunk chunk) {
+        List<ChatCompletionChunk.ChunkChoice> choices = chunk.getChoices();
+        if (chunk.getUsage() != null || choices == null || choices.size() != 1) {
+            return false;
+        }
+        ChatCompletionChunk.ChunkChoice choice = choices.get(0);
+        ChatMessage delta = choice.getDelta();
+        return choice.getIndex() != null
+                && choice.getLogprobs() == null
+                && (delta == null || (delta.name() == null && delta.toolCalls() == null));
+    }
+
+    /**
+     * Renders the envelope around the choices array, doing so only when an
+     * envelope field differs from the previous chunk
+     */
+    private void renderEnvelope(ChatCompletionChunk chunk) {
+        if (prefix != null
+                && Objects.equals(envelope.getId(), chunk.getId())
+                && Objects.equals(envelope.getObject(), chunk.getObject())
+                && Objects.equals(envelope.getCreated(), chunk.getCreated())
+                && Objects.equals(envelope.getModel(), chunk.getModel())
+                && Objects.equals(envelope.getSystemFingerprint(), chunk.getSystemFingerprint())) {
+            return;
+        }
+        buffer.setLength(0);
+        buffer.append('{');
+        appendField("id", chunk.getId());
+        appendField("object", chunk.getObject());
+        if (chunk.getCreated() != null) {
+            buffer.append("\"created\":").append(chunk.getCreated().longValue()).append(',');
+        }
+        appendField("model", chunk.getModel());
+        buffer.append("\"choices\":");
+        prefix = buffer.toString();
+
+        buffer.setLength(0);
+        if (chunk.getSystemFingerprint() != null) {
+            buffer.append(",\"system_fingerprint\":");
+            appendString(chunk.getSystemFingerprint());
+        }
+        buffer.append('}');
+        suffix = buffer.toString();
+        envelope = chunk;
+    }
+
+    private void appendField(String name, String value) {
+        if (value != null) {
+            buffer.append('"').append(name).append("\":");
+            appendString(value);
+            buffer.append(',');
+        }
+    }
+
+    /**
+     * Appends a JSON string literal using the same escaping rules as Jackson's
+     * default configuration
+     */
+    private void appendString(String value) {
+        buffer.append('"');
+        int start = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            buffer.append(value, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"' ->
+                    buffer.append("\\\"");
+                case '\\' ->
+                    buffer.append("\\\\");
+                case '\n' ->
+                    buffer.append("\\n");
+                case '\r' ->
+                    buffer.append("\\r");
+                case '\t' ->
+                    buffer.append("\\t");
+                case '\b' ->
+                    buffer.append("\\b");
+                case '\f' ->
+                    buffer.append("\\f");
+                default ->
+                    buffer.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+            }
+        }
+        buffer.append(value, start, length);
+        buffer.append('"');
+    }
+
+    private String writeWithJackson(ChatCompletionChunk chunk) {
+        try {
+            return objectMapper.writeValueAsString(chunk);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize completion chunk", e);
+        }
+    }
+}
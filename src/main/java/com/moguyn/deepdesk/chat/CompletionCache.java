@@ -0,0 +1,130 @@
+package com.moguyn.deepdesk.chat;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_CONVERSATION_ID_KEY;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.moguyn.deepdesk.advisor.TieredChatMemoryAdvisor;
+import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
+import com.moguyn.deepdesk.openai.model.ChatCompletionRequest;
+import com.moguyn.deepdesk.openai.model.ChatCompletionResponse;
+import com.moguyn.deepdesk.openai.model.ChatMessage;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import reactor.core.publisher.Flux;
+
+/**
+ * Exact-match cache of completion replies for deterministic requests, that
+ * is requests sent with a temperature of zero or a fixed seed. The key
+ * ignores the stream flag, so a reply produced for a blocking call can be
+ * replayed to a streaming client and the other way round. A hit skips the
+ * advisor chain, so it is recorded in the chat memory here, when one is
+ * given.
+ */
+public class CompletionCache {
+
+    private final boolean enabled;
+    private final Set<String> excludedUsers;
+    private final Cache<String, String> replies;
+    private final TieredChatMemoryAdvisor chatMemory;
+
+    public CompletionCache(boolean enabled, long maxEntries, Duration ttl, Set<String> excludedUsers,
+            TieredChatMemoryAdvisor chatMemory, MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.excludedUsers = excludedUsers;
+        this.chatMemory = chatMemory;
+        this.replies = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, replies, "deepdesk.completion");
+    }
+
+    /**
+     * Whether a request is deterministic and not opted out of caching
+     */
+    public boolean isCacheable(ChatCompletionRequest request) {
+        if (!enabled || (request.getUser() != null && excludedUsers.contains(request.getUser()))) {
+            return false;
+        }
+        boolean deterministic = request.getSeed() != null
+                || (request.getTemperature() != null && request.getTemperature() == 0);
+        return deterministic && (request.getN() == null || request.getN() <= 1);
+    }
+
+    /**
+     * Returns the cached reply for a request, or null on a miss. A hit is
+     * recorded as a turn of the user's conversation.
+     */
+    public String get(ChatCompletionRequest request) {
+        String reply = isCacheable(request) ? replies.getIfPresent(key(request)) : null;
+        if (reply != null && chatMemory != null) {
+            String question = lastUserText(request.getMessages());
+            if (question != null) {
+                chatMemory.remember(request.getUser() != null
+                        ? Map.of(CHAT_MEMORY_CONVERSATION_ID_KEY, request.getUser())
+                        : Map.of(), question, reply);
+            }
+        }
+        return reply;
+    }
+
+    /**
+     * Caches the reply of a completed blocking call
+     */
+    public void put(ChatCompletionRequest request, ChatCompletionResponse response) {
+        if (isCacheable(request) && response.getChoices() != null && !response.getChoices().isEmpty()
+                && response.getChoices().get(0).message() != null) {
+            replies.put(key(request), response.getChoices().get(0).message().content());
+        }
+    }
+
+    /**
+     * Collects the first choice of a stream as it passes through and caches
+     * it once the stream completes. Failed or cancelled streams are not
+     * cached.
+     */
+    public Flux<ChatCompletionChunk> record(ChatCompletionRequest request, Flux<ChatCompletionChunk> stream) {
+        if (!isCacheable(request)) {
+            return stream;
+        }
+        return Flux.defer(() -> {
+            StringBuilder reply = new StringBuilder();
+            return stream
+                    .doOnNext(chunk -> append(reply, chunk))
+                    .doOnComplete(() -> replies.put(key(request), reply.toString()));
+        });
+    }
+
+    static String key(ChatCompletionRequest request) {
+        return RequestKeys.hash(request, "stream", "stream_options");
+    }
+
+    private static String lastUserText(List<ChatMessage> messages) {
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if ("user".equals(messages.get(i).role())) {
+                return messages.get(i).content();
+            }
+        }
+        return null;
+    }
+
+    private static void append(StringBuilder reply, ChatCompletionChunk chunk) {
+        if (chunk.getChoices() == null) {
+            return;
+        }
+        for (ChatCompletionChunk.ChunkChoice choice : chunk.getChoices()) {
+            Integer index = choice.getIndex();
+            if ((index == null || index == 0) && choice.getDelta() != null && choice.getDelta().content() != null) {
+                reply.append(choice.getDelta().content());
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.moguyn.deepdesk.chat;
+
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Caps the number of chat completions that are in flight at the same time.
+ * Callers beyond the cap wait for a permit instead of being rejected, which is
+ * cheap when requests run on virtual threads. A cap of zero or less disables
+ * the limit.
+ */
+@Slf4j
+public class CompletionLimiter {
+
+    private final Semaphore permits;
+
+    public CompletionLimiter(int maxInFlightCompletions) {
+        this.permits = maxInFlightCompletions > 0 ? new Semaphore(maxInFlightCompletions, true) : null;
+    }
+
+    /**
+     * Runs a blocking completion while holding a permit
+     */
+    public <T> T call(Supplier<T> completion) {
+        if (permits == null) {
+            return completion.get();
+        }
+        acquire();
+        try {
+            return completion.get();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Holds a permit from subscription until the stream terminates or is
+     * cancelled. Waiting for the permit happens off the subscribing thread so
+     * that event-loop threads are never blocked.
+     */
+    public <T> Flux<T> stream(Flux<T> completion) {
+        if (permits == null) {
+            return completion;
+        }
+        return Flux.using(this::acquire, permit -> completion, permit -> permits.release())
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Holds a permit from subscription until the completion is emitted or
+     * cancelled
+     */
+    public <T> Mono<T> mono(Mono<T> completion) {
+        if (permits == null) {
+            return completion;
+        }
+        return Mono.using(this::acquire, permit -> completion, permit -> permits.release())
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Returns the number of completions that can start without waiting
+     */
+    public int availablePermits() {
+        return permits == null ? Integer.MAX_VALUE : permits.availablePermits();
+    }
+
+    private Semaphore acquire() {
+        try {
+            if (!permits.tryAcquire()) {
+                log.debug("Completion limit reached, waiting for a permit");
+                permits.acquire();
+            }
+            return permits;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a completion permit", e);
+        }
+    }
+}
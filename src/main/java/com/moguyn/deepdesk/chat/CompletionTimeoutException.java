@@ -0,0 +1,14 @@
+package com.moguyn.deepdesk.chat;
+
+import java.time.Duration;
+
+/**
+ * Thrown when a non-streaming completion does not finish within the
+ * configured timeout. The upstream generation has been cancelled by then.
+ */
+public class CompletionTimeoutException extends RuntimeException {
+
+    public CompletionTimeoutException(Duration timeout) {
+        super("Completion did not finish within " + timeout.toSeconds() + "s");
+    }
+}
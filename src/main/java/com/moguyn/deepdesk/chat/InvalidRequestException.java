@@ -0,0 +1,22 @@
+package com.moguyn.deepdesk.chat;
+
+/**
+ * Thrown when a completion request asks for something the server does not
+ * accept
+ */
+public class InvalidRequestException extends IllegalArgumentException {
+
+    private final String param;
+
+    public InvalidRequestException(String message, String param) {
+        super(message);
+        this.param = param;
+    }
+
+    /**
+     * The request field at fault
+     */
+    public String getParam() {
+        return param;
+    }
+}
@@ -7,22 +7,38 @@ import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.SystemMessage;
 import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.prompt.ChatOptions;
 import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.ai.openai.OpenAiChatOptions;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import com.moguyn.deepdesk.config.CoreSettings;
 import com.moguyn.deepdesk.openai.model.ChatCompletionRequest;
 import com.moguyn.deepdesk.openai.model.ChatMessage;
 
+import lombok.RequiredArgsConstructor;
+
 /**
  * Handles conversion between OpenAI message format and Spring AI message format
  */
 @Component
+@RequiredArgsConstructor
 public class MessageConverter {
 
+    /**
+     * Most stop sequences a request may carry, as in the OpenAI API
+     */
+    static final int MAX_STOP_SEQUENCES = 4;
+
     @Value("${core.llm.prompt.system}")
     private String defaultSystemPrompt;
 
+    private final CoreSettings coreSettings;
+    private final ChatModel chatModel;
+
     /**
      * Converts OpenAI chat messages to Spring AI messages, adding a default
      * system prompt if none is present
@@ -61,6 +77,70 @@ public class MessageConverter {
      */
     public Prompt createPrompt(ChatCompletionRequest request) {
         List<Message> messages = toSpringMessages(request.getMessages());
-        return new Prompt(messages);
+        ChatOptions options = toChatOptions(request);
+        return options != null ? new Prompt(messages, options) : new Prompt(messages);
+    }
+
+    /**
+     * Maps the sampling and length parameters of a request to per-request
+     * model options, or returns null when the request sets none so the model
+     * defaults apply unchanged. Unset fields fall back to the model defaults.
+     * max_tokens is capped at core.llm.max-tokens. The OpenAI model gets it
+     * as max_completion_tokens, the field its configured default sets, so the
+     * merged request carries a single limit; other models get the portable
+     * max tokens. seed only reaches models that support it. The options are
+     * tool calling options so the chat client can still attach the tools.
+     *
+     * @throws InvalidRequestException when a parameter is out of range
+     */
+    public ChatOptions toChatOptions(ChatCompletionRequest request) {
+        Integer requestedTokens = request.getMaxTokens();
+        Double temperature = request.getTemperature();
+        Double topP = request.getTopP();
+        Double frequencyPenalty = request.getFrequencyPenalty();
+        Double presencePenalty = request.getPresencePenalty();
+        List<String> stop = request.getStop();
+        Integer seed = request.getSeed();
+        if (requestedTokens == null && temperature == null && topP == null && frequencyPenalty == null
+                && presencePenalty == null && (stop == null || stop.isEmpty()) && seed == null) {
+            return null;
+        }
+
+        if (requestedTokens != null && requestedTokens < 1) {
+            throw new InvalidRequestException("max_tokens must be at least 1, got " + requestedTokens, "max_tokens");
+        }
+        requireRange(temperature, 0, 2, "temperature");
+        requireRange(topP, 0, 1, "top_p");
+        requireRange(frequencyPenalty, -2, 2, "frequency_penalty");
+        requireRange(presencePenalty, -2, 2, "presence_penalty");
+        if (stop != null && stop.size() > MAX_STOP_SEQUENCES) {
+            throw new InvalidRequestException("stop may hold at most " + MAX_STOP_SEQUENCES + " sequences", "stop");
+        }
+
+        int maxTokens = coreSettings.llm() != null ? coreSettings.llm().maxTokens() : 0;
+        Integer cappedTokens = requestedTokens;
+        if (requestedTokens != null && maxTokens > 0 && requestedTokens > maxTokens) {
+            cappedTokens = maxTokens;
+        }
+        OpenAiChatOptions.Builder options = OpenAiChatOptions.builder()
+                .temperature(temperature)
+                .topP(topP)
+                .frequencyPenalty(frequencyPenalty)
+                .presencePenalty(presencePenalty)
+                .stop(stop != null && !stop.isEmpty() ? List.copyOf(stop) : null)
+                .seed(seed);
+        if (chatModel instanceof OpenAiChatModel) {
+            options.maxCompletionTokens(cappedTokens);
+        } else {
+            options.maxTokens(cappedTokens);
+        }
+        return options.build();
+    }
+
+    private static void requireRange(Double value, int min, int max, String param) {
+        if (value != null && (value < min || value > max || value.isNaN())) {
+            throw new InvalidRequestException(param + " must be between " + min + " and " + max + ", got " + value,
+                    param);
+        }
     }
 }
@@ -1,14 +1,20 @@
 package com.moguyn.deepdesk.chat;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
 import org.springframework.ai.chat.client.ChatClient;
 import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_CONVERSATION_ID_KEY;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.stereotype.Service;
 
+import static com.moguyn.deepdesk.advisor.TieredChatMemoryAdvisor.CHAT_MEMORY_RECORD_KEY;
 import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
 import com.moguyn.deepdesk.openai.model.ChatCompletionRequest;
 import com.moguyn.deepdesk.openai.model.ChatCompletionResponse;
@@ -17,6 +23,7 @@ import com.moguyn.deepdesk.openai.model.ChatMessage;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 @Slf4j
 @Service
@@ -26,6 +33,13 @@ public class OpenAiService {
     private final ChatClient chatClient;
     private final MessageConverter messageConverter;
     private final ResponseBuilder responseBuilder;
+    private final CompletionLimiter completionLimiter;
+    private final ChunkCoalescer chunkCoalescer;
+    private final SingleFlightGroup singleFlightGroup;
+    private final CompletionCache completionCache;
+    private final Cancellations cancellations;
+    private final StreamOpener streamOpener;
+    private final ChoiceFanOut choiceFanOut;
 
     /**
      * Process a non-streaming chat request and return a complete response
@@ -34,88 +48,205 @@ public class OpenAiService {
         if (request.isStream()) {
             throw new IllegalArgumentException("Stream mode should be used with streamChat method");
         }
+        int choices = choiceFanOut.choices(request);
 
-        // Prepare the prompt with messages
-        Prompt prompt = messageConverter.createPrompt(request);
+        String cached = completionCache.get(request);
+        if (cached != null) {
+            return responseBuilder.buildResponse(request, cached);
+        }
 
-        // Configure chat client request spec
-        ChatClient.ChatClientRequestSpec promptSpec = chatClient.prompt(prompt);
+        ChatCompletionResponse response = singleFlightGroup.call(request, () -> {
+            CancellationToken token = cancellations.newToken();
+            StopSequenceMatcher stopSequences = StopSequenceMatcher.compile(request.getStop());
 
-        // Set conversation ID if user is provided
-        if (request.getUser() != null) {
-            promptSpec = promptSpec.advisors(ad
-                    -> ad.param(CHAT_MEMORY_CONVERSATION_ID_KEY, request.getUser()));
-        }
+            // Call the AI model once per choice, all at the same time
+            List<String> replies = cancellations.call(token, () -> choiceFanOut.call(choices, index -> {
+                ChatClient.ChatClientRequestSpec promptSpec = prepare(request, token, index);
+                var aiResponse = token.run(() -> completionLimiter.call(() -> promptSpec.call().content()));
+                return stopSequences.truncate(Optional.ofNullable(aiResponse).orElse(""));
+            }));
+
+            // Build the response
+            return responseBuilder.buildResponse(request, replies);
+        });
+        completionCache.put(request, response);
+        return response;
+    }
 
-        // Call the AI model
-        var aiResponse = promptSpec.call().content();
-        var reply = Optional.ofNullable(aiResponse).orElse("");
+    /**
+     * Process a non-streaming chat request without blocking the calling
+     * thread. The model output is consumed as a stream and aggregated into a
+     * single response once the generation completes.
+     */
+    public Mono<ChatCompletionResponse> processChatReactive(ChatCompletionRequest request) {
+        if (request.isStream()) {
+            return Mono.error(new IllegalArgumentException("Stream mode should be used with streamChat method"));
+        }
 
-        // Build the response
-        return responseBuilder.buildResponse(request, reply);
+        return Mono.defer(() -> {
+            int choices = choiceFanOut.choices(request);
+            String cached = completionCache.get(request);
+            if (cached != null) {
+                return Mono.just(responseBuilder.buildResponse(request, cached));
+            }
+            return singleFlightGroup.mono(request, () -> {
+                CancellationToken token = cancellations.newToken();
+                StopSequenceMatcher stopSequences = StopSequenceMatcher.compile(request.getStop());
+                return cancellations.mono(token, choiceFanOut.mono(choices,
+                        index -> completionLimiter.mono(Mono.defer(() -> prepare(request, token, index)
+                                .stream()
+                                .content()
+                                .collect(Collectors.joining())
+                                .map(stopSequences::truncate))))
+                        .map(replies -> responseBuilder.buildResponse(request, replies)));
+            }).doOnNext(response -> completionCache.put(request, response));
+        });
     }
 
     /**
      * Process a streaming chat request and send chunks of the response as
-     * Server-Sent Events
+     * Server-Sent Events. When stream_options.include_usage is set, a final
+     * chunk with empty choices carries the usage of the whole stream. Cached
+     * replies are replayed as the same sequence of chunks.
      */
     public Flux<ChatCompletionChunk> streamChat(ChatCompletionRequest request) {
-        // Prepare the prompt with messages
-        Prompt prompt = messageConverter.createPrompt(request);
-
-        // Configure chat client request spec
-        ChatClient.ChatClientRequestSpec promptSpec = chatClient.prompt(prompt);
+        int choices = choiceFanOut.choices(request);
+        String cached = completionCache.get(request);
+        if (cached != null) {
+            return streamOpener.time(
+                    Flux.fromIterable(responseBuilder.buildChunks(request, cached, includeUsage(request))));
+        }
+        return streamOpener.time(
+                completionCache.record(request,
+                        singleFlightGroup.stream(request, () -> createStream(request, choices))));
+    }
 
-        // Set conversation ID if user is provided
-        if (request.getUser() != null) {
-            promptSpec = promptSpec.advisors(ad
-                    -> ad.param(CHAT_MEMORY_CONVERSATION_ID_KEY, request.getUser()));
+    /**
+     * Assembles the chunk stream of the upstream generations, one per
+     * choice, interleaved as they produce chunks. Cancelling the stream
+     * cancels every generation, including tool calls in progress. A
+     * generation that produces one of the request's stop sequences is cut
+     * short there and cancelled on its own.
+     */
+    private Flux<ChatCompletionChunk> createStream(ChatCompletionRequest request, int choices) {
+        CancellationToken token = cancellations.newToken();
+        StopSequenceMatcher stopSequences = StopSequenceMatcher.compile(request.getStop());
+        List<ChatClient.ChatClientRequestSpec> promptSpecs = new ArrayList<>(choices);
+        for (int i = 0; i < choices; i++) {
+            promptSpecs.add(prepare(request, token, i));
         }
 
         var chunkId = "deepdesk-" + java.util.UUID.randomUUID();
         var systemFingerprint = "fp_" + java.util.UUID.randomUUID().toString();
-        var created = System.currentTimeMillis() / 1000;
-
-        return promptSpec
-                .stream()
-                .chatResponse()
-                .map(tr -> {
-                    // Create a builder with safe defaults
-                    var chunkBuilder = ChatCompletionChunk.builder()
-                            .id(tr.getMetadata().getId() != null ? tr.getMetadata().getId() : chunkId)
+        // Boxed once rather than for every chunk
+        Long created = System.currentTimeMillis() / 1000;
+
+        if (!includeUsage(request)) {
+            Flux<ChatCompletionChunk> chunks = choiceFanOut.stream(choices, index -> generate(promptSpecs.get(index))
+                    .map(tr -> toChunk(request.getModel(), tr, chunkId, systemFingerprint, created, index))
+                    .transform(stopSequences));
+            return streamOpener.open(cancellations.stream(token, chunks).transform(chunkCoalescer),
+                    chunkId, created, request.getModel(), systemFingerprint, choices);
+        }
+
+        // The counters are per subscription, so build them lazily
+        return streamOpener.open(Flux.defer(() -> {
+            List<StreamUsageCounter> counters = new ArrayList<>(choices);
+            for (int i = 0; i < choices; i++) {
+                counters.add(responseBuilder.usageCounter());
+            }
+            return cancellations.stream(token, choiceFanOut.stream(choices, index -> generate(promptSpecs.get(index))
+                    .doOnNext(counters.get(index)::observe)
+                    .map(tr -> toChunk(request.getModel(), tr, chunkId, systemFingerprint, created, index))
+                    .transform(stopSequences)))
+                    .concatWith(Mono.fromSupplier(() -> ChatCompletionChunk.builder()
+                            .id(chunkId)
                             .object("chat.completion.chunk")
                             .created(created)
-                            .model(tr.getMetadata().getModel() != null ? tr.getMetadata().getModel() : request.getModel());
+                            .model(request.getModel())
+                            .systemFingerprint(systemFingerprint)
+                            .choices(List.of())
+                            .usage(responseBuilder.buildStreamUsage(request, counters))
+                            .build()));
+        }).transform(chunkCoalescer), chunkId, created, request.getModel(), systemFingerprint, choices);
+    }
+
+    /**
+     * Streams one upstream generation while holding a completion permit
+     */
+    private Flux<ChatResponse> generate(ChatClient.ChatClientRequestSpec promptSpec) {
+        return completionLimiter.stream(promptSpec.stream().chatResponse());
+    }
 
-                    // Set system fingerprint if needed
-                    if (tr.getMetadata() != null) {
-                        chunkBuilder.systemFingerprint(systemFingerprint);
-                    }
+    /**
+     * Whether the client asked for a trailing usage chunk
+     */
+    private static boolean includeUsage(ChatCompletionRequest request) {
+        return request.getStreamOptions() != null
+                && Boolean.TRUE.equals(request.getStreamOptions().includeUsage());
+    }
 
-                    // Safely map results to choices
-                    List<ChatCompletionChunk.ChunkChoice> choices = tr.getResults()
-                            .stream()
-                            .map(g -> {
-                                var choiceBuilder = ChatCompletionChunk.ChunkChoice.builder();
+    /**
+     * Maps a streamed model response to an OpenAI completion chunk. This runs
+     * for every token, so the chunk is constructed directly, without builders
+     * or streams.
+     */
+    static ChatCompletionChunk toChunk(String model, ChatResponse tr, String chunkId, String systemFingerprint,
+            Long created, int choiceIndex) {
+        ChatResponseMetadata metadata = tr.getMetadata();
+        String id = metadata != null && metadata.getId() != null ? metadata.getId() : chunkId;
+        String chunkModel = metadata != null && metadata.getModel() != null ? metadata.getModel() : model;
 
-                                // Safely extract index or default to 0
-                                choiceBuilder.index(g.getMetadata().getOrDefault("index", 0));
+        List<Generation> results = tr.getResults();
+        List<ChatCompletionChunk.ChunkChoice> choices;
+        if (results.size() == 1) {
+            choices = List.of(toChunkChoice(results.get(0), choiceIndex));
+        } else {
+            choices = new ArrayList<>(results.size());
+            for (Generation generation : results) {
+                choices.add(toChunkChoice(generation, choiceIndex));
+            }
+        }
+        return new ChatCompletionChunk(id, "chat.completion.chunk", created, chunkModel,
+                metadata != null ? systemFingerprint : null, choices, null);
+    }
 
-                                // Safely create delta message
-                                var content = g.getOutput().getText();
-                                choiceBuilder.delta(ChatMessage.of(content != null && content.isEmpty() ? "assistant" : "", content));
+    /**
+     * Each generation answers for exactly one choice; a generation without
+     * text ends it
+     */
+    private static ChatCompletionChunk.ChunkChoice toChunkChoice(Generation generation, int choiceIndex) {
+        String content = generation.getOutput().getText();
+        return new ChatCompletionChunk.ChunkChoice(choiceIndex,
+                ChatMessage.of(content != null && content.isEmpty() ? "assistant" : "", content),
+                content == null ? "stop" : null,
+                generation.getMetadata().get("logprobs"));
+    }
 
-                                // Set finish reason if available
-                                choiceBuilder
-                                        .logprobs(g.getMetadata().get("logprobs"))
-                                        .finishReason(content == null ? "stop" : null);
+    /**
+     * Builds the chat client request spec for one choice of a completion
+     * request. The cancellation token is handed to tools through the tool
+     * context. Every choice reads the chat memory, but only the first one
+     * records the turn, so n choices leave one question and one answer.
+     */
+    private ChatClient.ChatClientRequestSpec prepare(ChatCompletionRequest request, CancellationToken token,
+            int choiceIndex) {
+        // Prepare the prompt with messages
+        Prompt prompt = messageConverter.createPrompt(request);
 
-                                return choiceBuilder.build();
-                            })
-                            .collect(Collectors.toList());
+        // Configure chat client request spec
+        ChatClient.ChatClientRequestSpec promptSpec = chatClient.prompt(prompt)
+                .toolContext(Map.of(CancellationToken.CONTEXT_KEY, token));
 
-                    return chunkBuilder.choices(choices).build();
-                });
+        // Set conversation ID if user is provided
+        if (request.getUser() != null) {
+            promptSpec = promptSpec.advisors(ad
+                    -> ad.param(CHAT_MEMORY_CONVERSATION_ID_KEY, request.getUser()));
+        }
+        if (choiceIndex > 0) {
+            promptSpec = promptSpec.advisors(ad -> ad.param(CHAT_MEMORY_RECORD_KEY, false));
+        }
+        return promptSpec;
     }
 
     /**
@@ -0,0 +1,88 @@
+package com.moguyn.deepdesk.chat;
+
+import java.util.List;
+
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.moguyn.deepdesk.openai.model.ChatCompletionRequest;
+import com.moguyn.deepdesk.openai.model.ChatMessage;
+
+/**
+ * Estimates prompt tokens as a sum of per-message counts. Clients resend the
+ * whole conversation on every turn, so message counts are cached by content
+ * hash, and the default system prompt and tool schemas are counted once up
+ * front.
+ */
+public class PromptTokenCounter {
+
+    private final TokenCountEstimator tokenCountEstimator;
+    private final Cache<Long, Integer> messageTokens;
+    private final int systemPromptTokens;
+    private final int toolSchemaTokens;
+
+    public PromptTokenCounter(TokenCountEstimator tokenCountEstimator, long maxEntries) {
+        this(tokenCountEstimator, maxEntries, null, List.of());
+    }
+
+    public PromptTokenCounter(TokenCountEstimator tokenCountEstimator, long maxEntries,
+            String defaultSystemPrompt, List<String> toolSchemas) {
+        this.tokenCountEstimator = tokenCountEstimator;
+        this.messageTokens = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .build();
+        this.systemPromptTokens = estimate(defaultSystemPrompt);
+        this.toolSchemaTokens = toolSchemas.stream()
+                .mapToInt(this::estimate)
+                .sum();
+    }
+
+    /**
+     * Estimates the prompt tokens of a request, including the default system
+     * prompt when the request does not bring its own
+     */
+    public int count(ChatCompletionRequest request) {
+        int tokens = toolSchemaTokens;
+        boolean hasSystemMessage = false;
+        for (ChatMessage message : request.getMessages()) {
+            hasSystemMessage |= "system".equals(message.role());
+            tokens += count(message.content());
+        }
+        return hasSystemMessage ? tokens : tokens + systemPromptTokens;
+    }
+
+    /**
+     * Returns the cached token count of a message, estimating it on a miss
+     */
+    public int count(String content) {
+        if (content == null || content.isEmpty()) {
+            return 0;
+        }
+        return messageTokens.get(contentHash(content), key -> tokenCountEstimator.estimate(content));
+    }
+
+    /**
+     * Tokens counted up front for the default system prompt and tool schemas
+     */
+    public int baselineTokens() {
+        return systemPromptTokens + toolSchemaTokens;
+    }
+
+    private int estimate(String text) {
+        return text == null || text.isEmpty() ? 0 : tokenCountEstimator.estimate(text);
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-16 code units. A collision only skews an
+     * estimate, so a cryptographic digest is not worth its cost here.
+     */
+    static long contentHash(String content) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < content.length(); i++) {
+            hash ^= content.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,32 @@
+package com.moguyn.deepdesk.chat;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Thrown when a user has used up their request or token budget. Carries the
+ * x-ratelimit-* headers describing the exhausted budget.
+ */
+public class RateLimitExceededException extends AdmissionRejectedException {
+
+    private final String limitType;
+    private final Map<String, String> headers;
+
+    public RateLimitExceededException(String message, String limitType, Duration retryAfter,
+            Map<String, String> headers) {
+        super(message, retryAfter);
+        this.limitType = limitType;
+        this.headers = headers;
+    }
+
+    /**
+     * Either "requests" or "tokens"
+     */
+    public String getLimitType() {
+        return limitType;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+}
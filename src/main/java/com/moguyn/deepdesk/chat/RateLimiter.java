@@ -0,0 +1,243 @@
+package com.moguyn.deepdesk.chat;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
+import com.moguyn.deepdesk.openai.model.ChatCompletionRequest;
+import com.moguyn.deepdesk.openai.model.ChatCompletionResponse;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+
+/**
+ * Per-user request and token budgets. Every user gets a requests-per-second
+ * and a tokens-per-minute bucket. Tokens are charged up front from the prompt
+ * estimate and reconciled with the actual usage once the completion is done.
+ * Requests without a user share one anonymous budget, and a limit of zero
+ * disables that budget.
+ */
+@Slf4j
+public class RateLimiter {
+
+    private static final Duration REQUEST_PERIOD = Duration.ofSeconds(1);
+    private static final Duration TOKEN_PERIOD = Duration.ofMinutes(1);
+    private static final String ANONYMOUS = "";
+
+    private final int requestsPerSecond;
+    private final int tokensPerMinute;
+    private final PromptTokenCounter promptTokenCounter;
+    private final TokenCountEstimator tokenCountEstimator;
+    private final LongSupplier clock;
+    private final Cache<String, Buckets> buckets;
+    private final Counter requestRejections;
+    private final Counter tokenRejections;
+
+    public RateLimiter(int requestsPerSecond, int tokensPerMinute, PromptTokenCounter promptTokenCounter,
+            TokenCountEstimator tokenCountEstimator, MeterRegistry meterRegistry) {
+        this(requestsPerSecond, tokensPerMinute, promptTokenCounter, tokenCountEstimator, meterRegistry,
+                System::nanoTime);
+    }
+
+    RateLimiter(int requestsPerSecond, int tokensPerMinute, PromptTokenCounter promptTokenCounter,
+            TokenCountEstimator tokenCountEstimator, MeterRegistry meterRegistry, LongSupplier clock) {
+        this.requestsPerSecond = requestsPerSecond;
+        this.tokensPerMinute = tokensPerMinute;
+        this.promptTokenCounter = promptTokenCounter;
+        this.tokenCountEstimator = tokenCountEstimator;
+        this.clock = clock;
+        // An idle bucket refills completely, so forgetting it is lossless
+        // once it has been idle for a while
+        this.buckets = Caffeine.newBuilder()
+                .expireAfterAccess(Duration.ofMinutes(10))
+                .build();
+        this.requestRejections = rejections(meterRegistry, "requests");
+        this.tokenRejections = rejections(meterRegistry, "tokens");
+    }
+
+    public boolean isEnabled() {
+        return requestsPerSecond > 0 || tokensPerMinute > 0;
+    }
+
+    /**
+     * Charges one request and the estimated prompt tokens to the user of a
+     * request
+     *
+     * @throws RateLimitExceededException when either budget is exhausted
+     */
+    public Grant acquire(ChatCompletionRequest request) {
+        if (!isEnabled()) {
+            return new Grant(null, 0, 0, Map.of());
+        }
+        long now = clock.getAsLong();
+        String user = request.getUser() != null ? request.getUser() : ANONYMOUS;
+        Buckets userBuckets = buckets.get(user, key -> new Buckets(
+                requestsPerSecond > 0 ? new TokenBucket(requestsPerSecond, REQUEST_PERIOD, now) : null,
+                tokensPerMinute > 0 ? new TokenBucket(tokensPerMinute, TOKEN_PERIOD, now) : null));
+
+        if (userBuckets.requests() != null) {
+            long wait = userBuckets.requests().tryConsume(1, now);
+            if (wait > 0) {
+                requestRejections.increment();
+                throw rejection("requests", userBuckets, wait, now);
+            }
+        }
+
+        long estimate = 0;
+        long charged = 0;
+        if (userBuckets.tokens() != null) {
+            estimate = promptTokenCounter.count(request);
+            // An estimate above the capacity is charged as a full bucket and
+            // the rest is settled on reconciliation
+            charged = Math.min(estimate, userBuckets.tokens().capacity());
+            long wait = userBuckets.tokens().tryConsume(charged, now);
+            if (wait > 0) {
+                if (userBuckets.requests() != null) {
+                    userBuckets.requests().adjust(-1, now);
+                }
+                tokenRejections.increment();
+                throw rejection("tokens", userBuckets, wait, now);
+            }
+        }
+        return new Grant(userBuckets, estimate, charged, headers(userBuckets, now));
+    }
+
+    private RateLimitExceededException rejection(String limitType, Buckets userBuckets, long waitNanos, long now) {
+        log.debug("Rate limit reached for {}", limitType);
+        Duration retryAfter = Duration.ofNanos(waitNanos);
+        return new RateLimitExceededException("Rate limit reached for " + limitType + ", please retry after "
+                + formatReset(waitNanos), limitType, retryAfter, headers(userBuckets, now));
+    }
+
+    private static Map<String, String> headers(Buckets userBuckets, long now) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        addHeaders(headers, "requests", userBuckets.requests(), now);
+        addHeaders(headers, "tokens", userBuckets.tokens(), now);
+        return headers;
+    }
+
+    private static void addHeaders(Map<String, String> headers, String limitType, TokenBucket bucket, long now) {
+        if (bucket == null) {
+            return;
+        }
+        headers.put("x-ratelimit-limit-" + limitType, String.valueOf(bucket.capacity()));
+        headers.put("x-ratelimit-remaining-" + limitType, String.valueOf(bucket.remaining(now)));
+        headers.put("x-ratelimit-reset-" + limitType, formatReset(bucket.resetNanos(now)));
+    }
+
+    /**
+     * Formats a duration the way OpenAI does in reset headers, e.g. 120ms,
+     * 1.5s or 6m0s
+     */
+    static String formatReset(long nanos) {
+        long millis = (long) Math.ceil(nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+        if (millis < 1000) {
+            return millis + "ms";
+        }
+        long minutes = millis / 60_000;
+        String seconds = BigDecimal.valueOf(millis % 60_000, 3).stripTrailingZeros().toPlainString() + "s";
+        return minutes > 0 ? minutes + "m" + seconds : seconds;
+    }
+
+    private static Counter rejections(MeterRegistry meterRegistry, String limitType) {
+        return Counter.builder("deepdesk.ratelimit.rejected")
+                .description("Requests rejected by the per-user rate limit")
+                .tag("limit", limitType)
+                .register(meterRegistry);
+    }
+
+    private record Buckets(TokenBucket requests, TokenBucket tokens) {
+
+    }
+
+    /**
+     * Budget granted to one request. The token charge is reconciled at most
+     * once, with the reported usage when there is one and a local count of
+     * the generated text otherwise.
+     */
+    public final class Grant {
+
+        private final Buckets userBuckets;
+        private final long estimatedTokens;
+        private final long chargedTokens;
+        private final Map<String, String> headers;
+        private final AtomicBoolean reconciled = new AtomicBoolean();
+
+        private Grant(Buckets userBuckets, long estimatedTokens, long chargedTokens, Map<String, String> headers) {
+            this.userBuckets = userBuckets;
+            this.estimatedTokens = estimatedTokens;
+            this.chargedTokens = chargedTokens;
+            this.headers = headers;
+        }
+
+        /**
+         * x-ratelimit-* headers as of the time the request was admitted
+         */
+        public Map<String, String> headers() {
+            return headers;
+        }
+
+        /**
+         * Reconciles with the usage of a finished blocking completion
+         */
+        public void complete(ChatCompletionResponse response) {
+            if (response != null && response.getUsage() != null && response.getUsage().totalTokens() != null) {
+                reconcile(response.getUsage().totalTokens());
+            }
+        }
+
+        /**
+         * Reconciles once the stream terminates, however it terminates
+         */
+        public Flux<ChatCompletionChunk> track(Flux<ChatCompletionChunk> chunks) {
+            if (userBuckets == null || userBuckets.tokens() == null) {
+                return chunks;
+            }
+            return Flux.defer(() -> {
+                StreamUsageCounter counter = new StreamUsageCounter(tokenCountEstimator);
+                Integer[] reported = {null};
+                return chunks
+                        .doOnNext(chunk -> observe(chunk, counter, reported))
+                        .doFinally(signal -> reconcile(reported[0] != null
+                                ? reported[0]
+                                : estimatedTokens + counter.completionTokens()));
+            });
+        }
+
+        /**
+         * Charges the difference between the actual tokens and the tokens
+         * charged on admission
+         */
+        public void reconcile(long actualTokens) {
+            if (userBuckets == null || userBuckets.tokens() == null || !reconciled.compareAndSet(false, true)) {
+                return;
+            }
+            userBuckets.tokens().adjust(actualTokens - chargedTokens, clock.getAsLong());
+        }
+
+        private void observe(ChatCompletionChunk chunk, StreamUsageCounter counter, Integer[] reported) {
+            if (chunk.getUsage() != null && chunk.getUsage().totalTokens() != null) {
+                reported[0] = chunk.getUsage().totalTokens();
+            }
+            if (chunk.getChoices() == null) {
+                return;
+            }
+            for (ChatCompletionChunk.ChunkChoice choice : chunk.getChoices()) {
+                if (choice.getDelta() != null) {
+                    counter.accept(choice.getDelta().content());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.moguyn.deepdesk.chat;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.moguyn.deepdesk.openai.model.ChatCompletionRequest;
+
+/**
+ * Canonical hashes of completion requests, stable across property order
+ */
+final class RequestKeys {
+
+    private static final ObjectMapper CANONICAL_MAPPER = JsonMapper.builder()
+            .enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY)
+            .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+            .build();
+
+    private RequestKeys() {
+    }
+
+    /**
+     * SHA-256 of the request serialized with sorted properties, leaving out
+     * the given JSON fields
+     */
+    static String hash(ChatCompletionRequest request, String... ignoredFields) {
+        try {
+            ObjectNode canonical = CANONICAL_MAPPER.valueToTree(request);
+            canonical.remove(List.of(ignoredFields));
+            byte[] bytes = CANONICAL_MAPPER.writeValueAsBytes(canonical);
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Unable to hash completion request", e);
+        }
+    }
+}
@@ -1,11 +1,13 @@
 package com.moguyn.deepdesk.chat;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
+import org.springframework.ai.chat.metadata.Usage;
 import org.springframework.ai.tokenizer.TokenCountEstimator;
 import org.springframework.stereotype.Component;
 
+import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
 import com.moguyn.deepdesk.openai.model.ChatCompletionRequest;
 import com.moguyn.deepdesk.openai.model.ChatCompletionResponse;
 import com.moguyn.deepdesk.openai.model.ChatMessage;
@@ -22,22 +24,37 @@ import lombok.RequiredArgsConstructor;
 public class ResponseBuilder {
 
     private final TokenCountEstimator tokenCountEstimator;
+    private final PromptTokenCounter promptTokenCounter;
 
     /**
      * Builds a complete ChatCompletionResponse from a request and reply content
      */
     public ChatCompletionResponse buildResponse(ChatCompletionRequest request, String reply) {
+        return buildResponse(request, List.of(reply));
+    }
+
+    /**
+     * Builds a ChatCompletionResponse with one choice per reply, in order.
+     * The prompt is counted once and the completion tokens of all choices
+     * are summed.
+     */
+    public ChatCompletionResponse buildResponse(ChatCompletionRequest request, List<String> replies) {
         // Estimate token usage
         int promptTokens = estimatePromptTokens(request);
-        int completionTokens = estimateTokenCount(reply);
-        int totalTokens = promptTokens + completionTokens;
+        int completionTokens = 0;
+        List<Choice> choices = new ArrayList<>(replies.size());
+        for (int index = 0; index < replies.size(); index++) {
+            String reply = replies.get(index);
+            completionTokens += estimateTokenCount(reply);
 
-        // Create a choice with the AI response
-        Choice choice = new Choice(
-                0,
-                ChatMessage.of("assistant", reply),
-                "stop",
-                null);
+            // Create a choice with the AI response
+            choices.add(new Choice(
+                    index,
+                    ChatMessage.of("assistant", reply),
+                    "stop",
+                    null));
+        }
+        int totalTokens = promptTokens + completionTokens;
 
         // Create OpenAI usage information
         OpenAiUsage usage = new OpenAiUsage(promptTokens, completionTokens, totalTokens);
@@ -49,18 +66,94 @@ public class ResponseBuilder {
                 System.currentTimeMillis() / 1000,
                 request.getModel(),
                 null, // system fingerprint
-                List.of(choice),
+                choices,
                 usage
         );
     }
 
+    /**
+     * Builds the chunks that replay a complete reply as a stream: one chunk
+     * with the whole content, one with the finish reason and, when asked
+     * for, a trailing usage chunk
+     */
+    public List<ChatCompletionChunk> buildChunks(ChatCompletionRequest request, String reply, boolean includeUsage) {
+        String id = generateResponseId();
+        long created = System.currentTimeMillis() / 1000;
+
+        List<ChatCompletionChunk> chunks = new ArrayList<>(3);
+        chunks.add(chunkBuilder(id, created, request)
+                .choices(List.of(ChatCompletionChunk.ChunkChoice.builder()
+                        .index(0)
+                        .delta(ChatMessage.of("assistant", reply))
+                        .build()))
+                .build());
+        chunks.add(chunkBuilder(id, created, request)
+                .choices(List.of(ChatCompletionChunk.ChunkChoice.builder()
+                        .index(0)
+                        .delta(ChatMessage.of("", null))
+                        .finishReason("stop")
+                        .build()))
+                .build());
+        if (includeUsage) {
+            int promptTokens = estimatePromptTokens(request);
+            int completionTokens = estimateTokenCount(reply);
+            chunks.add(chunkBuilder(id, created, request)
+                    .choices(List.of())
+                    .usage(new OpenAiUsage(promptTokens, completionTokens, promptTokens + completionTokens))
+                    .build());
+        }
+        return chunks;
+    }
+
+    private static ChatCompletionChunk.ChatCompletionChunkBuilder chunkBuilder(String id, long created,
+            ChatCompletionRequest request) {
+        return ChatCompletionChunk.builder()
+                .id(id)
+                .object("chat.completion.chunk")
+                .created(created)
+                .model(request.getModel());
+    }
+
+    /**
+     * Creates a usage counter for a single streamed completion
+     */
+    public StreamUsageCounter usageCounter() {
+        return new StreamUsageCounter(tokenCountEstimator);
+    }
+
+    /**
+     * Builds the usage of a streamed completion, preferring the numbers
+     * reported by the provider over the incremental estimate
+     */
+    public OpenAiUsage buildStreamUsage(ChatCompletionRequest request, StreamUsageCounter counter) {
+        return buildStreamUsage(request, List.of(counter));
+    }
+
+    /**
+     * Builds the usage of a multi-choice stream with one counter per choice.
+     * The prompt is counted once, completion tokens are summed.
+     */
+    public OpenAiUsage buildStreamUsage(ChatCompletionRequest request, List<StreamUsageCounter> counters) {
+        Integer reportedPromptTokens = null;
+        int completionTokens = 0;
+        for (StreamUsageCounter counter : counters) {
+            Usage reported = counter.reportedUsage();
+            if (reportedPromptTokens == null && reported != null) {
+                reportedPromptTokens = reported.getPromptTokens();
+            }
+            completionTokens += reported != null && reported.getCompletionTokens() != null
+                    ? reported.getCompletionTokens()
+                    : counter.completionTokens();
+        }
+        int promptTokens = reportedPromptTokens != null ? reportedPromptTokens : estimatePromptTokens(request);
+        return new OpenAiUsage(promptTokens, completionTokens, promptTokens + completionTokens);
+    }
+
     /**
      * Estimates tokens for the entire prompt from a request
      */
     private int estimatePromptTokens(ChatCompletionRequest request) {
-        return estimateTokenCount(request.getMessages().stream()
-                .map(ChatMessage::content)
-                .collect(Collectors.joining()));
+        return promptTokenCounter.count(request);
     }
 
     /**
@@ -0,0 +1,428 @@
+package com.moguyn.deepdesk.chat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.http.codec.ServerSentEvent;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Keeps streamed completions alive across client reconnects. Every event
+ * gets an id made of the stream id and a sequence number, and recent events
+ * are kept in a replay buffer. The generation is decoupled from the
+ * connection: when the client drops, the stream keeps running for a grace
+ * period, and a reconnect that sends the last event id it saw continues with
+ * the next event instead of starting a second generation. Buffers are capped
+ * per stream and across all streams: past the stream cap the oldest events of
+ * that stream are dropped, past the total cap the oldest events of any stream,
+ * and a reconnect from before dropped events is not resumable. A zero grace
+ * period disables resuming.
+ * <p>
+ * Clients read from the replay buffer as fast as they request events, so a
+ * slow client costs no memory beyond the buffer; a client that falls behind
+ * the events the buffer still holds is ended with an error. While no client
+ * is attached, the generation keeps its admission permit and token budget
+ * until the grace period ends, so a long grace period keeps capacity taken
+ * by clients that are gone for good.
+ */
+@Slf4j
+public class ResumableStreams {
+
+    private final Duration gracePeriod;
+    private final long maxBytesPerStream;
+    private final long maxTotalBytes;
+    private final Scheduler timer;
+    private final Map<String, Replay> streams = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong arrivals = new AtomicLong();
+
+    private final Counter resumed;
+    private final Counter abandoned;
+
+    public ResumableStreams(Duration gracePeriod, long maxBytesPerStream, long maxTotalBytes,
+            MeterRegistry meterRegistry) {
+        this(gracePeriod, maxBytesPerStream, maxTotalBytes, Schedulers.parallel(), meterRegistry);
+    }
+
+    ResumableStreams(Duration gracePeriod, long maxBytesPerStream, long maxTotalBytes, Scheduler timer,
+            MeterRegistry meterRegistry) {
+        this.gracePeriod = gracePeriod != null ? gracePeriod : Duration.ZERO;
+        this.maxBytesPerStream = maxBytesPerStream;
+        this.maxTotalBytes = maxTotalBytes;
+        this.timer = timer;
+
+        this.resumed = Counter.builder("deepdesk.stream.resumed")
+                .description("Streams continued by a reconnecting client")
+                .register(meterRegistry);
+        this.abandoned = Counter.builder("deepdesk.stream.abandoned")
+                .description("Streams cancelled after no client reconnected within the grace period")
+                .register(meterRegistry);
+        meterRegistry.gauge("deepdesk.stream.replay.bytes", totalBytes);
+        meterRegistry.gauge("deepdesk.stream.replay.streams", streams, Map::size);
+    }
+
+    public boolean isEnabled() {
+        return !gracePeriod.isZero() && !gracePeriod.isNegative() && maxBytesPerStream > 0 && maxTotalBytes > 0;
+    }
+
+    /**
+     * Turns the encoded chunks of a new stream into SSE events carrying ids.
+     * The chunks are subscribed once, by the first connection, and stay
+     * subscribed while a client is attached or the grace period runs.
+     */
+    public Flux<ServerSentEvent<String>> open(Flux<String> data, String user) {
+        if (!isEnabled()) {
+            return data.map(json -> ServerSentEvent.builder(json).build());
+        }
+        String streamId = UUID.randomUUID().toString().replace("-", "");
+        Replay replay = new Replay(streamId, user, data);
+        streams.put(streamId, replay);
+        replay.awaitClient();
+        return replay.attach(0);
+    }
+
+    /**
+     * Continues a stream after the event a client saw last. Returns null
+     * when the stream is unknown, has expired, belongs to another user or
+     * no longer buffers the events that follow.
+     */
+    public Flux<ServerSentEvent<String>> resume(String lastEventId, String user) {
+        if (!isEnabled() || lastEventId == null) {
+            return null;
+        }
+        int separator = lastEventId.lastIndexOf(':');
+        if (separator < 0) {
+            return null;
+        }
+        Replay replay = streams.get(lastEventId.substring(0, separator));
+        long after;
+        try {
+            after = Long.parseLong(lastEventId.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (replay == null || !Objects.equals(replay.user, user) || !replay.canResumeAfter(after)) {
+            return null;
+        }
+        resumed.increment();
+        log.debug("Resuming stream {} after event {}", replay.streamId, after);
+        return replay.attach(after);
+    }
+
+    /**
+     * Bytes currently held by all replay buffers
+     */
+    public long bufferedBytes() {
+        return totalBytes.get();
+    }
+
+    /**
+     * Drops the oldest buffered events across all streams until the buffers
+     * fit the total cap again. Streams are locked one at a time, so streams
+     * reclaiming concurrently cannot deadlock.
+     */
+    private void reclaim() {
+        while (totalBytes.get() > maxTotalBytes) {
+            Replay oldest = null;
+            long oldestArrival = Long.MAX_VALUE;
+            for (Replay replay : streams.values()) {
+                long arrival = replay.oldestArrival();
+                if (arrival < oldestArrival) {
+                    oldest = replay;
+                    oldestArrival = arrival;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            oldest.evictOldest(oldestArrival);
+        }
+    }
+
+    /**
+     * A buffered event. The arrival orders events across streams.
+     */
+    private record Event(long sequence, long arrival, String data, long bytes) {
+
+    }
+
+    /**
+     * One stream and its replay buffer. Upstream signals, attaching clients,
+     * their requests and the grace timer race, hence all state is guarded by
+     * the replay. Buffered events are held from head on in arrival order, so
+     * an event is found by its sequence.
+     */
+    private final class Replay {
+
+        private final String streamId;
+        private final String user;
+        private final Flux<String> source;
+        private final List<Event> buffer = new ArrayList<>();
+        private final List<Client> clients = new ArrayList<>();
+        private int head;
+        private Disposable upstream;
+        private Disposable graceTimer;
+        private long sequence;
+        private long bytes;
+        private boolean terminated;
+        private Throwable error;
+
+        Replay(String streamId, String user, Flux<String> source) {
+            this.streamId = streamId;
+            this.user = user;
+            this.source = source;
+        }
+
+        Flux<ServerSentEvent<String>> attach(long after) {
+            // Events are only emitted against demand, so none should overflow
+            return Flux.create(sink -> {
+                Client client = new Client(sink, after);
+                boolean subscribe;
+                synchronized (this) {
+                    clients.add(client);
+                    cancelGraceTimer();
+                    subscribe = upstream == null && !terminated;
+                    if (subscribe) {
+                        // Mark the upstream as taken before subscribing outside the lock
+                        upstream = Disposables.composite();
+                    }
+                }
+                sink.onRequest(requested -> drain(client));
+                sink.onDispose(() -> detach(client));
+                if (subscribe) {
+                    Disposable subscription = source.subscribe(this::onNext, this::onError, this::onComplete);
+                    synchronized (this) {
+                        if (terminated || streams.get(streamId) != this) {
+                            subscription.dispose();
+                        }
+                        upstream = subscription;
+                    }
+                }
+            }, FluxSink.OverflowStrategy.ERROR);
+        }
+
+        /**
+         * Hands a client the buffered events it has asked for, then ends it
+         * once it has seen every event of a finished stream. Emitting can
+         * lead the client to request more, which drains again on the same
+         * thread; that call only flags the outer one to loop.
+         */
+        private synchronized void drain(Client client) {
+            if (client.draining) {
+                client.drainAgain = true;
+                return;
+            }
+            client.draining = true;
+            try {
+                do {
+                    client.drainAgain = false;
+                    while (client.delivered < sequence && client.sink.requestedFromDownstream() > 0) {
+                        Event event = event(client.delivered + 1);
+                        if (event == null) {
+                            clients.remove(client);
+                            client.sink.error(new IllegalStateException("Stream " + streamId
+                                    + " no longer buffers event " + (client.delivered + 1)));
+                            return;
+                        }
+                        client.delivered = event.sequence();
+                        client.sink.next(toSse(event));
+                    }
+                    if (terminated && client.delivered >= sequence && clients.remove(client)) {
+                        if (clients.isEmpty()) {
+                            startGraceTimer();
+                        }
+                        if (error != null) {
+                            client.sink.error(error);
+                        } else {
+                            client.sink.complete();
+                        }
+                        return;
+                    }
+                } while (client.drainAgain);
+            } finally {
+                client.draining = false;
+            }
+        }
+
+        /**
+         * Buffered event with a sequence, or null when it was dropped
+         */
+        private Event event(long eventSequence) {
+            if (head == buffer.size()) {
+                return null;
+            }
+            long index = head + (eventSequence - buffer.get(head).sequence());
+            return index >= head && index < buffer.size() ? buffer.get((int) index) : null;
+        }
+
+        private Event oldest() {
+            return head < buffer.size() ? buffer.get(head) : null;
+        }
+
+        private Event pollOldest() {
+            Event event = buffer.get(head);
+            buffer.set(head++, null);
+            // Compacts once most of the list is dropped events
+            if (head > 64 && head * 2 > buffer.size()) {
+                buffer.subList(0, head).clear();
+                head = 0;
+            }
+            return event;
+        }
+
+        /**
+         * Drops the stream if the connection that opened it never subscribes
+         */
+        synchronized void awaitClient() {
+            startGraceTimer();
+        }
+
+        synchronized boolean canResumeAfter(long after) {
+            long oldest = oldest() == null ? sequence + 1 : oldest().sequence();
+            return after >= oldest - 1 && after <= sequence;
+        }
+
+        private void onNext(String data) {
+            synchronized (this) {
+                Event event = new Event(++sequence, arrivals.incrementAndGet(), data, 2L * data.length());
+                buffer.add(event);
+                bytes += event.bytes();
+                totalBytes.addAndGet(event.bytes());
+                while (oldest() != null && bytes > maxBytesPerStream) {
+                    evict(pollOldest());
+                }
+                // A client may cancel, and so detach, while being handed the event
+                for (Client client : List.copyOf(clients)) {
+                    drain(client);
+                }
+            }
+            if (totalBytes.get() > maxTotalBytes) {
+                reclaim();
+            }
+        }
+
+        /**
+         * Arrival of the oldest buffered event, or Long.MAX_VALUE when the
+         * buffer is empty
+         */
+        synchronized long oldestArrival() {
+            return oldest() == null ? Long.MAX_VALUE : oldest().arrival();
+        }
+
+        /**
+         * Drops the oldest buffered event if it is still the one that arrived
+         * at the given time
+         */
+        synchronized void evictOldest(long arrival) {
+            if (oldest() != null && oldest().arrival() == arrival) {
+                evict(pollOldest());
+            }
+        }
+
+        /**
+         * Ends the stream for every client once it has seen the events it
+         * has not received yet
+         */
+        private synchronized void onError(Throwable e) {
+            error = e;
+            onComplete();
+        }
+
+        private synchronized void onComplete() {
+            terminated = true;
+            if (clients.isEmpty()) {
+                startGraceTimer();
+            }
+            for (Client client : List.copyOf(clients)) {
+                drain(client);
+            }
+        }
+
+        private synchronized void detach(Client client) {
+            if (clients.remove(client) && clients.isEmpty()) {
+                log.debug("Client left stream {}, keeping it for {}", streamId, gracePeriod);
+                startGraceTimer();
+            }
+        }
+
+        /**
+         * Holds on to the stream for the grace period once no client is
+         * attached. A running generation is cancelled when nobody has come
+         * back by then; a finished one is only kept for late reconnects.
+         */
+        private void startGraceTimer() {
+            cancelGraceTimer();
+            graceTimer = timer.schedule(this::expire, gracePeriod.toMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        private void cancelGraceTimer() {
+            if (graceTimer != null) {
+                graceTimer.dispose();
+                graceTimer = null;
+            }
+        }
+
+        private void expire() {
+            Disposable subscription;
+            synchronized (this) {
+                if (!clients.isEmpty()) {
+                    return;
+                }
+                streams.remove(streamId, this);
+                while (oldest() != null) {
+                    evict(pollOldest());
+                }
+                subscription = terminated ? null : upstream;
+                terminated = true;
+            }
+            if (subscription != null) {
+                log.debug("No client came back to stream {}, cancelling it", streamId);
+                abandoned.increment();
+                subscription.dispose();
+            }
+        }
+
+        private void evict(Event event) {
+            bytes -= event.bytes();
+            totalBytes.addAndGet(-event.bytes());
+        }
+
+        private ServerSentEvent<String> toSse(Event event) {
+            return ServerSentEvent.builder(event.data())
+                    .id(streamId + ":" + event.sequence())
+                    .build();
+        }
+    }
+
+    /**
+     * A connection reading a stream, and the last event it was handed
+     */
+    private static final class Client {
+
+        private final FluxSink<ServerSentEvent<String>> sink;
+        private long delivered;
+        private boolean draining;
+        private boolean drainAgain;
+
+        Client(FluxSink<ServerSentEvent<String>> sink, long after) {
+            this.sink = sink;
+            this.delivered = after;
+        }
+    }
+}
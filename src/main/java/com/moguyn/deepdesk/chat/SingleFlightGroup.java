@@ -0,0 +1,153 @@
+package com.moguyn.deepdesk.chat;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
+import com.moguyn.deepdesk.openai.model.ChatCompletionRequest;
+import com.moguyn.deepdesk.openai.model.ChatCompletionResponse;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Collapses identical chat completion requests that are in flight at the same
+ * time into a single upstream generation. Requests are identical when model,
+ * messages, sampling parameters and user all match. Streams are replayed to
+ * every subscriber from the start, so a late follower still sees the whole
+ * completion.
+ */
+@Slf4j
+public class SingleFlightGroup {
+
+    private final boolean enabled;
+    private final Map<String, CompletableFuture<ChatCompletionResponse>> calls = new ConcurrentHashMap<>();
+    private final Map<String, Mono<ChatCompletionResponse>> monos = new ConcurrentHashMap<>();
+    private final Map<String, Flux<ChatCompletionChunk>> streams = new ConcurrentHashMap<>();
+    private final Counter collapsedCalls;
+    private final Counter collapsedStreams;
+
+    public SingleFlightGroup(boolean enabled, MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.collapsedCalls = Counter.builder("deepdesk.singleflight.collapsed")
+                .description("Completion requests served by an identical in-flight request")
+                .tag("mode", "call")
+                .register(meterRegistry);
+        this.collapsedStreams = Counter.builder("deepdesk.singleflight.collapsed")
+                .description("Completion requests served by an identical in-flight request")
+                .tag("mode", "stream")
+                .register(meterRegistry);
+        meterRegistry.gauge("deepdesk.singleflight.inflight", this, SingleFlightGroup::inFlight);
+    }
+
+    /**
+     * Runs a blocking completion, or waits for the identical one already
+     * running
+     */
+    public ChatCompletionResponse call(ChatCompletionRequest request, Supplier<ChatCompletionResponse> completion) {
+        if (!enabled) {
+            return completion.get();
+        }
+        String key = key(request);
+        CompletableFuture<ChatCompletionResponse> leader = new CompletableFuture<>();
+        CompletableFuture<ChatCompletionResponse> existing = calls.putIfAbsent(key, leader);
+        if (existing != null) {
+            collapsedCalls.increment();
+            log.debug("Joining in-flight completion {}", key);
+            return join(existing);
+        }
+        try {
+            ChatCompletionResponse response = completion.get();
+            leader.complete(response);
+            return response;
+        } catch (RuntimeException e) {
+            leader.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, leader);
+        }
+    }
+
+    /**
+     * Shares a non-blocking completion between identical requests. The
+     * upstream is cancelled only when every caller has cancelled.
+     */
+    public Mono<ChatCompletionResponse> mono(ChatCompletionRequest request,
+            Supplier<Mono<ChatCompletionResponse>> completion) {
+        if (!enabled) {
+            return completion.get();
+        }
+        String key = key(request);
+        return Mono.defer(() -> {
+            boolean[] leader = {false};
+            Mono<ChatCompletionResponse> shared = monos.computeIfAbsent(key, k -> {
+                leader[0] = true;
+                Mono<ChatCompletionResponse> source = completion.get();
+                return source
+                        .doFinally(signal -> monos.remove(k))
+                        .share();
+            });
+            if (!leader[0]) {
+                collapsedCalls.increment();
+            }
+            return shared;
+        });
+    }
+
+    /**
+     * Shares a streamed completion between identical requests. Chunks are
+     * kept for replay until the stream terminates, and the upstream is
+     * cancelled once the last subscriber leaves.
+     */
+    public Flux<ChatCompletionChunk> stream(ChatCompletionRequest request,
+            Supplier<Flux<ChatCompletionChunk>> completion) {
+        if (!enabled) {
+            return completion.get();
+        }
+        String key = key(request);
+        boolean[] leader = {false};
+        Flux<ChatCompletionChunk> shared = streams.computeIfAbsent(key, k -> {
+            leader[0] = true;
+            return completion.get()
+                    .doFinally(signal -> streams.remove(k))
+                    .replay()
+                    .refCount();
+        });
+        if (!leader[0]) {
+            collapsedStreams.increment();
+            log.debug("Attaching to in-flight stream {}", key);
+        }
+        return shared;
+    }
+
+    /**
+     * Number of distinct completions currently shared
+     */
+    public int inFlight() {
+        return calls.size() + monos.size() + streams.size();
+    }
+
+    /**
+     * Canonical hash of everything that affects the generated completion
+     */
+    static String key(ChatCompletionRequest request) {
+        return RequestKeys.hash(request);
+    }
+
+    private static ChatCompletionResponse join(CompletableFuture<ChatCompletionResponse> inFlight) {
+        try {
+            return inFlight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
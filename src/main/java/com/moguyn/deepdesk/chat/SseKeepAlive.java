@@ -0,0 +1,65 @@
+package com.moguyn.deepdesk.chat;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.http.codec.ServerSentEvent;
+
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Wraps encoded chunks in SSE events and sends a comment line whenever the
+ * stream has been silent for a whole interval, e.g. while the model is busy
+ * with tool calls. Comments are ignored by SSE clients but keep proxies and
+ * load balancers from closing an idle connection. A zero interval disables
+ * the heartbeat.
+ */
+public class SseKeepAlive {
+
+    static final String COMMENT = "keepalive";
+
+    private final Duration interval;
+    private final Scheduler timer;
+
+    public SseKeepAlive(Duration interval) {
+        this(interval, Schedulers.parallel());
+    }
+
+    SseKeepAlive(Duration interval, Scheduler timer) {
+        this.interval = interval != null ? interval : Duration.ZERO;
+        this.timer = timer;
+    }
+
+    public boolean isEnabled() {
+        return !interval.isZero() && !interval.isNegative();
+    }
+
+    /**
+     * Turns each encoded chunk into a data event, adding heartbeat comments
+     * until the data stream terminates
+     */
+    public Flux<ServerSentEvent<String>> apply(Flux<String> data) {
+        return keepAlive(data.map(json -> ServerSentEvent.builder(json).build()));
+    }
+
+    /**
+     * Adds heartbeat comments to a stream of events until it terminates
+     */
+    public Flux<ServerSentEvent<String>> keepAlive(Flux<ServerSentEvent<String>> events) {
+        if (!isEnabled()) {
+            return events;
+        }
+        return Flux.defer(() -> {
+            AtomicLong lastEvent = new AtomicLong(timer.now(TimeUnit.NANOSECONDS));
+            return events.publish(shared -> Flux.merge(
+                    shared.doOnNext(event -> lastEvent.set(timer.now(TimeUnit.NANOSECONDS))),
+                    Flux.interval(interval, timer)
+                            .filter(tick -> timer.now(TimeUnit.NANOSECONDS) - lastEvent.get() >= interval.toNanos())
+                            .map(tick -> ServerSentEvent.<String>builder().comment(COMMENT).build())
+                            .takeUntilOther(shared.ignoreElements())));
+        });
+    }
+}
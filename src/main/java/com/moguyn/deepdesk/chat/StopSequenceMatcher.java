@@ -0,0 +1,261 @@
+package com.moguyn.deepdesk.chat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.function.Function;
+
+import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
+import com.moguyn.deepdesk.openai.model.ChatMessage;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SynchronousSink;
+
+/**
+ * Enforces the stop sequences of a request on the generated text, for
+ * providers that ignore or only partly honour {@code stop}. All sequences are
+ * compiled into one Aho-Corasick automaton, so every character is examined a
+ * constant number of times however many sequences there are. A stream holds
+ * back only the tail that could still turn into a stop sequence, so matches
+ * spanning several deltas are caught. On a match the output is truncated
+ * before the sequence, the choice finishes with {@code stop} and the upstream
+ * is cancelled.
+ */
+@Slf4j
+public class StopSequenceMatcher implements Function<Flux<ChatCompletionChunk>, Flux<ChatCompletionChunk>> {
+
+    private static final StopSequenceMatcher NONE = new StopSequenceMatcher(List.of());
+
+    private final List<Map<Character, Integer>> edges = new ArrayList<>();
+    private final List<Integer> failures = new ArrayList<>();
+    private final List<Integer> depths = new ArrayList<>();
+    private final List<Integer> matchLengths = new ArrayList<>();
+
+    private StopSequenceMatcher(List<String> sequences) {
+        addNode(0);
+        for (String sequence : sequences) {
+            int node = 0;
+            for (int i = 0; i < sequence.length(); i++) {
+                Integer next = edges.get(node).get(sequence.charAt(i));
+                if (next == null) {
+                    next = addNode(i + 1);
+                    edges.get(node).put(sequence.charAt(i), next);
+                }
+                node = next;
+            }
+            matchLengths.set(node, sequence.length());
+        }
+        linkFailures();
+    }
+
+    /**
+     * Compiles the stop sequences of a request. Null and empty sequences are
+     * ignored.
+     */
+    public static StopSequenceMatcher compile(List<String> sequences) {
+        if (sequences == null) {
+            return NONE;
+        }
+        List<String> usable = sequences.stream()
+                .filter(sequence -> sequence != null && !sequence.isEmpty())
+                .toList();
+        return usable.isEmpty() ? NONE : new StopSequenceMatcher(usable);
+    }
+
+    public boolean isEnabled() {
+        return matchLengths.size() > 1;
+    }
+
+    /**
+     * Cuts a complete reply before its first stop sequence
+     */
+    public String truncate(String text) {
+        if (!isEnabled() || text == null) {
+            return text;
+        }
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            state = next(state, text.charAt(i));
+            if (matchLengths.get(state) > 0) {
+                return text.substring(0, i + 1 - matchLengths.get(state));
+            }
+        }
+        return text;
+    }
+
+    /**
+     * Applies the stop sequences to the chunk stream of a single choice
+     */
+    @Override
+    public Flux<ChatCompletionChunk> apply(Flux<ChatCompletionChunk> chunks) {
+        if (!isEnabled()) {
+            return chunks;
+        }
+        return Flux.defer(() -> {
+            Scanner scanner = new Scanner();
+            return chunks.<ChatCompletionChunk>handle(scanner::onChunk)
+                    .concatWith(Mono.fromSupplier(scanner::flush));
+        });
+    }
+
+    private int addNode(int depth) {
+        edges.add(new HashMap<>(4));
+        failures.add(0);
+        depths.add(depth);
+        matchLengths.add(0);
+        return edges.size() - 1;
+    }
+
+    /**
+     * Breadth-first pass that points every node at its longest proper suffix
+     * in the trie. A node inherits the match of its suffix, so a sequence
+     * that ends inside a longer one is still reported where it ends.
+     */
+    private void linkFailures() {
+        Queue<Integer> queue = new ArrayDeque<>(edges.get(0).values());
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (Map.Entry<Character, Integer> edge : edges.get(node).entrySet()) {
+                int child = edge.getValue();
+                int failure = node == 0 ? 0 : next(failures.get(node), edge.getKey());
+                failures.set(child, failure);
+                if (matchLengths.get(child) == 0) {
+                    matchLengths.set(child, matchLengths.get(failure));
+                }
+                queue.add(child);
+            }
+        }
+    }
+
+    private int next(int state, char c) {
+        while (true) {
+            Integer next = edges.get(state).get(c);
+            if (next != null) {
+                return next;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = failures.get(state);
+        }
+    }
+
+    /**
+     * Per-subscription matching state. The held back text is always the
+     * longest suffix of the output that is a prefix of some stop sequence.
+     */
+    private final class Scanner {
+
+        private final StringBuilder held = new StringBuilder();
+        private int state;
+        private ChatCompletionChunk last;
+
+        void onChunk(ChatCompletionChunk chunk, SynchronousSink<ChatCompletionChunk> sink) {
+            last = chunk;
+            if (chunk.getChoices() == null || chunk.getChoices().isEmpty()) {
+                sink.next(chunk);
+                return;
+            }
+            List<ChatCompletionChunk.ChunkChoice> choices = new ArrayList<>(chunk.getChoices().size());
+            for (ChatCompletionChunk.ChunkChoice choice : chunk.getChoices()) {
+                String content = choice.getDelta() != null ? choice.getDelta().content() : null;
+                int stop = scan(content);
+                if (stop >= 0) {
+                    log.debug("Stop sequence matched, cancelling generation");
+                    choices.add(withContent(choice, held.substring(0, stop), "stop"));
+                    held.setLength(0);
+                    sink.next(withChoices(chunk, choices));
+                    sink.complete();
+                    return;
+                }
+                if (choice.getFinishReason() != null) {
+                    // The generation ended on its own, release what was held back
+                    choices.add(withContent(choice, held.isEmpty() ? content : held.toString(),
+                            choice.getFinishReason()));
+                    held.setLength(0);
+                    state = 0;
+                } else {
+                    String released = release();
+                    if (content == null || content.isEmpty() || !released.isEmpty()) {
+                        choices.add(withContent(choice, content == null ? null : released, null));
+                    }
+                }
+            }
+            if (!choices.isEmpty()) {
+                sink.next(withChoices(chunk, choices));
+            }
+        }
+
+        /**
+         * Emits text still held back when the upstream ended without a
+         * finish reason
+         */
+        ChatCompletionChunk flush() {
+            if (held.isEmpty() || last == null || last.getChoices() == null
+                    || last.getChoices().isEmpty()) {
+                return null;
+            }
+            ChatCompletionChunk.ChunkChoice choice = withContent(last.getChoices().get(0), held.toString(), null);
+            held.setLength(0);
+            return withChoices(last, List.of(choice));
+        }
+
+        /**
+         * Appends a delta to the held back text and returns the offset of
+         * the first stop sequence in it, or -1 when there is none yet
+         */
+        private int scan(String content) {
+            if (content == null) {
+                return -1;
+            }
+            for (int i = 0; i < content.length(); i++) {
+                held.append(content.charAt(i));
+                state = next(state, content.charAt(i));
+                if (matchLengths.get(state) > 0) {
+                    return held.length() - matchLengths.get(state);
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Removes and returns the held back text that can no longer become
+         * part of a stop sequence
+         */
+        private String release() {
+            int keep = depths.get(state);
+            String released = held.substring(0, held.length() - keep);
+            held.delete(0, held.length() - keep);
+            return released;
+        }
+    }
+
+    private static ChatCompletionChunk.ChunkChoice withContent(ChatCompletionChunk.ChunkChoice choice,
+            String content, String finishReason) {
+        String role = choice.getDelta() != null ? choice.getDelta().role() : null;
+        return ChatCompletionChunk.ChunkChoice.builder()
+                .index(choice.getIndex())
+                .delta(ChatMessage.of(role, content))
+                .logprobs(choice.getLogprobs())
+                .finishReason(finishReason)
+                .build();
+    }
+
+    private static ChatCompletionChunk withChoices(ChatCompletionChunk chunk,
+            List<ChatCompletionChunk.ChunkChoice> choices) {
+        return ChatCompletionChunk.builder()
+                .id(chunk.getId())
+                .object(chunk.getObject())
+                .created(chunk.getCreated())
+                .model(chunk.getModel())
+                .systemFingerprint(chunk.getSystemFingerprint())
+                .choices(choices)
+                .usage(chunk.getUsage())
+                .build();
+    }
+}
@@ -0,0 +1,103 @@
+package com.moguyn.deepdesk.chat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
+import com.moguyn.deepdesk.openai.model.ChatMessage;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Flux;
+
+/**
+ * Opens completion streams. The role chunk can be sent as soon as the client
+ * subscribes, before the model has produced anything, so the first byte does
+ * not wait for tool calls or queueing. Time to first byte (any chunk) and
+ * time to first token (first chunk with content) are recorded separately.
+ */
+public class StreamOpener {
+
+    private final boolean emitRoleImmediately;
+    private final Timer firstByte;
+    private final Timer firstToken;
+
+    public StreamOpener(boolean emitRoleImmediately, MeterRegistry meterRegistry) {
+        this.emitRoleImmediately = emitRoleImmediately;
+        this.firstByte = Timer.builder("deepdesk.stream.ttfb")
+                .description("Time from subscription to the first chunk of a completion stream")
+                .register(meterRegistry);
+        this.firstToken = Timer.builder("deepdesk.stream.ttft")
+                .description("Time from subscription to the first generated token of a completion stream")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Leads an upstream generation with an empty role:assistant chunk that
+     * shares the envelope of the chunks that follow
+     */
+    public Flux<ChatCompletionChunk> open(Flux<ChatCompletionChunk> chunks, String id, long created, String model,
+            String systemFingerprint) {
+        return open(chunks, id, created, model, systemFingerprint, 1);
+    }
+
+    /**
+     * Leads the generations of a multi-choice completion with one
+     * role:assistant chunk carrying every choice index
+     */
+    public Flux<ChatCompletionChunk> open(Flux<ChatCompletionChunk> chunks, String id, long created, String model,
+            String systemFingerprint, int choices) {
+        if (!emitRoleImmediately) {
+            return chunks;
+        }
+        List<ChatCompletionChunk.ChunkChoice> roles = new ArrayList<>(choices);
+        for (int index = 0; index < choices; index++) {
+            roles.add(ChatCompletionChunk.ChunkChoice.builder()
+                    .index(index)
+                    .delta(ChatMessage.of("assistant", ""))
+                    .build());
+        }
+        return chunks.startWith(ChatCompletionChunk.builder()
+                .id(id)
+                .object("chat.completion.chunk")
+                .created(created)
+                .model(model)
+                .systemFingerprint(systemFingerprint)
+                .choices(roles)
+                .build());
+    }
+
+    /**
+     * Records first-byte and first-token latency of each subscription
+     */
+    public Flux<ChatCompletionChunk> time(Flux<ChatCompletionChunk> chunks) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            boolean[] seen = {false, false};
+            return chunks.doOnNext(chunk -> {
+                if (!seen[0]) {
+                    seen[0] = true;
+                    firstByte.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+                if (!seen[1] && hasContent(chunk)) {
+                    seen[1] = true;
+                    firstToken.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+            });
+        });
+    }
+
+    private static boolean hasContent(ChatCompletionChunk chunk) {
+        if (chunk.getChoices() == null) {
+            return false;
+        }
+        for (ChatCompletionChunk.ChunkChoice choice : chunk.getChoices()) {
+            ChatMessage delta = choice.getDelta();
+            if (delta != null && delta.content() != null && !delta.content().isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,101 @@
+package com.moguyn.deepdesk.chat;
+
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+/**
+ * Accumulates completion usage for a single stream as its responses pass
+ * through. Usage reported by the provider wins; otherwise the deltas are
+ * tokenized incrementally, up to the last word boundary seen so far, so the
+ * full completion never has to be tokenized a second time.
+ */
+public class StreamUsageCounter {
+
+    /**
+     * Longest run of text held back while waiting for a word boundary.
+     * Scripts without spaces between words would otherwise buffer the whole
+     * completion.
+     */
+    static final int MAX_PENDING_CHARS = 64;
+
+    private final TokenCountEstimator tokenCountEstimator;
+    private final StringBuilder pending = new StringBuilder();
+    private int completionTokens;
+    private Usage reportedUsage;
+
+    public StreamUsageCounter(TokenCountEstimator tokenCountEstimator) {
+        this.tokenCountEstimator = tokenCountEstimator;
+    }
+
+    /**
+     * Records the provider usage carried by a response, if any, and counts
+     * the generated text it contains
+     */
+    public void observe(ChatResponse response) {
+        if (response.getMetadata() != null && isReported(response.getMetadata().getUsage())) {
+            reportedUsage = response.getMetadata().getUsage();
+        }
+        for (Generation generation : response.getResults()) {
+            if (generation.getOutput() != null) {
+                accept(generation.getOutput().getText());
+            }
+        }
+    }
+
+    /**
+     * Counts a content delta. Only text before the last whitespace is
+     * tokenized, since a token may still continue across the chunk boundary.
+     */
+    public void accept(String delta) {
+        if (delta == null || delta.isEmpty()) {
+            return;
+        }
+        pending.append(delta);
+        int boundary = lastWhitespace();
+        if (boundary <= 0 && pending.length() > MAX_PENDING_CHARS) {
+            boundary = pending.length();
+        }
+        if (boundary > 0) {
+            completionTokens += tokenCountEstimator.estimate(pending.substring(0, boundary));
+            pending.delete(0, boundary);
+        }
+    }
+
+    /**
+     * Completion tokens counted so far, including any buffered tail
+     */
+    public int completionTokens() {
+        if (!pending.isEmpty()) {
+            completionTokens += tokenCountEstimator.estimate(pending.toString());
+            pending.setLength(0);
+        }
+        return completionTokens;
+    }
+
+    /**
+     * Usage reported by the provider, or null when none was seen
+     */
+    public Usage reportedUsage() {
+        return reportedUsage;
+    }
+
+    private int lastWhitespace() {
+        for (int i = pending.length() - 1; i > 0; i--) {
+            if (Character.isWhitespace(pending.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isReported(Usage usage) {
+        return usage != null
+                && (positive(usage.getPromptTokens()) || positive(usage.getCompletionTokens()));
+    }
+
+    private static boolean positive(Integer tokens) {
+        return tokens != null && tokens > 0;
+    }
+}
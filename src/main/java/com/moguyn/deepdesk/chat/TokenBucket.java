@@ -0,0 +1,84 @@
+package com.moguyn.deepdesk.chat;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket kept as a single theoretical arrival time (GCRA).
+ * Each token pushes the arrival time forward by one emission interval, and a
+ * request fits while the arrival time stays within one refill period of now.
+ * Consumption is a single compare-and-set, so there is nothing to lock and
+ * no background refill.
+ */
+final class TokenBucket {
+
+    private final long capacity;
+    private final long periodNanos;
+    private final double nanosPerToken;
+    private final AtomicLong arrival;
+
+    TokenBucket(long capacity, Duration period, long now) {
+        this.capacity = capacity;
+        this.periodNanos = period.toNanos();
+        this.nanosPerToken = (double) periodNanos / capacity;
+        this.arrival = new AtomicLong(now);
+    }
+
+    /**
+     * Takes tokens if they fit, returning 0, or returns how many nanoseconds
+     * to wait before they would. More tokens than the capacity never fit.
+     */
+    long tryConsume(long tokens, long now) {
+        long cost = cost(tokens);
+        while (true) {
+            long current = arrival.get();
+            long next = Math.max(current, now) + cost;
+            long wait = next - now - periodNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (arrival.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Charges or refunds tokens after the fact. The balance may go negative,
+     * which delays later requests.
+     */
+    void adjust(long tokens, long now) {
+        long delta = cost(Math.abs(tokens));
+        while (true) {
+            long current = arrival.get();
+            long base = Math.max(current, now);
+            long next = tokens >= 0 ? base + delta : Math.max(now, base - delta);
+            if (arrival.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    long capacity() {
+        return capacity;
+    }
+
+    /**
+     * Tokens that could be taken right now
+     */
+    long remaining(long now) {
+        long used = Math.max(arrival.get(), now) - now;
+        return Math.max(0, (long) ((periodNanos - used) / nanosPerToken));
+    }
+
+    /**
+     * Nanoseconds until the bucket is full again
+     */
+    long resetNanos(long now) {
+        return Math.max(arrival.get(), now) - now;
+    }
+
+    private long cost(long tokens) {
+        return (long) Math.ceil(tokens * nanosPerToken);
+    }
+}
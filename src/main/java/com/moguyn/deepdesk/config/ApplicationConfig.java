@@ -1,19 +1,19 @@
 package com.moguyn.deepdesk.config;
 
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Stream;
 
 import org.springframework.ai.chat.client.ChatClient;
-import org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor;
 import org.springframework.ai.chat.client.advisor.api.Advisor;
-import org.springframework.ai.chat.client.advisor.vectorstore.VectorStoreChatMemoryAdvisor;
-import org.springframework.ai.chroma.vectorstore.ChromaApi;
-import org.springframework.ai.chroma.vectorstore.ChromaVectorStore;
-import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.mcp.customizer.McpSyncClientCustomizer;
+import org.springframework.ai.model.function.FunctionCallback;
 import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
 import org.springframework.ai.tokenizer.TokenCountEstimator;
 import org.springframework.ai.tool.ToolCallback;
 import org.springframework.ai.tool.ToolCallbackProvider;
+import org.springframework.ai.tool.ToolCallbacks;
 import org.springframework.ai.tool.execution.ToolExecutionExceptionProcessor;
 import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.beans.factory.annotation.Value;
@@ -26,14 +26,19 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
 
 import com.moguyn.deepdesk.advisor.AdvisorService;
+import com.moguyn.deepdesk.advisor.HotChatMemory;
+import com.moguyn.deepdesk.advisor.MemoryWriteBehind;
+import com.moguyn.deepdesk.advisor.TieredChatMemoryAdvisor;
 import com.moguyn.deepdesk.chat.ChatRunner;
 import com.moguyn.deepdesk.chat.CommandlineChatRunner;
+import com.moguyn.deepdesk.chat.PromptTokenCounter;
 import com.moguyn.deepdesk.dependency.SoftwareDependencyValidator;
 import com.moguyn.deepdesk.tools.DateTimeTools;
 import com.moguyn.deepdesk.tools.FilepathTools;
 import com.moguyn.deepdesk.tools.ModelFriendlyExceptionProcessor;
 import com.moguyn.deepdesk.tools.SyncMcpToolAdapter;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import io.modelcontextprotocol.client.McpSyncClient;
 import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
@@ -58,13 +63,42 @@ public class ApplicationConfig {
         };
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Chat memory keeping the last historyWindowSize turns of each
+     * conversation in process, in front of the vector store
+     */
     @Bean
-    public AbstractChatMemoryAdvisor<VectorStore> chatMemoryAdvisor(VectorStore vectorStore,
-            @Value("${core.llm.history-window-size}") int historyWindowSize) {
-        return VectorStoreChatMemoryAdvisor.builder(vectorStore)
-                .chatMemoryRetrieveSize(historyWindowSize)
-                .build();
+    public TieredChatMemoryAdvisor chatMemoryAdvisor(VectorStore vectorStore,
+            @Value("${core.llm.history-window-size}") int historyWindowSize,
+            MemoryWriteBehind memoryWriteBehind,
+            CoreSettings coreSettings,
+            MeterRegistry meterRegistry) {
+        CoreSettings.HotMemory settings = coreSettings.advisors() != null
+                ? coreSettings.advisors().hotMemory()
+                : null;
+        HotChatMemory hotMemory = new HotChatMemory(historyWindowSize,
+                settings != null ? settings.maxConversations() : 1000,
+                settings != null && settings.idleTimeout() != null ? settings.idleTimeout() : Duration.ofMinutes(30),
+                meterRegistry);
+        return new TieredChatMemoryAdvisor(vectorStore, hotMemory, memoryWriteBehind, historyWindowSize,
+                meterRegistry);
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public MemoryWriteBehind memoryWriteBehind(VectorStore vectorStore, CoreSettings coreSettings,
+            MeterRegistry meterRegistry) {
+        CoreSettings.WriteBehind settings = coreSettings.advisors() != null
+                ? coreSettings.advisors().writeBehind()
+                : null;
+        if (settings == null) {
+            return new MemoryWriteBehind(vectorStore, false, 1, Duration.ZERO, 1, Duration.ZERO, meterRegistry);
+        }
+        return new MemoryWriteBehind(vectorStore, settings.enabled(),
+                settings.batchSize(),
+                settings.flushInterval() != null ? settings.flushInterval() : Duration.ofMillis(200),
+                settings.maxQueued(),
+                settings.drainTimeout() != null ? settings.drainTimeout() : Duration.ofSeconds(10),
+                meterRegistry);
     }
 
     @Bean
@@ -97,7 +131,7 @@ public class ApplicationConfig {
         var builder = chatClientBuilder
                 .defaultSystem(systemPrompt)
                 .defaultTools(toolCallbackProvider)
-                .defaultTools(new DateTimeTools(), new FilepathTools());
+                .defaultTools(localTools());
 
         // Get advisors from the service
         List<Advisor> enabledAdvisors = advisorService.getEnabledAdvisors(coreSettings);
@@ -112,16 +146,6 @@ public class ApplicationConfig {
         return builder.build();
     }
 
-    @Bean
-    public VectorStore chromaVectorStore(EmbeddingModel embeddingModel, ChromaApi chromaApi,
-            @Value("${spring.ai.vectorstore.chroma.collection-name}") String collectionName,
-            @Value("${spring.ai.vectorstore.chroma.initialize-schema}") boolean initializeSchema) {
-        return ChromaVectorStore.builder(chromaApi, embeddingModel)
-                .collectionName(collectionName)
-                .initializeSchema(initializeSchema)
-                .build();
-    }
-
     /**
      * This is used to prevent the tool execution from being interrupted by an
      * exception.
@@ -140,4 +164,28 @@ public class ApplicationConfig {
     public TokenCountEstimator tokenCountEstimator() {
         return new JTokkitTokenCountEstimator();
     }
+
+    /**
+     * Counts the default system prompt and every tool schema sent with each
+     * request once, at startup
+     */
+    @Bean
+    public PromptTokenCounter promptTokenCounter(TokenCountEstimator tokenCountEstimator,
+            ToolCallbackProvider toolCallbackProvider,
+            @Value("${core.llm.prompt.system}") String systemPrompt,
+            CoreSettings coreSettings) {
+        long cacheSize = coreSettings.llm() != null && coreSettings.llm().tokenCountCacheSize() > 0
+                ? coreSettings.llm().tokenCountCacheSize()
+                : 10000;
+        List<String> toolSchemas = Stream.<FunctionCallback>concat(
+                Arrays.stream(toolCallbackProvider.getToolCallbacks()),
+                Arrays.stream(ToolCallbacks.from(localTools())))
+                .map(tool -> tool.getName() + tool.getDescription() + tool.getInputTypeSchema())
+                .toList();
+        return new PromptTokenCounter(tokenCountEstimator, cacheSize, systemPrompt, toolSchemas);
+    }
+
+    private static Object[] localTools() {
+        return new Object[]{new DateTimeTools(), new FilepathTools()};
+    }
 }
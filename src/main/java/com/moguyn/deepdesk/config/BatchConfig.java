@@ -0,0 +1,41 @@
+package com.moguyn.deepdesk.config;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moguyn.deepdesk.batch.BatchService;
+import com.moguyn.deepdesk.batch.BatchStore;
+import com.moguyn.deepdesk.chat.AdmissionControl;
+import com.moguyn.deepdesk.chat.CompletionLimiter;
+import com.moguyn.deepdesk.chat.OpenAiService;
+import com.moguyn.deepdesk.chat.RateLimiter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Configures offline batch completions
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "core.batch", name = "enabled", havingValue = "true")
+public class BatchConfig {
+
+    @Bean
+    public BatchStore batchStore(CoreSettings coreSettings, ObjectMapper objectMapper) {
+        return new BatchStore(Path.of(coreSettings.batch().directory()), objectMapper);
+    }
+
+    @Bean(initMethod = "resume", destroyMethod = "shutdown")
+    public BatchService batchService(BatchStore batchStore, OpenAiService openAiService,
+            AdmissionControl admissionControl, CompletionLimiter completionLimiter, RateLimiter rateLimiter,
+            CoreSettings coreSettings, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        CoreSettings.Batch batch = coreSettings.batch();
+        return new BatchService(batchStore, openAiService, admissionControl, completionLimiter, rateLimiter,
+                objectMapper, batch.maxConcurrency(), batch.maxAttempts(),
+                batch.retryBackoff() != null ? batch.retryBackoff() : Duration.ofSeconds(1), meterRegistry);
+    }
+}
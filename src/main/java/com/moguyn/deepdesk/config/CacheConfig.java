@@ -0,0 +1,86 @@
+package com.moguyn.deepdesk.config;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Set;
+
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.util.StringUtils;
+
+import com.moguyn.deepdesk.advisor.SemanticCache;
+import com.moguyn.deepdesk.advisor.SemanticCacheAdvisor;
+import com.moguyn.deepdesk.advisor.TieredChatMemoryAdvisor;
+import com.moguyn.deepdesk.chat.CompletionCache;
+import com.moguyn.deepdesk.embedding.EmbeddingCache;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Configures caches in the chat path
+ */
+@Configuration
+public class CacheConfig {
+
+    @Bean
+    public CompletionCache completionCache(CoreSettings coreSettings, TieredChatMemoryAdvisor chatMemoryAdvisor,
+            MeterRegistry meterRegistry) {
+        CoreSettings.ResponseCache settings = coreSettings.responseCache();
+        if (settings == null) {
+            return new CompletionCache(false, 0, Duration.ZERO, Set.of(), null, meterRegistry);
+        }
+        return new CompletionCache(settings.enabled(),
+                settings.maxEntries(),
+                settings.ttl() != null ? settings.ttl() : Duration.ofMinutes(10),
+                settings.excludedUsers() != null ? Set.copyOf(settings.excludedUsers()) : Set.of(),
+                isChatMemoryEnabled(coreSettings) ? chatMemoryAdvisor : null,
+                meterRegistry);
+    }
+
+    @Bean(destroyMethod = "close")
+    public EmbeddingCache embeddingCache(CoreSettings coreSettings, MeterRegistry meterRegistry) {
+        CoreSettings.EmbeddingCache settings = coreSettings.embeddingCache();
+        if (settings == null) {
+            return new EmbeddingCache(false, null, 0, null, 0, meterRegistry);
+        }
+        return new EmbeddingCache(settings.enabled(),
+                settings.model(),
+                settings.maxHeapBytes(),
+                StringUtils.hasText(settings.file()) ? Path.of(settings.file()) : null,
+                settings.maxFileBytes(),
+                meterRegistry);
+    }
+
+    /**
+     * The embedding model every other bean is given: the auto-configured
+     * model behind the embedding cache
+     */
+    @Bean
+    @Primary
+    public EmbeddingModel cachingEmbeddingModel(EmbeddingModel embeddingModel, EmbeddingCache embeddingCache) {
+        return embeddingCache.decorate(embeddingModel);
+    }
+
+    @Bean
+    public SemanticCacheAdvisor semanticCacheAdvisor(EmbeddingModel embeddingModel,
+            TieredChatMemoryAdvisor chatMemoryAdvisor, CoreSettings coreSettings) {
+        CoreSettings.SemanticCache settings = coreSettings.advisors() != null
+                ? coreSettings.advisors().semanticCache()
+                : null;
+        SemanticCache cache = settings != null
+                ? new SemanticCache(settings.similarityThreshold(), settings.maxEntries(),
+                        settings.ttl() != null ? settings.ttl() : Duration.ofHours(1))
+                : new SemanticCache(1.0, 0, Duration.ZERO);
+        return new SemanticCacheAdvisor(embeddingModel, cache,
+                isChatMemoryEnabled(coreSettings) ? chatMemoryAdvisor : null);
+    }
+
+    /**
+     * Chat memory is on unless turned off, as in DefaultAdvisorService
+     */
+    private static boolean isChatMemoryEnabled(CoreSettings coreSettings) {
+        return coreSettings.advisors() == null || coreSettings.advisors().isChatMemoryAdvisorEnabled();
+    }
+}
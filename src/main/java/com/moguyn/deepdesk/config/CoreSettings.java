@@ -1,5 +1,6 @@
 package com.moguyn.deepdesk.config;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 
@@ -18,7 +19,29 @@ public record CoreSettings(
         @NestedConfigurationProperty
         LLM llm,
         @NestedConfigurationProperty
-        Advisors advisors) {
+        Advisors advisors,
+        @NestedConfigurationProperty
+        Execution execution,
+        @NestedConfigurationProperty
+        Streaming streaming,
+        @NestedConfigurationProperty
+        SingleFlight singleFlight,
+        @NestedConfigurationProperty
+        ResponseCache responseCache,
+        @NestedConfigurationProperty
+        Admission admission,
+        @NestedConfigurationProperty
+        RateLimit rateLimit,
+        @NestedConfigurationProperty
+        Http2 http2,
+        @NestedConfigurationProperty
+        Batch batch,
+        @NestedConfigurationProperty
+        Jobs jobs,
+        @NestedConfigurationProperty
+        EmbeddingCache embeddingCache,
+        @NestedConfigurationProperty
+        VectorStore vectorStore) {
 
     /**
      * Represents capability settings configuration
@@ -38,12 +61,14 @@ public record CoreSettings(
     }
 
     /**
-     * Represents LLM settings configuration
+     * Represents LLM settings configuration. tokenCountCacheSize is the
+     * number of message token counts kept between requests.
      */
     public record LLM(
             Prompt prompt,
             int maxTokens,
-            int historyWindowSize) {
+            int historyWindowSize,
+            long tokenCountCacheSize) {
 
     }
 
@@ -59,7 +84,13 @@ public record CoreSettings(
      * Configuration for enabling/disabling advisors
      */
     public record Advisors(
-            boolean chatMemoryAdvisorEnabled) {
+            boolean chatMemoryAdvisorEnabled,
+            @NestedConfigurationProperty
+            SemanticCache semanticCache,
+            @NestedConfigurationProperty
+            HotMemory hotMemory,
+            @NestedConfigurationProperty
+            WriteBehind writeBehind) {
 
         /**
          * Provides compatibility with isXxx pattern
@@ -68,4 +99,201 @@ public record CoreSettings(
             return chatMemoryAdvisorEnabled;
         }
     }
+
+    /**
+     * Settings for the in-process tier of chat memory. Up to
+     * maxConversations conversations keep their recent turns in memory, and
+     * a conversation idle for idleTimeout is dropped from it.
+     */
+    public record HotMemory(
+            long maxConversations,
+            Duration idleTimeout) {
+
+    }
+
+    /**
+     * Settings for writing chat memory to the vector store behind the
+     * request. Documents are written in batches of up to batchSize, at the
+     * latest flushInterval after the first one was queued. At most maxQueued
+     * documents wait; beyond that callers write themselves. On shutdown the
+     * queue is drained for up to drainTimeout.
+     */
+    public record WriteBehind(
+            boolean enabled,
+            int batchSize,
+            Duration flushInterval,
+            int maxQueued,
+            Duration drainTimeout) {
+
+    }
+
+    /**
+     * Settings for answering near-identical questions from a semantic cache
+     */
+    public record SemanticCache(
+            boolean enabled,
+            double similarityThreshold,
+            long maxEntries,
+            Duration ttl) {
+
+    }
+
+    /**
+     * Execution settings for chat completions. Non-streaming completions
+     * running longer than completionTimeout are cancelled; zero or null
+     * means no timeout. Requests may ask for up to maxChoices choices.
+     */
+    public record Execution(
+            int maxInFlightCompletions,
+            Duration completionTimeout,
+            int maxChoices) {
+
+    }
+
+    /**
+     * Settings for streamed completions. The role chunk can be sent as soon
+     * as the client subscribes, and heartbeat comments are sent after every
+     * silent heartbeatInterval; zero or null disables them. A stream whose
+     * client dropped keeps running for resumeGracePeriod so the client can
+     * reconnect with Last-Event-ID; its replay buffer holds up to
+     * replayMaxBytesPerStream, and all buffers together up to
+     * replayMaxTotalBytes. The generation holds its admission permit and
+     * token budget meanwhile; zero or null cancels it on disconnect.
+     */
+    public record Streaming(
+            Duration coalesceMaxDelay,
+            int coalesceMaxBytes,
+            boolean emitRoleImmediately,
+            Duration heartbeatInterval,
+            Duration resumeGracePeriod,
+            long replayMaxBytesPerStream,
+            long replayMaxTotalBytes) {
+
+    }
+
+    /**
+     * Settings for sharing one generation between identical in-flight
+     * requests
+     */
+    public record SingleFlight(
+            boolean enabled) {
+
+    }
+
+    /**
+     * Settings for caching replies to deterministic requests. Users listed
+     * in excludedUsers are never served from or written to the cache.
+     */
+    public record ResponseCache(
+            boolean enabled,
+            long maxEntries,
+            Duration ttl,
+            List<String> excludedUsers) {
+
+    }
+
+    /**
+     * Settings for admitting requests at the edge. Requests over the global
+     * limit wait in a bounded queue; a limit of zero disables that check.
+     */
+    public record Admission(
+            int maxConcurrentRequests,
+            int maxConcurrentPerUser,
+            int maxQueuedRequests,
+            Duration queueTimeout) {
+
+    }
+
+    /**
+     * Per-user request and token budgets. A limit of zero disables it.
+     */
+    public record RateLimit(
+            int requestsPerSecond,
+            int tokensPerMinute) {
+
+    }
+
+    /**
+     * HTTP/2 limits applied when server.http2.enabled is set. Each SSE
+     * completion holds a stream for its whole lifetime, so the concurrent
+     * stream limit bounds the completions one connection can carry. Zero
+     * keeps the server default.
+     */
+    public record Http2(
+            int maxConcurrentStreams,
+            int initialWindowSize) {
+
+    }
+
+    /**
+     * Settings for offline batch completions. Batches are kept under
+     * directory; maxConcurrency is the number of slots batches share with
+     * interactive requests, of which batches only take those left free, and
+     * a failed request is tried up to maxAttempts times with an
+     * exponential backoff starting at retryBackoff.
+     */
+    public record Batch(
+            boolean enabled,
+            String directory,
+            int maxConcurrency,
+            int maxAttempts,
+            Duration retryBackoff) {
+
+    }
+
+    /**
+     * Settings for background completion jobs. Jobs are kept under
+     * directory; workers bounds the jobs running at once, maxQueued the jobs
+     * waiting for a worker, and finished jobs are deleted after ttl.
+     */
+    public record Jobs(
+            boolean enabled,
+            String directory,
+            int workers,
+            int maxQueued,
+            Duration ttl) {
+
+    }
+
+    /**
+     * Settings for caching embeddings by model and text. Up to maxHeapBytes
+     * of vectors are kept on the heap and, when file is set, up to
+     * maxFileBytes in that file, which survives restarts. model names the
+     * embedding model in use, so vectors of another model are never reused.
+     */
+    public record EmbeddingCache(
+            boolean enabled,
+            String model,
+            long maxHeapBytes,
+            String file,
+            long maxFileBytes) {
+
+    }
+
+    /**
+     * Settings for the store embedded in the process, selected with
+     * spring.ai.vectorstore.type set to hnsw. It keeps its files under
+     * directory. m is the number of links per node of its graph;
+     * efConstruction and efSearch the candidates considered when adding and
+     * searching, trading speed for recall. quantization is none, int8 or pq;
+     * it starts once trainingSize vectors are stored, and the best rerank
+     * candidates per result are scored again at full precision. The codes
+     * are stored in addition to the full vectors, so quantization lowers the
+     * memory searches touch but adds to the disk used. migrateFrom
+     * set to chroma copies the Chroma collection, reached through the
+     * spring.ai.vectorstore.chroma.client settings, into an empty hnsw store
+     * on startup.
+     */
+    public record VectorStore(
+            String directory,
+            int m,
+            int efConstruction,
+            int efSearch,
+            String quantization,
+            int pqSubspaces,
+            int trainingSize,
+            int rerank,
+            String migrateFrom) {
+
+    }
 }
@@ -0,0 +1,69 @@
+package com.moguyn.deepdesk.config;
+
+import java.time.Duration;
+
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.moguyn.deepdesk.chat.AdmissionControl;
+import com.moguyn.deepdesk.chat.Cancellations;
+import com.moguyn.deepdesk.chat.ChoiceFanOut;
+import com.moguyn.deepdesk.chat.CompletionLimiter;
+import com.moguyn.deepdesk.chat.PromptTokenCounter;
+import com.moguyn.deepdesk.chat.RateLimiter;
+import com.moguyn.deepdesk.chat.SingleFlightGroup;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Configures how chat completions are executed
+ */
+@Configuration
+public class ExecutionConfig {
+
+    @Bean
+    public CompletionLimiter completionLimiter(CoreSettings coreSettings) {
+        CoreSettings.Execution execution = coreSettings.execution();
+        return new CompletionLimiter(execution != null ? execution.maxInFlightCompletions() : 0);
+    }
+
+    @Bean
+    public Cancellations cancellations(CoreSettings coreSettings, MeterRegistry meterRegistry) {
+        CoreSettings.Execution execution = coreSettings.execution();
+        return new Cancellations(execution != null ? execution.completionTimeout() : null, meterRegistry);
+    }
+
+    @Bean
+    public ChoiceFanOut choiceFanOut(CoreSettings coreSettings) {
+        CoreSettings.Execution execution = coreSettings.execution();
+        return new ChoiceFanOut(execution != null && execution.maxChoices() > 0 ? execution.maxChoices() : 1);
+    }
+
+    @Bean
+    public SingleFlightGroup singleFlightGroup(CoreSettings coreSettings, MeterRegistry meterRegistry) {
+        CoreSettings.SingleFlight singleFlight = coreSettings.singleFlight();
+        return new SingleFlightGroup(singleFlight != null && singleFlight.enabled(), meterRegistry);
+    }
+
+    @Bean
+    public AdmissionControl admissionControl(CoreSettings coreSettings, MeterRegistry meterRegistry) {
+        CoreSettings.Admission admission = coreSettings.admission();
+        if (admission == null) {
+            return new AdmissionControl(0, 0, 0, Duration.ZERO, meterRegistry);
+        }
+        return new AdmissionControl(admission.maxConcurrentRequests(), admission.maxConcurrentPerUser(),
+                admission.maxQueuedRequests(),
+                admission.queueTimeout() != null ? admission.queueTimeout() : Duration.ZERO, meterRegistry);
+    }
+
+    @Bean
+    public RateLimiter rateLimiter(CoreSettings coreSettings, PromptTokenCounter promptTokenCounter,
+            TokenCountEstimator tokenCountEstimator, MeterRegistry meterRegistry) {
+        CoreSettings.RateLimit rateLimit = coreSettings.rateLimit();
+        return rateLimit == null
+                ? new RateLimiter(0, 0, promptTokenCounter, tokenCountEstimator, meterRegistry)
+                : new RateLimiter(rateLimit.requestsPerSecond(), rateLimit.tokensPerMinute(), promptTokenCounter,
+                        tokenCountEstimator, meterRegistry);
+    }
+}
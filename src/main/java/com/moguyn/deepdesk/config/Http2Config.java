@@ -0,0 +1,81 @@
+package com.moguyn.deepdesk.config;
+
+import org.apache.coyote.UpgradeProtocol;
+import org.apache.coyote.http2.Http2Protocol;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import reactor.netty.http.server.HttpServer;
+
+/**
+ * Tunes HTTP/2 for many long-lived completion streams per connection. Spring
+ * Boot turns HTTP/2 on with server.http2.enabled, over TLS (h2) when SSL is
+ * configured and in cleartext (h2c) otherwise; this only raises the stream
+ * and flow-control limits, which default to values sized for short requests.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "server.http2", name = "enabled", havingValue = "true")
+public class Http2Config {
+
+    @Configuration
+    @ConditionalOnClass(Http2Protocol.class)
+    static class Tomcat {
+
+        @Bean
+        WebServerFactoryCustomizer<TomcatServletWebServerFactory> http2TomcatCustomizer(CoreSettings coreSettings) {
+            CoreSettings.Http2 http2 = coreSettings.http2();
+            return factory -> factory.addConnectorCustomizers(connector -> {
+                for (UpgradeProtocol protocol : connector.findUpgradeProtocols()) {
+                    if (protocol instanceof Http2Protocol h2) {
+                        customize(h2, http2);
+                    }
+                }
+            });
+        }
+    }
+
+    @Configuration
+    @ConditionalOnClass(HttpServer.class)
+    static class Netty {
+
+        @Bean
+        WebServerFactoryCustomizer<NettyReactiveWebServerFactory> http2NettyCustomizer(CoreSettings coreSettings) {
+            CoreSettings.Http2 http2 = coreSettings.http2();
+            return factory -> factory.addServerCustomizers(server -> customize(server, http2));
+        }
+    }
+
+    static void customize(Http2Protocol protocol, CoreSettings.Http2 http2) {
+        if (http2 == null) {
+            return;
+        }
+        if (http2.maxConcurrentStreams() > 0) {
+            protocol.setMaxConcurrentStreams(http2.maxConcurrentStreams());
+            // Tomcat runs only 20 streams of a connection at a time by
+            // default and queues the rest, which would stall SSE clients
+            protocol.setMaxConcurrentStreamExecution(http2.maxConcurrentStreams());
+        }
+        if (http2.initialWindowSize() > 0) {
+            protocol.setInitialWindowSize(http2.initialWindowSize());
+        }
+    }
+
+    static HttpServer customize(HttpServer server, CoreSettings.Http2 http2) {
+        if (http2 == null) {
+            return server;
+        }
+        return server.http2Settings(settings -> {
+            if (http2.maxConcurrentStreams() > 0) {
+                settings.maxConcurrentStreams(http2.maxConcurrentStreams());
+            }
+            if (http2.initialWindowSize() > 0) {
+                settings.initialWindowSize(http2.initialWindowSize());
+            }
+        });
+    }
+}
@@ -0,0 +1,40 @@
+package com.moguyn.deepdesk.config;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moguyn.deepdesk.chat.AdmissionControl;
+import com.moguyn.deepdesk.chat.OpenAiService;
+import com.moguyn.deepdesk.chat.RateLimiter;
+import com.moguyn.deepdesk.chat.ResponseBuilder;
+import com.moguyn.deepdesk.job.JobService;
+import com.moguyn.deepdesk.job.JobStore;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Configures background completion jobs
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "core.jobs", name = "enabled", havingValue = "true")
+public class JobConfig {
+
+    @Bean
+    public JobStore jobStore(CoreSettings coreSettings, ObjectMapper objectMapper) {
+        return new JobStore(Path.of(coreSettings.jobs().directory()), objectMapper);
+    }
+
+    @Bean(initMethod = "resume", destroyMethod = "shutdown")
+    public JobService jobService(JobStore jobStore, OpenAiService openAiService, AdmissionControl admissionControl,
+            RateLimiter rateLimiter, ResponseBuilder responseBuilder, CoreSettings coreSettings,
+            MeterRegistry meterRegistry) {
+        CoreSettings.Jobs jobs = coreSettings.jobs();
+        return new JobService(jobStore, openAiService, admissionControl, rateLimiter, responseBuilder, jobs.workers(),
+                jobs.maxQueued(), jobs.ttl() != null ? jobs.ttl() : Duration.ofDays(1), meterRegistry);
+    }
+}
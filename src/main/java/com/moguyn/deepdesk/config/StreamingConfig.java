@@ -0,0 +1,51 @@
+package com.moguyn.deepdesk.config;
+
+import java.time.Duration;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.moguyn.deepdesk.chat.ChunkCoalescer;
+import com.moguyn.deepdesk.chat.ResumableStreams;
+import com.moguyn.deepdesk.chat.SseKeepAlive;
+import com.moguyn.deepdesk.chat.StreamOpener;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Configures the processing stages applied to streamed completions
+ */
+@Configuration
+public class StreamingConfig {
+
+    @Bean
+    public ChunkCoalescer chunkCoalescer(CoreSettings coreSettings) {
+        CoreSettings.Streaming streaming = coreSettings.streaming();
+        if (streaming == null) {
+            return new ChunkCoalescer(Duration.ZERO, 0);
+        }
+        return new ChunkCoalescer(streaming.coalesceMaxDelay(), streaming.coalesceMaxBytes());
+    }
+
+    @Bean
+    public StreamOpener streamOpener(CoreSettings coreSettings, MeterRegistry meterRegistry) {
+        CoreSettings.Streaming streaming = coreSettings.streaming();
+        return new StreamOpener(streaming != null && streaming.emitRoleImmediately(), meterRegistry);
+    }
+
+    @Bean
+    public SseKeepAlive sseKeepAlive(CoreSettings coreSettings) {
+        CoreSettings.Streaming streaming = coreSettings.streaming();
+        return new SseKeepAlive(streaming != null ? streaming.heartbeatInterval() : null);
+    }
+
+    @Bean
+    public ResumableStreams resumableStreams(CoreSettings coreSettings, MeterRegistry meterRegistry) {
+        CoreSettings.Streaming streaming = coreSettings.streaming();
+        if (streaming == null) {
+            return new ResumableStreams(Duration.ZERO, 0, 0, meterRegistry);
+        }
+        return new ResumableStreams(streaming.resumeGracePeriod(), streaming.replayMaxBytesPerStream(),
+                streaming.replayMaxTotalBytes(), meterRegistry);
+    }
+}
@@ -0,0 +1,119 @@
+package com.moguyn.deepdesk.config;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+import org.springframework.ai.chroma.vectorstore.ChromaApi;
+import org.springframework.ai.chroma.vectorstore.ChromaVectorStore;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.chroma.autoconfigure.ChromaApiProperties;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.util.StringUtils;
+
+import com.moguyn.deepdesk.vectorstore.ChromaMigration;
+import com.moguyn.deepdesk.vectorstore.HnswVectorStore;
+import com.moguyn.deepdesk.vectorstore.Quantization;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Configures the vector store behind chat memory. spring.ai.vectorstore.type
+ * selects it, so exactly one store is created: chroma, the default, for the
+ * Chroma server, or hnsw for the store embedded in the process, in which case
+ * Spring AI's Chroma auto-configuration stays off.
+ */
+@Slf4j
+@Configuration
+public class VectorStoreConfig {
+
+    static final String TYPE = "spring.ai.vectorstore.type";
+
+    /**
+     * Declared as a ChromaVectorStore so the auto-configured one backs off
+     */
+    @Bean
+    @ConditionalOnProperty(name = TYPE, havingValue = "chroma", matchIfMissing = true)
+    public ChromaVectorStore chromaVectorStore(EmbeddingModel embeddingModel, ChromaApi chromaApi,
+            @Value("${spring.ai.vectorstore.chroma.collection-name}") String collectionName,
+            @Value("${spring.ai.vectorstore.chroma.initialize-schema}") boolean initializeSchema) {
+        return ChromaVectorStore.builder(chromaApi, embeddingModel)
+                .collectionName(collectionName)
+                .initializeSchema(initializeSchema)
+                .build();
+    }
+
+    /**
+     * Vector store embedded in the process, in place of the Chroma server
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = TYPE, havingValue = "hnsw")
+    public HnswVectorStore hnswVectorStore(EmbeddingModel embeddingModel, CoreSettings coreSettings,
+            MeterRegistry meterRegistry) {
+        CoreSettings.VectorStore settings = coreSettings.vectorStore();
+        String directory = settings != null && settings.directory() != null
+                ? settings.directory()
+                : System.getProperty("user.home") + "/.deepdesk/vectors";
+        Quantization quantization = settings != null && settings.quantization() != null
+                ? new Quantization(Quantization.Kind.valueOf(settings.quantization().toUpperCase(Locale.ROOT)),
+                        settings.pqSubspaces(),
+                        settings.trainingSize() > 0 ? settings.trainingSize() : 10000,
+                        settings.rerank() > 0 ? settings.rerank() : 4)
+                : Quantization.none();
+        return new HnswVectorStore(embeddingModel, Path.of(directory),
+                settings != null && settings.m() > 0 ? settings.m() : 16,
+                settings != null && settings.efConstruction() > 0 ? settings.efConstruction() : 200,
+                settings != null && settings.efSearch() > 0 ? settings.efSearch() : 64,
+                quantization,
+                meterRegistry);
+    }
+
+    /**
+     * Copies the Chroma collection into the embedded vector store on
+     * startup, unless the embedded store already holds documents. The Chroma
+     * auto-configuration is off with hnsw, so the client is built here from
+     * its spring.ai.vectorstore.chroma.client properties.
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnProperty(name = TYPE, havingValue = "hnsw")
+    @EnableConfigurationProperties(ChromaApiProperties.class)
+    static class Migration {
+
+        @Bean
+        @Order(Ordered.HIGHEST_PRECEDENCE)
+        @ConditionalOnProperty(prefix = "core.vector-store", name = "migrate-from", havingValue = "chroma")
+        public CommandLineRunner vectorStoreMigration(HnswVectorStore hnswVectorStore,
+                ChromaApiProperties chromaApiProperties,
+                @Value("${spring.ai.vectorstore.chroma.collection-name}") String collectionName) {
+            return args -> {
+                if (hnswVectorStore.documents() > 0) {
+                    log.info("Not migrating from Chroma, the embedded vector store holds {} documents",
+                            hnswVectorStore.documents());
+                    return;
+                }
+                int copied = new ChromaMigration(chromaApi(chromaApiProperties), 500)
+                        .migrate(collectionName, hnswVectorStore);
+                log.info("Migrated {} documents from Chroma, quantized as {}", copied,
+                        hnswVectorStore.quantizedAs());
+            };
+        }
+
+        private static ChromaApi chromaApi(ChromaApiProperties properties) {
+            ChromaApi chromaApi = new ChromaApi(properties.getHost() + ":" + properties.getPort());
+            if (StringUtils.hasText(properties.getKeyToken())) {
+                return chromaApi.withKeyToken(properties.getKeyToken());
+            }
+            if (StringUtils.hasText(properties.getUsername()) && StringUtils.hasText(properties.getPassword())) {
+                return chromaApi.withBasicAuthCredentials(properties.getUsername(), properties.getPassword());
+            }
+            return chromaApi;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.moguyn.deepdesk.config;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.boot.env.EnvironmentPostProcessor;
+import org.springframework.core.env.ConfigurableEnvironment;
+
+/**
+ * Moves Reactor's bounded elastic scheduler onto virtual threads when
+ * {@code spring.threads.virtual.enabled} is set. Spring AI runs streaming tool
+ * calls, and with them every blocking MCP round trip, on that scheduler, so
+ * this complements the virtual-thread servlet executor Spring Boot configures.
+ * The flag is read once by Reactor, hence it is set before any bean is
+ * created.
+ */
+public class VirtualThreadsEnvironmentPostProcessor implements EnvironmentPostProcessor {
+
+    static final String REACTOR_VIRTUAL_THREADS = "reactor.schedulers.defaultBoundedElasticOnVirtualThreads";
+
+    @Override
+    public void postProcessEnvironment(ConfigurableEnvironment environment, SpringApplication application) {
+        if (Threading.VIRTUAL.isActive(environment) && System.getProperty(REACTOR_VIRTUAL_THREADS) == null) {
+            System.setProperty(REACTOR_VIRTUAL_THREADS, "true");
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.moguyn.deepdesk.controller;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.moguyn.deepdesk.batch.BatchService;
+import com.moguyn.deepdesk.batch.BatchStore;
+import com.moguyn.deepdesk.openai.model.Batch;
+
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Batch completions modeled on the OpenAI Batch API. The JSONL input is
+ * posted directly rather than uploaded as a file first, and query parameters
+ * become the batch metadata. Every handler reads or writes the batch files,
+ * so the work runs on the bounded elastic scheduler; output and error files
+ * are served as far as the batch has written them.
+ */
+@RestController
+@RequestMapping("/openai/batches")
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "core.batch", name = "enabled", havingValue = "true")
+public class BatchController {
+
+    static final MediaType JSONL = MediaType.parseMediaType("application/jsonl");
+
+    private final BatchService batchService;
+    private final BatchStore batchStore;
+
+    @PostMapping(consumes = {"application/jsonl", "application/x-ndjson", MediaType.TEXT_PLAIN_VALUE},
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<Batch> create(@RequestBody String input, @RequestParam Map<String, String> metadata) {
+        return blocking(() -> batchService.create(input, metadata.isEmpty() ? null : metadata));
+    }
+
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<Map<String, Object>> list() {
+        return blocking(() -> {
+            List<Batch> batches = batchService.list();
+            return Map.of("object", "list", "data", batches);
+        });
+    }
+
+    @GetMapping(path = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<Batch> get(@PathVariable String id) {
+        return blocking(() -> batchService.get(id));
+    }
+
+    @PostMapping(path = "/{id}/cancel", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<Batch> cancel(@PathVariable String id) {
+        return blocking(() -> batchService.cancel(id));
+    }
+
+    @GetMapping(path = "/{id}/output")
+    public Mono<ResponseEntity<Resource>> output(@PathVariable String id) {
+        return blocking(() -> {
+            batchService.get(id);
+            return file(batchStore.outputFile(id));
+        });
+    }
+
+    @GetMapping(path = "/{id}/errors")
+    public Mono<ResponseEntity<Resource>> errors(@PathVariable String id) {
+        return blocking(() -> {
+            batchService.get(id);
+            return file(batchStore.errorFile(id));
+        });
+    }
+
+    private static ResponseEntity<Resource> file(Path path) {
+        Resource body = Files.exists(path) ? new FileSystemResource(path) : new ByteArrayResource(new byte[0]);
+        return ResponseEntity.ok()
+                .contentType(JSONL)
+                .body(body);
+    }
+
+    private static <T> Mono<T> blocking(Callable<T> call) {
+        return Mono.fromCallable(call).subscribeOn(Schedulers.boundedElastic());
+    }
+}
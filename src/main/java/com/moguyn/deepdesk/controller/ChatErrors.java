@@ -0,0 +1,57 @@
+package com.moguyn.deepdesk.controller;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
+import com.moguyn.deepdesk.openai.model.ChatCompletionRequest;
+import com.moguyn.deepdesk.openai.model.ChatMessage;
+
+/**
+ * Builds OpenAI-compatible error payloads shared by the chat controllers
+ */
+final class ChatErrors {
+
+    private ChatErrors() {
+    }
+
+    /**
+     * Creates the terminal chunk sent to a streaming client when the
+     * generation fails
+     */
+    static ChatCompletionChunk errorChunk(ChatCompletionRequest request, Throwable e) {
+        return ChatCompletionChunk.builder()
+                .id("error-" + java.util.UUID.randomUUID())
+                .object("chat.completion.chunk")
+                .created(System.currentTimeMillis() / 1000)
+                .model(request.getModel())
+                .choices(List.of(
+                        ChatCompletionChunk.ChunkChoice.builder()
+                                .index(0)
+                                .delta(ChatMessage.of("assistant", "An error occurred: " + e.getMessage()))
+                                .finishReason("error")
+                                .build()
+                ))
+                .build();
+    }
+
+    /**
+     * Creates an OpenAI-style error body
+     */
+    static Map<String, Object> errorBody(String message, String type, String code) {
+        return errorBody(message, type, null, code);
+    }
+
+    /**
+     * Creates an OpenAI-style error body naming the request field at fault
+     */
+    static Map<String, Object> errorBody(String message, String type, String param, String code) {
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("message", message);
+        error.put("type", type);
+        error.put("param", param);
+        error.put("code", code);
+        return Map.of("error", error);
+    }
+}
@@ -0,0 +1,81 @@
+package com.moguyn.deepdesk.controller;
+
+import java.util.Map;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import com.moguyn.deepdesk.batch.BatchNotFoundException;
+import com.moguyn.deepdesk.batch.InvalidBatchException;
+import com.moguyn.deepdesk.chat.AdmissionRejectedException;
+import com.moguyn.deepdesk.chat.CompletionTimeoutException;
+import com.moguyn.deepdesk.chat.InvalidRequestException;
+import com.moguyn.deepdesk.chat.RateLimitExceededException;
+import com.moguyn.deepdesk.job.JobNotFoundException;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Maps chat, batch and job failures to OpenAI-compatible error responses, for
+ * both the servlet and the reactive controllers
+ */
+@Slf4j
+@RestControllerAdvice
+public class ChatExceptionHandler {
+
+    @ExceptionHandler(AdmissionRejectedException.class)
+    public ResponseEntity<Map<String, Object>> admissionRejected(AdmissionRejectedException e) {
+        log.warn("Request rejected by admission control: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, retryAfterSeconds(e))
+                .body(ChatErrors.errorBody(e.getMessage(), "requests", "rate_limit_exceeded"));
+    }
+
+    @ExceptionHandler(RateLimitExceededException.class)
+    public ResponseEntity<Map<String, Object>> rateLimitExceeded(RateLimitExceededException e) {
+        log.debug("Request rejected by rate limit: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .headers(headers -> e.getHeaders().forEach(headers::add))
+                .header(HttpHeaders.RETRY_AFTER, retryAfterSeconds(e))
+                .body(ChatErrors.errorBody(e.getMessage(), e.getLimitType(), "rate_limit_exceeded"));
+    }
+
+    @ExceptionHandler(CompletionTimeoutException.class)
+    public ResponseEntity<Map<String, Object>> completionTimeout(CompletionTimeoutException e) {
+        log.warn("Completion cancelled: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                .body(ChatErrors.errorBody(e.getMessage(), "timeout", "completion_timeout"));
+    }
+
+    @ExceptionHandler(InvalidRequestException.class)
+    public ResponseEntity<Map<String, Object>> invalidRequest(InvalidRequestException e) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(ChatErrors.errorBody(e.getMessage(), "invalid_request_error", e.getParam(), null));
+    }
+
+    @ExceptionHandler(InvalidBatchException.class)
+    public ResponseEntity<Map<String, Object>> invalidBatch(InvalidBatchException e) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(ChatErrors.errorBody(e.getMessage(), "invalid_request_error", "invalid_batch"));
+    }
+
+    @ExceptionHandler(BatchNotFoundException.class)
+    public ResponseEntity<Map<String, Object>> batchNotFound(BatchNotFoundException e) {
+        return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                .body(ChatErrors.errorBody(e.getMessage(), "invalid_request_error", "not_found"));
+    }
+
+    @ExceptionHandler(JobNotFoundException.class)
+    public ResponseEntity<Map<String, Object>> jobNotFound(JobNotFoundException e) {
+        return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                .body(ChatErrors.errorBody(e.getMessage(), "invalid_request_error", "not_found"));
+    }
+
+    private static String retryAfterSeconds(AdmissionRejectedException e) {
+        long millis = e.getRetryAfter().toMillis();
+        return String.valueOf(Math.max(1, (millis + 999) / 1000));
+    }
+}
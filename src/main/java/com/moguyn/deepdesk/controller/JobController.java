@@ -0,0 +1,80 @@
+package com.moguyn.deepdesk.controller;
+
+import java.util.concurrent.Callable;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moguyn.deepdesk.chat.ChunkEncoder;
+import com.moguyn.deepdesk.chat.SseKeepAlive;
+import com.moguyn.deepdesk.job.JobService;
+import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
+import com.moguyn.deepdesk.openai.model.ChatCompletionRequest;
+import com.moguyn.deepdesk.openai.model.Job;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Background chat completions. Posting a chat completion request answers
+ * right away with a queued job; clients then poll the job for its result or
+ * attach to its chunk stream, which starts from the first chunk whenever
+ * they attach. Submitting, polling and cancelling go through the job files
+ * on the bounded elastic scheduler; the stream follows a running job as it
+ * generates and replays a finished one from its file.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/openai/jobs")
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "core.jobs", name = "enabled", havingValue = "true")
+public class JobController {
+
+    private final JobService jobService;
+    private final ObjectMapper objectMapper;
+    private final SseKeepAlive sseKeepAlive;
+
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<Job>> submit(@RequestBody ChatCompletionRequest request) {
+        return blocking(() -> ResponseEntity.status(HttpStatus.ACCEPTED).body(jobService.submit(request)));
+    }
+
+    @GetMapping(path = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<Job> get(@PathVariable String id) {
+        return blocking(() -> jobService.get(id));
+    }
+
+    @PostMapping(path = "/{id}/cancel", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<Job> cancel(@PathVariable String id) {
+        return blocking(() -> jobService.cancel(id));
+    }
+
+    @GetMapping(path = "/{id}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<Flux<ServerSentEvent<String>>> stream(@PathVariable String id) {
+        Flux<ChatCompletionChunk> chunks = jobService.attach(id)
+                .onErrorResume(e -> {
+                    log.debug("Job {} ended with an error: {}", id, e.getMessage());
+                    return Flux.just(ChatErrors.errorChunk(new ChatCompletionRequest(), e));
+                });
+        return ResponseEntity.ok()
+                .contentType(MediaType.TEXT_EVENT_STREAM)
+                .body(sseKeepAlive.apply(ChunkEncoder.encode(chunks, objectMapper)));
+    }
+
+    private static <T> Mono<T> blocking(Callable<T> call) {
+        return Mono.fromCallable(call).subscribeOn(Schedulers.boundedElastic());
+    }
+}
@@ -1,24 +1,29 @@
 package com.moguyn.deepdesk.controller;
 
-import java.util.List;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moguyn.deepdesk.chat.AdmissionControl;
+import com.moguyn.deepdesk.chat.ChunkEncoder;
 import com.moguyn.deepdesk.chat.OpenAiService;
+import com.moguyn.deepdesk.chat.RateLimiter;
+import com.moguyn.deepdesk.chat.ResumableStreams;
+import com.moguyn.deepdesk.chat.SseKeepAlive;
 import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
 import com.moguyn.deepdesk.openai.model.ChatCompletionRequest;
 import com.moguyn.deepdesk.openai.model.ChatCompletionResponse;
-import com.moguyn.deepdesk.openai.model.ChatMessage;
 
 import lombok.RequiredArgsConstructor;
 import reactor.core.publisher.Flux;
@@ -30,37 +35,74 @@ import reactor.core.publisher.Flux;
 public class OpenAiChatController {
 
     private final OpenAiService openAiService;
+    private final ObjectMapper objectMapper;
+    private final AdmissionControl admissionControl;
+    private final RateLimiter rateLimiter;
+    private final SseKeepAlive sseKeepAlive;
+    private final ResumableStreams resumableStreams;
     private static final Logger log = LoggerFactory.getLogger(OpenAiChatController.class);
 
     @PostMapping(path = "/chat/completions",
             consumes = MediaType.APPLICATION_JSON_VALUE,
             produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
-    public Object chat(@RequestBody ChatCompletionRequest request) {
+    public Object chat(@RequestBody ChatCompletionRequest request,
+            @RequestHeader(name = "Last-Event-ID", required = false) String lastEventId) {
+        // A reconnecting client continues its stream without a second generation
+        Flux<ServerSentEvent<String>> resumed = request.isStream()
+                ? resumableStreams.resume(lastEventId, request.getUser()) : null;
+        if (resumed != null) {
+            return ResponseEntity.ok()
+                    .contentType(MediaType.TEXT_EVENT_STREAM)
+                    .body(sseKeepAlive.keepAlive(resumed));
+        }
+
+        // Charge the user's budget and wait for admission before anything is
+        // written to the response. A request that fails before generating
+        // gets its charge back.
+        RateLimiter.Grant grant = rateLimiter.acquire(request);
+        AdmissionControl.Permit permit;
+        try {
+            permit = admissionControl.acquire(request.getUser());
+        } catch (RuntimeException e) {
+            grant.reconcile(0);
+            throw e;
+        }
+
         if (!request.isStream()) {
-            ChatCompletionResponse response = openAiService.processChat(request);
-            return ResponseEntity.ok(response);
+            try (permit) {
+                ChatCompletionResponse response;
+                try {
+                    response = openAiService.processChat(request);
+                } catch (RuntimeException e) {
+                    grant.reconcile(0);
+                    throw e;
+                }
+                grant.complete(response);
+                return ResponseEntity.ok()
+                        .headers(headers -> grant.headers().forEach(headers::add))
+                        .body(response);
+            }
         } else {
-            return openAiService.streamChat(request)
-                    .onErrorResume(e -> {
-                        // Log the error
-                        log.error("Error in chat stream: {}", e.getMessage(), e);
+            try {
+                Flux<ChatCompletionChunk> chunks = grant.track(openAiService.streamChat(request))
+                        .onErrorResume(e -> {
+                            // Log the error
+                            log.error("Error in chat stream: {}", e.getMessage(), e);
 
-                        // Return an error chunk
-                        ChatCompletionChunk errorChunk = ChatCompletionChunk.builder()
-                                .id("error-" + java.util.UUID.randomUUID())
-                                .object("chat.completion.chunk")
-                                .created(System.currentTimeMillis() / 1000)
-                                .model(request.getModel())
-                                .choices(List.of(
-                                        ChatCompletionChunk.ChunkChoice.builder()
-                                                .index(0)
-                                                .delta(ChatMessage.of("assistant", "An error occurred: " + e.getMessage()))
-                                                .finishReason("error")
-                                                .build()
-                                ))
-                                .build();
-                        return Flux.just(errorChunk);
-                    });
+                            // Return an error chunk
+                            return Flux.just(ChatErrors.errorChunk(request, e));
+                        })
+                        .doFinally(signal -> permit.release());
+                return ResponseEntity.ok()
+                        .headers(headers -> grant.headers().forEach(headers::add))
+                        .contentType(MediaType.TEXT_EVENT_STREAM)
+                        .body(sseKeepAlive.keepAlive(resumableStreams.open(ChunkEncoder.encode(chunks, objectMapper),
+                                request.getUser())));
+            } catch (RuntimeException e) {
+                grant.reconcile(0);
+                permit.release();
+                throw e;
+            }
         }
     }
 
@@ -0,0 +1,120 @@
+package com.moguyn.deepdesk.controller;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moguyn.deepdesk.chat.AdmissionControl;
+import com.moguyn.deepdesk.chat.ChunkEncoder;
+import com.moguyn.deepdesk.chat.OpenAiService;
+import com.moguyn.deepdesk.chat.RateLimiter;
+import com.moguyn.deepdesk.chat.ResumableStreams;
+import com.moguyn.deepdesk.chat.SseKeepAlive;
+import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
+import com.moguyn.deepdesk.openai.model.ChatCompletionRequest;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * WebFlux variant of the OpenAI-compatible endpoints. Requests are served on
+ * the event loop end to end, so long-lived completions do not hold a thread
+ * while waiting for the model.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/openai")
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "core.ui", name = "type", havingValue = "reactive")
+public class ReactiveOpenAiChatController {
+
+    private final OpenAiService openAiService;
+    private final ObjectMapper objectMapper;
+    private final AdmissionControl admissionControl;
+    private final RateLimiter rateLimiter;
+    private final SseKeepAlive sseKeepAlive;
+    private final ResumableStreams resumableStreams;
+
+    @PostMapping(path = "/chat/completions",
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    public Mono<ResponseEntity<?>> chat(@RequestBody ChatCompletionRequest request,
+            @RequestHeader(name = "Last-Event-ID", required = false) String lastEventId) {
+        // A reconnecting client continues its stream without a second generation
+        Flux<ServerSentEvent<String>> resumed = request.isStream()
+                ? resumableStreams.resume(lastEventId, request.getUser()) : null;
+        if (resumed != null) {
+            return Mono.just(ResponseEntity.ok()
+                    .contentType(MediaType.TEXT_EVENT_STREAM)
+                    .body(sseKeepAlive.keepAlive(resumed)));
+        }
+        // A request that is not admitted generated nothing, so nothing stays charged
+        return Mono.fromCallable(() -> rateLimiter.acquire(request))
+                .flatMap(grant -> admissionControl.mono(request.getUser())
+                        .doOnError(e -> grant.reconcile(0))
+                        .doOnCancel(() -> grant.reconcile(0))
+                        .flatMap(permit -> admitted(request, grant, permit)));
+    }
+
+    /**
+     * Serves an admitted request, holding the permit until the response
+     * completes
+     */
+    private Mono<ResponseEntity<?>> admitted(ChatCompletionRequest request, RateLimiter.Grant grant,
+            AdmissionControl.Permit permit) {
+        if (!request.isStream()) {
+            return openAiService.processChatReactive(request)
+                    .doOnNext(grant::complete)
+                    .doOnError(e -> grant.reconcile(0))
+                    .<ResponseEntity<?>>map(response -> ResponseEntity.ok()
+                            .headers(headers -> grant.headers().forEach(headers::add))
+                            .body(response))
+                    .doFinally(signal -> permit.release());
+        }
+
+        Flux<ChatCompletionChunk> chunks;
+        try {
+            chunks = grant.track(openAiService.streamChat(request))
+                    .onErrorResume(e -> {
+                        log.error("Error in chat stream: {}", e.getMessage(), e);
+                        return Flux.just(ChatErrors.errorChunk(request, e));
+                    })
+                    .doFinally(signal -> permit.release());
+        } catch (RuntimeException e) {
+            grant.reconcile(0);
+            permit.release();
+            return Mono.error(e);
+        }
+        return Mono.just(ResponseEntity.ok()
+                .headers(headers -> grant.headers().forEach(headers::add))
+                .contentType(MediaType.TEXT_EVENT_STREAM)
+                .body(sseKeepAlive.keepAlive(resumableStreams.open(ChunkEncoder.encode(chunks, objectMapper),
+                        request.getUser()))));
+    }
+
+    @GetMapping(path = "/models")
+    public Mono<ResponseEntity<?>> models() {
+        return Mono.just(ResponseEntity.ok(openAiService.getModels()));
+    }
+
+    @RequestMapping(path = "/models", method = RequestMethod.OPTIONS)
+    public Mono<ResponseEntity<?>> modelsOptions() {
+        return Mono.just(ResponseEntity
+                .ok()
+                .header("Allow", "GET, OPTIONS")
+                .header("Access-Control-Allow-Methods", "GET, OPTIONS")
+                .header("Access-Control-Allow-Headers", "Content-Type, Authorization")
+                .build());
+    }
+}
@@ -0,0 +1,95 @@
+package com.moguyn.deepdesk.embedding;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.util.StringUtils;
+
+/**
+ * Embedding model that answers from an embedding cache and only sends the
+ * texts it has not seen before to the model it wraps, in a single call.
+ * Texts embedded for another model or dimension count are cached apart.
+ */
+public class CachingEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+    private final EmbeddingCache cache;
+    private final String defaultModel;
+
+    public CachingEmbeddingModel(EmbeddingModel delegate, EmbeddingCache cache, String defaultModel) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.defaultModel = defaultModel;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        String model = model(request.getOptions());
+        List<String> texts = request.getInstructions();
+        float[][] vectors = new float[texts.size()][];
+        List<String> missing = new ArrayList<>();
+        List<Integer> missingIndexes = new ArrayList<>();
+        for (int i = 0; i < texts.size(); i++) {
+            vectors[i] = cache.get(model, texts.get(i));
+            if (vectors[i] == null) {
+                missing.add(texts.get(i));
+                missingIndexes.add(i);
+            }
+        }
+        if (missing.isEmpty()) {
+            cache.savedCall();
+            return new EmbeddingResponse(embeddings(vectors));
+        }
+
+        EmbeddingResponse response = delegate.call(new EmbeddingRequest(missing, request.getOptions()));
+        List<Embedding> results = response.getResults();
+        for (int i = 0; i < results.size() && i < missing.size(); i++) {
+            Embedding result = results.get(i);
+            int position = result.getIndex() != null && result.getIndex() < missing.size() ? result.getIndex() : i;
+            float[] vector = result.getOutput();
+            if (vector == null) {
+                continue;
+            }
+            vectors[missingIndexes.get(position)] = vector;
+            cache.put(model, missing.get(position), vector);
+        }
+        for (int i = 0; i < missing.size(); i++) {
+            if (vectors[missingIndexes.get(i)] == null) {
+                throw new IllegalStateException("Embedding model returned " + results.size()
+                        + " embeddings for " + missing.size() + " texts, none for text " + missingIndexes.get(i));
+            }
+        }
+        return new EmbeddingResponse(embeddings(vectors), response.getMetadata());
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getFormattedContent(MetadataMode.EMBED));
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    private String model(EmbeddingOptions options) {
+        String model = options != null && StringUtils.hasText(options.getModel()) ? options.getModel() : defaultModel;
+        Integer dimensions = options != null ? options.getDimensions() : null;
+        return dimensions != null ? model + "/" + dimensions : model;
+    }
+
+    private static List<Embedding> embeddings(float[][] vectors) {
+        List<Embedding> embeddings = new ArrayList<>(vectors.length);
+        for (int i = 0; i < vectors.length; i++) {
+            embeddings.add(new Embedding(vectors[i], i));
+        }
+        return embeddings;
+    }
+}
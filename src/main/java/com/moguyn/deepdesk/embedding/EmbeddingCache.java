@@ -0,0 +1,153 @@
+package com.moguyn.deepdesk.embedding;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import org.springframework.ai.embedding.EmbeddingModel;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Two-level cache of embeddings, keyed by the SHA-256 of the model name and
+ * the embedded text. The first level is on the heap and bounded by the bytes
+ * of its vectors; the second is a memory-mapped file that survives
+ * restarts. Hits in the file are promoted to the heap.
+ */
+@Slf4j
+public class EmbeddingCache {
+
+    private final boolean enabled;
+    private final String defaultModel;
+    private final Cache<String, float[]> heap;
+    private final EmbeddingFile file;
+
+    private final Counter heapHits;
+    private final Counter fileHits;
+    private final Counter misses;
+    private final Counter savedCalls;
+
+    /**
+     * @param defaultModel name of the embedding model, for requests that do
+     * not name one
+     * @param file the second level, or null to keep embeddings on the heap
+     * only
+     */
+    public EmbeddingCache(boolean enabled, String defaultModel, long maxHeapBytes, Path file, long maxFileBytes,
+            MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.defaultModel = defaultModel;
+        this.heap = Caffeine.newBuilder()
+                .maximumWeight(enabled ? maxHeapBytes : 0)
+                .weigher((String key, float[] vector) -> key.length() + vector.length * Float.BYTES)
+                .build();
+        this.file = enabled && file != null && maxFileBytes > 0 ? new EmbeddingFile(file, maxFileBytes) : null;
+
+        this.heapHits = lookups(meterRegistry, "heap");
+        this.fileHits = lookups(meterRegistry, "file");
+        this.misses = lookups(meterRegistry, "miss");
+        this.savedCalls = Counter.builder("deepdesk.embedding.upstream.saved")
+                .description("Embedding calls answered from the cache without calling the model")
+                .register(meterRegistry);
+        Gauge.builder("deepdesk.embedding.cache.bytes", heap, cache -> cache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0))
+                .orElse(0L))
+                .description("Bytes held by the embedding cache")
+                .tag("level", "heap")
+                .register(meterRegistry);
+        if (this.file != null) {
+            Gauge.builder("deepdesk.embedding.cache.bytes", this.file, EmbeddingFile::usedBytes)
+                    .description("Bytes held by the embedding cache")
+                    .tag("level", "file")
+                    .register(meterRegistry);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Wraps a model so its embeddings go through this cache. Returns the
+     * model itself when the cache is disabled.
+     */
+    public EmbeddingModel decorate(EmbeddingModel embeddingModel) {
+        return enabled ? new CachingEmbeddingModel(embeddingModel, this, defaultModel) : embeddingModel;
+    }
+
+    /**
+     * Returns the cached embedding of a text, or null
+     */
+    public float[] get(String model, String text) {
+        byte[] key = key(model, text);
+        String hex = HexFormat.of().formatHex(key);
+        float[] vector = heap.getIfPresent(hex);
+        if (vector != null) {
+            heapHits.increment();
+            return vector.clone();
+        }
+        vector = file != null ? file.get(key) : null;
+        if (vector != null) {
+            fileHits.increment();
+            heap.put(hex, vector);
+            return vector.clone();
+        }
+        misses.increment();
+        return null;
+    }
+
+    public void put(String model, String text, float[] vector) {
+        byte[] key = key(model, text);
+        heap.put(HexFormat.of().formatHex(key), vector.clone());
+        if (file != null) {
+            file.put(key, vector);
+        }
+    }
+
+    /**
+     * Records an embedding call that was answered from the cache alone
+     */
+    void savedCall() {
+        savedCalls.increment();
+    }
+
+    /**
+     * Flushes the file to disk and closes it
+     */
+    public void close() {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                log.warn("Cannot close embedding cache: {}", e.getMessage());
+            }
+        }
+    }
+
+    static byte[] key(String model, String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(String.valueOf(model).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            return digest.digest(text.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Counter lookups(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("deepdesk.embedding.cache.lookups")
+                .description("Embedding cache lookups by the level that answered them")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,147 @@
+package com.moguyn.deepdesk.embedding;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only file of embeddings, memory-mapped so lookups are plain memory
+ * reads. The file starts with a header holding the end of the last complete
+ * record, followed by records made of the 32 byte key, the number of
+ * dimensions and the vector. The end is only moved once a record is fully
+ * written, so a record torn by a crash is ignored on the next start. Once
+ * the file is full, further embeddings are not stored.
+ */
+@Slf4j
+final class EmbeddingFile implements Closeable {
+
+    static final int MAGIC = 0x44454d42;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int KEY_BYTES = 32;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final Map<String, Integer> offsets = new ConcurrentHashMap<>();
+    private volatile int end;
+
+    EmbeddingFile(Path file, long maxBytes) {
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            long size = Math.max(channel.size(), Math.max(HEADER_BYTES, maxBytes));
+            this.capacity = (int) Math.min(size, Integer.MAX_VALUE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open embedding cache " + file, e);
+        }
+        load(file);
+    }
+
+    /**
+     * Returns the stored vector for a key, or null
+     */
+    float[] get(byte[] key) {
+        Integer offset = offsets.get(HexFormat.of().formatHex(key));
+        if (offset == null) {
+            return null;
+        }
+        int dimensions = buffer.getInt(offset + KEY_BYTES);
+        float[] vector = new float[dimensions];
+        buffer.slice(offset + KEY_BYTES + Integer.BYTES, dimensions * Float.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asFloatBuffer()
+                .get(vector);
+        return vector;
+    }
+
+    /**
+     * Appends a vector unless the key is already stored or the file is full
+     *
+     * @return whether the vector was stored
+     */
+    synchronized boolean put(byte[] key, float[] vector) {
+        String hex = HexFormat.of().formatHex(key);
+        int recordBytes = KEY_BYTES + Integer.BYTES + vector.length * Float.BYTES;
+        if (offsets.containsKey(hex) || (long) end + recordBytes > capacity) {
+            return false;
+        }
+        int offset = end;
+        buffer.put(offset, key);
+        buffer.putInt(offset + KEY_BYTES, vector.length);
+        buffer.slice(offset + KEY_BYTES + Integer.BYTES, vector.length * Float.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asFloatBuffer()
+                .put(vector);
+        end = offset + recordBytes;
+        buffer.putLong(8, end);
+        offsets.put(hex, offset);
+        return true;
+    }
+
+    /**
+     * Bytes taken by the header and the stored records
+     */
+    long usedBytes() {
+        return end;
+    }
+
+    int size() {
+        return offsets.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    /**
+     * Indexes the records of an existing file, or writes the header of a new
+     * one. A file in another format is started over.
+     */
+    private void load(Path file) {
+        long recordedEnd = buffer.getLong(8);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                || recordedEnd < HEADER_BYTES || recordedEnd > capacity) {
+            if (buffer.getInt(0) != 0) {
+                log.warn("Embedding cache {} has an unknown format, starting over", file);
+            }
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(8, HEADER_BYTES);
+            end = HEADER_BYTES;
+            return;
+        }
+        int offset = HEADER_BYTES;
+        byte[] key = new byte[KEY_BYTES];
+        while (offset + KEY_BYTES + Integer.BYTES <= recordedEnd) {
+            buffer.get(offset, key);
+            int dimensions = buffer.getInt(offset + KEY_BYTES);
+            int recordBytes = KEY_BYTES + Integer.BYTES + dimensions * Float.BYTES;
+            if (dimensions < 0 || offset + recordBytes > recordedEnd) {
+                break;
+            }
+            offsets.put(HexFormat.of().formatHex(key), offset);
+            offset += recordBytes;
+        }
+        end = offset;
+        log.info("Loaded {} cached embeddings from {}", offsets.size(), file);
+    }
+}
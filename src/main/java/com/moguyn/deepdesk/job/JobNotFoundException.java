@@ -0,0 +1,11 @@
+package com.moguyn.deepdesk.job;
+
+/**
+ * Thrown when a job id does not exist
+ */
+public class JobNotFoundException extends RuntimeException {
+
+    public JobNotFoundException(String id) {
+        super("No job found with id " + id);
+    }
+}
@@ -0,0 +1,473 @@
+package com.moguyn.deepdesk.job;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.moguyn.deepdesk.chat.AdmissionControl;
+import com.moguyn.deepdesk.chat.AdmissionRejectedException;
+import com.moguyn.deepdesk.chat.InvalidRequestException;
+import com.moguyn.deepdesk.chat.OpenAiService;
+import com.moguyn.deepdesk.chat.RateLimitExceededException;
+import com.moguyn.deepdesk.chat.RateLimiter;
+import com.moguyn.deepdesk.chat.ResponseBuilder;
+import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
+import com.moguyn.deepdesk.openai.model.ChatCompletionRequest;
+import com.moguyn.deepdesk.openai.model.ChatCompletionResponse;
+import com.moguyn.deepdesk.openai.model.Job;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Runs chat completions as background jobs, so long agentic requests do not
+ * hold a client connection open. A fixed number of workers run the regular
+ * streaming pipeline and further jobs wait in a bounded queue; once it is
+ * full new jobs are rejected. A job is charged to its user's rate limit when
+ * it is submitted and holds an admission permit of its user while it runs,
+ * so jobs share the interactive limits. Every chunk is recorded, so a client
+ * can attach to a job while it runs or after it has finished. Jobs survive restarts:
+ * unfinished ones run again from the start, and finished ones are deleted
+ * once their time to live has passed.
+ */
+@Slf4j
+public class JobService {
+
+    static final String OBJECT = "chat.completion.job";
+
+    /**
+     * Longest time between two sweeps for expired jobs
+     */
+    static final Duration MAX_CLEANUP_INTERVAL = Duration.ofMinutes(1);
+
+    private final JobStore store;
+    private final OpenAiService openAiService;
+    private final AdmissionControl admissionControl;
+    private final RateLimiter rateLimiter;
+    private final ResponseBuilder responseBuilder;
+    private final Duration ttl;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService cleaner = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofVirtual().name("deepdesk-job-cleaner").factory());
+    private final Map<String, Run> runs = new ConcurrentHashMap<>();
+
+    private final Counter completed;
+    private final Counter failed;
+    private final Counter cancelled;
+
+    public JobService(JobStore store, OpenAiService openAiService, AdmissionControl admissionControl,
+            RateLimiter rateLimiter, ResponseBuilder responseBuilder, int workers, int maxQueued, Duration ttl,
+            MeterRegistry meterRegistry) {
+        this.store = store;
+        this.openAiService = openAiService;
+        this.admissionControl = admissionControl;
+        this.rateLimiter = rateLimiter;
+        this.responseBuilder = responseBuilder;
+        this.ttl = ttl;
+        this.executor = new ThreadPoolExecutor(Math.max(1, workers), Math.max(1, workers), 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, maxQueued)),
+                Thread.ofVirtual().name("deepdesk-job-", 0).factory());
+
+        this.completed = jobs(meterRegistry, "completed");
+        this.failed = jobs(meterRegistry, "failed");
+        this.cancelled = jobs(meterRegistry, "cancelled");
+        meterRegistry.gauge("deepdesk.jobs.active", runs, Map::size);
+        meterRegistry.gauge("deepdesk.jobs.queued", executor, pool -> pool.getQueue().size());
+    }
+
+    /**
+     * Stores a job for the request and queues it. The job always streams,
+     * whatever the request asked for, so that clients can attach to it.
+     *
+     * @throws RateLimitExceededException when the user's budget is exhausted
+     */
+    public Job submit(ChatCompletionRequest request) {
+        if (request.getMessages() == null || request.getMessages().isEmpty()) {
+            throw new InvalidRequestException("messages must not be empty", "messages");
+        }
+        request.setStream(true);
+        RateLimiter.Grant grant = rateLimiter.acquire(request);
+        Job job = Job.builder()
+                .id("job_" + UUID.randomUUID().toString().replace("-", ""))
+                .object(OBJECT)
+                .status(Job.QUEUED)
+                .createdAt(Instant.now().getEpochSecond())
+                .build();
+        try {
+            store.create(job, request);
+            start(job, request, grant);
+        } catch (RejectedExecutionException e) {
+            grant.reconcile(0);
+            store.delete(job.getId());
+            throw new AdmissionRejectedException("Too many queued jobs", Duration.ofSeconds(1));
+        } catch (RuntimeException e) {
+            grant.reconcile(0);
+            throw e;
+        }
+        return get(job.getId());
+    }
+
+    public Job get(String id) {
+        Run run = runs.get(id);
+        if (run != null) {
+            synchronized (run) {
+                return run.job.toBuilder().build();
+            }
+        }
+        return store.load(id).orElseThrow(() -> new JobNotFoundException(id));
+    }
+
+    /**
+     * Streams the chunks of a job from the start. A running job is followed
+     * until it ends; a finished one is replayed from disk.
+     */
+    public Flux<ChatCompletionChunk> attach(String id) {
+        Run run = runs.get(id);
+        if (run != null) {
+            return run.chunks.asFlux();
+        }
+        if (!store.exists(id)) {
+            throw new JobNotFoundException(id);
+        }
+        return Flux.defer(() -> {
+            Job job = get(id);
+            Flux<ChatCompletionChunk> recorded = Flux.fromIterable(store.readChunks(id));
+            return Job.FAILED.equals(job.getStatus()) && job.getError() != null
+                    ? recorded.concatWith(Flux.error(new IllegalStateException(job.getError().message())))
+                    : recorded;
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Cancels a queued or running job. The stream of a running job is
+     * disposed, which cancels its upstream calls and tool calls.
+     */
+    public Job cancel(String id) {
+        Run run = runs.get(id);
+        if (run == null) {
+            return get(id);
+        }
+        boolean started;
+        synchronized (run) {
+            if (run.cancelled) {
+                return get(id);
+            }
+            run.cancelled = true;
+            started = run.started;
+        }
+        if (!started) {
+            // Never picked up by a worker, so nobody else finishes it
+            Future<?> future = run.future;
+            if (future != null) {
+                future.cancel(false);
+            }
+            refund(run);
+            finish(run, null, null);
+        } else {
+            CompletableFuture<AdmissionControl.Permit> admission = run.admission;
+            if (admission != null) {
+                admission.cancel(false);
+            }
+            Disposable subscription = run.subscription;
+            if (subscription != null) {
+                subscription.dispose();
+            }
+            run.done.cancel(false);
+        }
+        return get(id);
+    }
+
+    /**
+     * Queues jobs left unfinished by a previous run and starts sweeping
+     * expired ones
+     */
+    public void resume() {
+        expire();
+        for (Job job : store.list()) {
+            if (!job.isFinished()) {
+                log.info("Restarting job {}", job.getId());
+                job.setStatus(Job.QUEUED);
+                job.setStartedAt(null);
+                store.save(job);
+                try {
+                    start(job, store.readRequest(job.getId()), null);
+                } catch (RejectedExecutionException e) {
+                    log.warn("Job queue is full, job {} stays queued until the next restart", job.getId());
+                }
+            }
+        }
+        long interval = Math.max(1, Math.min(ttl.toMillis(), MAX_CLEANUP_INTERVAL.toMillis()));
+        cleaner.scheduleWithFixedDelay(this::expire, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops all workers. Unfinished jobs keep their state and run again on
+     * the next startup.
+     */
+    public void shutdown() {
+        cleaner.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Deletes finished jobs whose time to live has passed
+     */
+    void expire() {
+        long now = Instant.now().getEpochSecond();
+        for (Job job : store.list()) {
+            if (job.isFinished() && job.getExpiresAt() != null && job.getExpiresAt() <= now
+                    && !runs.containsKey(job.getId())) {
+                log.debug("Deleting expired job {}", job.getId());
+                store.delete(job.getId());
+            }
+        }
+    }
+
+    /**
+     * Waits until a job is no longer running
+     */
+    boolean awaitTermination(String id, Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (runs.containsKey(id)) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private void start(Job job, ChatCompletionRequest request, RateLimiter.Grant grant) {
+        Run run = new Run(job, request);
+        run.grant = grant;
+        runs.put(job.getId(), run);
+        try {
+            run.future = executor.submit(() -> execute(run));
+        } catch (RejectedExecutionException e) {
+            runs.remove(job.getId());
+            throw e;
+        }
+    }
+
+    private void execute(Run run) {
+        synchronized (run) {
+            if (run.cancelled) {
+                return;
+            }
+            run.started = true;
+            run.job.setStatus(Job.IN_PROGRESS);
+            run.job.setStartedAt(Instant.now().getEpochSecond());
+            store.save(run.job);
+        }
+
+        AdmissionControl.Permit permit;
+        try {
+            if (run.grant == null) {
+                // Restarted jobs are charged again, as their first run is lost
+                run.grant = awaitBudget(run);
+            }
+            permit = run.grant != null ? awaitAdmission(run) : null;
+        } catch (InterruptedException e) {
+            // Shutting down, the job runs again on the next startup
+            refund(run);
+            runs.remove(run.job.getId());
+            return;
+        } catch (RuntimeException e) {
+            refund(run);
+            finish(run, null, e);
+            return;
+        }
+        if (permit == null) {
+            refund(run);
+            finish(run, null, null);
+            return;
+        }
+        try (permit) {
+            generate(run);
+        }
+    }
+
+    /**
+     * Gives back the tokens charged for a job that generated nothing
+     */
+    private static void refund(Run run) {
+        if (run.grant != null) {
+            run.grant.reconcile(0);
+        }
+    }
+
+    /**
+     * Charges a restarted job to its user's rate limit, waiting out
+     * rejections. Returns null when the job is cancelled meanwhile.
+     */
+    private RateLimiter.Grant awaitBudget(Run run) throws InterruptedException {
+        while (!run.cancelled) {
+            try {
+                return rateLimiter.acquire(run.request);
+            } catch (RateLimitExceededException e) {
+                Thread.sleep(Math.max(e.getRetryAfter().toMillis(), 1));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Waits for an admission permit of the job's user, waiting out
+     * rejections as the job is already accepted. Returns null when the job
+     * is cancelled meanwhile.
+     */
+    private AdmissionControl.Permit awaitAdmission(Run run) throws InterruptedException {
+        while (!run.cancelled) {
+            CompletableFuture<AdmissionControl.Permit> admission = admissionControl.admit(run.request.getUser());
+            run.admission = admission;
+            if (run.cancelled) {
+                admission.cancel(false);
+            }
+            try {
+                return admission.get();
+            } catch (CancellationException e) {
+                return null;
+            } catch (InterruptedException e) {
+                admission.cancel(false);
+                throw e;
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof AdmissionRejectedException rejection)) {
+                    throw new IllegalStateException(e.getCause());
+                }
+                Thread.sleep(Math.max(rejection.getRetryAfter().toMillis(), 1));
+            }
+        }
+        return null;
+    }
+
+    private void generate(Run run) {
+        List<StringBuilder> replies = new ArrayList<>();
+        try (JobStore.ChunkWriter writer = store.openChunks(run.job.getId())) {
+            Disposable subscription = run.grant.track(openAiService.streamChat(run.request))
+                    .subscribe(chunk -> {
+                        writer.write(chunk);
+                        collect(replies, chunk);
+                        run.chunks.tryEmitNext(chunk);
+                    }, run.done::completeExceptionally, () -> run.done.complete(null));
+            run.subscription = subscription;
+            if (run.cancelled) {
+                subscription.dispose();
+                run.done.cancel(false);
+            }
+            try {
+                run.done.get();
+            } catch (InterruptedException e) {
+                // Shutting down, the job runs again on the next startup
+                subscription.dispose();
+                runs.remove(run.job.getId());
+                return;
+            } catch (CancellationException e) {
+                finish(run, null, null);
+                return;
+            } catch (ExecutionException e) {
+                RuntimeException failure = e.getCause() instanceof RuntimeException cause
+                        ? cause : new IllegalStateException(e.getCause());
+                log.warn("Job {} failed: {}", run.job.getId(), failure.getMessage());
+                finish(run, null, failure);
+                return;
+            }
+        }
+        finish(run, responseBuilder.buildResponse(run.request,
+                replies.stream().map(StringBuilder::toString).toList()), null);
+    }
+
+    private void finish(Run run, ChatCompletionResponse result, RuntimeException failure) {
+        synchronized (run) {
+            long now = Instant.now().getEpochSecond();
+            if (result != null) {
+                run.job.setStatus(Job.COMPLETED);
+                run.job.setResult(result);
+                completed.increment();
+            } else if (failure != null) {
+                run.job.setStatus(Job.FAILED);
+                run.job.setError(new Job.Error(failure instanceof IllegalArgumentException
+                        ? "invalid_request" : "server_error", String.valueOf(failure.getMessage())));
+                failed.increment();
+            } else {
+                run.job.setStatus(Job.CANCELLED);
+                cancelled.increment();
+            }
+            run.job.setFinishedAt(now);
+            run.job.setExpiresAt(now + ttl.toSeconds());
+            store.save(run.job);
+        }
+        if (failure != null) {
+            run.chunks.tryEmitError(failure);
+        } else {
+            run.chunks.tryEmitComplete();
+        }
+        runs.remove(run.job.getId());
+    }
+
+    /**
+     * Appends the content deltas of a chunk to the reply of their choice
+     */
+    private static void collect(List<StringBuilder> replies, ChatCompletionChunk chunk) {
+        if (chunk.getChoices() == null) {
+            return;
+        }
+        for (ChatCompletionChunk.ChunkChoice choice : chunk.getChoices()) {
+            int index = choice.getIndex() != null ? choice.getIndex() : 0;
+            while (replies.size() <= index) {
+                replies.add(new StringBuilder());
+            }
+            if (choice.getDelta() != null && choice.getDelta().content() != null) {
+                replies.get(index).append(choice.getDelta().content());
+            }
+        }
+    }
+
+    private static Counter jobs(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("deepdesk.jobs")
+                .description("Background jobs finished")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    /**
+     * State of a queued or running job. Status changes are guarded by its
+     * own monitor; the chunks are replayed to every client that attaches.
+     */
+    private static final class Run {
+
+        private final Job job;
+        private final ChatCompletionRequest request;
+        private final Sinks.Many<ChatCompletionChunk> chunks = Sinks.many().replay().all();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private volatile Future<?> future;
+        private volatile RateLimiter.Grant grant;
+        private volatile CompletableFuture<AdmissionControl.Permit> admission;
+        private volatile Disposable subscription;
+        private volatile boolean cancelled;
+        private boolean started;
+
+        private Run(Job job, ChatCompletionRequest request) {
+            this.job = job;
+            this.request = request;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.moguyn.deepdesk.job;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
+import com.moguyn.deepdesk.openai.model.ChatCompletionRequest;
+import com.moguyn.deepdesk.openai.model.Job;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps jobs on local disk, one directory per job holding the job object,
+ * the request and the chunks streamed so far. The chunk file lets a client
+ * attach to a job after it has finished, even across restarts.
+ */
+@Slf4j
+public class JobStore {
+
+    static final String JOB_FILE = "job.json";
+    static final String REQUEST_FILE = "request.json";
+    static final String CHUNKS_FILE = "chunks.jsonl";
+
+    private final Path root;
+    private final ObjectMapper objectMapper;
+
+    public JobStore(Path root, ObjectMapper objectMapper) {
+        this.root = root;
+        this.objectMapper = objectMapper;
+    }
+
+    public void create(Job job, ChatCompletionRequest request) {
+        Path dir = root.resolve(job.getId());
+        try {
+            Files.createDirectories(dir);
+            Files.write(dir.resolve(REQUEST_FILE), objectMapper.writeValueAsBytes(request));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create job " + job.getId(), e);
+        }
+        save(job);
+    }
+
+    /**
+     * Writes the job object through a temporary file, so a crash never
+     * leaves a half-written one behind
+     */
+    public void save(Job job) {
+        Path dir = root.resolve(job.getId());
+        Path tmp = dir.resolve(JOB_FILE + ".tmp");
+        try {
+            Files.write(tmp, objectMapper.writeValueAsBytes(job));
+            Files.move(tmp, dir.resolve(JOB_FILE), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to save job " + job.getId(), e);
+        }
+    }
+
+    public Optional<Job> load(String id) {
+        if (!isValidId(id)) {
+            return Optional.empty();
+        }
+        Path file = root.resolve(id).resolve(JOB_FILE);
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(objectMapper.readValue(file.toFile(), Job.class));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read job " + id, e);
+        }
+    }
+
+    /**
+     * All stored jobs, oldest first
+     */
+    public List<Job> list() {
+        if (!Files.isDirectory(root)) {
+            return List.of();
+        }
+        try (Stream<Path> dirs = Files.list(root)) {
+            return dirs.map(dir -> load(dir.getFileName().toString()))
+                    .flatMap(Optional::stream)
+                    .sorted(Comparator.comparing(Job::getCreatedAt, Comparator.nullsLast(Comparator.naturalOrder())))
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to list jobs", e);
+        }
+    }
+
+    public ChatCompletionRequest readRequest(String id) {
+        try {
+            return objectMapper.readValue(root.resolve(id).resolve(REQUEST_FILE).toFile(),
+                    ChatCompletionRequest.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read request of job " + id, e);
+        }
+    }
+
+    /**
+     * Opens the chunk file for a fresh run of the job, discarding the chunks
+     * of an earlier run that was interrupted
+     */
+    public ChunkWriter openChunks(String id) {
+        try {
+            return new ChunkWriter(Files.newBufferedWriter(root.resolve(id).resolve(CHUNKS_FILE)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open chunks of job " + id, e);
+        }
+    }
+
+    /**
+     * Chunks written by the last run. A line torn by a crash ends the list.
+     */
+    public List<ChatCompletionChunk> readChunks(String id) {
+        List<ChatCompletionChunk> chunks = new ArrayList<>();
+        Path file = root.resolve(id).resolve(CHUNKS_FILE);
+        if (!Files.exists(file)) {
+            return chunks;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    chunks.add(objectMapper.readValue(line, ChatCompletionChunk.class));
+                } catch (JsonProcessingException e) {
+                    log.warn("Skipping unreadable chunk line in {}", file);
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + file, e);
+        }
+        return chunks;
+    }
+
+    public boolean exists(String id) {
+        return isValidId(id) && Files.exists(root.resolve(id).resolve(JOB_FILE));
+    }
+
+    public void delete(String id) {
+        if (!isValidId(id)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(root.resolve(id))) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to delete job " + id, e);
+        }
+    }
+
+    /**
+     * Job ids become directory names, so only ids this store could have
+     * generated are accepted
+     */
+    static boolean isValidId(String id) {
+        return id != null && id.matches("job_[0-9a-f]{32}");
+    }
+
+    /**
+     * Appends the chunks of one run as JSON lines
+     */
+    public final class ChunkWriter implements AutoCloseable {
+
+        private final BufferedWriter writer;
+
+        private ChunkWriter(BufferedWriter writer) {
+            this.writer = writer;
+        }
+
+        public void write(ChatCompletionChunk chunk) {
+            try {
+                writer.write(objectMapper.writeValueAsString(chunk));
+                writer.newLine();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to write chunk", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to close chunk file", e);
+            }
+        }
+    }
+}
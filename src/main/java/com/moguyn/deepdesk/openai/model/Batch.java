@@ -0,0 +1,78 @@
+package com.moguyn.deepdesk.openai.model;
+
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A batch of chat completions, shaped like the OpenAI Batch object. The
+ * throughput field is an extension reporting the processing rate.
+ */
+@Builder(toBuilder = true)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class Batch {
+
+    public static final String VALIDATING = "validating";
+    public static final String IN_PROGRESS = "in_progress";
+    public static final String CANCELLING = "cancelling";
+    public static final String CANCELLED = "cancelled";
+    public static final String COMPLETED = "completed";
+
+    private String id;
+    private String object;
+    private String endpoint;
+    private String status;
+
+    @JsonProperty("output_file_id")
+    private String outputFileId;
+
+    @JsonProperty("error_file_id")
+    private String errorFileId;
+
+    @JsonProperty("created_at")
+    private Long createdAt;
+
+    @JsonProperty("in_progress_at")
+    private Long inProgressAt;
+
+    @JsonProperty("completed_at")
+    private Long completedAt;
+
+    @JsonProperty("cancelled_at")
+    private Long cancelledAt;
+
+    @JsonProperty("request_counts")
+    private RequestCounts requestCounts;
+
+    private Throughput throughput;
+
+    private Map<String, String> metadata;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record RequestCounts(
+            int total,
+            int completed,
+            int failed) {
+
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Throughput(
+            @JsonProperty("requests_per_second")
+            double requestsPerSecond,
+            @JsonProperty("tokens_per_second")
+            double tokensPerSecond,
+            @JsonProperty("total_tokens")
+            long totalTokens) {
+
+    }
+}
@@ -0,0 +1,17 @@
+package com.moguyn.deepdesk.openai.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * One line of a batch input file
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BatchRequest(
+        @JsonProperty("custom_id")
+        String customId,
+        String method,
+        String url,
+        ChatCompletionRequest body) {
+
+}
@@ -0,0 +1,31 @@
+package com.moguyn.deepdesk.openai.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * One line of a batch output or error file
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BatchResult(
+        String id,
+        @JsonProperty("custom_id")
+        String customId,
+        Response response,
+        Error error) {
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Response(
+            @JsonProperty("status_code")
+            int statusCode,
+            ChatCompletionResponse body) {
+
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Error(
+            String code,
+            String message) {
+
+    }
+}
@@ -3,6 +3,7 @@ package com.moguyn.deepdesk.openai.model;
 import java.util.List;
 import java.util.Map;
 
+import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
@@ -34,6 +35,7 @@ public class ChatCompletionRequest {
     @JsonProperty("stream_options")
     private StreamOptions streamOptions;
 
+    @JsonFormat(with = JsonFormat.Feature.ACCEPT_SINGLE_VALUE_AS_ARRAY)
     private List<String> stop;
 
     @JsonProperty("frequency_penalty")
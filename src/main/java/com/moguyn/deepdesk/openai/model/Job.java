@@ -0,0 +1,60 @@
+package com.moguyn.deepdesk.openai.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A chat completion run in the background. The result holds the aggregated
+ * completion once the job has completed.
+ */
+@Builder(toBuilder = true)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class Job {
+
+    public static final String QUEUED = "queued";
+    public static final String IN_PROGRESS = "in_progress";
+    public static final String COMPLETED = "completed";
+    public static final String FAILED = "failed";
+    public static final String CANCELLED = "cancelled";
+
+    private String id;
+    private String object;
+    private String status;
+
+    @JsonProperty("created_at")
+    private Long createdAt;
+
+    @JsonProperty("started_at")
+    private Long startedAt;
+
+    @JsonProperty("finished_at")
+    private Long finishedAt;
+
+    @JsonProperty("expires_at")
+    private Long expiresAt;
+
+    private ChatCompletionResponse result;
+
+    private Error error;
+
+    @JsonIgnore
+    public boolean isFinished() {
+        return COMPLETED.equals(status) || FAILED.equals(status) || CANCELLED.equals(status);
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Error(
+            String code,
+            String message) {
+
+    }
+}
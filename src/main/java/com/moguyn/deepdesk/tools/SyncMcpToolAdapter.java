@@ -2,12 +2,15 @@ package com.moguyn.deepdesk.tools;
 
 import java.util.Map;
 
+import org.springframework.ai.chat.model.ToolContext;
 import org.springframework.ai.model.ModelOptionsUtils;
 import org.springframework.ai.tool.ToolCallback;
 import org.springframework.ai.tool.definition.ToolDefinition;
 import org.springframework.ai.tool.execution.ToolExecutionException;
 import org.springframework.lang.NonNull;
 
+import com.moguyn.deepdesk.chat.CancellationToken;
+
 import io.modelcontextprotocol.client.McpSyncClient;
 import io.modelcontextprotocol.spec.McpSchema.CallToolRequest;
 import io.modelcontextprotocol.spec.McpSchema.CallToolResult;
@@ -35,6 +38,18 @@ public class SyncMcpToolAdapter implements ToolCallback {
                 .build();
     }
 
+    /**
+     * Runs the call through the cancellation token of the completion, if
+     * any, so a cancelled completion interrupts the blocked MCP request
+     * instead of waiting for its result
+     */
+    @NonNull
+    @Override
+    public String call(String functionInput, ToolContext toolContext) {
+        CancellationToken token = CancellationToken.from(toolContext);
+        return token == null ? call(functionInput) : token.run(() -> call(functionInput));
+    }
+
     @NonNull
     @Override
     @SuppressWarnings("UseSpecificCatch")
@@ -0,0 +1,75 @@
+package com.moguyn.deepdesk.vectorstore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.ai.chroma.vectorstore.ChromaApi;
+import org.springframework.ai.document.Document;
+import org.springframework.util.StringUtils;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Copies a Chroma collection into the embedded vector store. Documents are
+ * read a page at a time together with their embeddings, so nothing is
+ * embedded again. Once copied, the vectors are quantized right away if the
+ * store is configured to quantize.
+ */
+@Slf4j
+public class ChromaMigration {
+
+    private static final List<ChromaApi.QueryRequest.Include> INCLUDE = List.of(
+            ChromaApi.QueryRequest.Include.DOCUMENTS,
+            ChromaApi.QueryRequest.Include.EMBEDDINGS,
+            ChromaApi.QueryRequest.Include.METADATAS);
+
+    private final ChromaApi chromaApi;
+    private final int pageSize;
+
+    public ChromaMigration(ChromaApi chromaApi, int pageSize) {
+        this.chromaApi = chromaApi;
+        this.pageSize = Math.max(1, pageSize);
+    }
+
+    /**
+     * @return the number of documents copied
+     */
+    public int migrate(String collectionName, HnswVectorStore target) {
+        ChromaApi.Collection collection = chromaApi.getCollection(collectionName);
+        if (collection == null) {
+            throw new IllegalArgumentException("There is no Chroma collection " + collectionName);
+        }
+        int copied = 0;
+        for (int offset = 0; ; offset += pageSize) {
+            ChromaApi.GetEmbeddingResponse page = chromaApi.getEmbeddings(collection.id(),
+                    new ChromaApi.GetEmbeddingsRequest(null, null, pageSize, offset, INCLUDE));
+            if (page == null || page.ids() == null || page.ids().isEmpty()) {
+                break;
+            }
+            List<Document> documents = new ArrayList<>(page.ids().size());
+            List<float[]> embeddings = new ArrayList<>(page.ids().size());
+            for (int i = 0; i < page.ids().size(); i++) {
+                String text = page.documents() != null ? page.documents().get(i) : null;
+                if (!StringUtils.hasText(text)) {
+                    log.warn("Skipping Chroma document {} without text", page.ids().get(i));
+                    continue;
+                }
+                Map<String, Object> metadata = page.metadata() != null && page.metadata().get(i) != null
+                        ? new HashMap<>(page.metadata().get(i))
+                        : new HashMap<>();
+                documents.add(Document.builder().id(page.ids().get(i)).text(text).metadata(metadata).build());
+                embeddings.add(page.embeddings().get(i));
+            }
+            target.addEmbedded(documents, embeddings);
+            copied += documents.size();
+            log.info("Copied {} documents from Chroma collection {}", copied, collectionName);
+            if (page.ids().size() < pageSize) {
+                break;
+            }
+        }
+        target.quantize();
+        return copied;
+    }
+}
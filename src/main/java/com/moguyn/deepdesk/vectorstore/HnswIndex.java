@@ -0,0 +1,970 @@
+package com.moguyn.deepdesk.vectorstore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.IntPredicate;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Hierarchical navigable small world graph over normalized vectors, scored
+ * by inner product (cosine similarity). Vectors and the links of the bottom
+ * layer, which hold nearly all of the graph, are kept in memory-mapped
+ * segment files. The links of the upper layers are few and kept on the heap;
+ * they are saved with the size and the entry point in a small snapshot.
+ * {@link #flush} syncs the segments written since the last flush and
+ * appends the upper layer links that changed, with the new size, to a log
+ * next to the snapshot. Once the log outgrows the snapshot, the snapshot is
+ * replaced atomically and a new log started. Nodes beyond the size in the
+ * last complete log record are ignored on load, so a crash loses the nodes
+ * added since the last flush and nothing else.
+ * <p>
+ * With quantization, every vector is also stored as a compact code once the
+ * quantizer is trained. From then on the graph is walked and new nodes are
+ * linked by scoring codes, and the full vectors are only written when added
+ * and read to rerank the best candidates of a search, so their segments stay
+ * cold and mostly out of memory. They are kept on disk to rerank and to
+ * train the quantizer again. Training takes a while, so it is split in three steps: a sample is
+ * taken under the caller's write lock, the quantizer is trained and the
+ * sampled nodes are coded without any lock, and the nodes added meanwhile
+ * are coded under the write lock again before the codes are searched. An
+ * index opened with another quantization than it was stored with needs
+ * quantizing again.
+ */
+final class HnswIndex implements Closeable {
+
+    static final int MAGIC = 0x484e5357;
+    static final int VERSION = 2;
+    static final String GRAPH_FILE = "graph.bin";
+    static final String GRAPH_LOG_PREFIX = "graph-";
+    static final String GRAPH_LOG_SUFFIX = ".log";
+    static final String QUANTIZER_FILE = "quantizer.bin";
+
+    private static final int SLOTS_PER_SEGMENT = 4096;
+    private static final int CODES_PER_SEGMENT = 65536;
+    private static final long MIN_COMPACTED_LOG_BYTES = 1 << 20;
+
+    private final Path directory;
+    private final int dimensions;
+    private final int m;
+    private final int maxLinks0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final Random random;
+    private final MappedSegments vectors;
+    private final MappedSegments links;
+    private final Map<Integer, int[][]> upperLinks = new HashMap<>();
+    private final Set<Integer> changedUpperLinks = new HashSet<>();
+    private final Quantization quantization;
+    private Quantizer quantizer;
+    private MappedSegments codes;
+
+    private int size;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    private boolean closed;
+
+    private int generation;
+    private int flushedSize;
+    private long snapshotBytes;
+    private long logBytes;
+    private FileChannel log;
+
+    /**
+     * Opens the index in a directory, loading what an earlier instance
+     * flushed there
+     *
+     * @param m links per node on the upper layers; the bottom layer keeps
+     * twice as many
+     * @param efConstruction candidates considered when linking a new node
+     */
+    HnswIndex(Path directory, int dimensions, int m, int efConstruction, long seed) {
+        this(directory, dimensions, m, efConstruction, seed, Quantization.none());
+    }
+
+    HnswIndex(Path directory, int dimensions, int m, int efConstruction, long seed, Quantization quantization) {
+        this.directory = directory;
+        this.quantization = quantization;
+        this.dimensions = dimensions;
+        this.m = Math.max(2, m);
+        this.maxLinks0 = this.m * 2;
+        this.efConstruction = Math.max(this.m, efConstruction);
+        this.levelMultiplier = 1 / Math.log(this.m);
+        this.random = new Random(seed);
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create " + directory, e);
+        }
+        this.vectors = new MappedSegments(directory, "vectors", dimensions * Float.BYTES, SLOTS_PER_SEGMENT);
+        // Per node: its level, the number of bottom layer links and the links
+        this.links = new MappedSegments(directory, "links", (2 + maxLinks0) * Integer.BYTES, SLOTS_PER_SEGMENT);
+        load();
+        loadQuantizer();
+    }
+
+    int size() {
+        return size;
+    }
+
+    int dimensions() {
+        return dimensions;
+    }
+
+    /**
+     * How the codes searched are quantized, NONE until the quantizer is
+     * trained
+     */
+    Quantization.Kind quantizedAs() {
+        return quantizer != null ? quantizer.kind() : Quantization.Kind.NONE;
+    }
+
+    /**
+     * Bytes taken by the full vectors
+     */
+    long vectorBytes() {
+        return (long) size * dimensions * Float.BYTES;
+    }
+
+    /**
+     * Bytes taken by the codes of the vectors
+     */
+    long codeBytes() {
+        return quantizer != null ? (long) size * quantizer.codeBytes() : 0;
+    }
+
+    /**
+     * Whether enough vectors are stored to train the quantizer and none is
+     * searched yet
+     */
+    boolean needsQuantizer() {
+        return quantizer == null && quantization.enabled() && size >= quantization.trainingSize();
+    }
+
+    /**
+     * Adds a normalized vector and links it into the graph
+     *
+     * @return the node of the vector
+     */
+    int add(float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("Expected " + dimensions + " dimensions but got " + vector.length);
+        }
+        int node = size;
+        vectors.ensure(node);
+        links.ensure(node);
+        vectors.floats(node).put(vectors.floatIndex(node), vector);
+        vectors.written(node);
+        int level = randomLevel();
+        IntBuffer nodeLinks = links.ints(node);
+        nodeLinks.put(links.intIndex(node), level);
+        nodeLinks.put(links.intIndex(node) + 1, 0);
+        links.written(node);
+        if (level > 0) {
+            upperLinks.put(node, new int[level][0]);
+            changedUpperLinks.add(node);
+        }
+        size = node + 1;
+        if (quantizer != null) {
+            encode(node, vector);
+        }
+        link(node, vector, level);
+        return node;
+    }
+
+    private void link(int node, float[] vector, int level) {
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+        NodeScorer scorer = quantizer != null ? codeScorer(vector) : neighbor -> similarity(vector, neighbor);
+        int nearest = entryPoint;
+        for (int layer = maxLevel; layer > level; layer--) {
+            nearest = greedy(scorer, nearest, layer);
+        }
+        List<Scored> entries = List.of(new Scored(nearest, scorer.score(nearest)));
+        for (int layer = Math.min(level, maxLevel); layer >= 0; layer--) {
+            List<Scored> candidates = searchLayer(scorer, entries, efConstruction, layer, null);
+            int[] neighbors = selectNeighbors(candidates, m);
+            setLinks(node, layer, neighbors);
+            for (int neighbor : neighbors) {
+                connect(neighbor, node, layer);
+            }
+            entries = candidates;
+        }
+        if (level > maxLevel) {
+            entryPoint = node;
+            maxLevel = level;
+        }
+    }
+
+    /**
+     * Approximate nearest nodes to a normalized query, best first
+     *
+     * @param ef candidates kept while searching the bottom layer; higher is
+     * slower and more accurate
+     * @param accept nodes that may be returned, or null for all. Rejected
+     * nodes are still traversed.
+     */
+    List<Scored> search(float[] query, int k, int ef, IntPredicate accept) {
+        if (entryPoint < 0 || k <= 0) {
+            return List.of();
+        }
+        NodeScorer scorer = quantizer != null ? codeScorer(query) : node -> similarity(query, node);
+        int nearest = entryPoint;
+        for (int layer = maxLevel; layer > 0; layer--) {
+            nearest = greedy(scorer, nearest, layer);
+        }
+        int candidates = quantizer != null ? k * quantization.rerank() : k;
+        List<Scored> found = searchLayer(scorer, List.of(new Scored(nearest, scorer.score(nearest))),
+                Math.max(ef, candidates), 0, accept);
+        if (quantizer != null) {
+            found = rerank(query, found.size() > candidates ? found.subList(0, candidates) : found);
+        }
+        return found.size() > k ? found.subList(0, k) : found;
+    }
+
+    /**
+     * Exact nearest nodes to a normalized query by scanning every node, best
+     * first
+     */
+    List<Scored> exact(float[] query, int k, IntPredicate accept) {
+        PriorityQueue<Scored> best = new PriorityQueue<>(Comparator.comparingDouble(Scored::score));
+        for (int node = 0; node < size; node++) {
+            if (accept == null || accept.test(node)) {
+                offer(best, new Scored(node, similarity(query, node)), k);
+            }
+        }
+        return sorted(best);
+    }
+
+    /**
+     * Exact nearest among the given nodes, best first
+     */
+    List<Scored> exactAmong(float[] query, int k, int[] nodes) {
+        PriorityQueue<Scored> best = new PriorityQueue<>(Comparator.comparingDouble(Scored::score));
+        for (int node : nodes) {
+            offer(best, new Scored(node, similarity(query, node)), k);
+        }
+        return sorted(best);
+    }
+
+    /**
+     * Copy of the vector of a node
+     */
+    float[] vector(int node) {
+        float[] vector = new float[dimensions];
+        vectors.floats(node).get(vectors.floatIndex(node), vector);
+        return vector;
+    }
+
+    /**
+     * Trains the quantizer on a sample of the vectors and codes every vector
+     * with it, replacing any codes stored before, in one go
+     */
+    void quantize() {
+        Training training = startQuantizing();
+        if (training != null) {
+            training.run();
+            finishQuantizing(training);
+        }
+    }
+
+    /**
+     * First step of quantizing, under the caller's write lock. Searches stop
+     * using the codes stored so far and a sample of the vectors is copied to
+     * train on.
+     *
+     * @return the training to run, or null when quantization is disabled or
+     * there is nothing to train on
+     */
+    Training startQuantizing() {
+        if (!quantization.enabled() || size == 0 || closed) {
+            return null;
+        }
+        Path file = directory.resolve(QUANTIZER_FILE);
+        try {
+            // Codes are rewritten in place, so the old quantizer must not
+            // outlive a crash halfway
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot delete " + file, e);
+        }
+        quantizer = null;
+        if (codes != null) {
+            codes.close();
+            codes = null;
+        }
+        return new Training(sample(quantization.trainingSize()), size, random.nextLong());
+    }
+
+    /**
+     * Last step of quantizing, under the caller's write lock. Codes the
+     * vectors added while training and starts searching the codes. A
+     * training finished after the index was closed is dropped.
+     */
+    void finishQuantizing(Training training) {
+        if (closed || training.codes == null) {
+            if (training.codes != null) {
+                training.codes.close();
+            }
+            return;
+        }
+        for (int node = training.nodes; node < size; node++) {
+            training.encode(node, vector(node));
+        }
+        training.codes.force();
+
+        Path file = directory.resolve(QUANTIZER_FILE);
+        Path tmp = directory.resolve(QUANTIZER_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            training.quantizer.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write " + tmp, e);
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot replace " + file, e);
+        }
+        quantizer = training.quantizer;
+        codes = training.codes;
+    }
+
+    /**
+     * Writes the segments changed since the last flush to disk, then logs
+     * the upper layer links that changed, or replaces the snapshot once the
+     * log has outgrown it
+     */
+    void flush() {
+        vectors.force();
+        links.force();
+        if (codes != null) {
+            codes.force();
+        }
+        if (snapshotBytes == 0 || logBytes > Math.max(MIN_COMPACTED_LOG_BYTES, snapshotBytes)) {
+            snapshot();
+        } else if (size != flushedSize || !changedUpperLinks.isEmpty()) {
+            appendLog();
+        }
+    }
+
+    /**
+     * Replaces the snapshot with the whole graph and starts a new log
+     */
+    private void snapshot() {
+        Path tmp = directory.resolve(GRAPH_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(dimensions);
+            out.writeInt(m);
+            out.writeInt(generation + 1);
+            out.writeInt(size);
+            out.writeInt(entryPoint);
+            out.writeInt(maxLevel);
+            out.writeInt(upperLinks.size());
+            for (Map.Entry<Integer, int[][]> entry : upperLinks.entrySet()) {
+                writeUpperLinks(out, entry.getKey(), entry.getValue());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write " + tmp, e);
+        }
+        Path file = directory.resolve(GRAPH_FILE);
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            snapshotBytes = Files.size(file);
+            // The log of the replaced snapshot is not read again
+            if (log != null) {
+                log.close();
+                log = null;
+            }
+            Files.deleteIfExists(logFile(generation));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot replace " + file, e);
+        }
+        generation++;
+        logBytes = 0;
+        flushedSize = size;
+        changedUpperLinks.clear();
+    }
+
+    /**
+     * Appends the size, the entry point and the upper layer links changed
+     * since the last flush to the log as one record: its length, the
+     * changes and their checksum
+     */
+    private void appendLog() {
+        ByteArrayOutputStream changes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(changes)) {
+            out.writeInt(size);
+            out.writeInt(entryPoint);
+            out.writeInt(maxLevel);
+            out.writeInt(changedUpperLinks.size());
+            for (int node : changedUpperLinks) {
+                writeUpperLinks(out, node, upperLinks.get(node));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] payload = changes.toByteArray();
+        CRC32 checksum = new CRC32();
+        checksum.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(payload.length + 2 * Integer.BYTES);
+        record.putInt(payload.length).put(payload).putInt((int) checksum.getValue()).flip();
+        Path file = logFile(generation);
+        try {
+            if (log == null) {
+                log = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+            }
+            while (record.hasRemaining()) {
+                log.write(record);
+            }
+            log.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write " + file, e);
+        }
+        logBytes += record.limit();
+        flushedSize = size;
+        changedUpperLinks.clear();
+    }
+
+    private Path logFile(int generation) {
+        return directory.resolve(GRAPH_LOG_PREFIX + generation + GRAPH_LOG_SUFFIX);
+    }
+
+    private static void writeUpperLinks(DataOutputStream out, int node, int[][] layers) throws IOException {
+        out.writeInt(node);
+        out.writeInt(layers.length);
+        for (int[] layer : layers) {
+            out.writeInt(layer.length);
+            for (int neighbor : layer) {
+                out.writeInt(neighbor);
+            }
+        }
+    }
+
+    private static int[][] readUpperLinks(DataInputStream in) throws IOException {
+        int[][] layers = new int[in.readInt()][];
+        for (int layer = 0; layer < layers.length; layer++) {
+            layers[layer] = new int[in.readInt()];
+            for (int j = 0; j < layers[layer].length; j++) {
+                layers[layer][j] = in.readInt();
+            }
+        }
+        return layers;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        vectors.force();
+        links.force();
+        if (codes != null) {
+            codes.force();
+        }
+        snapshot();
+        vectors.close();
+        links.close();
+        if (codes != null) {
+            codes.close();
+        }
+    }
+
+    float similarity(float[] query, int node) {
+        FloatBuffer buffer = vectors.floats(node);
+        int offset = vectors.floatIndex(node);
+        float sum = 0;
+        for (int i = 0; i < dimensions; i++) {
+            sum += query[i] * buffer.get(offset + i);
+        }
+        return sum;
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Moves from a node to its most similar neighbor until none is closer
+     */
+    private int greedy(NodeScorer scorer, int start, int layer) {
+        int current = start;
+        float best = scorer.score(current);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int neighbor : links(current, layer)) {
+                float score = scorer.score(neighbor);
+                if (score > best) {
+                    best = score;
+                    current = neighbor;
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Best-first search of one layer, returning up to ef accepted nodes, best
+     * first
+     */
+    private List<Scored> searchLayer(NodeScorer scorer, List<Scored> entries, int ef, int layer,
+            IntPredicate accept) {
+        BitSet visited = new BitSet(size);
+        PriorityQueue<Scored> candidates = new PriorityQueue<>(Comparator.comparingDouble(Scored::score).reversed());
+        PriorityQueue<Scored> results = new PriorityQueue<>(Comparator.comparingDouble(Scored::score));
+        for (Scored entry : entries) {
+            visited.set(entry.node());
+            candidates.add(entry);
+            if (accept == null || accept.test(entry.node())) {
+                offer(results, entry, ef);
+            }
+        }
+        while (!candidates.isEmpty()) {
+            Scored candidate = candidates.poll();
+            if (results.size() >= ef && candidate.score() < results.peek().score()) {
+                break;
+            }
+            for (int neighbor : links(candidate.node(), layer)) {
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float score = scorer.score(neighbor);
+                if (results.size() < ef || score > results.peek().score()) {
+                    Scored scored = new Scored(neighbor, score);
+                    candidates.add(scored);
+                    if (accept == null || accept.test(neighbor)) {
+                        offer(results, scored, ef);
+                    }
+                }
+            }
+        }
+        return sorted(results);
+    }
+
+    /**
+     * Picks up to max neighbors from candidates sorted best first, preferring
+     * candidates closer to the new node than to any neighbor already picked
+     * so the links spread in different directions. Slots left over are
+     * filled with the best of the skipped candidates.
+     */
+    private int[] selectNeighbors(List<Scored> candidates, int max) {
+        List<Scored> selected = new ArrayList<>(max);
+        List<float[]> selectedVectors = new ArrayList<>(max);
+        List<Scored> skipped = new ArrayList<>();
+        for (Scored candidate : candidates) {
+            if (selected.size() >= max) {
+                break;
+            }
+            float[] vector = linkVector(candidate.node());
+            boolean diverse = true;
+            for (float[] picked : selectedVectors) {
+                if (dot(vector, picked) > candidate.score()) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected.add(candidate);
+                selectedVectors.add(vector);
+            } else {
+                skipped.add(candidate);
+            }
+        }
+        for (int i = 0; i < skipped.size() && selected.size() < max; i++) {
+            selected.add(skipped.get(i));
+        }
+        return selected.stream().mapToInt(Scored::node).toArray();
+    }
+
+    /**
+     * Adds a link from a node, pruning its links when it has too many
+     */
+    private void connect(int node, int neighbor, int layer) {
+        int[] current = links(node, layer);
+        int max = layer == 0 ? maxLinks0 : m;
+        int[] grown = Arrays.copyOf(current, current.length + 1);
+        grown[current.length] = neighbor;
+        if (grown.length <= max) {
+            setLinks(node, layer, grown);
+            return;
+        }
+        float[] vector = linkVector(node);
+        List<Scored> candidates = new ArrayList<>(grown.length);
+        for (int link : grown) {
+            candidates.add(new Scored(link, dot(vector, linkVector(link))));
+        }
+        candidates.sort(Comparator.comparingDouble(Scored::score).reversed());
+        setLinks(node, layer, selectNeighbors(candidates, max));
+    }
+
+    private int[] links(int node, int layer) {
+        if (layer > 0) {
+            int[][] layers = upperLinks.get(node);
+            return layers != null && layer <= layers.length ? layers[layer - 1] : new int[0];
+        }
+        IntBuffer buffer = links.ints(node);
+        int offset = links.intIndex(node);
+        int count = Math.min(buffer.get(offset + 1), maxLinks0);
+        int[] neighbors = new int[count];
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            int neighbor = buffer.get(offset + 2 + i);
+            // Links to nodes added after the last flush are dropped on load
+            if (neighbor >= 0 && neighbor < size) {
+                neighbors[kept++] = neighbor;
+            }
+        }
+        return kept == count ? neighbors : Arrays.copyOf(neighbors, kept);
+    }
+
+    private void setLinks(int node, int layer, int[] neighbors) {
+        if (layer > 0) {
+            upperLinks.get(node)[layer - 1] = neighbors;
+            changedUpperLinks.add(node);
+            return;
+        }
+        IntBuffer buffer = links.ints(node);
+        int offset = links.intIndex(node);
+        buffer.put(offset + 1, neighbors.length);
+        buffer.put(offset + 2, neighbors);
+        links.written(node);
+    }
+
+    /**
+     * Vector of a node as the graph links it: decoded from its code once the
+     * quantizer is trained, so adding nodes does not page in full vectors
+     */
+    private float[] linkVector(int node) {
+        if (quantizer == null) {
+            return vector(node);
+        }
+        float[] vector = new float[dimensions];
+        quantizer.decode(codes.bytes(node), codes.byteIndex(node), vector);
+        return vector;
+    }
+
+    private NodeScorer codeScorer(float[] query) {
+        Quantizer.CodeScorer scorer = quantizer.scorer(query);
+        return node -> scorer.score(codes.bytes(node), codes.byteIndex(node));
+    }
+
+    /**
+     * Scores candidates again with their full vectors, best first
+     */
+    private List<Scored> rerank(float[] query, List<Scored> candidates) {
+        List<Scored> rescored = new ArrayList<>(candidates.size());
+        for (Scored candidate : candidates) {
+            rescored.add(new Scored(candidate.node(), similarity(query, candidate.node())));
+        }
+        rescored.sort(Comparator.comparingDouble(Scored::score).reversed());
+        return rescored;
+    }
+
+    private void encode(int node, float[] vector) {
+        encode(quantizer, codes, node, vector);
+    }
+
+    private static void encode(Quantizer quantizer, MappedSegments codes, int node, float[] vector) {
+        byte[] code = new byte[quantizer.codeBytes()];
+        quantizer.encode(vector, code);
+        codes.ensure(node);
+        codes.bytes(node).put(codes.byteIndex(node), code);
+        codes.written(node);
+    }
+
+    /**
+     * Up to max vectors picked at random without repetition
+     */
+    private List<float[]> sample(int max) {
+        List<float[]> sample = new ArrayList<>(Math.min(size, max));
+        if (size <= max) {
+            for (int node = 0; node < size; node++) {
+                sample.add(vector(node));
+            }
+            return sample;
+        }
+        // Reservoir sampling keeps one pass over the mapped vectors
+        int[] picked = new int[max];
+        for (int node = 0; node < size; node++) {
+            if (node < max) {
+                picked[node] = node;
+            } else {
+                int slot = random.nextInt(node + 1);
+                if (slot < max) {
+                    picked[slot] = node;
+                }
+            }
+        }
+        for (int node : picked) {
+            sample.add(vector(node));
+        }
+        return sample;
+    }
+
+    private MappedSegments codeSegments(Quantizer quantizer) {
+        return new MappedSegments(directory, "codes-" + quantizer.kind().name().toLowerCase(),
+                quantizer.codeBytes(), CODES_PER_SEGMENT);
+    }
+
+    /**
+     * Uses the stored quantizer when it is the one asked for. Otherwise the
+     * index is searched at full precision until it is quantized again.
+     */
+    private void loadQuantizer() {
+        if (!quantization.enabled()) {
+            return;
+        }
+        Path file = directory.resolve(QUANTIZER_FILE);
+        Quantizer stored = null;
+        if (Files.exists(file)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                stored = Quantizer.read(in);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read " + file, e);
+            }
+        }
+        if (stored != null && stored.kind() == quantization.kind()
+                && (stored.kind() != Quantization.Kind.PQ
+                || stored.codeBytes() == quantization.subspaces(dimensions))) {
+            quantizer = stored;
+            codes = codeSegments(stored);
+            if (size > 0) {
+                codes.ensure(size - 1);
+            }
+        }
+    }
+
+    private int randomLevel() {
+        return (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+    }
+
+    private void load() {
+        Path file = directory.resolve(GRAPH_FILE);
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int version = readHeader(in, file);
+            int storedDimensions = in.readInt();
+            int storedM = in.readInt();
+            if (storedDimensions != dimensions || storedM != m) {
+                throw new IllegalStateException(file + " holds " + storedDimensions + " dimensions with m="
+                        + storedM + ", expected " + dimensions + " with m=" + m);
+            }
+            // Snapshots from before the log have no generation
+            generation = version > 1 ? in.readInt() : 0;
+            size = in.readInt();
+            entryPoint = in.readInt();
+            maxLevel = in.readInt();
+            int upper = in.readInt();
+            for (int i = 0; i < upper; i++) {
+                int node = in.readInt();
+                upperLinks.put(node, readUpperLinks(in));
+            }
+            snapshotBytes = Files.size(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + file, e);
+        }
+        boolean complete = replayLog();
+        deleteOtherLogs();
+        flushedSize = size;
+        if (size > 0) {
+            vectors.ensure(size - 1);
+            links.ensure(size - 1);
+        }
+        if (!complete) {
+            // Appending after a torn record would hide what follows it
+            snapshot();
+        }
+    }
+
+    /**
+     * Applies the complete records of the log of the snapshot, in order
+     *
+     * @return false when the log ends with a torn record
+     */
+    private boolean replayLog() {
+        Path file = logFile(generation);
+        if (!Files.exists(file)) {
+            return true;
+        }
+        ByteBuffer records;
+        try {
+            records = ByteBuffer.wrap(Files.readAllBytes(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + file, e);
+        }
+        while (records.remaining() >= Integer.BYTES) {
+            int length = records.getInt();
+            if (length < 0 || records.remaining() < length + Integer.BYTES) {
+                return false;
+            }
+            byte[] payload = new byte[length];
+            records.get(payload);
+            CRC32 checksum = new CRC32();
+            checksum.update(payload);
+            if (records.getInt() != (int) checksum.getValue()) {
+                return false;
+            }
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+                size = in.readInt();
+                entryPoint = in.readInt();
+                maxLevel = in.readInt();
+                int changed = in.readInt();
+                for (int i = 0; i < changed; i++) {
+                    int node = in.readInt();
+                    upperLinks.put(node, readUpperLinks(in));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read " + file, e);
+            }
+            logBytes = records.position();
+        }
+        return !records.hasRemaining();
+    }
+
+    /**
+     * Deletes logs of replaced snapshots that a crash left behind
+     */
+    private void deleteOtherLogs() {
+        Path current = logFile(generation);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(GRAPH_LOG_PREFIX) && name.endsWith(GRAPH_LOG_SUFFIX) && !file.equals(current)) {
+                    Files.delete(file);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot list " + directory, e);
+        }
+    }
+
+    private static int readHeader(DataInputStream in, Path file) throws IOException {
+        int magic = in.readInt();
+        int version = in.readInt();
+        if (magic != MAGIC || version < 1 || version > VERSION) {
+            throw new IllegalStateException(file + " is not an HNSW graph");
+        }
+        return version;
+    }
+
+    /**
+     * Dimensions of the index flushed to a directory, or -1 when there is
+     * none
+     */
+    static int storedDimensions(Path directory) {
+        Path file = directory.resolve(GRAPH_FILE);
+        if (!Files.exists(file)) {
+            return -1;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            readHeader(in, file);
+            return in.readInt();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + file, e);
+        }
+    }
+
+    private static void offer(PriorityQueue<Scored> worstFirst, Scored scored, int max) {
+        worstFirst.add(scored);
+        if (worstFirst.size() > max) {
+            worstFirst.poll();
+        }
+    }
+
+    private static List<Scored> sorted(PriorityQueue<Scored> worstFirst) {
+        List<Scored> sorted = new ArrayList<>(worstFirst);
+        sorted.sort(Comparator.comparingDouble(Scored::score).reversed());
+        return sorted;
+    }
+
+    /**
+     * Second step of quantizing, run without any lock. It only reads the
+     * vectors of nodes that existed when the sample was taken, which are
+     * never written again, and writes codes nothing searches yet.
+     */
+    final class Training {
+
+        private final List<float[]> sample;
+        private final int nodes;
+        private final long seed;
+        private Quantizer quantizer;
+        private MappedSegments codes;
+
+        private Training(List<float[]> sample, int nodes, long seed) {
+            this.sample = sample;
+            this.nodes = nodes;
+            this.seed = seed;
+        }
+
+        void run() {
+            Quantizer trained = switch (quantization.kind()) {
+                case INT8 -> ScalarQuantizer.train(sample, dimensions);
+                case PQ -> ProductQuantizer.train(sample, dimensions, quantization.subspaces(dimensions),
+                        new Random(seed));
+                case NONE -> throw new IllegalStateException("Quantization is disabled");
+            };
+            MappedSegments trainedCodes = codeSegments(trained);
+            for (int node = 0; node < nodes; node++) {
+                HnswIndex.encode(trained, trainedCodes, node, vector(node));
+            }
+            quantizer = trained;
+            codes = trainedCodes;
+        }
+
+        private void encode(int node, float[] vector) {
+            HnswIndex.encode(quantizer, codes, node, vector);
+        }
+    }
+
+    /**
+     * A node and its similarity to a query
+     */
+    record Scored(int node, float score) {
+    }
+
+    /**
+     * Similarity of a node to the vector being searched for
+     */
+    private interface NodeScorer {
+
+        float score(int node);
+    }
+}
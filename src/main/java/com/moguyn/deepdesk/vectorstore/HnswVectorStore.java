@@ -0,0 +1,563 @@
+package com.moguyn.deepdesk.vectorstore;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ToLongFunction;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptionsBuilder;
+import org.springframework.ai.embedding.TokenCountBatchingStrategy;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Vector store embedded in the process, searched through an HNSW graph whose
+ * vectors are memory-mapped from directory. Documents are appended to a log
+ * next to the graph and every write is flushed before it returns, so the
+ * store survives restarts without rewriting what is already on disk. The
+ * graph is flushed before the documents are logged; nodes a crash left
+ * without a document are treated as deleted. Adding a document with the id
+ * of a stored one replaces it, and deleted documents are left out of results
+ * but keep their place in the graph.
+ * <p>
+ * Filtered searches first find the documents whose metadata matches, by
+ * looking up an index of the values of {@link #INDEXED_METADATA} when the
+ * filter requires one of them to equal a value, as the chat memory does on
+ * every turn, and by scanning the metadata otherwise. When there are few of
+ * them they are scored one by one, which is exact and
+ * cheaper than walking the graph; otherwise the graph is walked and only
+ * matching documents are collected.
+ * <p>
+ * With quantization the graph is searched on compact codes of the vectors
+ * and the best candidates are scored again with their full vectors; see
+ * {@link Quantization}. The quantizer is trained on a background thread once
+ * enough vectors are stored, and the store is searched at full precision
+ * until it is ready.
+ */
+@Slf4j
+public class HnswVectorStore implements VectorStore {
+
+    static final String DOCUMENTS_FILE = "documents.jsonl";
+    static final String DISTANCE_METADATA = "distance";
+    static final int EXACT_SEARCH_LIMIT = 2048;
+    /**
+     * Metadata keys whose values are indexed to the documents holding them
+     */
+    static final Set<String> INDEXED_METADATA = Set.of("conversationId");
+
+    private static final TypeReference<Map<String, Object>> RECORD = new TypeReference<>() {
+    };
+
+    private final EmbeddingModel embeddingModel;
+    private final Path directory;
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+    private final Quantization quantization;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Lock quantizing = new ReentrantLock();
+    private final AtomicBoolean quantizingScheduled = new AtomicBoolean();
+    private final FileChannel documentLog;
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<String, Integer> nodes = new HashMap<>();
+    private final BitSet deleted = new BitSet();
+    private final Map<String, Map<String, Set<Integer>>> metadataIndex = new HashMap<>();
+    private HnswIndex index;
+
+    private final Counter graphSearches;
+    private final Counter exactSearches;
+
+    /**
+     * @param m links per node in the graph; more links take more space and
+     * give better recall
+     * @param efConstruction candidates considered when linking a new document
+     * @param efSearch candidates considered when searching
+     */
+    public HnswVectorStore(EmbeddingModel embeddingModel, Path directory, int m, int efConstruction, int efSearch,
+            MeterRegistry meterRegistry) {
+        this(embeddingModel, directory, m, efConstruction, efSearch, Quantization.none(), meterRegistry);
+    }
+
+    public HnswVectorStore(EmbeddingModel embeddingModel, Path directory, int m, int efConstruction, int efSearch,
+            Quantization quantization, MeterRegistry meterRegistry) {
+        this.embeddingModel = embeddingModel;
+        this.directory = directory;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.quantization = quantization;
+        try {
+            Files.createDirectories(directory);
+            int dimensions = HnswIndex.storedDimensions(directory);
+            if (dimensions > 0) {
+                this.index = new HnswIndex(directory, dimensions, m, efConstruction, System.nanoTime(),
+                        quantization);
+            }
+            replay(directory.resolve(DOCUMENTS_FILE));
+            this.documentLog = FileChannel.open(directory.resolve(DOCUMENTS_FILE), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open vector store in " + directory, e);
+        }
+        log.info("Opened vector store in {} with {} documents", directory, documents());
+
+        this.graphSearches = searches(meterRegistry, "graph");
+        this.exactSearches = searches(meterRegistry, "exact");
+        Gauge.builder("deepdesk.vectorstore.documents", this, HnswVectorStore::documents)
+                .description("Documents held by the embedded vector store")
+                .register(meterRegistry);
+        Gauge.builder("deepdesk.vectorstore.bytes", this, store -> store.bytes(HnswIndex::vectorBytes))
+                .description("Bytes of vectors held by the embedded vector store")
+                .tag("precision", "full")
+                .register(meterRegistry);
+        Gauge.builder("deepdesk.vectorstore.bytes", this, store -> store.bytes(HnswIndex::codeBytes))
+                .description("Bytes of vectors held by the embedded vector store")
+                .tag("precision", "quantized")
+                .register(meterRegistry);
+        if (index != null && index.needsQuantizer()) {
+            scheduleQuantizing();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "HnswVectorStore";
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        if (documents.isEmpty()) {
+            return;
+        }
+        addEmbedded(documents, embeddingModel.embed(documents, EmbeddingOptionsBuilder.builder().build(),
+                new TokenCountBatchingStrategy()));
+    }
+
+    /**
+     * Adds documents with embeddings computed before, as when copying them
+     * from another store
+     */
+    void addEmbedded(List<Document> documents, List<float[]> embeddings) {
+        if (documents.size() != embeddings.size()) {
+            throw new IllegalArgumentException(documents.size() + " documents but " + embeddings.size()
+                    + " embeddings");
+        }
+        if (documents.isEmpty()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (index == null) {
+                index = new HnswIndex(directory, embeddings.get(0).length, m, efConstruction, System.nanoTime(),
+                        quantization);
+            }
+            for (float[] embedding : embeddings) {
+                if (embedding.length != index.dimensions()) {
+                    throw new IllegalArgumentException("Expected embeddings of " + index.dimensions()
+                            + " dimensions but got " + embedding.length);
+                }
+            }
+            // Serialized up front so documents with metadata that cannot be
+            // stored are rejected before anything is added
+            List<Entry> added = new ArrayList<>(documents.size());
+            StringBuilder records = new StringBuilder();
+            for (int i = 0; i < documents.size(); i++) {
+                Document document = documents.get(i);
+                Entry entry = new Entry(document.getId(), document.getText(), new HashMap<>(document.getMetadata()));
+                added.add(entry);
+                records.append(record(index.size() + i, entry)).append('\n');
+            }
+            for (int i = 0; i < added.size(); i++) {
+                put(index.add(normalize(embeddings.get(i))), added.get(i));
+            }
+            index.flush();
+            append(records.toString());
+            if (index.needsQuantizer()) {
+                scheduleQuantizing();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        lock.writeLock().lock();
+        try {
+            StringBuilder records = new StringBuilder();
+            for (String id : idList) {
+                Integer node = nodes.remove(id);
+                if (node != null) {
+                    deleted.set(node);
+                    unindex(node);
+                    records.append(objectMapper.writeValueAsString(Map.of("delete", id))).append('\n');
+                }
+            }
+            if (!records.isEmpty()) {
+                append(records.toString());
+            }
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        List<String> ids;
+        lock.readLock().lock();
+        try {
+            ids = new ArrayList<>();
+            for (int node : matching(filterExpression)) {
+                ids.add(entries.get(node).id());
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        delete(ids);
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        float[] query = normalize(embeddingModel.embed(request.getQuery()));
+        lock.readLock().lock();
+        try {
+            if (index == null) {
+                return List.of();
+            }
+            List<HnswIndex.Scored> found = search(query, request);
+            List<Document> documents = new ArrayList<>(found.size());
+            for (HnswIndex.Scored scored : found) {
+                if (scored.score() >= request.getSimilarityThreshold()) {
+                    documents.add(toDocument(entries.get(scored.node()), scored.score()));
+                }
+            }
+            return documents;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Documents that have been added and not deleted
+     */
+    public int documents() {
+        return nodes.size();
+    }
+
+    /**
+     * Quantizes the stored vectors now rather than once trainingSize of them
+     * are stored, returning when the codes are searched. Searches and writes
+     * only wait for the sample to be taken and for the vectors added while
+     * training to be coded.
+     */
+    void quantize() {
+        quantizing.lock();
+        try {
+            HnswIndex.Training training;
+            lock.writeLock().lock();
+            try {
+                training = index != null ? index.startQuantizing() : null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            if (training == null) {
+                return;
+            }
+            training.run();
+            lock.writeLock().lock();
+            try {
+                index.finishQuantizing(training);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            log.info("Quantized vector store in {} as {}", directory, quantizedAs());
+        } finally {
+            quantizing.unlock();
+        }
+    }
+
+    /**
+     * How the searched vectors are quantized
+     */
+    public Quantization.Kind quantizedAs() {
+        lock.readLock().lock();
+        try {
+            return index != null ? index.quantizedAs() : Quantization.Kind.NONE;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes pending changes to disk and closes the files
+     */
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (index != null) {
+                index.close();
+            }
+            documentLog.close();
+        } catch (IOException e) {
+            log.warn("Cannot close vector store in {}: {}", directory, e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Quantizes on a background thread, unless that is already under way
+     */
+    private void scheduleQuantizing() {
+        if (!quantizingScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        Thread.ofVirtual().name("deepdesk-vectorstore-quantizer").start(() -> {
+            try {
+                quantize();
+            } catch (RuntimeException e) {
+                log.warn("Cannot quantize vector store in {}: {}", directory, e.getMessage());
+            } finally {
+                quantizingScheduled.set(false);
+            }
+        });
+    }
+
+    private double bytes(ToLongFunction<HnswIndex> bytes) {
+        lock.readLock().lock();
+        try {
+            return index != null ? bytes.applyAsLong(index) : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<HnswIndex.Scored> search(float[] query, SearchRequest request) {
+        int topK = request.getTopK();
+        if (!request.hasFilterExpression()) {
+            graphSearches.increment();
+            return index.search(query, topK, efSearch, node -> !deleted.get(node));
+        }
+        int[] matching = matching(request.getFilterExpression());
+        if (matching.length > EXACT_SEARCH_LIMIT) {
+            BitSet accepted = new BitSet(index.size());
+            for (int node : matching) {
+                accepted.set(node);
+            }
+            graphSearches.increment();
+            List<HnswIndex.Scored> found = index.search(query, topK, efSearch, accepted::get);
+            if (found.size() >= Math.min(topK, matching.length)) {
+                return found;
+            }
+        }
+        exactSearches.increment();
+        return index.exactAmong(query, topK, matching);
+    }
+
+    /**
+     * Live nodes whose metadata matches a filter
+     */
+    private int[] matching(Filter.Expression filterExpression) {
+        for (String key : INDEXED_METADATA) {
+            String value = MetadataFilter.requiredValue(filterExpression, key);
+            if (value != null) {
+                return metadataIndex.getOrDefault(key, Map.of()).getOrDefault(value, Set.of()).stream()
+                        .mapToInt(Integer::intValue)
+                        .filter(node -> MetadataFilter.matches(filterExpression, entries.get(node).metadata()))
+                        .toArray();
+            }
+        }
+        return nodes.values().stream()
+                .mapToInt(Integer::intValue)
+                .filter(node -> MetadataFilter.matches(filterExpression, entries.get(node).metadata()))
+                .toArray();
+    }
+
+    /**
+     * Records a document at a node, replacing a stored document with the
+     * same id
+     */
+    private void put(int node, Entry entry) {
+        Integer replaced = nodes.put(entry.id(), node);
+        if (replaced != null) {
+            deleted.set(replaced);
+            unindex(replaced);
+        }
+        while (entries.size() <= node) {
+            entries.add(null);
+        }
+        entries.set(node, entry);
+        deleted.clear(node);
+        for (String key : INDEXED_METADATA) {
+            Object value = entry.metadata().get(key);
+            if (value != null) {
+                metadataIndex.computeIfAbsent(key, k -> new HashMap<>())
+                        .computeIfAbsent(String.valueOf(value), v -> new HashSet<>())
+                        .add(node);
+            }
+        }
+    }
+
+    /**
+     * Removes a node that no longer holds a live document from the metadata
+     * index
+     */
+    private void unindex(int node) {
+        Map<String, Object> metadata = entries.get(node).metadata();
+        for (String key : INDEXED_METADATA) {
+            Object value = metadata.get(key);
+            Map<String, Set<Integer>> values = metadataIndex.get(key);
+            if (value == null || values == null) {
+                continue;
+            }
+            Set<Integer> indexed = values.get(String.valueOf(value));
+            if (indexed != null) {
+                indexed.remove(node);
+                if (indexed.isEmpty()) {
+                    values.remove(String.valueOf(value));
+                }
+            }
+        }
+    }
+
+    private Document toDocument(Entry entry, float score) {
+        Map<String, Object> metadata = new HashMap<>(entry.metadata());
+        metadata.put(DISTANCE_METADATA, 1 - score);
+        return Document.builder()
+                .id(entry.id())
+                .text(entry.text())
+                .metadata(metadata)
+                .score((double) score)
+                .build();
+    }
+
+    private String record(int node, Entry entry) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("node", node);
+        record.put("id", entry.id());
+        record.put("text", entry.text());
+        record.put("metadata", entry.metadata());
+        try {
+            return objectMapper.writeValueAsString(record);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Cannot store metadata of document " + entry.id(), e);
+        }
+    }
+
+    private void append(String records) {
+        try {
+            ByteBuffer bytes = ByteBuffer.wrap(records.getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) {
+                documentLog.write(bytes);
+            }
+            documentLog.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write to vector store in " + directory, e);
+        }
+    }
+
+    /**
+     * Rebuilds the documents from the log. Nodes of the graph without a
+     * record are marked deleted.
+     */
+    @SuppressWarnings("unchecked")
+    private void replay(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        int size = index != null ? index.size() : 0;
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                Map<String, Object> record;
+                try {
+                    record = objectMapper.readValue(line, RECORD);
+                } catch (JsonProcessingException e) {
+                    log.warn("Skipping unreadable record in {}", file);
+                    continue;
+                }
+                if (record.containsKey("delete")) {
+                    Integer node = nodes.remove((String) record.get("delete"));
+                    if (node != null) {
+                        deleted.set(node);
+                        unindex(node);
+                    }
+                } else if (((Number) record.get("node")).intValue() < size) {
+                    put(((Number) record.get("node")).intValue(), new Entry((String) record.get("id"),
+                            (String) record.get("text"), (Map<String, Object>) record.get("metadata")));
+                }
+            }
+        }
+        for (int node = 0; node < size; node++) {
+            if (node >= entries.size() || entries.get(node) == null) {
+                deleted.set(node);
+            }
+        }
+    }
+
+    static float[] normalize(float[] vector) {
+        double sum = 0;
+        for (float value : vector) {
+            sum += value * value;
+        }
+        float[] normalized = vector.clone();
+        if (sum > 0) {
+            float norm = (float) Math.sqrt(sum);
+            for (int i = 0; i < normalized.length; i++) {
+                normalized[i] /= norm;
+            }
+        }
+        return normalized;
+    }
+
+    private static Counter searches(MeterRegistry meterRegistry, String plan) {
+        return Counter.builder("deepdesk.vectorstore.searches")
+                .description("Searches of the embedded vector store by how they were answered")
+                .tag("plan", plan)
+                .register(meterRegistry);
+    }
+
+    /**
+     * A stored document
+     */
+    private record Entry(String id, String text, Map<String, Object> metadata) {
+    }
+}
@@ -0,0 +1,153 @@
+package com.moguyn.deepdesk.vectorstore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Fixed-size slots kept off-heap in memory-mapped segment files. Slot n
+ * lives in segment n / slotsPerSegment, and segments are created and mapped
+ * as slots are first used. Values are little-endian and written in place,
+ * so the operating system persists them without any copying. Writers mark
+ * the slots they change so {@link #force} only syncs the segments holding
+ * them.
+ */
+final class MappedSegments implements Closeable {
+
+    private final Path directory;
+    private final String prefix;
+    private final int slotBytes;
+    private final int slotsPerSegment;
+    private final List<MappedByteBuffer> segments = new CopyOnWriteArrayList<>();
+    private final List<ByteBuffer> bytes = new CopyOnWriteArrayList<>();
+    private final List<FloatBuffer> floats = new CopyOnWriteArrayList<>();
+    private final List<IntBuffer> ints = new CopyOnWriteArrayList<>();
+    private final BitSet dirty = new BitSet();
+
+    MappedSegments(Path directory, String prefix, int slotBytes, int slotsPerSegment) {
+        if ((long) slotBytes * slotsPerSegment > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segments of " + slotsPerSegment + " slots of " + slotBytes
+                    + " bytes do not fit in one mapping");
+        }
+        this.directory = directory;
+        this.prefix = prefix;
+        this.slotBytes = slotBytes;
+        this.slotsPerSegment = slotsPerSegment;
+    }
+
+    /**
+     * Byte view of the segment holding a slot; see {@link #byteIndex}
+     */
+    ByteBuffer bytes(int slot) {
+        return bytes.get(segment(slot));
+    }
+
+    /**
+     * Float view of the segment holding a slot; see {@link #floatIndex}
+     */
+    FloatBuffer floats(int slot) {
+        return floats.get(segment(slot));
+    }
+
+    /**
+     * Int view of the segment holding a slot; see {@link #intIndex}
+     */
+    IntBuffer ints(int slot) {
+        return ints.get(segment(slot));
+    }
+
+    /**
+     * Index of the first byte of a slot in its segment's byte view
+     */
+    int byteIndex(int slot) {
+        return (slot % slotsPerSegment) * slotBytes;
+    }
+
+    /**
+     * Index of the first float of a slot in its segment's float view
+     */
+    int floatIndex(int slot) {
+        return (slot % slotsPerSegment) * (slotBytes / Float.BYTES);
+    }
+
+    /**
+     * Index of the first int of a slot in its segment's int view
+     */
+    int intIndex(int slot) {
+        return (slot % slotsPerSegment) * (slotBytes / Integer.BYTES);
+    }
+
+    /**
+     * Maps the segments needed to hold slots up to and including a slot
+     */
+    synchronized void ensure(int slot) {
+        int segment = slot / slotsPerSegment;
+        while (segments.size() <= segment) {
+            map(segments.size());
+        }
+    }
+
+    /**
+     * Marks the segment holding a slot as changed since the last force
+     */
+    synchronized void written(int slot) {
+        dirty.set(slot / slotsPerSegment);
+    }
+
+    /**
+     * Writes the changes of marked segments to disk
+     */
+    synchronized void force() {
+        for (int segment = dirty.nextSetBit(0); segment >= 0 && segment < segments.size();
+                segment = dirty.nextSetBit(segment + 1)) {
+            segments.get(segment).force();
+        }
+        dirty.clear();
+    }
+
+    @Override
+    public void close() {
+        force();
+        segments.clear();
+        bytes.clear();
+        floats.clear();
+        ints.clear();
+    }
+
+    private int segment(int slot) {
+        int segment = slot / slotsPerSegment;
+        if (segment >= segments.size()) {
+            ensure(slot);
+        }
+        return segment;
+    }
+
+    private void map(int segment) {
+        Path file = directory.resolve(String.format("%s-%05d.bin", prefix, segment));
+        long size = (long) slotBytes * slotsPerSegment;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            bytes.add(view);
+            floats.add(view.asFloatBuffer());
+            ints.add(view.asIntBuffer());
+            segments.add(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map " + file, e);
+        }
+    }
+
+}
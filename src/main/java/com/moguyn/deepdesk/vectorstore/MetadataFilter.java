@@ -0,0 +1,116 @@
+package com.moguyn.deepdesk.vectorstore;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.springframework.ai.vectorstore.filter.Filter;
+
+/**
+ * Evaluates a portable filter expression against the metadata of a
+ * document. Numbers are compared by value whatever their type and strings
+ * lexicographically. A comparison with a key the document does not have is
+ * false, except for != and nin.
+ */
+final class MetadataFilter {
+
+    private MetadataFilter() {
+    }
+
+    static boolean matches(Filter.Operand operand, Map<String, Object> metadata) {
+        if (operand instanceof Filter.Group group) {
+            return matches(group.content(), metadata);
+        }
+        if (!(operand instanceof Filter.Expression expression)) {
+            throw new IllegalArgumentException("Unsupported filter operand " + operand);
+        }
+        return switch (expression.type()) {
+            case AND -> matches(expression.left(), metadata) && matches(expression.right(), metadata);
+            case OR -> matches(expression.left(), metadata) || matches(expression.right(), metadata);
+            case NOT -> !matches(expression.left(), metadata);
+            default -> compare(expression, metadata);
+        };
+    }
+
+    /**
+     * String a filter requires a key to equal, as an equality alone or in a
+     * conjunction, so that every matching document holds it; null when the
+     * filter does not require one
+     */
+    static String requiredValue(Filter.Operand operand, String key) {
+        if (operand instanceof Filter.Group group) {
+            return requiredValue(group.content(), key);
+        }
+        if (!(operand instanceof Filter.Expression expression)) {
+            return null;
+        }
+        return switch (expression.type()) {
+            case AND -> {
+                String left = requiredValue(expression.left(), key);
+                yield left != null ? left : requiredValue(expression.right(), key);
+            }
+            case EQ -> expression.left() instanceof Filter.Key actual && unquote(actual.key()).equals(key)
+                    && expression.right() instanceof Filter.Value value && value.value() instanceof String required
+                    ? required : null;
+            default -> null;
+        };
+    }
+
+    private static boolean compare(Filter.Expression expression, Map<String, Object> metadata) {
+        if (!(expression.left() instanceof Filter.Key key) || !(expression.right() instanceof Filter.Value value)) {
+            throw new IllegalArgumentException("Expected a key and a value in " + expression);
+        }
+        Object actual = metadata.get(unquote(key.key()));
+        Object expected = value.value();
+        return switch (expression.type()) {
+            case EQ -> actual != null && same(actual, expected);
+            case NE -> actual == null || !same(actual, expected);
+            case GT -> actual != null && order(actual, expected) > 0;
+            case GTE -> actual != null && order(actual, expected) >= 0;
+            case LT -> actual != null && order(actual, expected) < 0;
+            case LTE -> actual != null && order(actual, expected) <= 0;
+            case IN -> actual != null && in(actual, expected);
+            case NIN -> actual == null || !in(actual, expected);
+            default -> throw new IllegalArgumentException("Unsupported filter expression " + expression);
+        };
+    }
+
+    private static boolean same(Object actual, Object expected) {
+        if (actual instanceof Number a && expected instanceof Number b) {
+            return compareNumbers(a, b) == 0;
+        }
+        return Objects.equals(actual, expected) || Objects.equals(String.valueOf(actual), expected);
+    }
+
+    private static boolean in(Object actual, Object expected) {
+        if (!(expected instanceof List<?> values)) {
+            return same(actual, expected);
+        }
+        return values.stream().anyMatch(candidate -> same(actual, candidate));
+    }
+
+    private static int order(Object actual, Object expected) {
+        if (actual instanceof Number a && expected instanceof Number b) {
+            return compareNumbers(a, b);
+        }
+        return String.valueOf(actual).compareTo(String.valueOf(expected));
+    }
+
+    private static int compareNumbers(Number a, Number b) {
+        try {
+            return new BigDecimal(a.toString()).compareTo(new BigDecimal(b.toString()));
+        } catch (NumberFormatException e) {
+            // NaN and infinities
+            return Double.compare(a.doubleValue(), b.doubleValue());
+        }
+    }
+
+    private static String unquote(String key) {
+        if (key.length() >= 2 && (key.startsWith("'") && key.endsWith("'")
+                || key.startsWith("\"") && key.endsWith("\""))) {
+            return key.substring(1, key.length() - 1);
+        }
+        return key;
+    }
+}
@@ -0,0 +1,198 @@
+package com.moguyn.deepdesk.vectorstore;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Splits vectors into subspaces of consecutive dimensions and codes each
+ * subspace as the nearest of up to 256 centroids, found by k-means on the
+ * training sample. A query is scored by looking up its inner product with
+ * the centroids of each subspace, computed once per query.
+ */
+final class ProductQuantizer implements Quantizer {
+
+    static final int CENTROIDS = 256;
+    private static final int ITERATIONS = 12;
+
+    private final int dimensions;
+    private final int[] starts;
+    private final float[][] centroids;
+
+    private ProductQuantizer(int dimensions, int[] starts, float[][] centroids) {
+        this.dimensions = dimensions;
+        this.starts = starts;
+        this.centroids = centroids;
+    }
+
+    static ProductQuantizer train(List<float[]> sample, int dimensions, int subspaces, Random random) {
+        int[] starts = new int[subspaces + 1];
+        for (int s = 0; s <= subspaces; s++) {
+            starts[s] = (int) ((long) s * dimensions / subspaces);
+        }
+        float[][] centroids = new float[subspaces][];
+        for (int s = 0; s < subspaces; s++) {
+            centroids[s] = kMeans(sample, starts[s], starts[s + 1] - starts[s], random);
+        }
+        return new ProductQuantizer(dimensions, starts, centroids);
+    }
+
+    @Override
+    public Quantization.Kind kind() {
+        return Quantization.Kind.PQ;
+    }
+
+    @Override
+    public int codeBytes() {
+        return centroids.length;
+    }
+
+    @Override
+    public void encode(float[] vector, byte[] code) {
+        for (int s = 0; s < centroids.length; s++) {
+            code[s] = (byte) nearest(centroids[s], vector, starts[s], starts[s + 1] - starts[s]);
+        }
+    }
+
+    @Override
+    public CodeScorer scorer(float[] query) {
+        int subspaces = centroids.length;
+        float[] table = new float[subspaces * CENTROIDS];
+        for (int s = 0; s < subspaces; s++) {
+            int length = starts[s + 1] - starts[s];
+            int count = centroids[s].length / length;
+            for (int c = 0; c < count; c++) {
+                float dot = 0;
+                for (int j = 0; j < length; j++) {
+                    dot += query[starts[s] + j] * centroids[s][c * length + j];
+                }
+                table[s * CENTROIDS + c] = dot;
+            }
+        }
+        return (codes, offset) -> {
+            float sum = 0;
+            for (int s = 0; s < subspaces; s++) {
+                sum += table[s * CENTROIDS + (codes.get(offset + s) & 0xff)];
+            }
+            return sum;
+        };
+    }
+
+    @Override
+    public void decode(ByteBuffer codes, int offset, float[] vector) {
+        for (int s = 0; s < centroids.length; s++) {
+            int length = starts[s + 1] - starts[s];
+            int centroid = codes.get(offset + s) & 0xff;
+            System.arraycopy(centroids[s], centroid * length, vector, starts[s], length);
+        }
+    }
+
+    @Override
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(kind().ordinal());
+        out.writeInt(dimensions);
+        out.writeInt(centroids.length);
+        for (int s = 0; s < centroids.length; s++) {
+            out.writeInt(starts[s + 1]);
+            out.writeInt(centroids[s].length);
+            for (float value : centroids[s]) {
+                out.writeFloat(value);
+            }
+        }
+    }
+
+    static ProductQuantizer read(DataInputStream in) throws IOException {
+        int dimensions = in.readInt();
+        int subspaces = in.readInt();
+        int[] starts = new int[subspaces + 1];
+        float[][] centroids = new float[subspaces][];
+        for (int s = 0; s < subspaces; s++) {
+            starts[s + 1] = in.readInt();
+            centroids[s] = new float[in.readInt()];
+            for (int i = 0; i < centroids[s].length; i++) {
+                centroids[s][i] = in.readFloat();
+            }
+        }
+        return new ProductQuantizer(dimensions, starts, centroids);
+    }
+
+    /**
+     * Lloyd's k-means over one subspace of the sample, starting from
+     * distinct random vectors. Centroids left without vectors are moved to a
+     * random vector.
+     *
+     * @return the centroids, one after the other
+     */
+    private static float[] kMeans(List<float[]> sample, int start, int length, Random random) {
+        int count = Math.min(CENTROIDS, sample.size());
+        float[] centroids = new float[count * length];
+        List<Integer> order = new ArrayList<>(sample.size());
+        for (int i = 0; i < sample.size(); i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, random);
+        for (int c = 0; c < count; c++) {
+            System.arraycopy(sample.get(order.get(c)), start, centroids, c * length, length);
+        }
+        int[] assignment = new int[sample.size()];
+        Arrays.fill(assignment, -1);
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            boolean moved = false;
+            for (int i = 0; i < sample.size(); i++) {
+                int nearest = nearest(centroids, sample.get(i), start, length);
+                moved |= nearest != assignment[i];
+                assignment[i] = nearest;
+            }
+            if (!moved) {
+                break;
+            }
+            float[] sums = new float[centroids.length];
+            int[] members = new int[count];
+            for (int i = 0; i < sample.size(); i++) {
+                int c = assignment[i];
+                members[c]++;
+                for (int j = 0; j < length; j++) {
+                    sums[c * length + j] += sample.get(i)[start + j];
+                }
+            }
+            for (int c = 0; c < count; c++) {
+                if (members[c] == 0) {
+                    System.arraycopy(sample.get(random.nextInt(sample.size())), start, centroids, c * length, length);
+                    continue;
+                }
+                for (int j = 0; j < length; j++) {
+                    centroids[c * length + j] = sums[c * length + j] / members[c];
+                }
+            }
+        }
+        return centroids;
+    }
+
+    /**
+     * Index of the centroid nearest to a subspace of a vector, by Euclidean
+     * distance
+     */
+    private static int nearest(float[] centroids, float[] vector, int start, int length) {
+        int count = centroids.length / length;
+        int best = 0;
+        float bestDistance = Float.POSITIVE_INFINITY;
+        for (int c = 0; c < count; c++) {
+            float distance = 0;
+            for (int j = 0; j < length; j++) {
+                float difference = vector[start + j] - centroids[c * length + j];
+                distance += difference * difference;
+            }
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = c;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,53 @@
+package com.moguyn.deepdesk.vectorstore;
+
+/**
+ * How the vectors of an HNSW index are compressed for searching. Once the
+ * index holds trainingSize vectors a quantizer is trained on a sample of
+ * them and every vector is also stored as a code, which the graph search
+ * scores instead of the full vector. The best rerank candidates per result
+ * are then scored again with their full vectors.
+ * <p>
+ * Quantizing shrinks the memory searches and inserts touch, not the store
+ * on disk. New nodes are linked through the codes, and the full vectors are
+ * kept in their own segment files that are only read to rerank, so they
+ * stay cold. The codes are written next to them, so disk usage grows by a
+ * quarter with INT8 and by a sixteenth with the default PQ.
+ *
+ * @param subspaces number of codes per vector for product quantization, or
+ * 0 for one code per four dimensions
+ */
+public record Quantization(Kind kind, int subspaces, int trainingSize, int rerank) {
+
+    public enum Kind {
+        /**
+         * Full precision only
+         */
+        NONE,
+        /**
+         * One byte per dimension, four times smaller
+         */
+        INT8,
+        /**
+         * One byte per subspace of dimensions
+         */
+        PQ
+    }
+
+    public Quantization {
+        trainingSize = Math.max(1, trainingSize);
+        rerank = Math.max(1, rerank);
+    }
+
+    public static Quantization none() {
+        return new Quantization(Kind.NONE, 0, Integer.MAX_VALUE, 1);
+    }
+
+    boolean enabled() {
+        return kind != Kind.NONE;
+    }
+
+    int subspaces(int dimensions) {
+        int requested = subspaces > 0 ? subspaces : dimensions / 4;
+        return Math.max(1, Math.min(requested, dimensions));
+    }
+}
@@ -0,0 +1,48 @@
+package com.moguyn.deepdesk.vectorstore;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compresses vectors into fixed-size codes that are scored against a full
+ * precision query without being decoded
+ */
+interface Quantizer {
+
+    Quantization.Kind kind();
+
+    /**
+     * Bytes in the code of one vector
+     */
+    int codeBytes();
+
+    void encode(float[] vector, byte[] code);
+
+    /**
+     * Scores codes by their approximate inner product with a query
+     */
+    CodeScorer scorer(float[] query);
+
+    /**
+     * Approximate vector a code was encoded from
+     */
+    void decode(ByteBuffer codes, int offset, float[] vector);
+
+    void write(DataOutputStream out) throws IOException;
+
+    static Quantizer read(DataInputStream in) throws IOException {
+        Quantization.Kind kind = Quantization.Kind.values()[in.readInt()];
+        return switch (kind) {
+            case INT8 -> ScalarQuantizer.read(in);
+            case PQ -> ProductQuantizer.read(in);
+            case NONE -> throw new IOException("No quantizer is stored for " + kind);
+        };
+    }
+
+    interface CodeScorer {
+
+        float score(ByteBuffer codes, int offset);
+    }
+}
@@ -0,0 +1,109 @@
+package com.moguyn.deepdesk.vectorstore;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Quantizes each dimension to one byte over the range it takes in the
+ * training sample. Values outside the range are clamped.
+ */
+final class ScalarQuantizer implements Quantizer {
+
+    private final float[] min;
+    private final float[] step;
+
+    private ScalarQuantizer(float[] min, float[] step) {
+        this.min = min;
+        this.step = step;
+    }
+
+    static ScalarQuantizer train(List<float[]> sample, int dimensions) {
+        float[] min = new float[dimensions];
+        float[] max = new float[dimensions];
+        Arrays.fill(min, Float.POSITIVE_INFINITY);
+        Arrays.fill(max, Float.NEGATIVE_INFINITY);
+        for (float[] vector : sample) {
+            for (int i = 0; i < dimensions; i++) {
+                min[i] = Math.min(min[i], vector[i]);
+                max[i] = Math.max(max[i], vector[i]);
+            }
+        }
+        float[] step = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            step[i] = Math.max((max[i] - min[i]) / 255, Float.MIN_NORMAL);
+        }
+        return new ScalarQuantizer(min, step);
+    }
+
+    @Override
+    public Quantization.Kind kind() {
+        return Quantization.Kind.INT8;
+    }
+
+    @Override
+    public int codeBytes() {
+        return min.length;
+    }
+
+    @Override
+    public void encode(float[] vector, byte[] code) {
+        for (int i = 0; i < min.length; i++) {
+            int level = Math.round((vector[i] - min[i]) / step[i]);
+            code[i] = (byte) (Math.max(0, Math.min(255, level)) - 128);
+        }
+    }
+
+    /**
+     * A dimension decodes to min + (code + 128) * step, so its product with
+     * the query splits into a constant and a weight for the code
+     */
+    @Override
+    public CodeScorer scorer(float[] query) {
+        float base = 0;
+        float[] weights = new float[min.length];
+        for (int i = 0; i < min.length; i++) {
+            base += query[i] * (min[i] + 128 * step[i]);
+            weights[i] = query[i] * step[i];
+        }
+        float constant = base;
+        return (codes, offset) -> {
+            float sum = constant;
+            for (int i = 0; i < weights.length; i++) {
+                sum += weights[i] * codes.get(offset + i);
+            }
+            return sum;
+        };
+    }
+
+    @Override
+    public void decode(ByteBuffer codes, int offset, float[] vector) {
+        for (int i = 0; i < min.length; i++) {
+            vector[i] = min[i] + (codes.get(offset + i) + 128) * step[i];
+        }
+    }
+
+    @Override
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(kind().ordinal());
+        out.writeInt(min.length);
+        for (int i = 0; i < min.length; i++) {
+            out.writeFloat(min[i]);
+            out.writeFloat(step[i]);
+        }
+    }
+
+    static ScalarQuantizer read(DataInputStream in) throws IOException {
+        int dimensions = in.readInt();
+        float[] min = new float[dimensions];
+        float[] step = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            min[i] = in.readFloat();
+            step[i] = in.readFloat();
+        }
+        return new ScalarQuantizer(min, step);
+    }
+}
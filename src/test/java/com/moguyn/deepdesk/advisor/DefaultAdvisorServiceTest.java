@@ -1,5 +1,6 @@
 package com.moguyn.deepdesk.advisor;
 
+import java.time.Duration;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -15,7 +16,9 @@ import com.moguyn.deepdesk.config.CoreSettings;
 import com.moguyn.deepdesk.config.CoreSettings.Advisors;
 import com.moguyn.deepdesk.config.CoreSettings.LLM;
 import com.moguyn.deepdesk.config.CoreSettings.Prompt;
+import com.moguyn.deepdesk.config.CoreSettings.SemanticCache;
 import com.moguyn.deepdesk.config.CoreSettings.UI;
+import static com.moguyn.deepdesk.config.CoreSettingsBuilder.coreSettings;
 
 class DefaultAdvisorServiceTest {
 
@@ -27,18 +30,17 @@ class DefaultAdvisorServiceTest {
         @SuppressWarnings("unchecked")
         AbstractChatMemoryAdvisor<VectorStore> advisor = mock(AbstractChatMemoryAdvisor.class);
         mockChatMemoryAdvisor = advisor;
-        advisorService = new DefaultAdvisorService(mockChatMemoryAdvisor);
+        advisorService = new DefaultAdvisorService(mockChatMemoryAdvisor, null);
     }
 
     @Test
     void shouldEnableChatMemoryAdvisorWhenConfigured() {
         // Arrange
-        CoreSettings settings = new CoreSettings(
-                List.of(),
-                new UI(""),
-                new LLM(new Prompt(""), 1000, 1000),
-                new Advisors(true)
-        );
+        CoreSettings settings = coreSettings()
+                .ui(new UI(""))
+                .llm(new LLM(new Prompt(""), 1000, 1000, 10000))
+                .advisors(new Advisors(true, null, null, null))
+                .build();
 
         // Act
         List<Advisor> enabledAdvisors = advisorService.getEnabledAdvisors(settings);
@@ -52,12 +54,11 @@ class DefaultAdvisorServiceTest {
     @Test
     void shouldNotEnableChatMemoryAdvisorWhenDisabled() {
         // Arrange
-        CoreSettings settings = new CoreSettings(
-                List.of(),
-                new UI(""),
-                new LLM(new Prompt(""), 1000, 1000),
-                new Advisors(false)
-        );
+        CoreSettings settings = coreSettings()
+                .ui(new UI(""))
+                .llm(new LLM(new Prompt(""), 1000, 1000, 10000))
+                .advisors(new Advisors(false, null, null, null))
+                .build();
 
         // Act
         List<Advisor> enabledAdvisors = advisorService.getEnabledAdvisors(settings);
@@ -70,12 +71,7 @@ class DefaultAdvisorServiceTest {
     @Test
     void shouldEnableAllAdvisorsWhenNoAdvisorSettings() {
         // Arrange
-        CoreSettings settings = new CoreSettings(
-                List.of(),
-                new UI(""),
-                new LLM(new Prompt(""), 1000, 1000),
-                null
-        );
+        CoreSettings settings = coreSettings().ui(new UI("")).llm(new LLM(new Prompt(""), 1000, 1000, 10000)).build();
 
         // Act
         List<Advisor> enabledAdvisors = advisorService.getEnabledAdvisors(settings);
@@ -85,4 +81,40 @@ class DefaultAdvisorServiceTest {
         assertTrue(enabledAdvisors.contains(mockChatMemoryAdvisor),
                 "ChatMemoryAdvisor should be enabled when no advisor settings provided");
     }
+
+    @Test
+    void shouldEnableSemanticCacheAdvisorWhenConfigured() {
+        // Arrange
+        SemanticCacheAdvisor semanticCacheAdvisor = mock(SemanticCacheAdvisor.class);
+        DefaultAdvisorService service = new DefaultAdvisorService(mockChatMemoryAdvisor, semanticCacheAdvisor);
+        CoreSettings settings = coreSettings()
+                .ui(new UI(""))
+                .llm(new LLM(new Prompt(""), 1000, 1000, 10000))
+                .advisors(new Advisors(false, new SemanticCache(true, 0.9, 100, Duration.ofHours(1)), null, null))
+                .build();
+
+        // Act
+        List<Advisor> enabledAdvisors = service.getEnabledAdvisors(settings);
+
+        // Assert
+        assertEquals(List.of(semanticCacheAdvisor), enabledAdvisors);
+    }
+
+    @Test
+    void shouldNotEnableSemanticCacheAdvisorByDefault() {
+        // Arrange
+        SemanticCacheAdvisor semanticCacheAdvisor = mock(SemanticCacheAdvisor.class);
+        DefaultAdvisorService service = new DefaultAdvisorService(mockChatMemoryAdvisor, semanticCacheAdvisor);
+        CoreSettings settings = coreSettings()
+                .ui(new UI(""))
+                .llm(new LLM(new Prompt(""), 1000, 1000, 10000))
+                .advisors(new Advisors(true, null, null, null))
+                .build();
+
+        // Act
+        List<Advisor> enabledAdvisors = service.getEnabledAdvisors(settings);
+
+        // Assert
+        assertEquals(List.of(mockChatMemoryAdvisor), enabledAdvisors);
+    }
 }
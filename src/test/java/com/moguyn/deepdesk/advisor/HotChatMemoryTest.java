@@ -0,0 +1,101 @@
+package com.moguyn.deepdesk.advisor;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class HotChatMemoryTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void get_returnsNull_forUnknownConversation() {
+        HotChatMemory memory = new HotChatMemory(2, 10, Duration.ofMinutes(1), meterRegistry);
+
+        assertNull(memory.get("alice"));
+    }
+
+    @Test
+    void append_keepsLastTurns_andDuesARecall_onceHistoryIsDropped() {
+        // Arrange
+        HotChatMemory memory = new HotChatMemory(2, 10, Duration.ofMinutes(1), meterRegistry);
+
+        // Act
+        memory.append("alice", List.of(new UserMessage("q1"), new AssistantMessage("a1")));
+        memory.append("alice", List.of(new UserMessage("q2"), new AssistantMessage("a2")));
+        HotChatMemory.History full = memory.get("alice");
+        memory.append("alice", List.of(new UserMessage("q3")));
+        HotChatMemory.History truncated = memory.get("alice");
+
+        // Assert
+        assertEquals(List.of("q1", "a1", "q2", "a2"), texts(full));
+        assertFalse(full.recallDue());
+        assertEquals(List.of("a1", "q2", "a2", "q3"), texts(truncated));
+        assertTrue(truncated.recallDue());
+    }
+
+    @Test
+    void recalled_isReused_untilAFullWindowHasDropped() {
+        // Arrange
+        HotChatMemory memory = new HotChatMemory(2, 10, Duration.ofMinutes(1), meterRegistry);
+        memory.recalled("alice", "earlier");
+        memory.append("alice", List.of(new UserMessage("q1"), new AssistantMessage("a1")));
+        memory.append("alice", List.of(new UserMessage("q2"), new AssistantMessage("a2")));
+
+        // Act
+        memory.append("alice", List.of(new UserMessage("q3"), new AssistantMessage("a3"), new UserMessage("q4")));
+        HotChatMemory.History partly = memory.get("alice");
+        memory.append("alice", List.of(new AssistantMessage("a4")));
+        HotChatMemory.History wholly = memory.get("alice");
+
+        // Assert
+        assertFalse(partly.recallDue());
+        assertEquals("earlier", partly.recalled());
+        assertTrue(wholly.recallDue());
+    }
+
+    @Test
+    void conversations_areKeptApart() {
+        HotChatMemory memory = new HotChatMemory(2, 10, Duration.ofMinutes(1), meterRegistry);
+
+        memory.append("alice", List.of(new UserMessage("from alice")));
+        memory.append("bob", List.of(new UserMessage("from bob")));
+
+        assertEquals(List.of("from alice"), texts(memory.get("alice")));
+        assertEquals(List.of("from bob"), texts(memory.get("bob")));
+    }
+
+    @Test
+    void size_staysWithinMaxConversations() {
+        HotChatMemory memory = new HotChatMemory(2, 2, Duration.ofMinutes(1), meterRegistry);
+
+        for (int i = 0; i < 5; i++) {
+            memory.append("conversation-" + i, List.of(new UserMessage("hi")));
+        }
+
+        assertTrue(memory.size() <= 2);
+    }
+
+    @Test
+    void idleConversations_areDropped() {
+        HotChatMemory memory = new HotChatMemory(2, 10, Duration.ZERO, meterRegistry);
+
+        memory.append("alice", List.of(new UserMessage("hi")));
+
+        assertNull(memory.get("alice"));
+    }
+
+    private static List<String> texts(HotChatMemory.History history) {
+        return history.messages().stream().map(Message::getText).toList();
+    }
+}
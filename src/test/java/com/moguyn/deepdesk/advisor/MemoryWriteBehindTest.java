@@ -0,0 +1,180 @@
+package com.moguyn.deepdesk.advisor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.VectorStore;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class MemoryWriteBehindTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final VectorStore vectorStore = mock(VectorStore.class);
+    private final List<List<Document>> batches = Collections.synchronizedList(new ArrayList<>());
+    private MemoryWriteBehind writer;
+
+    @AfterEach
+    void tearDown() {
+        if (writer != null) {
+            writer.shutdown();
+        }
+    }
+
+    @Test
+    void write_goesStraightToStore_whenDisabled() {
+        // Arrange
+        recordBatches();
+        writer = new MemoryWriteBehind(vectorStore, false, 10, Duration.ofSeconds(1), 10, Duration.ofSeconds(1),
+                meterRegistry);
+
+        // Act
+        writer.write(documents("a", "b"));
+
+        // Assert
+        assertEquals(List.of(List.of("a", "b")), texts());
+        assertEquals(2.0, documentCount("direct"));
+    }
+
+    @Test
+    void write_batchesDocuments_untilBatchIsFull() throws Exception {
+        // Arrange
+        CountDownLatch written = recordBatches();
+        writer = new MemoryWriteBehind(vectorStore, true, 3, Duration.ofSeconds(30), 10, Duration.ofSeconds(1),
+                meterRegistry);
+
+        // Act
+        writer.write(documents("a", "b"));
+        writer.write(documents("c"));
+
+        // Assert
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(List.of("a", "b", "c")), texts());
+        assertEquals(3.0, documentCount("queued"));
+    }
+
+    @Test
+    void write_flushesPartialBatch_afterFlushInterval() throws Exception {
+        // Arrange
+        CountDownLatch written = recordBatches();
+        writer = new MemoryWriteBehind(vectorStore, true, 100, Duration.ofMillis(50), 10, Duration.ofSeconds(1),
+                meterRegistry);
+
+        // Act
+        writer.write(documents("a"));
+
+        // Assert
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(List.of("a")), texts());
+    }
+
+    @Test
+    void write_fallsBackToCaller_whenQueueIsFull() throws Exception {
+        // Arrange: the worker is stuck writing the first document
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            List<Document> batch = invocation.getArgument(0);
+            batches.add(batch);
+            if (batch.get(0).getText().equals("first")) {
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+            }
+            return null;
+        }).when(vectorStore).write(anyList());
+        writer = new MemoryWriteBehind(vectorStore, true, 1, Duration.ofMillis(10), 1, Duration.ofSeconds(1),
+                meterRegistry);
+        writer.write(documents("first"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // Act
+        writer.write(documents("queued", "overflow"));
+
+        // Assert
+        assertEquals(1, writer.pending());
+        assertEquals(List.of(List.of("first"), List.of("overflow")), texts());
+        assertEquals(1.0, documentCount("direct"));
+        release.countDown();
+    }
+
+    @Test
+    void write_retriesFailedBatch() throws Exception {
+        // Arrange
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch written = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IllegalStateException("chroma unavailable");
+            }
+            batches.add(invocation.getArgument(0));
+            written.countDown();
+            return null;
+        }).when(vectorStore).write(anyList());
+        writer = new MemoryWriteBehind(vectorStore, true, 1, Duration.ofMillis(10), 10, Duration.ofSeconds(1),
+                Duration.ofMillis(1), meterRegistry);
+
+        // Act
+        writer.write(documents("a"));
+
+        // Assert
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+        assertEquals(2, attempts.get());
+        assertEquals(List.of(List.of("a")), texts());
+    }
+
+    @Test
+    void shutdown_drainsQueuedDocuments() {
+        // Arrange
+        recordBatches();
+        writer = new MemoryWriteBehind(vectorStore, true, 100, Duration.ofSeconds(30), 100, Duration.ofSeconds(5),
+                meterRegistry);
+        writer.write(documents("a", "b", "c"));
+
+        // Act
+        writer.shutdown();
+
+        // Assert
+        assertEquals(0, writer.pending());
+        assertEquals(List.of("a", "b", "c"), texts().stream().flatMap(List::stream).toList());
+    }
+
+    private CountDownLatch recordBatches() {
+        CountDownLatch written = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            batches.add(invocation.getArgument(0));
+            written.countDown();
+            return null;
+        }).when(vectorStore).write(anyList());
+        return written;
+    }
+
+    private List<List<String>> texts() {
+        synchronized (batches) {
+            return batches.stream()
+                    .map(batch -> batch.stream().map(Document::getText).toList())
+                    .toList();
+        }
+    }
+
+    private double documentCount(String path) {
+        return meterRegistry.get("deepdesk.memory.write.documents").tag("path", path).counter().count();
+    }
+
+    private static List<Document> documents(String... texts) {
+        return Arrays.stream(texts).map(Document::new).toList();
+    }
+}
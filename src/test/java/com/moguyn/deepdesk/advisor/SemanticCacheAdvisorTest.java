@@ -0,0 +1,216 @@
+package com.moguyn.deepdesk.advisor;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import static org.mockito.ArgumentMatchers.any;
+import org.mockito.Mock;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor;
+import org.springframework.ai.chat.client.advisor.api.AdvisedRequest;
+import org.springframework.ai.chat.client.advisor.api.AdvisedResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAroundAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAroundAdvisorChain;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.embedding.EmbeddingModel;
+
+import reactor.core.publisher.Flux;
+
+@ExtendWith(MockitoExtension.class)
+class SemanticCacheAdvisorTest {
+
+    @Mock
+    private EmbeddingModel embeddingModel;
+
+    @Mock
+    private CallAroundAdvisorChain callChain;
+
+    @Mock
+    private StreamAroundAdvisorChain streamChain;
+
+    @Test
+    void aroundCall_shouldAnswerSimilarQuestionFromCache() {
+        // Arrange
+        SemanticCacheAdvisor advisor = new SemanticCacheAdvisor(embeddingModel,
+                new SemanticCache(0.9, 100, Duration.ofMinutes(1)), null);
+        when(embeddingModel.embed("今天洗了多少车")).thenReturn(new float[]{1, 0.05f, 0});
+        when(embeddingModel.embed("今天洗车数量")).thenReturn(new float[]{1, 0, 0.05f});
+        when(callChain.nextAroundCall(any(AdvisedRequest.class))).thenReturn(response("42 辆"));
+
+        // Act
+        advisor.aroundCall(request("今天洗了多少车"), callChain);
+        AdvisedResponse cached = advisor.aroundCall(request("今天洗车数量"), callChain);
+
+        // Assert
+        verify(callChain, times(1)).nextAroundCall(any(AdvisedRequest.class));
+        assertEquals("42 辆", cached.response().getResult().getOutput().getText());
+        Double score = cached.response().getMetadata().get(SemanticCacheAdvisor.SCORE_KEY);
+        assertNotNull(score);
+        assertTrue(score > 0.9);
+        assertEquals(score, cached.adviseContext().get(SemanticCacheAdvisor.SCORE_KEY));
+    }
+
+    @Test
+    void aroundCall_shouldCallModel_whenQuestionIsDifferent() {
+        // Arrange
+        SemanticCacheAdvisor advisor = new SemanticCacheAdvisor(embeddingModel,
+                new SemanticCache(0.9, 100, Duration.ofMinutes(1)), null);
+        when(embeddingModel.embed("今天洗了多少车")).thenReturn(new float[]{1, 0, 0});
+        when(embeddingModel.embed("明天天气如何")).thenReturn(new float[]{0, 1, 0});
+        when(callChain.nextAroundCall(any(AdvisedRequest.class)))
+                .thenReturn(response("42 辆"), response("晴"));
+
+        // Act
+        advisor.aroundCall(request("今天洗了多少车"), callChain);
+        AdvisedResponse second = advisor.aroundCall(request("明天天气如何"), callChain);
+
+        // Assert
+        verify(callChain, times(2)).nextAroundCall(any(AdvisedRequest.class));
+        assertEquals("晴", second.response().getResult().getOutput().getText());
+    }
+
+    @Test
+    void aroundCall_shouldPassThrough_whenNoUserText() {
+        // Arrange
+        SemanticCacheAdvisor advisor = new SemanticCacheAdvisor(embeddingModel,
+                new SemanticCache(0.9, 100, Duration.ofMinutes(1)), null);
+        AdvisedRequest request = AdvisedRequest.builder()
+                .chatModel(mock(ChatModel.class))
+                .messages(List.of(new SystemMessage("system")))
+                .build();
+        AdvisedResponse expected = response("ok");
+        when(callChain.nextAroundCall(request)).thenReturn(expected);
+
+        // Act
+        AdvisedResponse result = advisor.aroundCall(request, callChain);
+
+        // Assert
+        assertSame(expected, result);
+        verifyNoInteractions(embeddingModel);
+    }
+
+    @Test
+    void aroundStream_shouldCacheCompletedStreamAndReplayIt() {
+        // Arrange
+        SemanticCacheAdvisor advisor = new SemanticCacheAdvisor(embeddingModel,
+                new SemanticCache(0.9, 100, Duration.ofMinutes(1)), null);
+        when(embeddingModel.embed("今天洗了多少车")).thenReturn(new float[]{1, 0, 0});
+        when(streamChain.nextAroundStream(any(AdvisedRequest.class)))
+                .thenReturn(Flux.just(response("42"), response(" 辆")));
+
+        // Act
+        advisor.aroundStream(request("今天洗了多少车"), streamChain).blockLast();
+        List<AdvisedResponse> replay = advisor.aroundStream(request("今天洗了多少车"), streamChain)
+                .collectList().block();
+
+        // Assert
+        verify(streamChain, times(1)).nextAroundStream(any(AdvisedRequest.class));
+        assertNotNull(replay);
+        assertEquals(1, replay.size());
+        assertEquals("42 辆", replay.get(0).response().getResult().getOutput().getText());
+    }
+
+    @Test
+    void aroundCall_shouldRecordHitInChatMemory() {
+        // Arrange
+        TieredChatMemoryAdvisor chatMemory = mock(TieredChatMemoryAdvisor.class);
+        SemanticCacheAdvisor advisor = new SemanticCacheAdvisor(embeddingModel,
+                new SemanticCache(0.9, 100, Duration.ofMinutes(1)), chatMemory);
+        when(embeddingModel.embed("今天洗了多少车")).thenReturn(new float[]{1, 0, 0});
+        when(callChain.nextAroundCall(any(AdvisedRequest.class))).thenReturn(response("42 辆"));
+        AdvisedRequest request = request("今天洗了多少车", "alice", null);
+
+        // Act
+        advisor.aroundCall(request, callChain);
+        advisor.aroundCall(request, callChain);
+
+        // Assert
+        verify(chatMemory, times(1)).remember(request.adviseContext(), "今天洗了多少车", "42 辆");
+    }
+
+    @Test
+    void aroundCall_shouldKeepConversationsApart() {
+        // Arrange
+        SemanticCacheAdvisor advisor = new SemanticCacheAdvisor(embeddingModel,
+                new SemanticCache(0.9, 100, Duration.ofMinutes(1)), null);
+        when(embeddingModel.embed("今天洗了多少车")).thenReturn(new float[]{1, 0, 0});
+        when(callChain.nextAroundCall(any(AdvisedRequest.class))).thenReturn(response("42 辆"), response("7 辆"));
+
+        // Act
+        advisor.aroundCall(request("今天洗了多少车", "alice", null), callChain);
+        AdvisedResponse bob = advisor.aroundCall(request("今天洗了多少车", "bob", null), callChain);
+
+        // Assert
+        verify(callChain, times(2)).nextAroundCall(any(AdvisedRequest.class));
+        assertEquals("7 辆", bob.response().getResult().getOutput().getText());
+    }
+
+    @Test
+    void aroundCall_shouldBypassCache_forSampledOrLimitedRequests() {
+        // Arrange
+        SemanticCacheAdvisor advisor = new SemanticCacheAdvisor(embeddingModel,
+                new SemanticCache(0.9, 100, Duration.ofMinutes(1)), null);
+        when(callChain.nextAroundCall(any(AdvisedRequest.class))).thenReturn(response("42 辆"));
+        ChatOptions sampled = ChatOptions.builder().temperature(0.8).build();
+        ChatOptions limited = ChatOptions.builder().maxTokens(5).build();
+
+        // Act
+        advisor.aroundCall(request("今天洗了多少车", "alice", sampled), callChain);
+        advisor.aroundCall(request("今天洗了多少车", "alice", sampled), callChain);
+        advisor.aroundCall(request("今天洗了多少车", "alice", limited), callChain);
+
+        // Assert
+        verify(callChain, times(3)).nextAroundCall(any(AdvisedRequest.class));
+        verifyNoInteractions(embeddingModel);
+    }
+
+    @Test
+    void partition_differsByOptions() {
+        String plain = SemanticCacheAdvisor.partition(request("q", "alice", null));
+        String deterministic = SemanticCacheAdvisor.partition(
+                request("q", "alice", ChatOptions.builder().temperature(0.0).build()));
+
+        assertNotEquals(plain, deterministic);
+        assertEquals(plain, SemanticCacheAdvisor.partition(request("other q", "alice", null)));
+    }
+
+    private static AdvisedRequest request(String question) {
+        return AdvisedRequest.builder()
+                .chatModel(mock(ChatModel.class))
+                .messages(List.of(new SystemMessage("system"), new UserMessage(question)))
+                .adviseContext(Map.of())
+                .build();
+    }
+
+    private static AdvisedRequest request(String question, String conversationId, ChatOptions options) {
+        return AdvisedRequest.builder()
+                .chatModel(mock(ChatModel.class))
+                .messages(List.of(new SystemMessage("system"), new UserMessage(question)))
+                .chatOptions(options)
+                .adviseContext(Map.of(AbstractChatMemoryAdvisor.CHAT_MEMORY_CONVERSATION_ID_KEY, conversationId))
+                .build();
+    }
+
+    private static AdvisedResponse response(String text) {
+        return new AdvisedResponse(new ChatResponse(List.of(new Generation(new AssistantMessage(text)))), Map.of());
+    }
+}
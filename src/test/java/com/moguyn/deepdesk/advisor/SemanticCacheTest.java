@@ -0,0 +1,86 @@
+package com.moguyn.deepdesk.advisor;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+class SemanticCacheTest {
+
+    @Test
+    void lookup_shouldReturnClosestAnswerAboveThreshold() {
+        // Arrange
+        SemanticCache cache = new SemanticCache(0.9, 100, Duration.ofMinutes(1));
+        cache.put("p", new float[]{1, 0, 0}, "washes today");
+        cache.put("p", new float[]{0, 1, 0}, "revenue today");
+
+        // Act
+        Optional<SemanticCache.Hit> hit = cache.lookup("p", new float[]{2, 0.1f, 0});
+
+        // Assert
+        assertTrue(hit.isPresent());
+        assertEquals("washes today", hit.get().answer());
+        assertTrue(hit.get().score() > 0.99);
+    }
+
+    @Test
+    void lookup_shouldMissBelowThreshold() {
+        // Arrange
+        SemanticCache cache = new SemanticCache(0.9, 100, Duration.ofMinutes(1));
+        cache.put("p", new float[]{1, 0, 0}, "washes today");
+
+        // Act & Assert
+        assertTrue(cache.lookup("p", new float[]{1, 1, 0}).isEmpty());
+    }
+
+    @Test
+    void lookup_shouldNotCrossPartitions() {
+        // Arrange
+        SemanticCache cache = new SemanticCache(0.9, 100, Duration.ofMinutes(1));
+        cache.put("a", new float[]{1, 0, 0}, "washes today");
+
+        // Act & Assert
+        assertTrue(cache.lookup("b", new float[]{1, 0, 0}).isEmpty());
+    }
+
+    @Test
+    void put_shouldEvictBeyondMaxEntries() {
+        // Arrange
+        SemanticCache cache = new SemanticCache(0.9, 2, Duration.ofMinutes(1));
+
+        // Act
+        cache.put("p", new float[]{1, 0, 0}, "one");
+        cache.put("p", new float[]{0, 1, 0}, "two");
+        cache.put("p", new float[]{0, 0, 1}, "three");
+
+        // Assert
+        assertTrue(cache.size() <= 2);
+    }
+
+    @Test
+    void lookup_shouldSkipExpiredEntries() {
+        // Arrange
+        SemanticCache cache = new SemanticCache(0.9, 100, Duration.ZERO);
+        cache.put("p", new float[]{1, 0, 0}, "washes today");
+
+        // Act & Assert
+        assertTrue(cache.lookup("p", new float[]{1, 0, 0}).isEmpty());
+    }
+
+    @Test
+    void evictedEntries_shouldLeaveTheirPartition() {
+        // Arrange
+        SemanticCache cache = new SemanticCache(0.9, 1, Duration.ofMinutes(1));
+
+        // Act
+        cache.put("a", new float[]{1, 0, 0}, "washes today");
+        cache.put("b", new float[]{0, 1, 0}, "revenue today");
+        cache.put("b", new float[]{0, 0, 1}, "costs today");
+
+        // Assert
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.partitionCount());
+    }
+}
@@ -0,0 +1,244 @@
+package com.moguyn.deepdesk.advisor;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import static org.mockito.ArgumentMatchers.any;
+import org.mockito.Mock;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor;
+import org.springframework.ai.chat.client.advisor.api.AdvisedRequest;
+import org.springframework.ai.chat.client.advisor.api.AdvisedResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAroundAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAroundAdvisorChain;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+
+@ExtendWith(MockitoExtension.class)
+class TieredChatMemoryAdvisorTest {
+
+    @Mock
+    private VectorStore vectorStore;
+
+    @Mock
+    private CallAroundAdvisorChain callChain;
+
+    @Mock
+    private StreamAroundAdvisorChain streamChain;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private TieredChatMemoryAdvisor advisor;
+
+    @BeforeEach
+    void setUp() {
+        HotChatMemory hotMemory = new HotChatMemory(2, 100, Duration.ofMinutes(5), meterRegistry);
+        MemoryWriteBehind coldWriter = new MemoryWriteBehind(vectorStore, false, 10, Duration.ofMillis(10), 10,
+                Duration.ofSeconds(1), meterRegistry);
+        advisor = new TieredChatMemoryAdvisor(vectorStore, hotMemory, coldWriter, 2, meterRegistry);
+    }
+
+    @Test
+    void aroundCall_recallsFromVectorStore_onlyForUnknownConversation() {
+        // Arrange
+        when(vectorStore.similaritySearch(any(SearchRequest.class)))
+                .thenReturn(List.of(new Document("earlier question")));
+        when(callChain.nextAroundCall(any(AdvisedRequest.class)))
+                .thenReturn(response("first answer", "alice"), response("second answer", "alice"));
+
+        // Act
+        advisor.aroundCall(request("first question", "alice"), callChain);
+        advisor.aroundCall(request("second question", "alice"), callChain);
+
+        // Assert
+        verify(vectorStore, times(1)).similaritySearch(any(SearchRequest.class));
+        ArgumentCaptor<AdvisedRequest> advised = ArgumentCaptor.forClass(AdvisedRequest.class);
+        verify(callChain, times(2)).nextAroundCall(advised.capture());
+        AdvisedRequest first = advised.getAllValues().get(0);
+        assertEquals("earlier question", first.systemParams().get("long_term_memory"));
+        AdvisedRequest second = advised.getAllValues().get(1);
+        assertEquals(List.of("system", "second question"), texts(second.messages()));
+        assertEquals("earlier question", second.systemParams().get("long_term_memory"));
+        assertEquals("user: first question" + System.lineSeparator() + "assistant: first answer",
+                second.systemParams().get("recent_conversation"));
+        assertEquals(1.0, meterRegistry.get("deepdesk.memory.recall").tag("tier", "hot").counter().count());
+        assertEquals(1.0, meterRegistry.get("deepdesk.memory.recall").tag("tier", "cold").counter().count());
+    }
+
+    @Test
+    void aroundCall_writesEveryTurnToVectorStore() {
+        // Arrange
+        when(callChain.nextAroundCall(any(AdvisedRequest.class))).thenReturn(response("answer", "alice"));
+
+        // Act
+        advisor.aroundCall(request("question", "alice"), callChain);
+
+        // Assert
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Document>> written = ArgumentCaptor.forClass(List.class);
+        verify(vectorStore, times(2)).write(written.capture());
+        Document question = written.getAllValues().get(0).get(0);
+        assertEquals("question", question.getText());
+        assertEquals("alice", question.getMetadata().get("conversationId"));
+        assertEquals("USER", question.getMetadata().get("messageType"));
+        Document answer = written.getAllValues().get(1).get(0);
+        assertEquals("answer", answer.getText());
+        assertEquals("ASSISTANT", answer.getMetadata().get("messageType"));
+    }
+
+    @Test
+    void aroundCall_recallsAgain_onlyOnceAFullWindowHasLeft() {
+        // Arrange
+        when(callChain.nextAroundCall(any(AdvisedRequest.class))).thenReturn(response("answer", "alice"));
+
+        // Act
+        for (int i = 0; i < 6; i++) {
+            advisor.aroundCall(request("question " + i, "alice"), callChain);
+        }
+
+        // Assert: the first turn recalls, and the fifth once the first two turns have left the window
+        verify(vectorStore, times(2)).similaritySearch(any(SearchRequest.class));
+    }
+
+    @Test
+    void aroundCall_leavesOutTurnsTheRequestCarries() {
+        // Arrange
+        when(callChain.nextAroundCall(any(AdvisedRequest.class)))
+                .thenReturn(response("first answer", "alice"), response("second answer", "alice"));
+        AdvisedRequest resent = AdvisedRequest.builder()
+                .chatModel(mock(ChatModel.class))
+                .messages(List.of(new SystemMessage("system"), new UserMessage("first question"),
+                        new AssistantMessage("first answer"), new UserMessage("second question")))
+                .adviseContext(context("alice"))
+                .build();
+
+        // Act
+        advisor.aroundCall(request("first question", "alice"), callChain);
+        advisor.aroundCall(resent, callChain);
+
+        // Assert
+        ArgumentCaptor<AdvisedRequest> advised = ArgumentCaptor.forClass(AdvisedRequest.class);
+        verify(callChain, times(2)).nextAroundCall(advised.capture());
+        AdvisedRequest second = advised.getAllValues().get(1);
+        assertEquals(List.of("system", "first question", "first answer", "second question"),
+                texts(second.messages()));
+        assertNull(second.systemParams().get("recent_conversation"));
+    }
+
+    @Test
+    void aroundCall_keepsConversationsApart() {
+        // Arrange
+        when(callChain.nextAroundCall(any(AdvisedRequest.class)))
+                .thenReturn(response("for alice", "alice"), response("for bob", "bob"));
+
+        // Act
+        advisor.aroundCall(request("alice asks", "alice"), callChain);
+        advisor.aroundCall(request("bob asks", "bob"), callChain);
+
+        // Assert
+        verify(vectorStore, times(2)).similaritySearch(any(SearchRequest.class));
+        ArgumentCaptor<AdvisedRequest> advised = ArgumentCaptor.forClass(AdvisedRequest.class);
+        verify(callChain, times(2)).nextAroundCall(advised.capture());
+        assertEquals(List.of("system", "bob asks"), texts(advised.getAllValues().get(1).messages()));
+    }
+
+    @Test
+    void aroundStream_recordsAggregatedReply_inHotTier() {
+        // Arrange
+        when(streamChain.nextAroundStream(any(AdvisedRequest.class)))
+                .thenReturn(Flux.just(response("4", "alice"), response("2", "alice")));
+        when(callChain.nextAroundCall(any(AdvisedRequest.class))).thenReturn(response("ok", "alice"));
+
+        // Act
+        advisor.aroundStream(request("question", "alice"), streamChain).blockLast();
+        advisor.aroundCall(request("follow-up", "alice"), callChain);
+
+        // Assert
+        ArgumentCaptor<AdvisedRequest> advised = ArgumentCaptor.forClass(AdvisedRequest.class);
+        verify(callChain).nextAroundCall(advised.capture());
+        assertEquals(List.of("system", "follow-up"), texts(advised.getValue().messages()));
+        assertEquals("user: question" + System.lineSeparator() + "assistant: 42",
+                advised.getValue().systemParams().get("recent_conversation"));
+        verify(vectorStore, times(1)).similaritySearch(any(SearchRequest.class));
+    }
+
+    @Test
+    void aroundCall_skipsRecall_withoutUserText() {
+        // Arrange
+        AdvisedRequest request = AdvisedRequest.builder()
+                .chatModel(mock(ChatModel.class))
+                .messages(List.of(new SystemMessage("system")))
+                .adviseContext(Map.of())
+                .build();
+        when(callChain.nextAroundCall(any(AdvisedRequest.class))).thenReturn(response("", null));
+
+        // Act
+        advisor.aroundCall(request, callChain);
+
+        // Assert
+        verify(vectorStore, never()).similaritySearch(any(SearchRequest.class));
+        verify(vectorStore, never()).write(any());
+    }
+
+    @Test
+    void aroundCall_recallsOnlyItsOwnConversation_whenTheIdContainsQuotes() {
+        // Arrange
+        String conversationId = "x' || conversationId != '";
+        when(callChain.nextAroundCall(any(AdvisedRequest.class))).thenReturn(response("answer", conversationId));
+
+        // Act
+        advisor.aroundCall(request("question", conversationId), callChain);
+
+        // Assert
+        ArgumentCaptor<SearchRequest> search = ArgumentCaptor.forClass(SearchRequest.class);
+        verify(vectorStore).similaritySearch(search.capture());
+        assertEquals(new Filter.Expression(Filter.ExpressionType.EQ, new Filter.Key("conversationId"),
+                new Filter.Value(conversationId)), search.getValue().getFilterExpression());
+    }
+
+    private static AdvisedRequest request(String question, String conversationId) {
+        return AdvisedRequest.builder()
+                .chatModel(mock(ChatModel.class))
+                .messages(List.of(new SystemMessage("system"), new UserMessage(question)))
+                .adviseContext(context(conversationId))
+                .build();
+    }
+
+    private static AdvisedResponse response(String text, String conversationId) {
+        return new AdvisedResponse(new ChatResponse(List.of(new Generation(new AssistantMessage(text)))),
+                context(conversationId));
+    }
+
+    private static Map<String, Object> context(String conversationId) {
+        return conversationId != null
+                ? Map.of(AbstractChatMemoryAdvisor.CHAT_MEMORY_CONVERSATION_ID_KEY, conversationId)
+                : Map.of();
+    }
+
+    private static List<String> texts(List<Message> messages) {
+        return messages.stream().map(Message::getText).toList();
+    }
+}
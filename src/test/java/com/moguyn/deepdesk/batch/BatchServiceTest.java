@@ -0,0 +1,343 @@
+package com.moguyn.deepdesk.batch;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moguyn.deepdesk.chat.AdmissionControl;
+import com.moguyn.deepdesk.chat.CompletionLimiter;
+import com.moguyn.deepdesk.chat.OpenAiService;
+import com.moguyn.deepdesk.chat.RateLimiter;
+import com.moguyn.deepdesk.openai.model.Batch;
+import com.moguyn.deepdesk.openai.model.BatchRequest;
+import com.moguyn.deepdesk.openai.model.BatchResult;
+import com.moguyn.deepdesk.openai.model.ChatCompletionResponse;
+import com.moguyn.deepdesk.openai.model.OpenAiUsage;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class BatchServiceTest {
+
+    private static final String LINE = """
+            {"custom_id":"%s","method":"POST","url":"/v1/chat/completions","body":{"model":"m",\
+            "messages":[{"role":"user","content":"%s"}]}}""";
+
+    @TempDir
+    Path directory;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final OpenAiService openAiService = mock(OpenAiService.class);
+    private final CompletionLimiter completionLimiter = new CompletionLimiter(0);
+    private AdmissionControl admissionControl = new AdmissionControl(0, 0, 10, Duration.ofSeconds(5), meterRegistry);
+    private RateLimiter rateLimiter = new RateLimiter(0, 0, null, null, meterRegistry);
+    private BatchStore store;
+    private BatchService service;
+
+    @BeforeEach
+    void setUp() {
+        store = new BatchStore(directory, objectMapper);
+        service = newService(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void create_processesEveryRequest_andWritesOutput() throws Exception {
+        // Arrange
+        when(openAiService.processChat(any())).thenReturn(response(10));
+
+        // Act
+        Batch created = service.create(input("a", "b", "c"), Map.of("job", "nightly"));
+        assertTrue(service.awaitTermination(created.getId(), Duration.ofSeconds(5)));
+
+        // Assert
+        Batch batch = service.get(created.getId());
+        assertEquals(Batch.COMPLETED, batch.getStatus());
+        assertEquals(new Batch.RequestCounts(3, 3, 0), batch.getRequestCounts());
+        assertEquals(30, batch.getThroughput().totalTokens());
+        assertEquals("nightly", batch.getMetadata().get("job"));
+        assertNotNull(batch.getCompletedAt());
+        List<String> lines = Files.readAllLines(store.outputFile(created.getId()));
+        assertEquals(3, lines.size());
+        BatchResult result = objectMapper.readValue(lines.get(0), BatchResult.class);
+        assertEquals(200, result.response().statusCode());
+        assertEquals(3.0, meterRegistry.get("deepdesk.batch.requests").tag("outcome", "succeeded").counter().count());
+        assertEquals(30.0, meterRegistry.get("deepdesk.batch.tokens").counter().count());
+    }
+
+    @Test
+    void create_sendsRequestsAsBlockingCalls() throws Exception {
+        // Arrange
+        when(openAiService.processChat(any())).thenReturn(response(1));
+        String line = """
+                {"model":"m","stream":true,"messages":[{"role":"user","content":"hi"}]}""";
+
+        // Act
+        Batch created = service.create(line, null);
+        service.awaitTermination(created.getId(), Duration.ofSeconds(5));
+
+        // Assert
+        verify(openAiService).processChat(argThat(request -> !request.isStream()));
+        BatchResult result = objectMapper.readValue(Files.readAllLines(store.outputFile(created.getId())).get(0),
+                BatchResult.class);
+        assertEquals("request-1", result.customId());
+    }
+
+    @Test
+    void create_retriesFailedRequests_beforeGivingUp() throws Exception {
+        // Arrange
+        when(openAiService.processChat(any()))
+                .thenThrow(new IllegalStateException("upstream unavailable"))
+                .thenReturn(response(5));
+
+        // Act
+        Batch created = service.create(input("a"), null);
+        service.awaitTermination(created.getId(), Duration.ofSeconds(5));
+
+        // Assert
+        assertEquals(new Batch.RequestCounts(1, 1, 0), service.get(created.getId()).getRequestCounts());
+        assertEquals(1.0, meterRegistry.get("deepdesk.batch.retries").counter().count());
+    }
+
+    @Test
+    void create_writesErrors_whenAttemptsAreExhausted() throws Exception {
+        // Arrange
+        when(openAiService.processChat(any())).thenThrow(new IllegalStateException("upstream unavailable"));
+
+        // Act
+        Batch created = service.create(input("a"), null);
+        service.awaitTermination(created.getId(), Duration.ofSeconds(5));
+
+        // Assert
+        verify(openAiService, times(3)).processChat(any());
+        assertEquals(new Batch.RequestCounts(1, 0, 1), service.get(created.getId()).getRequestCounts());
+        BatchResult error = objectMapper.readValue(Files.readAllLines(store.errorFile(created.getId())).get(0),
+                BatchResult.class);
+        assertEquals("a", error.customId());
+        assertEquals("server_error", error.error().code());
+    }
+
+    @Test
+    void create_doesNotRetryInvalidRequests() throws Exception {
+        // Arrange
+        when(openAiService.processChat(any())).thenThrow(new IllegalArgumentException("bad model"));
+
+        // Act
+        Batch created = service.create(input("a"), null);
+        service.awaitTermination(created.getId(), Duration.ofSeconds(5));
+
+        // Assert
+        verify(openAiService, times(1)).processChat(any());
+        BatchResult error = objectMapper.readValue(Files.readAllLines(store.errorFile(created.getId())).get(0),
+                BatchResult.class);
+        assertEquals("invalid_request", error.error().code());
+    }
+
+    @Test
+    void create_rejectsInvalidInput() {
+        // Act & Assert
+        assertThrows(InvalidBatchException.class, () -> service.create("", null));
+        assertThrows(InvalidBatchException.class, () -> service.create("not json", null));
+        assertThrows(InvalidBatchException.class, () -> service.create("{\"model\":\"m\"}", null));
+        assertThrows(InvalidBatchException.class, () -> service.create(input("a", "a"), null));
+        assertThrows(InvalidBatchException.class, () -> service.create(
+                "{\"url\":\"/v1/embeddings\",\"body\":{\"messages\":[{\"role\":\"user\",\"content\":\"x\"}]}}", null));
+        verify(openAiService, never()).processChat(any());
+    }
+
+    @Test
+    void create_boundsConcurrentRequests() throws Exception {
+        // Arrange
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        when(openAiService.processChat(any())).thenAnswer(invocation -> {
+            peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            running.decrementAndGet();
+            return response(1);
+        });
+
+        // Act
+        Batch created = service.create(input("a", "b", "c", "d", "e", "f", "g", "h"), null);
+        service.awaitTermination(created.getId(), Duration.ofSeconds(5));
+
+        // Assert
+        assertEquals(8, service.get(created.getId()).getRequestCounts().completed());
+        assertTrue(peak.get() <= 2, "peak concurrency " + peak.get());
+    }
+
+    @Test
+    void create_waitsWhileInteractiveRequestsAreQueued() throws Exception {
+        // Arrange
+        service.shutdown();
+        admissionControl = new AdmissionControl(1, 0, 10, Duration.ofSeconds(5), meterRegistry);
+        service = newService(2);
+        AdmissionControl.Permit running = admissionControl.acquire("alice");
+        CompletableFuture<AdmissionControl.Permit> queued = admissionControl.admit("bob");
+        when(openAiService.processChat(any())).thenReturn(response(1));
+
+        // Act
+        Batch created = service.create(input("a"), null);
+        Thread.sleep(200);
+
+        // Assert
+        verify(openAiService, never()).processChat(any());
+        running.release();
+        queued.get().release();
+        assertTrue(service.awaitTermination(created.getId(), Duration.ofSeconds(5)));
+        assertEquals(Batch.COMPLETED, service.get(created.getId()).getStatus());
+    }
+
+    @Test
+    void create_onlyTakesSlotsLeftFreeByInteractiveRequests() throws Exception {
+        // Arrange
+        AdmissionControl.Permit first = admissionControl.acquire("alice");
+        AdmissionControl.Permit second = admissionControl.acquire("bob");
+        when(openAiService.processChat(any())).thenReturn(response(1));
+
+        // Act
+        Batch created = service.create(input("a"), null);
+        Thread.sleep(200);
+
+        // Assert
+        verify(openAiService, never()).processChat(any());
+        first.release();
+        assertTrue(service.awaitTermination(created.getId(), Duration.ofSeconds(5)));
+        assertEquals(Batch.COMPLETED, service.get(created.getId()).getStatus());
+        second.release();
+    }
+
+    @Test
+    void create_chargesRequestsToTheRateLimitOfTheirUser() throws Exception {
+        // Arrange
+        service.shutdown();
+        rateLimiter = new RateLimiter(1, 0, null, null, meterRegistry);
+        service = newService(2);
+        when(openAiService.processChat(any())).thenReturn(response(1));
+        String line = """
+                {"custom_id":"%s","body":{"user":"alice","messages":[{"role":"user","content":"hi"}]}}""";
+        long start = System.nanoTime();
+
+        // Act
+        Batch created = service.create(line.formatted("a") + "\n" + line.formatted("b"), null);
+        assertTrue(service.awaitTermination(created.getId(), Duration.ofSeconds(5)));
+
+        // Assert
+        assertEquals(new Batch.RequestCounts(2, 2, 0), service.get(created.getId()).getRequestCounts());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    @Test
+    void cancel_stopsDispatching_andKeepsFinishedResults() throws Exception {
+        // Arrange
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(openAiService.processChat(any())).thenAnswer(invocation -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return response(1);
+        });
+        service.shutdown();
+        service = newService(1);
+        Batch created = service.create(input("a", "b", "c"), null);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // Act
+        Batch cancelling = service.cancel(created.getId());
+        release.countDown();
+        service.awaitTermination(created.getId(), Duration.ofSeconds(5));
+
+        // Assert
+        assertEquals(Batch.CANCELLING, cancelling.getStatus());
+        Batch batch = service.get(created.getId());
+        assertEquals(Batch.CANCELLED, batch.getStatus());
+        assertEquals(1, batch.getRequestCounts().completed());
+        verify(openAiService, times(1)).processChat(any());
+    }
+
+    @Test
+    void resume_skipsRequestsThatAlreadyHaveResults() throws Exception {
+        // Arrange
+        Batch batch = Batch.builder()
+                .id("batch_0123456789abcdef0123456789abcdef")
+                .object("batch")
+                .status(Batch.IN_PROGRESS)
+                .createdAt(1L)
+                .requestCounts(new Batch.RequestCounts(3, 0, 0))
+                .build();
+        List<BatchRequest> requests = service.parse(input("a", "b", "c"));
+        store.create(batch, requests);
+        store.appendOutput(batch.getId(), new BatchResult("r1", "a", new BatchResult.Response(200, response(1)), null));
+        Files.writeString(store.outputFile(batch.getId()), "{\"custom_id\":\"b\",\"resp",
+                StandardOpenOption.APPEND);
+        when(openAiService.processChat(any())).thenReturn(response(1));
+
+        // Act
+        service.resume();
+        service.awaitTermination(batch.getId(), Duration.ofSeconds(5));
+
+        // Assert
+        verify(openAiService, times(2)).processChat(any());
+        Batch resumed = service.get(batch.getId());
+        assertEquals(Batch.COMPLETED, resumed.getStatus());
+        assertEquals(new Batch.RequestCounts(3, 3, 0), resumed.getRequestCounts());
+    }
+
+    @Test
+    void get_throwsForUnknownBatch() {
+        // Act & Assert
+        assertThrows(BatchNotFoundException.class, () -> service.get("batch_missing"));
+        assertThrows(BatchNotFoundException.class, () -> service.get("../etc"));
+        assertFalse(service.list().stream().anyMatch(batch -> batch.getId().equals("batch_missing")));
+    }
+
+    private BatchService newService(int maxConcurrency) {
+        return new BatchService(store, openAiService, admissionControl, completionLimiter, rateLimiter,
+                objectMapper, maxConcurrency, 3, Duration.ofMillis(1), meterRegistry);
+    }
+
+    private static String input(String... customIds) {
+        StringBuilder input = new StringBuilder();
+        for (String customId : customIds) {
+            input.append(LINE.formatted(customId, "question " + customId)).append('\n');
+        }
+        return input.toString();
+    }
+
+    private static ChatCompletionResponse response(int tokens) {
+        ChatCompletionResponse response = new ChatCompletionResponse();
+        response.setId("chatcmpl-1");
+        response.setObject("chat.completion");
+        response.setUsage(new OpenAiUsage(tokens / 2, tokens - tokens / 2, tokens));
+        return response;
+    }
+}
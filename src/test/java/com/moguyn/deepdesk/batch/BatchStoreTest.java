@@ -0,0 +1,61 @@
+package com.moguyn.deepdesk.batch;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moguyn.deepdesk.openai.model.Batch;
+import com.moguyn.deepdesk.openai.model.BatchResult;
+
+class BatchStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void appendOutput_keepsLinesWhole_whenLargeResultsAreAppendedConcurrently() throws Exception {
+        // Arrange
+        BatchStore store = new BatchStore(directory, objectMapper);
+        String id = "batch_" + "0".repeat(32);
+        store.create(Batch.builder().id(id).build(), List.of());
+        int appends = 64;
+        String message = "x".repeat(64 * 1024);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+
+        // Act
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            for (int i = 0; i < appends; i++) {
+                String customId = "request-" + i;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    store.appendOutput(id, new BatchResult(customId, customId, null,
+                            new BatchResult.Error("server_error", message)));
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+
+        // Assert
+        Set<String> ids = store.outputIds(id);
+        assertEquals(appends, ids.size());
+        assertEquals(appends, Files.readAllLines(store.outputFile(id)).size());
+    }
+}
@@ -0,0 +1,201 @@
+package com.moguyn.deepdesk.chat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class AdmissionControlTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void admit_grantsImmediately_whenPermitsAreAvailable() {
+        // Arrange
+        AdmissionControl admission = new AdmissionControl(2, 0, 10, Duration.ofSeconds(5), meterRegistry);
+
+        // Act
+        CompletableFuture<AdmissionControl.Permit> first = admission.admit("a");
+        CompletableFuture<AdmissionControl.Permit> second = admission.admit("b");
+
+        // Assert
+        assertTrue(first.isDone());
+        assertTrue(second.isDone());
+        assertEquals(0, admission.queueDepth());
+    }
+
+    @Test
+    void admit_queuesInArrivalOrder_whenPermitsAreExhausted() throws Exception {
+        // Arrange
+        AdmissionControl admission = new AdmissionControl(1, 0, 10, Duration.ofSeconds(5), meterRegistry);
+        AdmissionControl.Permit held = admission.acquire("a");
+
+        // Act
+        CompletableFuture<AdmissionControl.Permit> second = admission.admit("b");
+        CompletableFuture<AdmissionControl.Permit> third = admission.admit("c");
+
+        // Assert
+        assertEquals(2, admission.queueDepth());
+        assertFalse(second.isDone());
+
+        held.release();
+        assertTrue(second.isDone());
+        assertFalse(third.isDone());
+
+        second.get().release();
+        assertTrue(third.isDone());
+        assertEquals(0, admission.queueDepth());
+        assertEquals(3, meterRegistry.get("deepdesk.admission.wait").timer().count());
+    }
+
+    @Test
+    void admit_rejects_whenQueueIsFull() {
+        // Arrange
+        AdmissionControl admission = new AdmissionControl(1, 0, 1, Duration.ofSeconds(7), meterRegistry);
+        admission.acquire("a");
+        admission.admit("b");
+
+        // Act
+        CompletableFuture<AdmissionControl.Permit> rejected = admission.admit("c");
+
+        // Assert
+        ExecutionException e = assertThrows(ExecutionException.class, rejected::get);
+        AdmissionRejectedException cause = assertInstanceOf(AdmissionRejectedException.class, e.getCause());
+        assertEquals(Duration.ofSeconds(7), cause.getRetryAfter());
+        assertEquals(1.0, meterRegistry.get("deepdesk.admission.rejected").tag("reason", "queue_full")
+                .counter().count());
+    }
+
+    @Test
+    void admit_rejects_whenQueueTimeoutPasses() {
+        // Arrange
+        AdmissionControl admission = new AdmissionControl(1, 0, 10, Duration.ofMillis(50), meterRegistry);
+        admission.acquire("a");
+
+        // Act
+        CompletableFuture<AdmissionControl.Permit> waiting = admission.admit("b");
+
+        // Assert
+        ExecutionException e = assertThrows(ExecutionException.class, () -> waiting.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(AdmissionRejectedException.class, e.getCause());
+        assertEquals(0, admission.queueDepth());
+        assertEquals(1.0, meterRegistry.get("deepdesk.admission.rejected").tag("reason", "timeout")
+                .counter().count());
+    }
+
+    @Test
+    void acquire_rejects_whenUserIsAtLimit() {
+        // Arrange
+        AdmissionControl admission = new AdmissionControl(0, 1, 0, Duration.ofSeconds(1), meterRegistry);
+        AdmissionControl.Permit held = admission.acquire("a");
+
+        // Act & Assert
+        assertThrows(AdmissionRejectedException.class, () -> admission.acquire("a"));
+        admission.acquire("b");
+
+        held.release();
+        held.release();
+        admission.acquire("a");
+        assertThrows(AdmissionRejectedException.class, () -> admission.acquire("a"));
+    }
+
+    @Test
+    void release_forgetsUsersHoldingNoPermits() {
+        // Arrange
+        AdmissionControl admission = new AdmissionControl(0, 2, 0, Duration.ofSeconds(1), meterRegistry);
+        AdmissionControl.Permit first = admission.acquire("a");
+        AdmissionControl.Permit second = admission.acquire("a");
+        AdmissionControl.Permit other = admission.acquire("b");
+
+        // Act
+        first.release();
+        other.release();
+
+        // Assert
+        assertEquals(1, admission.usersHoldingPermits());
+        second.release();
+        assertEquals(0, admission.usersHoldingPermits());
+    }
+
+    @Test
+    void cancel_givesUpPlaceInQueue() throws Exception {
+        // Arrange
+        AdmissionControl admission = new AdmissionControl(1, 0, 10, Duration.ofSeconds(5), meterRegistry);
+        AdmissionControl.Permit held = admission.acquire("a");
+        CompletableFuture<AdmissionControl.Permit> cancelled = admission.admit("b");
+        CompletableFuture<AdmissionControl.Permit> next = admission.admit("c");
+
+        // Act
+        cancelled.cancel(false);
+        held.release();
+
+        // Assert
+        assertEquals(0, admission.queueDepth());
+        assertTrue(next.isDone());
+        next.get().release();
+        assertTrue(admission.admit("d").isDone());
+    }
+
+    @Test
+    void admit_neverExceedsGlobalLimit_underContention() throws Exception {
+        // Arrange
+        AdmissionControl admission = new AdmissionControl(4, 2, 1000, Duration.ofSeconds(30), meterRegistry);
+        AtomicInteger holding = new AtomicInteger();
+        AtomicInteger mostHeld = new AtomicInteger();
+        List<CompletableFuture<Void>> clients = new ArrayList<>();
+
+        // Act
+        try (ExecutorService executor = Executors.newFixedThreadPool(16)) {
+            for (int i = 0; i < 16; i++) {
+                String user = "user-" + i;
+                clients.add(CompletableFuture.runAsync(() -> {
+                    for (int j = 0; j < 500; j++) {
+                        try (AdmissionControl.Permit permit = admission.acquire(user)) {
+                            mostHeld.accumulateAndGet(holding.incrementAndGet(), Math::max);
+                            holding.decrementAndGet();
+                        }
+                    }
+                }, executor));
+            }
+            CompletableFuture.allOf(clients.toArray(CompletableFuture[]::new)).get(60, TimeUnit.SECONDS);
+        }
+
+        // Assert
+        assertTrue(mostHeld.get() <= 4);
+        assertEquals(0, admission.queueDepth());
+        assertEquals(0, admission.inFlight());
+        assertEquals(0, admission.usersHoldingPermits());
+        for (int i = 0; i < 4; i++) {
+            assertNotNull(admission.tryAdmit("background-" + i));
+        }
+    }
+
+    @Test
+    void mono_admitsOnSubscribe() {
+        // Arrange
+        AdmissionControl admission = new AdmissionControl(1, 0, 10, Duration.ofSeconds(5), meterRegistry);
+
+        // Act
+        AdmissionControl.Permit permit = admission.mono("a").block(Duration.ofSeconds(1));
+
+        // Assert
+        assertEquals(0, admission.queueDepth());
+        permit.release();
+        assertTrue(admission.admit("b").isDone());
+    }
+}
@@ -0,0 +1,115 @@
+package com.moguyn.deepdesk.chat;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+class CancellationsTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void call_interruptsCompletion_whenTimeoutPasses() {
+        // Arrange
+        Cancellations cancellations = new Cancellations(Duration.ofMillis(50), meterRegistry);
+        CancellationToken token = cancellations.newToken();
+
+        // Act & Assert
+        assertThrows(CompletionTimeoutException.class, () -> cancellations.call(token, CancellationsTest::sleep));
+        assertEquals(Cancellations.TIMEOUT, token.reason());
+        assertFalse(Thread.currentThread().isInterrupted());
+        assertEquals(1.0, cancelled(Cancellations.TIMEOUT));
+    }
+
+    @Test
+    void call_returnsResult_whenCompletionFinishesInTime() {
+        // Arrange
+        Cancellations cancellations = new Cancellations(Duration.ofSeconds(5), meterRegistry);
+        CancellationToken token = cancellations.newToken();
+
+        // Act
+        String result = cancellations.call(token, () -> "done");
+
+        // Assert
+        assertEquals("done", result);
+        assertFalse(token.isCancelled());
+    }
+
+    @Test
+    void mono_cancelsToken_whenSubscriberGoesAway() {
+        // Arrange
+        Cancellations cancellations = new Cancellations(Duration.ZERO, meterRegistry);
+        CancellationToken token = cancellations.newToken();
+
+        // Act
+        cancellations.mono(token, Mono.never()).subscribe().dispose();
+
+        // Assert
+        assertEquals(Cancellations.CLIENT_DISCONNECT, token.reason());
+        assertEquals(1.0, cancelled(Cancellations.CLIENT_DISCONNECT));
+    }
+
+    @Test
+    void mono_failsWithTimeout_andCountsItOnlyAsTimeout() {
+        // Arrange
+        Cancellations cancellations = new Cancellations(Duration.ofMillis(50), meterRegistry);
+        CancellationToken token = cancellations.newToken();
+        boolean[] upstreamCancelled = {false};
+
+        // Act & Assert
+        Mono<String> completion = Mono.<String>never().doOnCancel(() -> upstreamCancelled[0] = true);
+        assertThrows(CompletionTimeoutException.class,
+                () -> cancellations.mono(token, completion).block(Duration.ofSeconds(5)));
+        assertTrue(upstreamCancelled[0]);
+        assertEquals(Cancellations.TIMEOUT, token.reason());
+        assertEquals(0, meterRegistry.find("deepdesk.completion.cancelled")
+                .tag("reason", Cancellations.CLIENT_DISCONNECT).counters().size());
+    }
+
+    @Test
+    void stream_cancelsToken_whenSubscriberGoesAway() {
+        // Arrange
+        Cancellations cancellations = new Cancellations(Duration.ZERO, meterRegistry);
+        CancellationToken token = cancellations.newToken();
+
+        // Act
+        cancellations.stream(token, Flux.never()).subscribe().dispose();
+
+        // Assert
+        assertTrue(token.isCancelled());
+    }
+
+    @Test
+    void run_failsFast_onceCancelled() {
+        // Arrange
+        CancellationToken token = new CancellationToken();
+        token.cancel(Cancellations.CLIENT_DISCONNECT);
+
+        // Act & Assert
+        assertFalse(token.cancel(Cancellations.TIMEOUT));
+        assertThrows(CancellationException.class, () -> token.run(() -> "never runs"));
+    }
+
+    private double cancelled(String reason) {
+        return meterRegistry.get("deepdesk.completion.cancelled").tag("reason", reason).counter().count();
+    }
+
+    private static String sleep() {
+        try {
+            Thread.sleep(5_000);
+            return "too late";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.moguyn.deepdesk.chat;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import com.moguyn.deepdesk.openai.model.ChatCompletionRequest;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+class ChoiceFanOutTest {
+
+    private final ChoiceFanOut fanOut = new ChoiceFanOut(4);
+
+    @Test
+    void choices_defaultsToOne_andRejectsOutOfRange() {
+        // Arrange
+        ChatCompletionRequest request = new ChatCompletionRequest();
+
+        // Act & Assert
+        assertEquals(1, fanOut.choices(request));
+        request.setN(4);
+        assertEquals(4, fanOut.choices(request));
+        request.setN(5);
+        InvalidRequestException tooMany = assertThrows(InvalidRequestException.class, () -> fanOut.choices(request));
+        assertEquals("n", tooMany.getParam());
+        request.setN(0);
+        assertThrows(InvalidRequestException.class, () -> fanOut.choices(request));
+    }
+
+    @Test
+    void call_runsGenerationsConcurrently_andKeepsChoiceOrder() {
+        // Arrange
+        CountDownLatch allStarted = new CountDownLatch(3);
+
+        // Act
+        List<String> replies = fanOut.call(3, index -> {
+            allStarted.countDown();
+            // Only completes when all three run at the same time
+            await(allStarted);
+            try {
+                Thread.sleep(10L * (3 - index));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return "reply " + index;
+        });
+
+        // Assert
+        assertEquals(List.of("reply 0", "reply 1", "reply 2"), replies);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    void call_interruptsOtherGenerations_whenOneFails() {
+        // Arrange
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CountDownLatch sleeping = new CountDownLatch(1);
+
+        // Act & Assert
+        IllegalStateException failure = assertThrows(IllegalStateException.class, () -> fanOut.call(2, index -> {
+            if (index == 0) {
+                await(sleeping);
+                throw new IllegalStateException("upstream failed");
+            }
+            try {
+                sleeping.countDown();
+                Thread.sleep(5_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return "too late";
+        }));
+        assertEquals("upstream failed", failure.getMessage());
+        await(interrupted);
+    }
+
+    @Test
+    void mono_collectsResultsByChoiceIndex() {
+        // Act & Assert
+        StepVerifier.create(fanOut.mono(3, index -> Mono.just("reply " + index)
+                        .delayElement(Duration.ofMillis(10L * (3 - index)))))
+                .expectNext(List.of("reply 0", "reply 1", "reply 2"))
+                .verifyComplete();
+    }
+
+    @Test
+    void stream_subscribesToAllGenerationsAtOnce() {
+        // Act & Assert
+        StepVerifier.create(fanOut.stream(2, index -> Flux.just(index + "a", index + "b")
+                        .delayElements(Duration.ofMillis(index == 0 ? 30 : 10))))
+                .expectNext("1a", "1b", "0a", "0b")
+                .verifyComplete();
+    }
+}
@@ -0,0 +1,171 @@
+package com.moguyn.deepdesk.chat;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.openai.api.OpenAiApi;
+
+import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
+import com.moguyn.deepdesk.openai.model.ChatMessage;
+import com.moguyn.deepdesk.openai.model.OpenAiUsage;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+class ChunkCoalescerTest {
+
+    @Test
+    void shouldPassThrough_whenDisabled() {
+        ChunkCoalescer coalescer = new ChunkCoalescer(Duration.ZERO, 512);
+        Flux<ChatCompletionChunk> chunks = Flux.just(content("a"));
+
+        assertFalse(coalescer.isEnabled());
+        assertSame(chunks, coalescer.apply(chunks));
+    }
+
+    @Test
+    void shouldFlushFirstTokenImmediately_andMergeFollowingDeltas() {
+        ChunkCoalescer coalescer = new ChunkCoalescer(Duration.ofSeconds(1), 512);
+
+        StepVerifier.create(coalescer.apply(Flux.just(content(""), content("你"), content("好"), content("吗"),
+                finish())))
+                .assertNext(chunk -> assertEquals("", text(chunk)))
+                .assertNext(chunk -> assertEquals("你", text(chunk)))
+                .assertNext(chunk -> assertEquals("好吗", text(chunk)))
+                .assertNext(chunk -> assertEquals("stop", chunk.getChoices().get(0).getFinishReason()))
+                .verifyComplete();
+    }
+
+    @Test
+    void shouldFlush_whenMaxBytesReached() {
+        // each Chinese character is three bytes in UTF-8
+        ChunkCoalescer coalescer = new ChunkCoalescer(Duration.ofSeconds(1), 6);
+
+        StepVerifier.create(coalescer.apply(Flux.just(content("a"), content("洗"), content("车"), content("行"))))
+                .assertNext(chunk -> assertEquals("a", text(chunk)))
+                .assertNext(chunk -> assertEquals("洗车", text(chunk)))
+                .assertNext(chunk -> assertEquals("行", text(chunk)))
+                .verifyComplete();
+    }
+
+    @Test
+    void shouldFlush_whenMaxDelayElapsed() {
+        VirtualTimeScheduler scheduler = VirtualTimeScheduler.create();
+        ChunkCoalescer coalescer = new ChunkCoalescer(Duration.ofMillis(50), 512, scheduler);
+        Sinks.Many<ChatCompletionChunk> upstream = Sinks.many().unicast().onBackpressureBuffer();
+
+        StepVerifier.create(coalescer.apply(upstream.asFlux()))
+                .then(() -> {
+                    upstream.tryEmitNext(content("a"));
+                    upstream.tryEmitNext(content("b"));
+                    upstream.tryEmitNext(content("c"));
+                })
+                .assertNext(chunk -> assertEquals("a", text(chunk)))
+                .expectNoEvent(Duration.ofMillis(10))
+                .then(() -> scheduler.advanceTimeBy(Duration.ofMillis(50)))
+                .assertNext(chunk -> assertEquals("bc", text(chunk)))
+                .then(upstream::tryEmitComplete)
+                .verifyComplete();
+    }
+
+    @Test
+    void shouldFlushBufferedContent_beforeUsageChunk() {
+        ChunkCoalescer coalescer = new ChunkCoalescer(Duration.ofSeconds(1), 512);
+        ChatCompletionChunk usage = ChatCompletionChunk.builder()
+                .choices(List.of())
+                .usage(new OpenAiUsage(1, 2, 3))
+                .build();
+
+        StepVerifier.create(coalescer.apply(Flux.just(content("a"), content("b"), content("c"), usage)))
+                .assertNext(chunk -> assertEquals("a", text(chunk)))
+                .assertNext(chunk -> assertEquals("bc", text(chunk)))
+                .expectNext(usage)
+                .verifyComplete();
+    }
+
+    @Test
+    void merge_shouldKeepLatestEnvelopeAndFirstRole() {
+        ChatCompletionChunk first = content("a");
+        first.getChoices().get(0).setDelta(ChatMessage.of("assistant", "a"));
+        ChatCompletionChunk second = content("b");
+        second.setId("id-2");
+
+        ChatCompletionChunk merged = ChunkCoalescer.merge(List.of(first, second));
+
+        assertEquals("id-2", merged.getId());
+        assertEquals("assistant", merged.getChoices().get(0).getDelta().role());
+        assertEquals("ab", text(merged));
+        assertNull(merged.getChoices().get(0).getFinishReason());
+    }
+
+    @Test
+    void merge_shouldConcatenateLogprobs() {
+        ChatCompletionChunk first = content("a");
+        first.getChoices().get(0).setLogprobs(logprobs("a"));
+        ChatCompletionChunk second = content("b");
+        second.getChoices().get(0).setLogprobs(logprobs("b"));
+
+        ChatCompletionChunk merged = ChunkCoalescer.merge(List.of(first, second));
+
+        OpenAiApi.LogProbs logprobs = (OpenAiApi.LogProbs) merged.getChoices().get(0).getLogprobs();
+        assertEquals(List.of("a", "b"), logprobs.content().stream().map(OpenAiApi.LogProbs.Content::token).toList());
+    }
+
+    @Test
+    void shouldOnlyRequestUpstream_whileDownstreamHasDemand() {
+        ChunkCoalescer coalescer = new ChunkCoalescer(Duration.ofMillis(10), 4);
+        AtomicLong requested = new AtomicLong();
+        Flux<ChatCompletionChunk> upstream = Flux.range(0, 1000)
+                .map(i -> content("x"))
+                .doOnRequest(requested::addAndGet);
+
+        StepVerifier.create(coalescer.apply(upstream), 2)
+                .assertNext(chunk -> assertEquals("x", text(chunk)))
+                .assertNext(chunk -> assertEquals("xxxx", text(chunk)))
+                .expectNoEvent(Duration.ofMillis(100))
+                .then(() -> assertTrue(requested.get() <= 6, "requested " + requested.get()))
+                .thenRequest(1)
+                .assertNext(chunk -> assertEquals("xxxx", text(chunk)))
+                .thenCancel()
+                .verify();
+    }
+
+    private static OpenAiApi.LogProbs logprobs(String token) {
+        return new OpenAiApi.LogProbs(List.of(new OpenAiApi.LogProbs.Content(token, -0.1f, null, List.of())), null);
+    }
+
+    private static ChatCompletionChunk content(String text) {
+        return ChatCompletionChunk.builder()
+                .id("id-1")
+                .object("chat.completion.chunk")
+                .model("test-model")
+                .choices(List.of(ChatCompletionChunk.ChunkChoice.builder()
+                        .index(0)
+                        .delta(ChatMessage.of("", text))
+                        .build()))
+                .build();
+    }
+
+    private static ChatCompletionChunk finish() {
+        return ChatCompletionChunk.builder()
+                .choices(List.of(ChatCompletionChunk.ChunkChoice.builder()
+                        .index(0)
+                        .delta(ChatMessage.of("", null))
+                        .finishReason("stop")
+                        .build()))
+                .build();
+    }
+
+    private static String text(ChatCompletionChunk chunk) {
+        return chunk.getChoices().get(0).getDelta().content();
+    }
+}
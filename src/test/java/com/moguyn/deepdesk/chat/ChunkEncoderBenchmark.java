@@ -0,0 +1,79 @@
+package com.moguyn.deepdesk.chat;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
+
+/**
+ * Compares the per-chunk cost of mapping a streamed model response to a
+ * completion chunk and serializing it with the template encoder or with
+ * Jackson, for a typical one-to-two character delta. The responses are built
+ * up front, as the model client hands them over, so each operation covers
+ * what the service does for every token. Run with {@code ./mvnw -Pbenchmark
+ * test-compile exec:exec -Djmh.args="ChunkEncoderBenchmark -prof gc"} to
+ * include allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChunkEncoderBenchmark {
+
+    private static final String[] DELTAS = {"洗", "车订", "单", "数量", "是", "42", "。"};
+    private static final Long CREATED = 1700000000L;
+
+    private ObjectMapper objectMapper;
+    private ChunkEncoder encoder;
+    private ChatResponse[] responses;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        objectMapper = new ObjectMapper();
+        encoder = new ChunkEncoder(objectMapper);
+        responses = new ChatResponse[DELTAS.length];
+        for (int i = 0; i < DELTAS.length; i++) {
+            responses[i] = new ChatResponse(List.of(new Generation(new AssistantMessage(DELTAS[i]))),
+                    ChatResponseMetadata.builder().id("chatcmpl-9x8y7z").model("gpt-4o-mini").build());
+        }
+    }
+
+    @Benchmark
+    public String jackson() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(chunk(nextResponse()));
+    }
+
+    @Benchmark
+    public String template() {
+        return encoder.encode(chunk(nextResponse()));
+    }
+
+    private ChatResponse nextResponse() {
+        next = (next + 1) % responses.length;
+        return responses[next];
+    }
+
+    private static ChatCompletionChunk chunk(ChatResponse response) {
+        return OpenAiService.toChunk("deepdesk", response, "deepdesk-1", "fp_7b7b8232f4", CREATED, 0);
+    }
+}
@@ -0,0 +1,91 @@
+package com.moguyn.deepdesk.chat;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
+import com.moguyn.deepdesk.openai.model.ChatMessage;
+import com.moguyn.deepdesk.openai.model.OpenAiUsage;
+
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+class ChunkEncoderTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void shouldMatchJackson_forContentDelta() throws Exception {
+        ChatCompletionChunk chunk = chunk(ChatMessage.of("", "洗车\"订单\"\\ \n\t\u0001 😀"), null);
+
+        assertEquals(objectMapper.writeValueAsString(chunk), new ChunkEncoder(objectMapper).encode(chunk));
+    }
+
+    @Test
+    void shouldMatchJackson_forFinishChunk() throws Exception {
+        ChatCompletionChunk chunk = chunk(ChatMessage.of("", null), "stop");
+
+        assertEquals(objectMapper.writeValueAsString(chunk), new ChunkEncoder(objectMapper).encode(chunk));
+    }
+
+    @Test
+    void shouldMatchJackson_whenOptionalEnvelopeFieldsMissing() throws Exception {
+        ChatCompletionChunk chunk = chunk(null, null);
+        chunk.setSystemFingerprint(null);
+        chunk.setCreated(null);
+
+        assertEquals(objectMapper.writeValueAsString(chunk), new ChunkEncoder(objectMapper).encode(chunk));
+    }
+
+    @Test
+    void shouldReRenderEnvelope_whenItChanges() throws Exception {
+        ChunkEncoder encoder = new ChunkEncoder(objectMapper);
+        ChatCompletionChunk first = chunk(ChatMessage.of("assistant", "a"), null);
+        ChatCompletionChunk second = chunk(ChatMessage.of("", "b"), null);
+        second.setModel("other-model");
+
+        assertEquals(objectMapper.writeValueAsString(first), encoder.encode(first));
+        assertEquals(objectMapper.writeValueAsString(second), encoder.encode(second));
+        assertEquals(objectMapper.writeValueAsString(first), encoder.encode(first));
+    }
+
+    @Test
+    void shouldFallBackToJackson_forUsageAndLogprobs() throws Exception {
+        ChunkEncoder encoder = new ChunkEncoder(objectMapper);
+        ChatCompletionChunk usage = chunk(ChatMessage.of("", "a"), null);
+        usage.setUsage(new OpenAiUsage(1, 2, 3));
+        ChatCompletionChunk logprobs = chunk(ChatMessage.of("", "a"), null);
+        logprobs.getChoices().get(0).setLogprobs(List.of(0.5));
+
+        assertEquals(objectMapper.writeValueAsString(usage), encoder.encode(usage));
+        assertEquals(objectMapper.writeValueAsString(logprobs), encoder.encode(logprobs));
+    }
+
+    @Test
+    void encode_shouldUseOneEncoderPerSubscription() throws Exception {
+        ChatCompletionChunk chunk = chunk(ChatMessage.of("", "hi"), null);
+        String expected = objectMapper.writeValueAsString(chunk);
+
+        StepVerifier.create(ChunkEncoder.encode(Flux.just(chunk, chunk), objectMapper))
+                .expectNext(expected, expected)
+                .verifyComplete();
+    }
+
+    private static ChatCompletionChunk chunk(ChatMessage delta, String finishReason) {
+        return ChatCompletionChunk.builder()
+                .id("chatcmpl-1")
+                .object("chat.completion.chunk")
+                .created(1700000000L)
+                .model("gpt-4o-mini")
+                .systemFingerprint("fp_1")
+                .choices(List.of(ChatCompletionChunk.ChunkChoice.builder()
+                        .index(0)
+                        .delta(delta)
+                        .finishReason(finishReason)
+                        .build()))
+                .build();
+    }
+}
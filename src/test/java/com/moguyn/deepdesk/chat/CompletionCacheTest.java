@@ -0,0 +1,170 @@
+package com.moguyn.deepdesk.chat;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor;
+
+import com.moguyn.deepdesk.advisor.TieredChatMemoryAdvisor;
+import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
+import com.moguyn.deepdesk.openai.model.ChatCompletionRequest;
+import com.moguyn.deepdesk.openai.model.ChatCompletionResponse;
+import com.moguyn.deepdesk.openai.model.ChatMessage;
+import com.moguyn.deepdesk.openai.model.Choice;
+import com.moguyn.deepdesk.openai.model.StreamOptions;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+
+class CompletionCacheTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final TieredChatMemoryAdvisor chatMemory = mock(TieredChatMemoryAdvisor.class);
+
+    private final CompletionCache cache = new CompletionCache(true, 100, Duration.ofMinutes(1),
+            Set.of("opted-out"), chatMemory, meterRegistry);
+
+    @Test
+    void isCacheable_shouldRequireDeterministicSampling() {
+        // Arrange
+        ChatCompletionRequest greedy = request("Hello");
+        greedy.setTemperature(0.0);
+        ChatCompletionRequest seeded = request("Hello");
+        seeded.setSeed(7);
+        ChatCompletionRequest sampled = request("Hello");
+        sampled.setTemperature(0.7);
+
+        // Act & Assert
+        assertTrue(cache.isCacheable(greedy));
+        assertTrue(cache.isCacheable(seeded));
+        assertFalse(cache.isCacheable(sampled));
+        assertFalse(cache.isCacheable(request("Hello")));
+    }
+
+    @Test
+    void isCacheable_shouldHonorOptOutAndDisabledCache() {
+        // Arrange
+        ChatCompletionRequest optedOut = request("Hello");
+        optedOut.setSeed(7);
+        optedOut.setUser("opted-out");
+        ChatCompletionRequest seeded = request("Hello");
+        seeded.setSeed(7);
+        CompletionCache disabled = new CompletionCache(false, 100, Duration.ofMinutes(1), Set.of(), null,
+                meterRegistry);
+
+        // Act & Assert
+        assertFalse(cache.isCacheable(optedOut));
+        assertFalse(disabled.isCacheable(seeded));
+    }
+
+    @Test
+    void put_shouldServeReplyToStreamingRequest() {
+        // Arrange
+        ChatCompletionRequest blocking = request("Hello");
+        blocking.setTemperature(0.0);
+        ChatCompletionRequest streaming = request("Hello");
+        streaming.setTemperature(0.0);
+        streaming.setStream(true);
+        streaming.setStreamOptions(new StreamOptions(true));
+
+        // Act
+        cache.put(blocking, response("Hi there"));
+
+        // Assert
+        assertEquals("Hi there", cache.get(streaming));
+    }
+
+    @Test
+    void record_shouldCacheCompletedStream() {
+        // Arrange
+        ChatCompletionRequest request = request("Hello");
+        request.setSeed(1);
+        request.setStream(true);
+
+        // Act
+        cache.record(request, Flux.just(chunk("Hi"), chunk(" there"))).blockLast();
+
+        // Assert
+        assertEquals("Hi there", cache.get(request));
+    }
+
+    @Test
+    void record_shouldNotCacheFailedStream() {
+        // Arrange
+        ChatCompletionRequest request = request("Hello");
+        request.setSeed(1);
+
+        // Act
+        cache.record(request, Flux.just(chunk("Hi")).concatWith(Flux.error(new IllegalStateException())))
+                .onErrorResume(e -> Flux.empty())
+                .blockLast();
+
+        // Assert
+        assertNull(cache.get(request));
+    }
+
+    @Test
+    void get_shouldMissForDifferentMessages() {
+        // Arrange
+        ChatCompletionRequest cached = request("Hello");
+        cached.setTemperature(0.0);
+        ChatCompletionRequest other = request("Goodbye");
+        other.setTemperature(0.0);
+        cache.put(cached, response("Hi there"));
+
+        // Act & Assert
+        assertNull(cache.get(other));
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", "deepdesk.completion")
+                .tag("result", "miss").functionCounter().count());
+    }
+
+    @Test
+    void get_shouldRecordHitInChatMemory() {
+        // Arrange
+        ChatCompletionRequest request = request("Hello");
+        request.setTemperature(0.0);
+        request.setUser("alice");
+        cache.put(request, response("Hi there"));
+
+        // Act
+        String reply = cache.get(request);
+
+        // Assert
+        assertEquals("Hi there", reply);
+        verify(chatMemory).remember(Map.of(AbstractChatMemoryAdvisor.CHAT_MEMORY_CONVERSATION_ID_KEY, "alice"),
+                "Hello", "Hi there");
+    }
+
+    private static ChatCompletionRequest request(String content) {
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setModel("deepdesk");
+        request.setMessages(List.of(ChatMessage.of("user", content)));
+        return request;
+    }
+
+    private static ChatCompletionResponse response(String reply) {
+        ChatCompletionResponse response = new ChatCompletionResponse();
+        response.setChoices(List.of(new Choice(0, ChatMessage.of("assistant", reply), "stop", null)));
+        return response;
+    }
+
+    private static ChatCompletionChunk chunk(String content) {
+        return ChatCompletionChunk.builder()
+                .choices(List.of(ChatCompletionChunk.ChunkChoice.builder()
+                        .index(0)
+                        .delta(ChatMessage.of("", content))
+                        .build()))
+                .build();
+    }
+}
@@ -0,0 +1,117 @@
+package com.moguyn.deepdesk.chat;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+class CompletionLimiterTest {
+
+    @Test
+    void shouldNotLimit_whenCapIsZero() {
+        CompletionLimiter limiter = new CompletionLimiter(0);
+
+        assertEquals(Integer.MAX_VALUE, limiter.availablePermits());
+        assertEquals("ok", limiter.call(() -> "ok"));
+        StepVerifier.create(limiter.stream(Flux.just(1, 2))).expectNext(1, 2).verifyComplete();
+    }
+
+    @Test
+    void call_shouldReleasePermit_whenCompletionFails() {
+        CompletionLimiter limiter = new CompletionLimiter(1);
+
+        assertThrows(IllegalStateException.class, () -> limiter.call(() -> {
+            throw new IllegalStateException("boom");
+        }));
+
+        assertEquals(1, limiter.availablePermits());
+    }
+
+    @Test
+    void stream_shouldHoldPermitUntilCompletion() {
+        CompletionLimiter limiter = new CompletionLimiter(1);
+        Sinks.Many<String> upstream = Sinks.many().unicast().onBackpressureBuffer();
+
+        StepVerifier.create(limiter.stream(upstream.asFlux()))
+                .expectSubscription()
+                .thenAwait(Duration.ofMillis(50))
+                .then(() -> {
+                    assertEquals(0, limiter.availablePermits());
+                    upstream.tryEmitNext("a");
+                    upstream.tryEmitComplete();
+                })
+                .expectNext("a")
+                .verifyComplete();
+
+        assertEquals(1, limiter.availablePermits());
+    }
+
+    @Test
+    void stream_shouldReleasePermit_whenCancelled() {
+        CompletionLimiter limiter = new CompletionLimiter(1);
+
+        StepVerifier.create(limiter.stream(Flux.never()))
+                .expectSubscription()
+                .thenAwait(Duration.ofMillis(50))
+                .thenCancel()
+                .verify();
+
+        assertEquals(1, limiter.availablePermits());
+    }
+
+    @Test
+    void mono_shouldReleasePermit_afterValue() {
+        CompletionLimiter limiter = new CompletionLimiter(1);
+
+        StepVerifier.create(limiter.mono(Mono.just("done"))).expectNext("done").verifyComplete();
+
+        assertEquals(1, limiter.availablePermits());
+    }
+
+    @Test
+    void call_shouldWaitForPermit_whenCapReached() throws Exception {
+        CompletionLimiter limiter = new CompletionLimiter(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        AtomicBoolean secondRan = new AtomicBoolean();
+
+        Thread first = Thread.ofVirtual().start(() -> limiter.call(() -> {
+            started.countDown();
+            await(finish);
+            return null;
+        }));
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+
+        Thread second = Thread.ofVirtual().start(() -> limiter.call(() -> {
+            secondRan.set(true);
+            return null;
+        }));
+        Thread.sleep(50);
+        assertFalse(secondRan.get());
+
+        finish.countDown();
+        first.join(1000);
+        second.join(1000);
+        assertTrue(secondRan.get());
+        assertEquals(1, limiter.availablePermits());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
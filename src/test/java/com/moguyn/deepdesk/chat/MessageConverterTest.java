@@ -3,17 +3,34 @@ package com.moguyn.deepdesk.chat;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.SystemMessage;
 import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.prompt.ChatOptions;
 import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.http.ResponseEntity;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moguyn.deepdesk.config.CoreSettings;
+import static com.moguyn.deepdesk.config.CoreSettingsBuilder.coreSettings;
 import com.moguyn.deepdesk.openai.model.ChatCompletionRequest;
 import com.moguyn.deepdesk.openai.model.ChatMessage;
 
@@ -24,7 +41,8 @@ public class MessageConverterTest {
 
     @BeforeEach
     public void setUp() {
-        messageConverter = new MessageConverter();
+        messageConverter = new MessageConverter(
+                coreSettings().llm(new CoreSettings.LLM(null, 1000, 10, 10000)).build(), mock(OpenAiChatModel.class));
         ReflectionTestUtils.setField(messageConverter, "defaultSystemPrompt", testSystemPrompt);
     }
 
@@ -106,4 +124,148 @@ public class MessageConverterTest {
         UserMessage userMsg = (UserMessage) messages.get(1);
         assertEquals("Hello", userMsg.getText());
     }
+
+    @Test
+    void shouldForwardSamplingOptions_andCapMaxTokens() {
+        // Given
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(List.of(ChatMessage.of("user", "Hello")));
+        request.setMaxTokens(5000);
+        request.setTemperature(0.2);
+        request.setTopP(0.9);
+        request.setFrequencyPenalty(0.5);
+        request.setPresencePenalty(-0.5);
+        request.setStop(List.of("END"));
+
+        // When
+        Prompt result = messageConverter.createPrompt(request);
+
+        // Then
+        ChatOptions options = result.getOptions();
+        assertInstanceOf(ToolCallingChatOptions.class, options);
+        assertEquals(1000, ((OpenAiChatOptions) options).getMaxCompletionTokens());
+        assertNull(options.getMaxTokens());
+        assertEquals(0.2, options.getTemperature());
+        assertEquals(0.9, options.getTopP());
+        assertEquals(0.5, options.getFrequencyPenalty());
+        assertEquals(-0.5, options.getPresencePenalty());
+        assertEquals(List.of("END"), options.getStopSequences());
+        assertNull(options.getModel());
+    }
+
+    @Test
+    void shouldKeepRequestedMaxTokens_whenBelowCap() {
+        // Given
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMaxTokens(64);
+
+        // When
+        ChatOptions options = messageConverter.toChatOptions(request);
+
+        // Then
+        assertEquals(64, ((OpenAiChatOptions) options).getMaxCompletionTokens());
+        assertNull(options.getTemperature());
+    }
+
+    @Test
+    void shouldSendOneTokenLimit_onceMergedWithModelDefaults() {
+        // Given
+        OpenAiApi openAiApi = mock(OpenAiApi.class);
+        when(openAiApi.chatCompletionEntity(any(), any())).thenReturn(ResponseEntity.ok(
+                new OpenAiApi.ChatCompletion("1", List.of(), 1L, "gpt-4o-mini", null, "chat.completion", null, null)));
+        OpenAiChatModel chatModel = OpenAiChatModel.builder()
+                .openAiApi(openAiApi)
+                .defaultOptions(OpenAiChatOptions.builder().model("gpt-4o-mini").maxCompletionTokens(6000).build())
+                .build();
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(List.of(ChatMessage.of("user", "Hello")));
+        request.setMaxTokens(5000);
+
+        // When
+        chatModel.call(messageConverter.createPrompt(request));
+
+        // Then
+        ArgumentCaptor<OpenAiApi.ChatCompletionRequest> sent = ArgumentCaptor.forClass(
+                OpenAiApi.ChatCompletionRequest.class);
+        verify(openAiApi).chatCompletionEntity(sent.capture(), any());
+        assertEquals(1000, sent.getValue().maxCompletionTokens());
+        assertNull(sent.getValue().maxTokens());
+    }
+
+    @Test
+    void shouldForwardSeed() {
+        // Given
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setSeed(42);
+
+        // When
+        ChatOptions options = messageConverter.toChatOptions(request);
+
+        // Then
+        assertEquals(42, ((OpenAiChatOptions) options).getSeed());
+        assertNull(options.getTemperature());
+    }
+
+    @Test
+    void shouldCapPortableMaxTokens_forOtherModels() {
+        // Given
+        MessageConverter converter = new MessageConverter(
+                coreSettings().llm(new CoreSettings.LLM(null, 1000, 10, 10000)).build(), mock(ChatModel.class));
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMaxTokens(5000);
+
+        // When
+        ChatOptions options = converter.toChatOptions(request);
+
+        // Then
+        assertEquals(1000, options.getMaxTokens());
+        assertNull(((OpenAiChatOptions) options).getMaxCompletionTokens());
+    }
+
+    @Test
+    void shouldLeaveModelDefaults_whenNoOptionsAreSet() {
+        // Given
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(List.of(ChatMessage.of("user", "Hello")));
+
+        // When
+        Prompt result = messageConverter.createPrompt(request);
+
+        // Then
+        assertNull(messageConverter.toChatOptions(request));
+        assertNull(result.getOptions());
+    }
+
+    @Test
+    void shouldRejectOutOfRangeOptions() {
+        // Given
+        ChatCompletionRequest request = new ChatCompletionRequest();
+
+        // When/Then
+        request.setTemperature(2.5);
+        InvalidRequestException exception = assertThrows(InvalidRequestException.class,
+                () -> messageConverter.toChatOptions(request));
+        assertEquals("temperature", exception.getParam());
+
+        request.setTemperature(null);
+        request.setMaxTokens(0);
+        assertThrows(InvalidRequestException.class, () -> messageConverter.toChatOptions(request));
+
+        request.setMaxTokens(null);
+        request.setStop(List.of("a", "b", "c", "d", "e"));
+        assertThrows(InvalidRequestException.class, () -> messageConverter.toChatOptions(request));
+    }
+
+    @Test
+    void shouldAcceptStopAsSingleString() throws Exception {
+        // Given
+        ChatCompletionRequest request = new ObjectMapper().readValue("{\"stop\":\"END\"}",
+                ChatCompletionRequest.class);
+
+        // When
+        ChatOptions options = messageConverter.toChatOptions(request);
+
+        // Then
+        assertEquals(List.of("END"), options.getStopSequences());
+    }
 }
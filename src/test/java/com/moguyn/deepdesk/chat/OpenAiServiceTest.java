@@ -1,8 +1,16 @@
 package com.moguyn.deepdesk.chat;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.function.Supplier;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -14,12 +22,17 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.ArgumentMatchers.anyString;
 import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import org.mockito.junit.jupiter.MockitoExtension;
@@ -28,20 +41,28 @@ import org.springframework.ai.chat.client.ChatClient.CallResponseSpec;
 import org.springframework.ai.chat.client.ChatClient.ChatClientRequestSpec;
 import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
 import org.springframework.ai.chat.messages.SystemMessage;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.model.Generation;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.ai.vectorstore.VectorStore;
 
+import com.moguyn.deepdesk.advisor.HotChatMemory;
+import com.moguyn.deepdesk.advisor.MemoryWriteBehind;
+import com.moguyn.deepdesk.advisor.TieredChatMemoryAdvisor;
 import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
 import com.moguyn.deepdesk.openai.model.ChatCompletionRequest;
 import com.moguyn.deepdesk.openai.model.ChatCompletionResponse;
 import com.moguyn.deepdesk.openai.model.ChatMessage;
 import com.moguyn.deepdesk.openai.model.OpenAiUsage;
+import com.moguyn.deepdesk.openai.model.StreamOptions;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import reactor.core.publisher.Flux;
 
 @ExtendWith(MockitoExtension.class)
@@ -59,6 +80,28 @@ class OpenAiServiceTest {
     @Mock
     private ResponseBuilder responseBuilder;
 
+    @Spy
+    private CompletionLimiter completionLimiter = new CompletionLimiter(0);
+
+    @Spy
+    private ChunkCoalescer chunkCoalescer = new ChunkCoalescer(Duration.ZERO, 0);
+
+    @Spy
+    private SingleFlightGroup singleFlightGroup = new SingleFlightGroup(false, new SimpleMeterRegistry());
+
+    @Spy
+    private CompletionCache completionCache = new CompletionCache(false, 0, Duration.ZERO, Set.of(), null,
+            new SimpleMeterRegistry());
+
+    @Spy
+    private Cancellations cancellations = new Cancellations(Duration.ZERO, new SimpleMeterRegistry());
+
+    @Spy
+    private StreamOpener streamOpener = new StreamOpener(false, new SimpleMeterRegistry());
+
+    @Spy
+    private ChoiceFanOut choiceFanOut = new ChoiceFanOut(4);
+
     @Mock
     private ChatClientRequestSpec requestSpec;
 
@@ -80,6 +123,7 @@ class OpenAiServiceTest {
         lenient().when(responseSpec.content()).thenReturn("Default response");
         lenient().when(requestSpec.call()).thenReturn(responseSpec);
         lenient().when(requestSpec.advisors(any(Consumer.class))).thenReturn(requestSpec);
+        lenient().when(requestSpec.toolContext(anyMap())).thenReturn(requestSpec);
         lenient().when(chatClient.prompt(any(Prompt.class))).thenReturn(requestSpec);
 
         // Set up MessageConverter to use the default system prompt and return messages
@@ -113,9 +157,9 @@ class OpenAiServiceTest {
         });
 
         // Set up ResponseBuilder to return a basic response
-        lenient().when(responseBuilder.buildResponse(any(ChatCompletionRequest.class), anyString())).thenAnswer(invocation -> {
+        lenient().when(responseBuilder.buildResponse(any(ChatCompletionRequest.class), anyList())).thenAnswer(invocation -> {
             ChatCompletionRequest request = invocation.getArgument(0);
-            String reply = invocation.getArgument(1);
+            List<String> replies = invocation.getArgument(1);
 
             // Create a basic response with the given reply
             ChatCompletionResponse response = new ChatCompletionResponse();
@@ -124,13 +168,15 @@ class OpenAiServiceTest {
             response.setCreated(System.currentTimeMillis() / 1000);
             response.setModel(request.getModel());
 
-            com.moguyn.deepdesk.openai.model.Choice choice
-                    = new com.moguyn.deepdesk.openai.model.Choice(0,
-                            com.moguyn.deepdesk.openai.model.ChatMessage.of("assistant", reply),
-                            "stop",
-                            null);
+            List<com.moguyn.deepdesk.openai.model.Choice> choices = new ArrayList<>();
+            for (int index = 0; index < replies.size(); index++) {
+                choices.add(new com.moguyn.deepdesk.openai.model.Choice(index,
+                        com.moguyn.deepdesk.openai.model.ChatMessage.of("assistant", replies.get(index)),
+                        "stop",
+                        null));
+            }
 
-            response.setChoices(List.of(choice));
+            response.setChoices(choices);
 
             // Set up usage information
             OpenAiUsage usage = new OpenAiUsage(5, 10, 15);
@@ -138,6 +184,9 @@ class OpenAiServiceTest {
 
             return response;
         });
+        lenient().when(responseBuilder.buildResponse(any(ChatCompletionRequest.class), anyString())).thenAnswer(
+                invocation -> responseBuilder.buildResponse(invocation.getArgument(0),
+                        List.of((String) invocation.getArgument(1))));
 
         // Default token count estimation
         lenient().when(tokenCountEstimator.estimate(anyString())).thenReturn(10);
@@ -228,7 +277,21 @@ class OpenAiServiceTest {
         openAiService.processChat(request);
 
         // Verify that response builder was called with the correct arguments
-        verify(responseBuilder).buildResponse(any(ChatCompletionRequest.class), anyString());
+        verify(responseBuilder).buildResponse(any(ChatCompletionRequest.class), anyList());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void processChat_shouldRunThroughCompletionLimiter() {
+        // Arrange
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(List.of(ChatMessage.of("user", "Hello")));
+
+        // Act
+        openAiService.processChat(request);
+
+        // Assert
+        verify(completionLimiter).call(any(Supplier.class));
     }
 
     @Test
@@ -264,6 +327,56 @@ class OpenAiServiceTest {
         assertEquals("Unsupported role: unsupported_role", exception.getMessage());
     }
 
+    @Test
+    void processChatReactive_shouldAggregateStreamedContent() {
+        // Arrange
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(List.of(ChatMessage.of("user", "Hello")));
+        request.setModel("test-model");
+
+        ChatClient.ChatClientRequestSpec streamRequestSpec = mock(ChatClient.ChatClientRequestSpec.class);
+        lenient().when(streamRequestSpec.toolContext(anyMap())).thenReturn(streamRequestSpec);
+        ChatClient.StreamResponseSpec streamResponseSpec = mock(ChatClient.StreamResponseSpec.class);
+
+        when(chatClient.prompt(any(Prompt.class))).thenReturn(streamRequestSpec);
+        when(streamRequestSpec.stream()).thenReturn(streamResponseSpec);
+        when(streamResponseSpec.content()).thenReturn(Flux.just("Hel", "lo", "!"));
+
+        // Act
+        ChatCompletionResponse response = openAiService.processChatReactive(request).block();
+
+        // Assert
+        assertNotNull(response);
+        verify(responseBuilder).buildResponse(request, List.of("Hello!"));
+        assertEquals("Hello!", response.getChoices().get(0).message().content());
+    }
+
+    @Test
+    void processChatReactive_shouldNotCallModelUntilSubscribed() {
+        // Arrange
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(List.of(ChatMessage.of("user", "Hello")));
+
+        // Act
+        openAiService.processChatReactive(request);
+
+        // Assert
+        verify(chatClient, never()).prompt(any(Prompt.class));
+    }
+
+    @Test
+    void processChatReactive_shouldFail_whenStreamIsTrue() {
+        // Arrange
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(List.of(ChatMessage.of("user", "Hello")));
+        request.setStream(true);
+
+        // Act & Assert
+        Exception exception = assertThrows(IllegalArgumentException.class,
+                () -> openAiService.processChatReactive(request).block());
+        assertEquals("Stream mode should be used with streamChat method", exception.getMessage());
+    }
+
     @Test
     void streamChat_shouldMapResponseCorrectly() {
         // This test verifies that the streamChat method can handle a response
@@ -280,6 +393,7 @@ class OpenAiServiceTest {
 
         // Mock the stream response
         ChatClient.ChatClientRequestSpec streamRequestSpec = mock(ChatClient.ChatClientRequestSpec.class);
+        lenient().when(streamRequestSpec.toolContext(anyMap())).thenReturn(streamRequestSpec);
         ChatClient.StreamResponseSpec streamResponseSpec = mock(ChatClient.StreamResponseSpec.class);
 
         // Create an empty flux for the response
@@ -316,6 +430,152 @@ class OpenAiServiceTest {
         verify(streamResponseSpec).chatResponse();
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    void streamChat_shouldApplyChunkCoalescer() {
+        // Arrange
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(List.of(ChatMessage.of("user", "Hello")));
+        request.setStream(true);
+
+        ChatClient.ChatClientRequestSpec streamRequestSpec = mock(ChatClient.ChatClientRequestSpec.class);
+        lenient().when(streamRequestSpec.toolContext(anyMap())).thenReturn(streamRequestSpec);
+        ChatClient.StreamResponseSpec streamResponseSpec = mock(ChatClient.StreamResponseSpec.class);
+
+        when(chatClient.prompt(any(Prompt.class))).thenReturn(streamRequestSpec);
+        when(streamRequestSpec.stream()).thenReturn(streamResponseSpec);
+        when(streamResponseSpec.chatResponse()).thenReturn(Flux.empty());
+
+        // Act
+        openAiService.streamChat(request);
+
+        // Assert
+        verify(chunkCoalescer).apply(any(Flux.class));
+    }
+
+    @Test
+    void streamChat_shouldAppendUsageChunk_whenIncludeUsageRequested() {
+        // Arrange
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(List.of(ChatMessage.of("user", "Hello")));
+        request.setStream(true);
+        request.setModel("test-model");
+        request.setStreamOptions(new StreamOptions(true));
+
+        ChatClient.ChatClientRequestSpec streamRequestSpec = mock(ChatClient.ChatClientRequestSpec.class);
+        lenient().when(streamRequestSpec.toolContext(anyMap())).thenReturn(streamRequestSpec);
+        ChatClient.StreamResponseSpec streamResponseSpec = mock(ChatClient.StreamResponseSpec.class);
+
+        when(chatClient.prompt(any(Prompt.class))).thenReturn(streamRequestSpec);
+        when(streamRequestSpec.stream()).thenReturn(streamResponseSpec);
+        when(streamResponseSpec.chatResponse()).thenReturn(Flux.just(
+                new ChatResponse(List.of(new Generation(new AssistantMessage("Hello"))))));
+
+        StreamUsageCounter counter = new StreamUsageCounter(tokenCountEstimator);
+        when(responseBuilder.usageCounter()).thenReturn(counter);
+        when(responseBuilder.buildStreamUsage(request, List.of(counter))).thenReturn(new OpenAiUsage(3, 2, 5));
+
+        // Act
+        List<ChatCompletionChunk> chunks = openAiService.streamChat(request).collectList().block();
+
+        // Assert
+        assertNotNull(chunks);
+        assertEquals(2, chunks.size());
+        assertEquals("Hello", chunks.get(0).getChoices().get(0).getDelta().content());
+        ChatCompletionChunk usageChunk = chunks.get(1);
+        assertTrue(usageChunk.getChoices().isEmpty());
+        assertEquals(new OpenAiUsage(3, 2, 5), usageChunk.getUsage());
+        assertEquals("test-model", usageChunk.getModel());
+        assertEquals(10, counter.completionTokens());
+    }
+
+    @Test
+    void streamChat_shouldNotAppendUsageChunk_whenIncludeUsageNotRequested() {
+        // Arrange
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(List.of(ChatMessage.of("user", "Hello")));
+        request.setStream(true);
+        request.setStreamOptions(new StreamOptions(false));
+
+        ChatClient.ChatClientRequestSpec streamRequestSpec = mock(ChatClient.ChatClientRequestSpec.class);
+        lenient().when(streamRequestSpec.toolContext(anyMap())).thenReturn(streamRequestSpec);
+        ChatClient.StreamResponseSpec streamResponseSpec = mock(ChatClient.StreamResponseSpec.class);
+
+        when(chatClient.prompt(any(Prompt.class))).thenReturn(streamRequestSpec);
+        when(streamRequestSpec.stream()).thenReturn(streamResponseSpec);
+        when(streamResponseSpec.chatResponse()).thenReturn(Flux.just(
+                new ChatResponse(List.of(new Generation(new AssistantMessage("Hi"))))));
+
+        // Act
+        List<ChatCompletionChunk> chunks = openAiService.streamChat(request).collectList().block();
+
+        // Assert
+        assertNotNull(chunks);
+        assertEquals(1, chunks.size());
+        verify(responseBuilder, never()).usageCounter();
+    }
+
+    @Test
+    void streamChat_shouldGoThroughSingleFlightGroup() {
+        // Arrange
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(List.of(ChatMessage.of("user", "Hello")));
+        request.setStream(true);
+
+        ChatClient.ChatClientRequestSpec streamRequestSpec = mock(ChatClient.ChatClientRequestSpec.class);
+        lenient().when(streamRequestSpec.toolContext(anyMap())).thenReturn(streamRequestSpec);
+        ChatClient.StreamResponseSpec streamResponseSpec = mock(ChatClient.StreamResponseSpec.class);
+
+        when(chatClient.prompt(any(Prompt.class))).thenReturn(streamRequestSpec);
+        when(streamRequestSpec.stream()).thenReturn(streamResponseSpec);
+        when(streamResponseSpec.chatResponse()).thenReturn(Flux.empty());
+
+        // Act
+        openAiService.streamChat(request);
+
+        // Assert
+        verify(singleFlightGroup).stream(any(ChatCompletionRequest.class), any());
+    }
+
+    @Test
+    void streamChat_shouldReplayCachedReply_withoutCallingModel() {
+        // Arrange
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(List.of(ChatMessage.of("user", "Hello")));
+        request.setStream(true);
+        request.setTemperature(0.0);
+
+        when(completionCache.get(request)).thenReturn("Cached hello");
+        when(responseBuilder.buildChunks(request, "Cached hello", false)).thenReturn(List.of(
+                ChatCompletionChunk.builder().choices(List.of()).build()));
+
+        // Act
+        List<ChatCompletionChunk> chunks = openAiService.streamChat(request).collectList().block();
+
+        // Assert
+        assertNotNull(chunks);
+        assertEquals(1, chunks.size());
+        verify(chatClient, never()).prompt(any(Prompt.class));
+    }
+
+    @Test
+    void processChat_shouldServeCachedReply_withoutCallingModel() {
+        // Arrange
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(List.of(ChatMessage.of("user", "Hello")));
+        request.setSeed(42);
+
+        when(completionCache.get(request)).thenReturn("Cached hello");
+
+        // Act
+        ChatCompletionResponse response = openAiService.processChat(request);
+
+        // Assert
+        assertEquals("Cached hello", response.getChoices().get(0).message().content());
+        verify(chatClient, never()).prompt(any(Prompt.class));
+        verify(completionCache, never()).put(any(), any());
+    }
+
     @Test
     void getModels_shouldReturnSupportedModels() {
         // Act
@@ -337,6 +597,7 @@ class OpenAiServiceTest {
 
         // Mock the stream response
         ChatClient.ChatClientRequestSpec streamRequestSpec = mock(ChatClient.ChatClientRequestSpec.class);
+        lenient().when(streamRequestSpec.toolContext(anyMap())).thenReturn(streamRequestSpec);
         ChatClient.StreamResponseSpec streamResponseSpec = mock(ChatClient.StreamResponseSpec.class);
 
         when(chatClient.prompt(any(Prompt.class))).thenReturn(streamRequestSpec);
@@ -417,6 +678,7 @@ class OpenAiServiceTest {
 
         // Mock the stream response
         ChatClient.ChatClientRequestSpec streamRequestSpec = mock(ChatClient.ChatClientRequestSpec.class);
+        lenient().when(streamRequestSpec.toolContext(anyMap())).thenReturn(streamRequestSpec);
         ChatClient.StreamResponseSpec streamResponseSpec = mock(ChatClient.StreamResponseSpec.class);
 
         when(chatClient.prompt(any(Prompt.class))).thenReturn(streamRequestSpec);
@@ -443,6 +705,7 @@ class OpenAiServiceTest {
 
         // Mock the stream response
         ChatClient.ChatClientRequestSpec streamRequestSpec = mock(ChatClient.ChatClientRequestSpec.class);
+        lenient().when(streamRequestSpec.toolContext(anyMap())).thenReturn(streamRequestSpec);
         ChatClient.StreamResponseSpec streamResponseSpec = mock(ChatClient.StreamResponseSpec.class);
 
         when(chatClient.prompt(any(Prompt.class))).thenReturn(streamRequestSpec);
@@ -476,4 +739,197 @@ class OpenAiServiceTest {
                 () -> openAiService.streamChat(request));
         assertEquals("Unsupported role: unsupported_role", exception.getMessage());
     }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void streamChat_shouldCancelGenerationAndToolCalls_whenClientDisconnects() {
+        // Arrange
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(List.of(ChatMessage.of("user", "Hello")));
+        request.setStream(true);
+
+        ChatClient.ChatClientRequestSpec streamRequestSpec = mock(ChatClient.ChatClientRequestSpec.class);
+        ChatClient.StreamResponseSpec streamResponseSpec = mock(ChatClient.StreamResponseSpec.class);
+        ArgumentCaptor<Map<String, Object>> toolContext = ArgumentCaptor.forClass(Map.class);
+        boolean[] upstreamCancelled = {false};
+
+        when(chatClient.prompt(any(Prompt.class))).thenReturn(streamRequestSpec);
+        when(streamRequestSpec.toolContext(toolContext.capture())).thenReturn(streamRequestSpec);
+        when(streamRequestSpec.stream()).thenReturn(streamResponseSpec);
+        when(streamResponseSpec.chatResponse())
+                .thenReturn(Flux.<ChatResponse>never().doOnCancel(() -> upstreamCancelled[0] = true));
+
+        // Act
+        openAiService.streamChat(request).subscribe().dispose();
+
+        // Assert
+        CancellationToken token = (CancellationToken) toolContext.getValue().get(CancellationToken.CONTEXT_KEY);
+        assertTrue(upstreamCancelled[0]);
+        assertTrue(token.isCancelled());
+        assertEquals(Cancellations.CLIENT_DISCONNECT, token.reason());
+    }
+
+    @Test
+    void processChat_shouldGenerateChoicesConcurrently_whenNGreaterThanOne() {
+        // Arrange
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(List.of(ChatMessage.of("user", "Name a color")));
+        request.setModel("test-model");
+        request.setN(3);
+        CountDownLatch allStarted = new CountDownLatch(3);
+        AtomicInteger calls = new AtomicInteger();
+        when(responseSpec.content()).thenAnswer(invocation -> {
+            int call = calls.getAndIncrement();
+            allStarted.countDown();
+            // Only returns when all three generations run at the same time
+            assertTrue(allStarted.await(5, TimeUnit.SECONDS));
+            return "color " + call;
+        });
+
+        // Act
+        ChatCompletionResponse response = openAiService.processChat(request);
+
+        // Assert
+        verify(chatClient, times(3)).prompt(any(Prompt.class));
+        assertEquals(3, response.getChoices().size());
+        for (int index = 0; index < 3; index++) {
+            assertEquals(index, response.getChoices().get(index).index());
+            assertTrue(response.getChoices().get(index).message().content().startsWith("color "));
+        }
+    }
+
+    @Test
+    void processChat_shouldRecordOneTurnInChatMemory_whenNGreaterThanOne() {
+        // Arrange
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        VectorStore vectorStore = mock(VectorStore.class);
+        HotChatMemory hotMemory = new HotChatMemory(10, 100, Duration.ofMinutes(5), meterRegistry);
+        TieredChatMemoryAdvisor memoryAdvisor = new TieredChatMemoryAdvisor(vectorStore, hotMemory,
+                new MemoryWriteBehind(vectorStore, false, 10, Duration.ofMillis(10), 10, Duration.ofSeconds(1),
+                        meterRegistry),
+                2, meterRegistry);
+        ChatModel chatModel = mock(ChatModel.class);
+        AtomicInteger calls = new AtomicInteger();
+        when(chatModel.call(any(Prompt.class))).thenAnswer(invocation -> new ChatResponse(
+                List.of(new Generation(new AssistantMessage("color " + calls.getAndIncrement())))));
+        ChatClient memoryClient = ChatClient.builder(chatModel).defaultAdvisors(memoryAdvisor).build();
+        OpenAiService service = new OpenAiService(memoryClient, messageConverter, responseBuilder, completionLimiter, chunkCoalescer, singleFlightGroup,
+                completionCache, cancellations, streamOpener, choiceFanOut);
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(List.of(ChatMessage.of("user", "Name a color")));
+        request.setModel("test-model");
+        request.setUser("alice");
+        request.setN(3);
+
+        // Act
+        ChatCompletionResponse response = service.processChat(request);
+
+        // Assert
+        assertEquals(3, response.getChoices().size());
+        verify(chatModel, times(3)).call(any(Prompt.class));
+        List<Message> remembered = hotMemory.get("alice").messages();
+        assertEquals(2, remembered.size());
+        assertEquals(MessageType.USER, remembered.get(0).getMessageType());
+        assertEquals("Name a color", remembered.get(0).getText());
+        assertEquals(MessageType.ASSISTANT, remembered.get(1).getMessageType());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void streamChat_shouldInterleaveChoicesWithTheirIndex_whenNGreaterThanOne() {
+        // Arrange
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(List.of(ChatMessage.of("user", "Hello")));
+        request.setModel("test-model");
+        request.setStream(true);
+        request.setN(2);
+
+        ChatClient.ChatClientRequestSpec streamRequestSpec = mock(ChatClient.ChatClientRequestSpec.class);
+        when(streamRequestSpec.toolContext(anyMap())).thenReturn(streamRequestSpec);
+        when(streamRequestSpec.advisors(any(Consumer.class))).thenReturn(streamRequestSpec);
+        ChatClient.StreamResponseSpec streamResponseSpec = mock(ChatClient.StreamResponseSpec.class);
+        when(chatClient.prompt(any(Prompt.class))).thenReturn(streamRequestSpec);
+        when(streamRequestSpec.stream()).thenReturn(streamResponseSpec);
+        when(streamResponseSpec.chatResponse())
+                .thenReturn(Flux.just(textResponse("slow")).delayElements(Duration.ofMillis(50)))
+                .thenReturn(Flux.just(textResponse("fast")));
+
+        // Act
+        List<ChatCompletionChunk> chunks = openAiService.streamChat(request).collectList().block();
+
+        // Assert
+        assertNotNull(chunks);
+        assertEquals(2, chunks.size());
+        assertEquals(1, chunks.get(0).getChoices().get(0).getIndex());
+        assertEquals("fast", chunks.get(0).getChoices().get(0).getDelta().content());
+        assertEquals(0, chunks.get(1).getChoices().get(0).getIndex());
+        assertEquals("slow", chunks.get(1).getChoices().get(0).getDelta().content());
+    }
+
+    @Test
+    void streamChat_shouldTruncateAtStopSequence_andCancelGeneration() {
+        // Arrange
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(List.of(ChatMessage.of("user", "Hello")));
+        request.setModel("test-model");
+        request.setStream(true);
+        request.setStop(List.of("\n\nUser:"));
+        boolean[] upstreamCancelled = {false};
+
+        ChatClient.ChatClientRequestSpec streamRequestSpec = mock(ChatClient.ChatClientRequestSpec.class);
+        when(streamRequestSpec.toolContext(anyMap())).thenReturn(streamRequestSpec);
+        ChatClient.StreamResponseSpec streamResponseSpec = mock(ChatClient.StreamResponseSpec.class);
+        when(chatClient.prompt(any(Prompt.class))).thenReturn(streamRequestSpec);
+        when(streamRequestSpec.stream()).thenReturn(streamResponseSpec);
+        when(streamResponseSpec.chatResponse()).thenReturn(Flux.concat(
+                Flux.just(textResponse("Hi there\n"), textResponse("\nUs"), textResponse("er: more")),
+                Flux.<ChatResponse>never())
+                .doOnCancel(() -> upstreamCancelled[0] = true));
+
+        // Act
+        List<ChatCompletionChunk> chunks = openAiService.streamChat(request).collectList().block();
+
+        // Assert
+        assertNotNull(chunks);
+        ChatCompletionChunk last = chunks.get(chunks.size() - 1);
+        assertEquals("stop", last.getChoices().get(0).getFinishReason());
+        assertEquals("Hi there", chunks.stream()
+                .map(chunk -> chunk.getChoices().get(0).getDelta().content())
+                .collect(Collectors.joining()));
+        assertTrue(upstreamCancelled[0]);
+    }
+
+    @Test
+    void processChat_shouldTruncateAtStopSequence() {
+        // Arrange
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(List.of(ChatMessage.of("user", "Hello")));
+        request.setStop(List.of("END"));
+        when(responseSpec.content()).thenReturn("Answer END trailing");
+
+        // Act
+        openAiService.processChat(request);
+
+        // Assert
+        verify(responseBuilder).buildResponse(request, List.of("Answer "));
+    }
+
+    @Test
+    void processChat_shouldRejectTooManyChoices() {
+        // Arrange
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(List.of(ChatMessage.of("user", "Hello")));
+        request.setN(5);
+
+        // Act & Assert
+        assertThrows(InvalidRequestException.class, () -> openAiService.processChat(request));
+        verify(chatClient, never()).prompt(any(Prompt.class));
+    }
+
+    private static ChatResponse textResponse(String text) {
+        return ChatResponse.builder()
+                .metadata(ChatResponseMetadata.builder().model("test-model").build())
+                .generations(List.of(new Generation(new AssistantMessage(text))))
+                .build();
+    }
 }
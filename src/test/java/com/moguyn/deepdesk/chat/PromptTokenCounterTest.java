@@ -0,0 +1,105 @@
+package com.moguyn.deepdesk.chat;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+import com.moguyn.deepdesk.openai.model.ChatCompletionRequest;
+import com.moguyn.deepdesk.openai.model.ChatMessage;
+
+@ExtendWith(MockitoExtension.class)
+class PromptTokenCounterTest {
+
+    @Mock
+    private TokenCountEstimator tokenCountEstimator;
+
+    @Test
+    void count_shouldSumCachedMessageCounts() {
+        // Arrange
+        when(tokenCountEstimator.estimate("Hello")).thenReturn(2);
+        when(tokenCountEstimator.estimate("Hi there")).thenReturn(3);
+        PromptTokenCounter counter = new PromptTokenCounter(tokenCountEstimator, 100);
+
+        ChatCompletionRequest firstTurn = request(ChatMessage.of("user", "Hello"));
+        ChatCompletionRequest secondTurn = request(
+                ChatMessage.of("user", "Hello"),
+                ChatMessage.of("assistant", "Hi there"),
+                ChatMessage.of("user", "Hello"));
+
+        // Act
+        int first = counter.count(firstTurn);
+        int second = counter.count(secondTurn);
+
+        // Assert
+        assertEquals(2, first);
+        assertEquals(7, second);
+        verify(tokenCountEstimator, times(1)).estimate("Hello");
+        verify(tokenCountEstimator, times(1)).estimate("Hi there");
+    }
+
+    @Test
+    void count_shouldAddDefaultSystemPrompt_whenNoSystemMessagePresent() {
+        // Arrange
+        when(tokenCountEstimator.estimate("system prompt")).thenReturn(10);
+        when(tokenCountEstimator.estimate("tool schema")).thenReturn(20);
+        when(tokenCountEstimator.estimate("Hello")).thenReturn(2);
+        PromptTokenCounter counter = new PromptTokenCounter(tokenCountEstimator, 100,
+                "system prompt", List.of("tool schema"));
+
+        // Act
+        int tokens = counter.count(request(ChatMessage.of("user", "Hello")));
+
+        // Assert
+        assertEquals(32, tokens);
+        assertEquals(30, counter.baselineTokens());
+    }
+
+    @Test
+    void count_shouldSkipDefaultSystemPrompt_whenSystemMessagePresent() {
+        // Arrange
+        when(tokenCountEstimator.estimate("system prompt")).thenReturn(10);
+        when(tokenCountEstimator.estimate("Be brief")).thenReturn(3);
+        when(tokenCountEstimator.estimate("Hello")).thenReturn(2);
+        PromptTokenCounter counter = new PromptTokenCounter(tokenCountEstimator, 100,
+                "system prompt", List.of());
+
+        // Act
+        int tokens = counter.count(request(
+                ChatMessage.of("system", "Be brief"),
+                ChatMessage.of("user", "Hello")));
+
+        // Assert
+        assertEquals(5, tokens);
+    }
+
+    @Test
+    void count_shouldIgnoreEmptyContent() {
+        // Arrange
+        PromptTokenCounter counter = new PromptTokenCounter(tokenCountEstimator, 100);
+
+        // Act & Assert
+        assertEquals(0, counter.count((String) null));
+        assertEquals(0, counter.count(""));
+    }
+
+    @Test
+    void contentHash_shouldDistinguishDifferentContent() {
+        assertEquals(PromptTokenCounter.contentHash("Hello"), PromptTokenCounter.contentHash("Hello"));
+        assertNotEquals(PromptTokenCounter.contentHash("Hello"), PromptTokenCounter.contentHash("hello"));
+    }
+
+    private static ChatCompletionRequest request(ChatMessage... messages) {
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(List.of(messages));
+        return request;
+    }
+}
@@ -0,0 +1,188 @@
+package com.moguyn.deepdesk.chat;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
+import com.moguyn.deepdesk.openai.model.ChatCompletionRequest;
+import com.moguyn.deepdesk.openai.model.ChatCompletionResponse;
+import com.moguyn.deepdesk.openai.model.ChatMessage;
+import com.moguyn.deepdesk.openai.model.OpenAiUsage;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+
+class RateLimiterTest {
+
+    private final AtomicLong clock = new AtomicLong(1_000_000_000L);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private TokenCountEstimator estimator;
+
+    @BeforeEach
+    void setUp() {
+        estimator = mock(TokenCountEstimator.class);
+        // One token per character keeps the arithmetic readable
+        when(estimator.estimate(anyString())).thenAnswer(invocation -> ((String) invocation.getArgument(0)).length());
+    }
+
+    @Test
+    void acquire_rejectsRequestsOverBudget_andRefillsOverTime() {
+        // Arrange
+        RateLimiter limiter = limiter(2, 0);
+        limiter.acquire(request("alice", "hi"));
+        limiter.acquire(request("alice", "hi"));
+
+        // Act
+        RateLimitExceededException e = assertThrows(RateLimitExceededException.class,
+                () -> limiter.acquire(request("alice", "hi")));
+
+        // Assert
+        assertEquals("requests", e.getLimitType());
+        assertEquals(Duration.ofMillis(500), e.getRetryAfter());
+        assertEquals("0", e.getHeaders().get("x-ratelimit-remaining-requests"));
+        assertEquals("1s", e.getHeaders().get("x-ratelimit-reset-requests"));
+        assertEquals(1.0, meterRegistry.get("deepdesk.ratelimit.rejected").tag("limit", "requests")
+                .counter().count());
+
+        clock.addAndGet(Duration.ofMillis(500).toNanos());
+        limiter.acquire(request("alice", "hi"));
+    }
+
+    @Test
+    void acquire_keepsSeparateBudgetsPerUser() {
+        // Arrange
+        RateLimiter limiter = limiter(1, 0);
+        limiter.acquire(request("alice", "hi"));
+
+        // Act
+        RateLimiter.Grant grant = limiter.acquire(request("bob", "hi"));
+
+        // Assert
+        assertEquals("1", grant.headers().get("x-ratelimit-limit-requests"));
+        assertThrows(RateLimitExceededException.class, () -> limiter.acquire(request("alice", "hi")));
+        limiter.acquire(request(null, "hi"));
+        assertThrows(RateLimitExceededException.class, () -> limiter.acquire(request(null, "hi")));
+    }
+
+    @Test
+    void acquire_chargesEstimatedPromptTokens() {
+        // Arrange
+        RateLimiter limiter = limiter(0, 100);
+
+        // Act
+        RateLimiter.Grant grant = limiter.acquire(request("alice", "0123456789"));
+
+        // Assert
+        assertEquals("90", grant.headers().get("x-ratelimit-remaining-tokens"));
+        assertEquals("6s", grant.headers().get("x-ratelimit-reset-tokens"));
+    }
+
+    @Test
+    void acquire_rejectsWhenTokenBudgetIsExhausted_andRefundsTheRequest() {
+        // Arrange
+        RateLimiter limiter = limiter(1, 100);
+        String prompt = "x".repeat(80);
+        limiter.acquire(request("alice", prompt)).reconcile(80);
+        clock.addAndGet(Duration.ofSeconds(1).toNanos());
+
+        // Act
+        RateLimitExceededException e = assertThrows(RateLimitExceededException.class,
+                () -> limiter.acquire(request("alice", prompt)));
+
+        // Assert
+        assertEquals("tokens", e.getLimitType());
+        assertEquals("1", e.getHeaders().get("x-ratelimit-remaining-requests"));
+    }
+
+    @Test
+    void reconcile_withEstimateAboveCapacity_chargesWhatWasNotChargedOnAdmission() {
+        // Arrange
+        RateLimiter limiter = limiter(0, 100);
+        RateLimiter.Grant grant = limiter.acquire(request("alice", "x".repeat(150)));
+        assertEquals("0", grant.headers().get("x-ratelimit-remaining-tokens"));
+
+        // Act
+        grant.reconcile(150);
+
+        // Assert: 150 tokens take 90s to refill, so 50 are back after a minute
+        clock.addAndGet(Duration.ofMinutes(1).toNanos());
+        assertEquals("50", limiter.acquire(request("alice", "")).headers().get("x-ratelimit-remaining-tokens"));
+    }
+
+    @Test
+    void complete_reconcilesWithReportedUsage() {
+        // Arrange
+        RateLimiter limiter = limiter(0, 100);
+        RateLimiter.Grant grant = limiter.acquire(request("alice", "0123456789"));
+        ChatCompletionResponse response = new ChatCompletionResponse();
+        response.setUsage(new OpenAiUsage(10, 40, 50));
+
+        // Act
+        grant.complete(response);
+        grant.complete(response);
+
+        // Assert
+        assertEquals("50", limiter.acquire(request("alice", "")).headers().get("x-ratelimit-remaining-tokens"));
+    }
+
+    @Test
+    void track_reconcilesWithCountedCompletionTokens_whenUsageIsNotReported() {
+        // Arrange
+        RateLimiter limiter = limiter(0, 100);
+        RateLimiter.Grant grant = limiter.acquire(request("alice", "0123456789"));
+        ChatCompletionChunk chunk = ChatCompletionChunk.builder()
+                .choices(List.of(ChatCompletionChunk.ChunkChoice.builder()
+                        .index(0)
+                        .delta(ChatMessage.of("assistant", "twenty characters!!!"))
+                        .build()))
+                .build();
+
+        // Act
+        grant.track(Flux.just(chunk)).blockLast();
+
+        // Assert
+        assertEquals("70", limiter.acquire(request("alice", "")).headers().get("x-ratelimit-remaining-tokens"));
+    }
+
+    @Test
+    void acquire_isPassThrough_whenDisabled() {
+        // Arrange
+        RateLimiter limiter = limiter(0, 0);
+
+        // Act
+        RateLimiter.Grant grant = limiter.acquire(request("alice", "hi"));
+
+        // Assert
+        assertTrue(grant.headers().isEmpty());
+    }
+
+    @Test
+    void formatReset_usesOpenAiDurationFormat() {
+        assertEquals("120ms", RateLimiter.formatReset(Duration.ofMillis(120).toNanos()));
+        assertEquals("1.5s", RateLimiter.formatReset(Duration.ofMillis(1500).toNanos()));
+        assertEquals("6m0s", RateLimiter.formatReset(Duration.ofMinutes(6).toNanos()));
+    }
+
+    private RateLimiter limiter(int requestsPerSecond, int tokensPerMinute) {
+        return new RateLimiter(requestsPerSecond, tokensPerMinute, new PromptTokenCounter(estimator, 100), estimator,
+                meterRegistry, clock::get);
+    }
+
+    private static ChatCompletionRequest request(String user, String content) {
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setUser(user);
+        request.setMessages(List.of(ChatMessage.of("user", content)));
+        return request;
+    }
+}
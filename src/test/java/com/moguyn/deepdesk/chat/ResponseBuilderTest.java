@@ -8,13 +8,19 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.tokenizer.TokenCountEstimator;
 
+import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
 import com.moguyn.deepdesk.openai.model.ChatCompletionRequest;
 import com.moguyn.deepdesk.openai.model.ChatCompletionResponse;
 import com.moguyn.deepdesk.openai.model.ChatMessage;
+import com.moguyn.deepdesk.openai.model.OpenAiUsage;
 
 @ExtendWith(MockitoExtension.class)
 public class ResponseBuilderTest {
@@ -26,7 +32,7 @@ public class ResponseBuilderTest {
 
     @BeforeEach
     public void setUp() {
-        responseBuilder = new ResponseBuilder(tokenCountEstimator);
+        responseBuilder = new ResponseBuilder(tokenCountEstimator, new PromptTokenCounter(tokenCountEstimator, 100));
     }
 
     @Test
@@ -90,4 +96,118 @@ public class ResponseBuilderTest {
         assertEquals(0, response.getUsage().completionTokens());
         assertEquals(2, response.getUsage().totalTokens());
     }
+
+    @Test
+    void shouldBuildOneChoicePerReply_andSumCompletionTokens() {
+        // Given
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setModel("gpt-4");
+        request.setMessages(List.of(ChatMessage.of("user", "Name a color")));
+        when(tokenCountEstimator.estimate("Name a color")).thenReturn(3);
+        when(tokenCountEstimator.estimate("Red")).thenReturn(1);
+        when(tokenCountEstimator.estimate("Deep blue")).thenReturn(2);
+
+        // When
+        ChatCompletionResponse response = responseBuilder.buildResponse(request, List.of("Red", "Deep blue"));
+
+        // Then
+        assertEquals(2, response.getChoices().size());
+        assertEquals(0, response.getChoices().get(0).index());
+        assertEquals("Red", response.getChoices().get(0).message().content());
+        assertEquals(1, response.getChoices().get(1).index());
+        assertEquals("Deep blue", response.getChoices().get(1).message().content());
+        assertEquals(new OpenAiUsage(3, 3, 6), response.getUsage());
+    }
+
+    @Test
+    void shouldSumStreamUsageAcrossChoices() {
+        // Given
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(List.of(ChatMessage.of("user", "Hello")));
+        StreamUsageCounter first = responseBuilder.usageCounter();
+        first.observe(new ChatResponse(List.of(),
+                ChatResponseMetadata.builder().usage(new DefaultUsage(7, 11)).build()));
+        StreamUsageCounter second = responseBuilder.usageCounter();
+        second.observe(new ChatResponse(List.of(),
+                ChatResponseMetadata.builder().usage(new DefaultUsage(7, 4)).build()));
+
+        // When
+        OpenAiUsage usage = responseBuilder.buildStreamUsage(request, List.of(first, second));
+
+        // Then
+        assertEquals(new OpenAiUsage(7, 15, 22), usage);
+    }
+
+    @Test
+    void shouldBuildStreamUsageFromCounter() {
+        // Given
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(List.of(ChatMessage.of("user", "Hello")));
+        when(tokenCountEstimator.estimate("Hello")).thenReturn(2);
+        when(tokenCountEstimator.estimate("Hi")).thenReturn(1);
+        when(tokenCountEstimator.estimate(" there")).thenReturn(2);
+
+        StreamUsageCounter counter = responseBuilder.usageCounter();
+        counter.accept("Hi there");
+
+        // When
+        OpenAiUsage usage = responseBuilder.buildStreamUsage(request, counter);
+
+        // Then
+        assertEquals(new OpenAiUsage(2, 3, 5), usage);
+    }
+
+    @Test
+    void shouldPreferProviderUsageForStreams() {
+        // Given
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(List.of(ChatMessage.of("user", "Hello")));
+
+        StreamUsageCounter counter = responseBuilder.usageCounter();
+        counter.observe(new ChatResponse(List.of(),
+                ChatResponseMetadata.builder().usage(new DefaultUsage(7, 11)).build()));
+
+        // When
+        OpenAiUsage usage = responseBuilder.buildStreamUsage(request, counter);
+
+        // Then
+        assertEquals(new OpenAiUsage(7, 11, 18), usage);
+        verifyNoInteractions(tokenCountEstimator);
+    }
+
+    @Test
+    void shouldBuildReplayChunks() {
+        // Given
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setModel("gpt-4");
+        request.setMessages(List.of(ChatMessage.of("user", "Hello")));
+        when(tokenCountEstimator.estimate("Hello")).thenReturn(2);
+        when(tokenCountEstimator.estimate("Hi there")).thenReturn(3);
+
+        // When
+        List<ChatCompletionChunk> chunks = responseBuilder.buildChunks(request, "Hi there", true);
+
+        // Then
+        assertEquals(3, chunks.size());
+        assertEquals("assistant", chunks.get(0).getChoices().get(0).getDelta().role());
+        assertEquals("Hi there", chunks.get(0).getChoices().get(0).getDelta().content());
+        assertEquals("stop", chunks.get(1).getChoices().get(0).getFinishReason());
+        assertEquals(new OpenAiUsage(2, 3, 5), chunks.get(2).getUsage());
+        assertEquals(chunks.get(0).getId(), chunks.get(2).getId());
+        assertEquals("gpt-4", chunks.get(2).getModel());
+    }
+
+    @Test
+    void shouldBuildReplayChunksWithoutUsage() {
+        // Given
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(List.of(ChatMessage.of("user", "Hello")));
+
+        // When
+        List<ChatCompletionChunk> chunks = responseBuilder.buildChunks(request, "Hi there", false);
+
+        // Then
+        assertEquals(2, chunks.size());
+        verifyNoInteractions(tokenCountEstimator);
+    }
 }
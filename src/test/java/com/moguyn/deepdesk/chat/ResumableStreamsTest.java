@@ -0,0 +1,212 @@
+package com.moguyn.deepdesk.chat;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.codec.ServerSentEvent;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+class ResumableStreamsTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final VirtualTimeScheduler timer = VirtualTimeScheduler.create();
+
+    @Test
+    void open_onlyWrapsData_whenDisabled() {
+        ResumableStreams streams = new ResumableStreams(Duration.ZERO, 1024, 4096, meterRegistry);
+
+        StepVerifier.create(streams.open(Flux.just("one"), null))
+                .assertNext(event -> {
+                    assertEquals("one", event.data());
+                    assertNull(event.id());
+                })
+                .verifyComplete();
+        assertFalse(streams.isEnabled());
+        assertNull(streams.resume("abc:1", null));
+    }
+
+    @Test
+    void open_numbersEventsWithinStream() {
+        ResumableStreams streams = streams(1024, 4096);
+
+        StepVerifier.create(streams.open(Flux.just("one", "two"), "alice").map(ServerSentEvent::id))
+                .assertNext(id -> assertTrue(id.endsWith(":1")))
+                .assertNext(id -> assertTrue(id.endsWith(":2")))
+                .verifyComplete();
+    }
+
+    @Test
+    void resume_continuesAfterLastEventId_whileGenerationKeepsRunning() {
+        ResumableStreams streams = streams(1024, 4096);
+        Sinks.Many<String> upstream = Sinks.many().unicast().onBackpressureBuffer();
+        AtomicInteger subscriptions = new AtomicInteger();
+        Flux<String> source = upstream.asFlux().doOnSubscribe(s -> subscriptions.incrementAndGet());
+        upstream.tryEmitNext("one");
+
+        ServerSentEvent<String> first = streams.open(source, "alice").blockFirst();
+        upstream.tryEmitNext("two");
+        upstream.tryEmitNext("three");
+        upstream.tryEmitComplete();
+
+        StepVerifier.create(streams.resume(first.id(), "alice").map(ServerSentEvent::data))
+                .expectNext("two", "three")
+                .verifyComplete();
+        assertEquals(1, subscriptions.get());
+        assertEquals(1.0, meterRegistry.get("deepdesk.stream.resumed").counter().count());
+    }
+
+    @Test
+    void resume_isRefused_forOtherUserOrUnknownStream() {
+        ResumableStreams streams = streams(1024, 4096);
+        ServerSentEvent<String> first = streams.open(Flux.just("one", "two"), "alice").blockFirst();
+
+        assertNull(streams.resume(first.id(), "mallory"));
+        assertNull(streams.resume("unknown:1", "alice"));
+        assertNull(streams.resume("malformed", "alice"));
+        assertNotNull(streams.resume(first.id(), "alice"));
+    }
+
+    @Test
+    void gracePeriod_cancelsGeneration_whenNoClientComesBack() {
+        ResumableStreams streams = streams(1024, 4096);
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Flux<String> source = Flux.concat(Flux.just("one"), Flux.<String>never())
+                .doOnCancel(() -> cancelled.set(true));
+
+        ServerSentEvent<String> first = streams.open(source, null).blockFirst();
+        timer.advanceTimeBy(Duration.ofSeconds(29));
+        assertFalse(cancelled.get());
+        timer.advanceTimeBy(Duration.ofSeconds(1));
+
+        assertTrue(cancelled.get());
+        assertNull(streams.resume(first.id(), null));
+        assertEquals(0, streams.bufferedBytes());
+        assertEquals(1.0, meterRegistry.get("deepdesk.stream.abandoned").counter().count());
+    }
+
+    @Test
+    void reconnect_withinGracePeriod_keepsGenerationRunning() {
+        ResumableStreams streams = streams(1024, 4096);
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Sinks.Many<String> upstream = Sinks.many().unicast().onBackpressureBuffer();
+        upstream.tryEmitNext("one");
+
+        ServerSentEvent<String> first = streams.open(upstream.asFlux().doOnCancel(() -> cancelled.set(true)), null)
+                .blockFirst();
+        timer.advanceTimeBy(Duration.ofSeconds(20));
+        StepVerifier.create(streams.resume(first.id(), null).map(ServerSentEvent::data))
+                .then(() -> timer.advanceTimeBy(Duration.ofMinutes(5)))
+                .then(() -> upstream.tryEmitNext("two"))
+                .expectNext("two")
+                .then(upstream::tryEmitComplete)
+                .verifyComplete();
+
+        assertFalse(cancelled.get());
+    }
+
+    @Test
+    void buffer_dropsOldestEvents_whenStreamCapIsHit() {
+        // each event of five characters accounts for ten bytes
+        ResumableStreams streams = streams(20, 4096);
+        Flux<ServerSentEvent<String>> events = streams.open(Flux.just("aaaaa", "bbbbb", "ccccc", "ddddd"), null);
+
+        String firstId = events.blockFirst().id();
+
+        assertNull(streams.resume(firstId, null));
+        assertEquals(20, streams.bufferedBytes());
+        String streamId = firstId.substring(0, firstId.indexOf(':'));
+        StepVerifier.create(streams.resume(streamId + ":2", null).map(ServerSentEvent::data))
+                .expectNext("ccccc", "ddddd")
+                .verifyComplete();
+    }
+
+    @Test
+    void buffer_staysWithinGlobalCap_acrossStreams() {
+        ResumableStreams streams = streams(1024, 30);
+
+        streams.open(Flux.just("aaaaa", "bbbbb"), null).blockLast();
+        streams.open(Flux.just("ccccc", "ddddd"), null).blockLast();
+
+        assertTrue(streams.bufferedBytes() <= 30);
+    }
+
+    @Test
+    void buffer_dropsOldestEventsOfAnyStream_whenGlobalCapIsHit() {
+        // each event of five characters accounts for ten bytes
+        ResumableStreams streams = streams(1024, 30);
+
+        String first = streams.open(Flux.just("aaaaa", "bbbbb"), null).blockLast().id();
+        String second = streams.open(Flux.just("ccccc", "ddddd"), null).blockLast().id();
+        String firstId = first.substring(0, first.indexOf(':'));
+        String secondId = second.substring(0, second.indexOf(':'));
+
+        assertEquals(30, streams.bufferedBytes());
+        assertNull(streams.resume(firstId + ":0", null));
+        StepVerifier.create(streams.resume(firstId + ":1", null).map(ServerSentEvent::data))
+                .expectNext("bbbbb")
+                .verifyComplete();
+        StepVerifier.create(streams.resume(secondId + ":0", null).map(ServerSentEvent::data))
+                .expectNext("ccccc", "ddddd")
+                .verifyComplete();
+    }
+
+    @Test
+    void attach_onlyHandsOutEventsClientRequested() {
+        ResumableStreams streams = streams(1024, 4096);
+
+        StepVerifier.create(streams.open(Flux.just("one", "two", "three"), null).map(ServerSentEvent::data), 1)
+                .expectNext("one")
+                .expectNoEvent(Duration.ofMillis(50))
+                .thenRequest(2)
+                .expectNext("two", "three")
+                .verifyComplete();
+    }
+
+    @Test
+    void attach_keepsFinishedStream_whileClientIsStillReading() {
+        ResumableStreams streams = streams(1024, 4096);
+
+        StepVerifier.create(streams.open(Flux.just("one", "two"), null).map(ServerSentEvent::data), 1)
+                .expectNext("one")
+                .then(() -> timer.advanceTimeBy(Duration.ofMinutes(5)))
+                .thenRequest(1)
+                .expectNext("two")
+                .verifyComplete();
+    }
+
+    @Test
+    void attach_failsSlowClient_whoseNextEventWasDropped() {
+        // each event of five characters accounts for ten bytes
+        ResumableStreams streams = streams(20, 4096);
+        Sinks.Many<String> upstream = Sinks.many().unicast().onBackpressureBuffer();
+        upstream.tryEmitNext("aaaaa");
+
+        StepVerifier.create(streams.open(upstream.asFlux(), null).map(ServerSentEvent::data), 1)
+                .expectNext("aaaaa")
+                .then(() -> {
+                    upstream.tryEmitNext("bbbbb");
+                    upstream.tryEmitNext("ccccc");
+                    upstream.tryEmitNext("ddddd");
+                })
+                .thenRequest(1)
+                .expectError(IllegalStateException.class)
+                .verify();
+        assertEquals(20, streams.bufferedBytes());
+    }
+
+    private ResumableStreams streams(long maxBytesPerStream, long maxTotalBytes) {
+        return new ResumableStreams(Duration.ofSeconds(30), maxBytesPerStream, maxTotalBytes, timer, meterRegistry);
+    }
+}
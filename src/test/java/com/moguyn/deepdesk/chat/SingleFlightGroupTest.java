@@ -0,0 +1,219 @@
+package com.moguyn.deepdesk.chat;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
+import com.moguyn.deepdesk.openai.model.ChatCompletionRequest;
+import com.moguyn.deepdesk.openai.model.ChatCompletionResponse;
+import com.moguyn.deepdesk.openai.model.ChatMessage;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+class SingleFlightGroupTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void call_shouldShareResultBetweenConcurrentIdenticalRequests() throws Exception {
+        // Arrange
+        SingleFlightGroup group = new SingleFlightGroup(true, meterRegistry);
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ChatCompletionResponse expected = new ChatCompletionResponse();
+
+        // Act
+        CompletableFuture<ChatCompletionResponse> leader = CompletableFuture.supplyAsync(
+                () -> group.call(request("Hello"), () -> {
+                    upstreamCalls.incrementAndGet();
+                    await(release);
+                    return expected;
+                }));
+        waitUntil(() -> group.inFlight() == 1);
+        CompletableFuture<ChatCompletionResponse> follower = CompletableFuture.supplyAsync(
+                () -> group.call(request("Hello"), () -> {
+                    upstreamCalls.incrementAndGet();
+                    return new ChatCompletionResponse();
+                }));
+        waitUntil(() -> collapsed("call") == 1);
+        release.countDown();
+
+        // Assert
+        assertSame(expected, leader.get(5, TimeUnit.SECONDS));
+        assertSame(expected, follower.get(5, TimeUnit.SECONDS));
+        assertEquals(1, upstreamCalls.get());
+        assertEquals(0, group.inFlight());
+    }
+
+    @Test
+    void call_shouldRunEachRequest_whenNotInFlightTogether() {
+        // Arrange
+        SingleFlightGroup group = new SingleFlightGroup(true, meterRegistry);
+        AtomicInteger upstreamCalls = new AtomicInteger();
+
+        // Act
+        group.call(request("Hello"), () -> {
+            upstreamCalls.incrementAndGet();
+            return new ChatCompletionResponse();
+        });
+        group.call(request("Hello"), () -> {
+            upstreamCalls.incrementAndGet();
+            return new ChatCompletionResponse();
+        });
+
+        // Assert
+        assertEquals(2, upstreamCalls.get());
+        assertEquals(0, collapsed("call"));
+    }
+
+    @Test
+    void call_shouldPropagateFailureAndForgetKey() {
+        // Arrange
+        SingleFlightGroup group = new SingleFlightGroup(true, meterRegistry);
+
+        // Act & Assert
+        assertThrows(IllegalStateException.class, () -> group.call(request("Hello"), () -> {
+            throw new IllegalStateException("boom");
+        }));
+        assertEquals(0, group.inFlight());
+    }
+
+    @Test
+    void mono_shouldShareResultBetweenSubscribers() {
+        // Arrange
+        SingleFlightGroup group = new SingleFlightGroup(true, meterRegistry);
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        Sinks.One<ChatCompletionResponse> upstream = Sinks.one();
+        ChatCompletionResponse expected = new ChatCompletionResponse();
+
+        // Act
+        CompletableFuture<ChatCompletionResponse> first = group.mono(request("Hello"),
+                () -> upstream.asMono().doOnSubscribe(s -> upstreamCalls.incrementAndGet())).toFuture();
+        CompletableFuture<ChatCompletionResponse> second = group.mono(request("Hello"),
+                () -> Mono.fromSupplier(ChatCompletionResponse::new)).toFuture();
+        upstream.tryEmitValue(expected);
+
+        // Assert
+        assertSame(expected, first.join());
+        assertSame(expected, second.join());
+        assertEquals(1, upstreamCalls.get());
+        assertEquals(1, collapsed("call"));
+        assertEquals(0, group.inFlight());
+    }
+
+    @Test
+    void stream_shouldReplayChunksToLateSubscriber() {
+        // Arrange
+        SingleFlightGroup group = new SingleFlightGroup(true, meterRegistry);
+        Sinks.Many<ChatCompletionChunk> upstream = Sinks.many().unicast().onBackpressureBuffer();
+        AtomicInteger upstreamCalls = new AtomicInteger();
+
+        // Act
+        Flux<ChatCompletionChunk> first = group.stream(request("Hello"), () -> {
+            upstreamCalls.incrementAndGet();
+            return upstream.asFlux();
+        });
+        CompletableFuture<List<ChatCompletionChunk>> firstChunks = first.collectList().toFuture();
+        upstream.tryEmitNext(chunk("Hel"));
+
+        Flux<ChatCompletionChunk> second = group.stream(request("Hello"), () -> {
+            upstreamCalls.incrementAndGet();
+            return Flux.empty();
+        });
+        CompletableFuture<List<ChatCompletionChunk>> secondChunks = second.collectList().toFuture();
+        upstream.tryEmitNext(chunk("lo"));
+        upstream.tryEmitComplete();
+
+        // Assert
+        assertEquals(2, firstChunks.join().size());
+        assertEquals(firstChunks.join(), secondChunks.join());
+        assertEquals(1, upstreamCalls.get());
+        assertEquals(1, collapsed("stream"));
+        assertEquals(0, group.inFlight());
+    }
+
+    @Test
+    void disabled_shouldAlwaysRunCompletion() {
+        // Arrange
+        SingleFlightGroup group = new SingleFlightGroup(false, meterRegistry);
+        AtomicInteger upstreamCalls = new AtomicInteger();
+
+        // Act
+        group.stream(request("Hello"), () -> {
+            upstreamCalls.incrementAndGet();
+            return Flux.never();
+        });
+        group.stream(request("Hello"), () -> {
+            upstreamCalls.incrementAndGet();
+            return Flux.never();
+        });
+
+        // Assert
+        assertEquals(2, upstreamCalls.get());
+        assertEquals(0, group.inFlight());
+    }
+
+    @Test
+    void key_shouldDependOnSamplingParameters() {
+        // Arrange
+        ChatCompletionRequest first = request("Hello");
+        ChatCompletionRequest second = request("Hello");
+        ChatCompletionRequest warmer = request("Hello");
+        warmer.setTemperature(0.9);
+
+        // Act & Assert
+        assertEquals(SingleFlightGroup.key(first), SingleFlightGroup.key(second));
+        assertNotEquals(SingleFlightGroup.key(first), SingleFlightGroup.key(warmer));
+        assertNotEquals(SingleFlightGroup.key(first), SingleFlightGroup.key(request("Hi")));
+    }
+
+    private double collapsed(String mode) {
+        return meterRegistry.get("deepdesk.singleflight.collapsed").tag("mode", mode).counter().count();
+    }
+
+    private static ChatCompletionRequest request(String content) {
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setModel("deepdesk");
+        request.setUser("alice");
+        request.setMessages(List.of(ChatMessage.of("user", content)));
+        return request;
+    }
+
+    private static ChatCompletionChunk chunk(String content) {
+        return ChatCompletionChunk.builder()
+                .choices(List.of(ChatCompletionChunk.ChunkChoice.builder()
+                        .index(0)
+                        .delta(ChatMessage.of("", content))
+                        .build()))
+                .build();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.moguyn.deepdesk.chat;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import org.junit.jupiter.api.Test;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+class SseKeepAliveTest {
+
+    @Test
+    void apply_sendsCommentOnlyAfterSilentInterval() {
+        StepVerifier.withVirtualTime(() -> {
+            Sinks.Many<String> data = Sinks.many().unicast().onBackpressureBuffer();
+            SseKeepAlive keepAlive = new SseKeepAlive(Duration.ofSeconds(10), VirtualTimeScheduler.get());
+            return keepAlive.apply(data.asFlux().mergeWith(Flux.just("{\"a\":1}")
+                    .delaySubscription(Duration.ofSeconds(25), VirtualTimeScheduler.get())))
+                    .take(3);
+        })
+                .thenAwait(Duration.ofSeconds(10))
+                .assertNext(event -> assertEquals(SseKeepAlive.COMMENT, event.comment()))
+                .thenAwait(Duration.ofSeconds(10))
+                .assertNext(event -> assertEquals(SseKeepAlive.COMMENT, event.comment()))
+                .thenAwait(Duration.ofSeconds(5))
+                .assertNext(event -> {
+                    assertEquals("{\"a\":1}", event.data());
+                    assertNull(event.comment());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void apply_completesWithData() {
+        // Arrange
+        SseKeepAlive keepAlive = new SseKeepAlive(Duration.ofSeconds(10));
+
+        // Act & Assert
+        StepVerifier.create(keepAlive.apply(Flux.just("one", "two")))
+                .assertNext(event -> assertEquals("one", event.data()))
+                .assertNext(event -> assertEquals("two", event.data()))
+                .expectComplete()
+                .verify(Duration.ofSeconds(1));
+    }
+
+    @Test
+    void apply_onlyWrapsData_whenDisabled() {
+        // Arrange
+        SseKeepAlive keepAlive = new SseKeepAlive(Duration.ZERO);
+
+        // Act & Assert
+        StepVerifier.create(keepAlive.apply(Flux.just("one")))
+                .assertNext(event -> assertEquals("one", event.data()))
+                .verifyComplete();
+    }
+}
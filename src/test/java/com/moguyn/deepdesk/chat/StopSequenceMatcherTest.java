@@ -0,0 +1,147 @@
+package com.moguyn.deepdesk.chat;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
+import com.moguyn.deepdesk.openai.model.ChatMessage;
+
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+class StopSequenceMatcherTest {
+
+    @Test
+    void shouldPassThrough_whenNoStopSequences() {
+        StopSequenceMatcher matcher = StopSequenceMatcher.compile(Arrays.asList(null, ""));
+        Flux<ChatCompletionChunk> chunks = Flux.just(content("a"));
+
+        assertFalse(matcher.isEnabled());
+        assertSame(chunks, matcher.apply(chunks));
+        assertFalse(StopSequenceMatcher.compile(null).isEnabled());
+    }
+
+    @Test
+    void truncate_shouldCutBeforeEarliestEndingSequence() {
+        StopSequenceMatcher matcher = StopSequenceMatcher.compile(List.of("abcd", "bc", "\n\n"));
+
+        assertEquals("xa", matcher.truncate("xabcdy"));
+        assertEquals("hello", matcher.truncate("hello\n\nworld"));
+        assertEquals("no match", matcher.truncate("no match"));
+    }
+
+    @Test
+    void truncate_shouldFindSequenceAfterPartialMatch() {
+        StopSequenceMatcher matcher = StopSequenceMatcher.compile(List.of("aab"));
+
+        assertEquals("a", matcher.truncate("aaab"));
+    }
+
+    @Test
+    void shouldStopOnSequenceSpanningSeveralDeltas_andCancelUpstream() {
+        StopSequenceMatcher matcher = StopSequenceMatcher.compile(List.of("END"));
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Flux<ChatCompletionChunk> upstream = Flux.concat(
+                Flux.just(content("Hello E"), content("N"), content("D and more")),
+                Flux.<ChatCompletionChunk>never())
+                .doOnCancel(() -> cancelled.set(true));
+
+        StepVerifier.create(matcher.apply(upstream))
+                .assertNext(chunk -> assertEquals("Hello ", text(chunk)))
+                .assertNext(chunk -> {
+                    assertEquals("", text(chunk));
+                    assertEquals("stop", chunk.getChoices().get(0).getFinishReason());
+                })
+                .verifyComplete();
+        assertTrue(cancelled.get());
+    }
+
+    @Test
+    void shouldReleaseHeldBackText_whenPartialMatchBreaks() {
+        StopSequenceMatcher matcher = StopSequenceMatcher.compile(List.of("###"));
+
+        StepVerifier.create(matcher.apply(Flux.just(content("a#"), content("#"), content("b"), finish())))
+                .assertNext(chunk -> assertEquals("a", text(chunk)))
+                .assertNext(chunk -> assertEquals("##b", text(chunk)))
+                .assertNext(chunk -> assertEquals("stop", chunk.getChoices().get(0).getFinishReason()))
+                .verifyComplete();
+    }
+
+    @Test
+    void shouldEmitHeldBackText_withFinishChunk() {
+        StopSequenceMatcher matcher = StopSequenceMatcher.compile(List.of("Observation:"));
+
+        List<ChatCompletionChunk> chunks = matcher.apply(Flux.just(content("Thought: done. Obs"), finish()))
+                .collectList()
+                .block();
+
+        assertEquals("Thought: done. Obs", chunks.stream()
+                .map(StopSequenceMatcherTest::text)
+                .filter(text -> text != null)
+                .collect(Collectors.joining()));
+        assertEquals("stop", chunks.get(chunks.size() - 1).getChoices().get(0).getFinishReason());
+    }
+
+    @Test
+    void shouldFlushHeldBackText_whenUpstreamCompletesWithoutFinishReason() {
+        StopSequenceMatcher matcher = StopSequenceMatcher.compile(List.of("</answer>"));
+
+        StepVerifier.create(matcher.apply(Flux.just(content("42</"))))
+                .assertNext(chunk -> assertEquals("42", text(chunk)))
+                .assertNext(chunk -> {
+                    assertEquals("</", text(chunk));
+                    assertNull(chunk.getChoices().get(0).getFinishReason());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void shouldKeepChoiceIndexAndEnvelope_onMatch() {
+        StopSequenceMatcher matcher = StopSequenceMatcher.compile(List.of("STOP"));
+        ChatCompletionChunk chunk = content("one STOP two");
+        chunk.getChoices().get(0).setIndex(2);
+
+        ChatCompletionChunk stopped = matcher.apply(Flux.just(chunk)).blockFirst();
+
+        assertEquals("id-1", stopped.getId());
+        assertEquals("test-model", stopped.getModel());
+        assertEquals(2, stopped.getChoices().get(0).getIndex());
+        assertEquals("one ", text(stopped));
+        assertEquals("stop", stopped.getChoices().get(0).getFinishReason());
+    }
+
+    private static ChatCompletionChunk content(String text) {
+        return ChatCompletionChunk.builder()
+                .id("id-1")
+                .object("chat.completion.chunk")
+                .model("test-model")
+                .choices(List.of(ChatCompletionChunk.ChunkChoice.builder()
+                        .index(0)
+                        .delta(ChatMessage.of("", text))
+                        .build()))
+                .build();
+    }
+
+    private static ChatCompletionChunk finish() {
+        return ChatCompletionChunk.builder()
+                .choices(List.of(ChatCompletionChunk.ChunkChoice.builder()
+                        .index(0)
+                        .delta(ChatMessage.of("", null))
+                        .finishReason("stop")
+                        .build()))
+                .build();
+    }
+
+    private static String text(ChatCompletionChunk chunk) {
+        return chunk.getChoices().get(0).getDelta().content();
+    }
+}
@@ -0,0 +1,92 @@
+package com.moguyn.deepdesk.chat;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
+import com.moguyn.deepdesk.openai.model.ChatMessage;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+class StreamOpenerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void open_emitsRoleChunkBeforeUpstreamProducesAnything() {
+        // Arrange
+        StreamOpener opener = new StreamOpener(true, meterRegistry);
+
+        // Act & Assert
+        StepVerifier.create(opener.open(Flux.never(), "chunk-1", 42L, "deepdesk", "fp_1"))
+                .assertNext(chunk -> {
+                    assertEquals("chunk-1", chunk.getId());
+                    assertEquals(42L, chunk.getCreated());
+                    assertEquals("fp_1", chunk.getSystemFingerprint());
+                    assertEquals("assistant", chunk.getChoices().get(0).getDelta().role());
+                    assertEquals("", chunk.getChoices().get(0).getDelta().content());
+                })
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    void open_emitsRoleForEveryChoice() {
+        // Arrange
+        StreamOpener opener = new StreamOpener(true, meterRegistry);
+
+        // Act & Assert
+        StepVerifier.create(opener.open(Flux.never(), "chunk-1", 42L, "deepdesk", "fp_1", 3))
+                .assertNext(chunk -> {
+                    assertEquals(3, chunk.getChoices().size());
+                    for (int index = 0; index < 3; index++) {
+                        assertEquals(index, chunk.getChoices().get(index).getIndex());
+                        assertEquals("assistant", chunk.getChoices().get(index).getDelta().role());
+                    }
+                })
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    void open_passesThrough_whenDisabled() {
+        // Arrange
+        StreamOpener opener = new StreamOpener(false, meterRegistry);
+        ChatCompletionChunk content = chunk("Hi");
+
+        // Act & Assert
+        StepVerifier.create(opener.open(Flux.just(content), "chunk-1", 42L, "deepdesk", "fp_1"))
+                .expectNext(content)
+                .verifyComplete();
+    }
+
+    @Test
+    void time_recordsFirstByteAndFirstTokenSeparately() {
+        // Arrange
+        StreamOpener opener = new StreamOpener(true, meterRegistry);
+        Flux<ChatCompletionChunk> stream = opener.open(Flux.just(chunk(""), chunk("Hi"), chunk(" there")),
+                "chunk-1", 42L, "deepdesk", "fp_1");
+
+        // Act
+        opener.time(stream).blockLast();
+        opener.time(stream).blockLast();
+
+        // Assert
+        assertEquals(2, meterRegistry.get("deepdesk.stream.ttfb").timer().count());
+        assertEquals(2, meterRegistry.get("deepdesk.stream.ttft").timer().count());
+    }
+
+    private static ChatCompletionChunk chunk(String content) {
+        return ChatCompletionChunk.builder()
+                .id("chunk-1")
+                .choices(List.of(ChatCompletionChunk.ChunkChoice.builder()
+                        .index(0)
+                        .delta(ChatMessage.of("", content))
+                        .build()))
+                .build();
+    }
+}
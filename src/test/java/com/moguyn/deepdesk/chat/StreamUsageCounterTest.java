@@ -0,0 +1,96 @@
+package com.moguyn.deepdesk.chat;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import org.junit.jupiter.api.Test;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+class StreamUsageCounterTest {
+
+    private final TokenCountEstimator estimator = new JTokkitTokenCountEstimator();
+
+    @Test
+    void completionTokens_shouldMatchFullTextTokenization() {
+        // Arrange
+        StreamUsageCounter counter = new StreamUsageCounter(estimator);
+        String[] deltas = {"The qu", "ick brown", " fox ", "jumps over", " the lazy", " dog."};
+
+        // Act
+        for (String delta : deltas) {
+            counter.accept(delta);
+        }
+
+        // Assert
+        assertEquals(estimator.estimate(String.join("", deltas)), counter.completionTokens());
+    }
+
+    @Test
+    void accept_shouldHoldBackTextAfterLastWordBoundary() {
+        // Arrange
+        TokenCountEstimator mockEstimator = mock(TokenCountEstimator.class);
+        StreamUsageCounter counter = new StreamUsageCounter(mockEstimator);
+
+        // Act
+        counter.accept("Hel");
+        counter.accept("lo");
+
+        // Assert
+        verify(mockEstimator, never()).estimate(anyString());
+    }
+
+    @Test
+    void accept_shouldFlushLongRunsWithoutWhitespace() {
+        // Arrange
+        TokenCountEstimator mockEstimator = mock(TokenCountEstimator.class);
+        StreamUsageCounter counter = new StreamUsageCounter(mockEstimator);
+        String run = "字".repeat(StreamUsageCounter.MAX_PENDING_CHARS + 1);
+
+        // Act
+        counter.accept(run);
+
+        // Assert
+        verify(mockEstimator).estimate(run);
+    }
+
+    @Test
+    void observe_shouldCountGeneratedText() {
+        // Arrange
+        StreamUsageCounter counter = new StreamUsageCounter(estimator);
+
+        // Act
+        counter.observe(new ChatResponse(List.of(new Generation(new AssistantMessage("Hello world")))));
+
+        // Assert
+        assertNull(counter.reportedUsage());
+        assertEquals(estimator.estimate("Hello world"), counter.completionTokens());
+    }
+
+    @Test
+    void observe_shouldKeepProviderUsage() {
+        // Arrange
+        StreamUsageCounter counter = new StreamUsageCounter(estimator);
+        Usage usage = new DefaultUsage(12, 34);
+        ChatResponse response = new ChatResponse(List.of(),
+                ChatResponseMetadata.builder().usage(usage).build());
+
+        // Act
+        counter.observe(response);
+
+        // Assert
+        assertSame(usage, counter.reportedUsage());
+    }
+}
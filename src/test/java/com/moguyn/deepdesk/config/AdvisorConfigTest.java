@@ -20,6 +20,7 @@ import com.moguyn.deepdesk.advisor.AdvisorService;
 import com.moguyn.deepdesk.config.CoreSettings.LLM;
 import com.moguyn.deepdesk.config.CoreSettings.Prompt;
 import com.moguyn.deepdesk.config.CoreSettings.UI;
+import static com.moguyn.deepdesk.config.CoreSettingsBuilder.coreSettings;
 
 /**
  * Tests for the advisor configuration in ApplicationConfig. These tests
@@ -44,14 +45,11 @@ public class AdvisorConfigTest {
         when(chatClientBuilder.build()).thenReturn(chatClient);
 
         // Setup CoreSettings with all advisors enabled
-        CoreSettings coreSettings = new CoreSettings(
-                List.of(),
-                new UI(""),
-                new LLM(new Prompt(""),
-                        1000,
-                        1000
-                ),
-                new CoreSettings.Advisors(true));
+        CoreSettings coreSettings = coreSettings()
+                .ui(new UI(""))
+                .llm(new LLM(new Prompt(""), 1000, 1000, 10000))
+                .advisors(new CoreSettings.Advisors(true, null, null, null))
+                .build();
 
         // Mock the advisor
         Advisor mockAdvisor = mock(Advisor.class);
@@ -83,14 +81,11 @@ public class AdvisorConfigTest {
         when(chatClientBuilder.build()).thenReturn(chatClient);
 
         // Setup CoreSettings with some advisors disabled
-        CoreSettings coreSettings = new CoreSettings(
-                List.of(),
-                new UI(""),
-                new LLM(new Prompt(""),
-                        1000,
-                        1000
-                ),
-                new CoreSettings.Advisors(false));
+        CoreSettings coreSettings = coreSettings()
+                .ui(new UI(""))
+                .llm(new LLM(new Prompt(""), 1000, 1000, 10000))
+                .advisors(new CoreSettings.Advisors(false, null, null, null))
+                .build();
 
         // Mock the advisor service to return an empty list
         when(advisorService.getEnabledAdvisors(any(CoreSettings.class))).thenReturn(List.of());
@@ -20,6 +20,7 @@ import com.moguyn.deepdesk.advisor.AdvisorService;
 import com.moguyn.deepdesk.config.CoreSettings.LLM;
 import com.moguyn.deepdesk.config.CoreSettings.Prompt;
 import com.moguyn.deepdesk.config.CoreSettings.UI;
+import static com.moguyn.deepdesk.config.CoreSettingsBuilder.coreSettings;
 
 /**
  * Tests for the ChatClient creation in ApplicationConfig, using a mocked
@@ -44,12 +45,11 @@ class ApplicationConfigChatClientTest {
         when(chatClientBuilder.build()).thenReturn(chatClient);
 
         // Core settings
-        CoreSettings coreSettings = new CoreSettings(
-                List.of(),
-                new UI(""),
-                new LLM(new Prompt(""), 1000, 1000),
-                new CoreSettings.Advisors(true)
-        );
+        CoreSettings coreSettings = coreSettings()
+                .ui(new UI(""))
+                .llm(new LLM(new Prompt(""), 1000, 1000, 10000))
+                .advisors(new CoreSettings.Advisors(true, null, null, null))
+                .build();
 
         // Mock advisor
         Advisor mockAdvisor = mock(Advisor.class);
@@ -82,12 +82,11 @@ class ApplicationConfigChatClientTest {
         when(chatClientBuilder.build()).thenReturn(chatClient);
 
         // Core settings
-        CoreSettings coreSettings = new CoreSettings(
-                List.of(),
-                new UI(""),
-                new LLM(new Prompt(""), 1000, 1000),
-                new CoreSettings.Advisors(false)
-        );
+        CoreSettings coreSettings = coreSettings()
+                .ui(new UI(""))
+                .llm(new LLM(new Prompt(""), 1000, 1000, 10000))
+                .advisors(new CoreSettings.Advisors(false, null, null, null))
+                .build();
 
         // Mock empty advisors list
         when(advisorService.getEnabledAdvisors(any(CoreSettings.class))).thenReturn(List.of());
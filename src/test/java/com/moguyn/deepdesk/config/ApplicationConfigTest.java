@@ -1,31 +1,33 @@
 package com.moguyn.deepdesk.config;
 
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
-import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
-import org.mockito.MockedStatic;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.mockStatic;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor;
-import org.springframework.ai.chroma.vectorstore.ChromaApi;
-import org.springframework.ai.chroma.vectorstore.ChromaVectorStore;
-import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.mcp.customizer.McpSyncClientCustomizer;
 import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.ToolCallbackProvider;
 import org.springframework.ai.tool.execution.ToolExecutionExceptionProcessor;
 import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.context.ConfigurableApplicationContext;
 
+import com.moguyn.deepdesk.advisor.TieredChatMemoryAdvisor;
 import com.moguyn.deepdesk.chat.ChatRunner;
 import com.moguyn.deepdesk.chat.CommandlineChatRunner;
+import com.moguyn.deepdesk.chat.PromptTokenCounter;
+import static com.moguyn.deepdesk.config.CoreSettingsBuilder.coreSettings;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 @ExtendWith(MockitoExtension.class)
 class ApplicationConfigTest {
@@ -39,12 +41,6 @@ class ApplicationConfigTest {
     @Mock
     private VectorStore vectorStore;
 
-    @Mock
-    private EmbeddingModel embeddingModel;
-
-    @Mock
-    private ChromaApi chromaApi;
-
     @Test
     void testChatRunnerCreation() {
         // Arrange
@@ -96,6 +92,22 @@ class ApplicationConfigTest {
         assertTrue(estimator.getClass().getSimpleName().contains("JTokkit"));
     }
 
+    @Test
+    void testPromptTokenCounter() {
+        // Arrange
+        ApplicationConfig config = new ApplicationConfig();
+        TokenCountEstimator estimator = config.tokenCountEstimator();
+        ToolCallbackProvider toolCallbackProvider = mock(ToolCallbackProvider.class);
+        when(toolCallbackProvider.getToolCallbacks()).thenReturn(new ToolCallback[0]);
+
+        // Act
+        CoreSettings settings = coreSettings().llm(new CoreSettings.LLM(null, 0, 10, 100)).build();
+        PromptTokenCounter counter = config.promptTokenCounter(estimator, toolCallbackProvider, "", settings);
+
+        // Assert - the local date/time and file path tools are always counted
+        assertTrue(counter.baselineTokens() > 0);
+    }
+
     @Test
     void testToolExecutionExceptionProcessor() {
         // Arrange
@@ -125,46 +137,14 @@ class ApplicationConfigTest {
     void testChatMemoryAdvisor() {
         // Arrange
         ApplicationConfig config = new ApplicationConfig();
+        CoreSettings settings = coreSettings().build();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
 
         // Act
-        AbstractChatMemoryAdvisor<VectorStore> advisor = config.chatMemoryAdvisor(vectorStore, 5);
+        AbstractChatMemoryAdvisor<VectorStore> advisor = config.chatMemoryAdvisor(vectorStore, 5,
+                config.memoryWriteBehind(vectorStore, settings, meterRegistry), settings, meterRegistry);
 
         // Assert
-        assertNotNull(advisor);
-    }
-
-    @Test
-    void testChromaVectorStore() {
-        // Arrange
-        ApplicationConfig config = new ApplicationConfig();
-        String collectionName = "testCollection";
-        boolean initializeSchema = true;
-
-        // Prepare builder mock to test the ChromaVectorStore setup
-        ChromaVectorStore.Builder builderMock = mock(ChromaVectorStore.Builder.class);
-        ChromaVectorStore vectorStoreMock = mock(ChromaVectorStore.class);
-
-        // Create a mock for the static builder method using Mockito
-        try (MockedStatic<ChromaVectorStore> mockedStatic = mockStatic(ChromaVectorStore.class)) {
-            mockedStatic.when(() -> ChromaVectorStore.builder(chromaApi, embeddingModel))
-                    .thenReturn(builderMock);
-
-            when(builderMock.collectionName(collectionName)).thenReturn(builderMock);
-            when(builderMock.initializeSchema(initializeSchema)).thenReturn(builderMock);
-            when(builderMock.build()).thenReturn(vectorStoreMock);
-
-            // Act
-            VectorStore result = config.chromaVectorStore(embeddingModel, chromaApi, collectionName, initializeSchema);
-
-            // Assert
-            assertNotNull(result);
-            assertSame(vectorStoreMock, result);
-
-            // Verify all builder methods were called with correct parameters
-            mockedStatic.verify(() -> ChromaVectorStore.builder(chromaApi, embeddingModel));
-            verify(builderMock).collectionName(collectionName);
-            verify(builderMock).initializeSchema(initializeSchema);
-            verify(builderMock).build();
-        }
+        assertInstanceOf(TieredChatMemoryAdvisor.class, advisor);
     }
 }
@@ -0,0 +1,93 @@
+package com.moguyn.deepdesk.config;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.moguyn.deepdesk.advisor.TieredChatMemoryAdvisor;
+import com.moguyn.deepdesk.embedding.CachingEmbeddingModel;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Tests for the cache configuration, in an application context with the
+ * embedded vector store
+ */
+class CacheConfigTest {
+
+    @TempDir
+    Path directory;
+
+    private final EmbeddingModel upstream = mock(EmbeddingModel.class);
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withUserConfiguration(CacheConfig.class, VectorStoreConfig.class, Dependencies.class)
+            .withBean("openAiEmbeddingModel", EmbeddingModel.class, () -> upstream)
+            .withPropertyValues(
+                    "core.embedding-cache.enabled=true",
+                    "core.embedding-cache.model=text-embedding-3-small",
+                    "core.embedding-cache.max-heap-bytes=1048576",
+                    "spring.ai.vectorstore.type=hnsw");
+
+    @Test
+    void vectorStore_embedsThroughTheEmbeddingCache() {
+        // Arrange
+        when(upstream.call(any(EmbeddingRequest.class))).thenAnswer(invocation -> {
+            EmbeddingRequest request = invocation.getArgument(0);
+            return new EmbeddingResponse(IntStream.range(0, request.getInstructions().size())
+                    .mapToObj(i -> new Embedding(new float[]{1, 0, 0}, i))
+                    .toList());
+        });
+
+        contextRunner
+                .withPropertyValues("core.vector-store.directory=" + directory)
+                .run(context -> {
+                    // Act: chat memory writes a turn, then recalls it
+                    VectorStore vectorStore = context.getBean(VectorStore.class);
+                    vectorStore.add(List.of(new Document("how do I wax a car")));
+                    List<Document> found = vectorStore.similaritySearch(
+                            SearchRequest.builder().query("how do I wax a car").topK(1).build());
+
+                    // Assert
+                    assertThat(context.getBean(EmbeddingModel.class)).isInstanceOf(CachingEmbeddingModel.class);
+                    assertThat(found).hasSize(1);
+                    verify(upstream, times(1)).call(any(EmbeddingRequest.class));
+                });
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @EnableConfigurationProperties(CoreSettings.class)
+    static class Dependencies {
+
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+
+        @Bean
+        TieredChatMemoryAdvisor chatMemoryAdvisor() {
+            return mock(TieredChatMemoryAdvisor.class);
+        }
+    }
+}
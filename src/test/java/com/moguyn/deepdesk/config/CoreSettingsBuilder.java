@@ -0,0 +1,113 @@
+package com.moguyn.deepdesk.config;
+
+import java.util.List;
+
+/**
+ * Builds CoreSettings for tests, leaving every section that is not set null
+ * as when it is missing from application.yaml
+ */
+public final class CoreSettingsBuilder {
+
+    private List<CoreSettings.CapabilitySettings> capabilities = List.of();
+    private CoreSettings.UI ui;
+    private CoreSettings.LLM llm;
+    private CoreSettings.Advisors advisors;
+    private CoreSettings.Execution execution;
+    private CoreSettings.Streaming streaming;
+    private CoreSettings.SingleFlight singleFlight;
+    private CoreSettings.ResponseCache responseCache;
+    private CoreSettings.Admission admission;
+    private CoreSettings.RateLimit rateLimit;
+    private CoreSettings.Http2 http2;
+    private CoreSettings.Batch batch;
+    private CoreSettings.Jobs jobs;
+    private CoreSettings.EmbeddingCache embeddingCache;
+    private CoreSettings.VectorStore vectorStore;
+
+    private CoreSettingsBuilder() {
+    }
+
+    public static CoreSettingsBuilder coreSettings() {
+        return new CoreSettingsBuilder();
+    }
+
+    public CoreSettingsBuilder capabilities(List<CoreSettings.CapabilitySettings> capabilities) {
+        this.capabilities = capabilities;
+        return this;
+    }
+
+    public CoreSettingsBuilder ui(CoreSettings.UI ui) {
+        this.ui = ui;
+        return this;
+    }
+
+    public CoreSettingsBuilder llm(CoreSettings.LLM llm) {
+        this.llm = llm;
+        return this;
+    }
+
+    public CoreSettingsBuilder advisors(CoreSettings.Advisors advisors) {
+        this.advisors = advisors;
+        return this;
+    }
+
+    public CoreSettingsBuilder execution(CoreSettings.Execution execution) {
+        this.execution = execution;
+        return this;
+    }
+
+    public CoreSettingsBuilder streaming(CoreSettings.Streaming streaming) {
+        this.streaming = streaming;
+        return this;
+    }
+
+    public CoreSettingsBuilder singleFlight(CoreSettings.SingleFlight singleFlight) {
+        this.singleFlight = singleFlight;
+        return this;
+    }
+
+    public CoreSettingsBuilder responseCache(CoreSettings.ResponseCache responseCache) {
+        this.responseCache = responseCache;
+        return this;
+    }
+
+    public CoreSettingsBuilder admission(CoreSettings.Admission admission) {
+        this.admission = admission;
+        return this;
+    }
+
+    public CoreSettingsBuilder rateLimit(CoreSettings.RateLimit rateLimit) {
+        this.rateLimit = rateLimit;
+        return this;
+    }
+
+    public CoreSettingsBuilder http2(CoreSettings.Http2 http2) {
+        this.http2 = http2;
+        return this;
+    }
+
+    public CoreSettingsBuilder batch(CoreSettings.Batch batch) {
+        this.batch = batch;
+        return this;
+    }
+
+    public CoreSettingsBuilder jobs(CoreSettings.Jobs jobs) {
+        this.jobs = jobs;
+        return this;
+    }
+
+    public CoreSettingsBuilder embeddingCache(CoreSettings.EmbeddingCache embeddingCache) {
+        this.embeddingCache = embeddingCache;
+        return this;
+    }
+
+    public CoreSettingsBuilder vectorStore(CoreSettings.VectorStore vectorStore) {
+        this.vectorStore = vectorStore;
+        return this;
+    }
+
+    public CoreSettings build() {
+        return new CoreSettings(capabilities, ui, llm, advisors, execution, streaming, singleFlight, responseCache,
+                admission, rateLimit, http2, batch, jobs, embeddingCache, vectorStore);
+    }
+}
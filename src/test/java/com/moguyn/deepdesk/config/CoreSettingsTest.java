@@ -1,10 +1,13 @@
 package com.moguyn.deepdesk.config;
 
 import org.junit.jupiter.api.Test;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 import static org.junit.jupiter.api.Assertions.*;
 
+import static com.moguyn.deepdesk.config.CoreSettingsBuilder.coreSettings;
+
 class CoreSettingsTest {
 
     @Test
@@ -17,11 +20,16 @@ class CoreSettingsTest {
         
         CoreSettings.UI ui = new CoreSettings.UI("cli");
         CoreSettings.Prompt prompt = new CoreSettings.Prompt("system-prompt");
-        CoreSettings.LLM llm = new CoreSettings.LLM(prompt, 2000, 10);
-        CoreSettings.Advisors advisors = new CoreSettings.Advisors(true);
+        CoreSettings.LLM llm = new CoreSettings.LLM(prompt, 2000, 10, 10000);
+        CoreSettings.Advisors advisors = new CoreSettings.Advisors(true, null, null, null);
 
         // Act
-        CoreSettings settings = new CoreSettings(List.of(capability), ui, llm, advisors);
+        CoreSettings settings = coreSettings()
+                .capabilities(List.of(capability))
+                .ui(ui)
+                .llm(llm)
+                .advisors(advisors)
+                .build();
 
         // Assert
         assertEquals(1, settings.capabilities().size());
@@ -63,14 +71,16 @@ class CoreSettingsTest {
         CoreSettings.Prompt prompt = new CoreSettings.Prompt("system-prompt");
         int maxTokens = 2000;
         int historyWindowSize = 10;
+        long tokenCountCacheSize = 500;
 
         // Act
-        CoreSettings.LLM llm = new CoreSettings.LLM(prompt, maxTokens, historyWindowSize);
+        CoreSettings.LLM llm = new CoreSettings.LLM(prompt, maxTokens, historyWindowSize, tokenCountCacheSize);
 
         // Assert
         assertEquals(prompt, llm.prompt());
         assertEquals(maxTokens, llm.maxTokens());
         assertEquals(historyWindowSize, llm.historyWindowSize());
+        assertEquals(tokenCountCacheSize, llm.tokenCountCacheSize());
     }
 
     @Test
@@ -88,8 +98,8 @@ class CoreSettingsTest {
     @Test
     void testAdvisorsSettings() {
         // Arrange & Act
-        CoreSettings.Advisors advisorsEnabled = new CoreSettings.Advisors(true);
-        CoreSettings.Advisors advisorsDisabled = new CoreSettings.Advisors(false);
+        CoreSettings.Advisors advisorsEnabled = new CoreSettings.Advisors(true, null, null, null);
+        CoreSettings.Advisors advisorsDisabled = new CoreSettings.Advisors(false, null, null, null);
 
         // Assert
         assertTrue(advisorsEnabled.isChatMemoryAdvisorEnabled());
@@ -98,4 +108,206 @@ class CoreSettingsTest {
         assertFalse(advisorsDisabled.isChatMemoryAdvisorEnabled());
         assertFalse(advisorsDisabled.chatMemoryAdvisorEnabled());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testExecutionSettings() {
+        // Arrange
+        CoreSettings.Execution execution = new CoreSettings.Execution(8, null, 0);
+
+        // Act
+        CoreSettings settings = coreSettings().execution(execution).build();
+
+        // Assert
+        assertEquals(8, settings.execution().maxInFlightCompletions());
+        assertNull(settings.execution().completionTimeout());
+        assertEquals(Duration.ofMinutes(5),
+                new CoreSettings.Execution(8, Duration.ofMinutes(5), 0).completionTimeout());
+        assertEquals(4, new CoreSettings.Execution(8, Duration.ofMinutes(5), 4).maxChoices());
+        assertNull(coreSettings().build().execution());
+    }
+
+    @Test
+    void testStreamingSettings() {
+        // Arrange
+        CoreSettings.Streaming streaming = new CoreSettings.Streaming(Duration.ofMillis(40), 512, false, null,
+                null, 0, 0);
+
+        // Act
+        CoreSettings settings = coreSettings().streaming(streaming).build();
+
+        // Assert
+        assertEquals(Duration.ofMillis(40), settings.streaming().coalesceMaxDelay());
+        assertEquals(512, settings.streaming().coalesceMaxBytes());
+        assertFalse(settings.streaming().emitRoleImmediately());
+        assertNull(settings.streaming().heartbeatInterval());
+        assertNull(settings.streaming().resumeGracePeriod());
+        assertEquals(0, settings.streaming().replayMaxTotalBytes());
+    }
+
+    @Test
+    void testSingleFlightSettings() {
+        // Arrange
+        CoreSettings.SingleFlight singleFlight = new CoreSettings.SingleFlight(true);
+
+        // Act
+        CoreSettings settings = coreSettings().singleFlight(singleFlight).build();
+
+        // Assert
+        assertTrue(settings.singleFlight().enabled());
+        assertNull(coreSettings().build().singleFlight());
+    }
+
+    @Test
+    void testResponseCacheSettings() {
+        // Arrange
+        CoreSettings.ResponseCache responseCache = new CoreSettings.ResponseCache(
+                true, 100, Duration.ofMinutes(5), List.of("tenant-a"));
+
+        // Act
+        CoreSettings settings = coreSettings().responseCache(responseCache).build();
+
+        // Assert
+        assertTrue(settings.responseCache().enabled());
+        assertEquals(100, settings.responseCache().maxEntries());
+        assertEquals(Duration.ofMinutes(5), settings.responseCache().ttl());
+        assertEquals(List.of("tenant-a"), settings.responseCache().excludedUsers());
+    }
+
+    @Test
+    void testAdmissionSettings() {
+        // Arrange
+        CoreSettings.Admission admission = new CoreSettings.Admission(16, 2, 100, Duration.ofSeconds(30));
+
+        // Act
+        CoreSettings settings = coreSettings().admission(admission).build();
+
+        // Assert
+        assertEquals(16, settings.admission().maxConcurrentRequests());
+        assertEquals(2, settings.admission().maxConcurrentPerUser());
+        assertEquals(100, settings.admission().maxQueuedRequests());
+        assertEquals(Duration.ofSeconds(30), settings.admission().queueTimeout());
+        assertNull(coreSettings().build().admission());
+    }
+
+    @Test
+    void testRateLimitSettings() {
+        // Arrange
+        CoreSettings.RateLimit rateLimit = new CoreSettings.RateLimit(5, 90000);
+
+        // Act
+        CoreSettings settings = coreSettings().rateLimit(rateLimit).build();
+
+        // Assert
+        assertEquals(5, settings.rateLimit().requestsPerSecond());
+        assertEquals(90000, settings.rateLimit().tokensPerMinute());
+        assertNull(coreSettings().build().rateLimit());
+    }
+
+    @Test
+    void testHttp2Settings() {
+        // Arrange
+        CoreSettings.Http2 http2 = new CoreSettings.Http2(1000, 1048576);
+
+        // Act
+        CoreSettings settings = coreSettings().http2(http2).build();
+
+        // Assert
+        assertEquals(1000, settings.http2().maxConcurrentStreams());
+        assertEquals(1048576, settings.http2().initialWindowSize());
+        assertNull(coreSettings().build().http2());
+    }
+
+    @Test
+    void testBatchSettings() {
+        // Arrange
+        CoreSettings.Batch batch = new CoreSettings.Batch(true, "/tmp/batches", 4, 3, Duration.ofSeconds(1));
+
+        // Act
+        CoreSettings settings = coreSettings().batch(batch).build();
+
+        // Assert
+        assertTrue(settings.batch().enabled());
+        assertEquals("/tmp/batches", settings.batch().directory());
+        assertEquals(4, settings.batch().maxConcurrency());
+        assertEquals(3, settings.batch().maxAttempts());
+        assertEquals(Duration.ofSeconds(1), settings.batch().retryBackoff());
+        assertNull(coreSettings().build().batch());
+    }
+
+    @Test
+    void testJobsSettings() {
+        // Arrange
+        CoreSettings.Jobs jobs = new CoreSettings.Jobs(true, "/tmp/jobs", 2, 16, Duration.ofHours(24));
+
+        // Act
+        CoreSettings settings = coreSettings().jobs(jobs).build();
+
+        // Assert
+        assertTrue(settings.jobs().enabled());
+        assertEquals("/tmp/jobs", settings.jobs().directory());
+        assertEquals(2, settings.jobs().workers());
+        assertEquals(16, settings.jobs().maxQueued());
+        assertEquals(Duration.ofHours(24), settings.jobs().ttl());
+        assertNull(coreSettings().build().jobs());
+    }
+
+    @Test
+    void testSemanticCacheSettings() {
+        // Arrange
+        CoreSettings.SemanticCache semanticCache = new CoreSettings.SemanticCache(
+                true, 0.92, 1000, Duration.ofHours(1));
+
+        // Act
+        CoreSettings.Advisors advisors = new CoreSettings.Advisors(true, semanticCache, null, null);
+
+        // Assert
+        assertTrue(advisors.semanticCache().enabled());
+        assertEquals(0.92, advisors.semanticCache().similarityThreshold());
+        assertNull(new CoreSettings.Advisors(true, null, null, null).semanticCache());
+    }
+
+    @Test
+    void testHotMemorySettings() {
+        // Arrange
+        CoreSettings.HotMemory hotMemory = new CoreSettings.HotMemory(500, Duration.ofMinutes(30));
+
+        // Act
+        CoreSettings.Advisors advisors = new CoreSettings.Advisors(true, null, hotMemory, null);
+
+        // Assert
+        assertEquals(500, advisors.hotMemory().maxConversations());
+        assertEquals(Duration.ofMinutes(30), advisors.hotMemory().idleTimeout());
+        assertNull(new CoreSettings.Advisors(true, null, null, null).hotMemory());
+    }
+
+    @Test
+    void testWriteBehindSettings() {
+        // Arrange
+        CoreSettings.WriteBehind writeBehind = new CoreSettings.WriteBehind(
+                true, 32, Duration.ofMillis(200), 1024, Duration.ofSeconds(10));
+
+        // Act
+        CoreSettings.Advisors advisors = new CoreSettings.Advisors(true, null, null, writeBehind);
+
+        // Assert
+        assertTrue(advisors.writeBehind().enabled());
+        assertEquals(32, advisors.writeBehind().batchSize());
+        assertNull(new CoreSettings.Advisors(true, null, null, null).writeBehind());
+    }
+
+    @Test
+    void testEmbeddingCacheSettings() {
+        // Arrange
+        CoreSettings.EmbeddingCache embeddingCache = new CoreSettings.EmbeddingCache(
+                true, "text-embedding-3-small", 1 << 20, "/tmp/embeddings.bin", 1 << 24);
+
+        // Act
+        CoreSettings settings = coreSettings().embeddingCache(embeddingCache).build();
+
+        // Assert
+        assertTrue(settings.embeddingCache().enabled());
+        assertEquals("text-embedding-3-small", settings.embeddingCache().model());
+        assertEquals(1 << 24, settings.embeddingCache().maxFileBytes());
+        assertNull(coreSettings().build().embeddingCache());
+    }
+}
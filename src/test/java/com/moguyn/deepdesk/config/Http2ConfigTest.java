@@ -0,0 +1,214 @@
+package com.moguyn.deepdesk.config;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.apache.catalina.connector.Connector;
+import org.apache.coyote.UpgradeProtocol;
+import org.apache.coyote.http2.Http2Protocol;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.embedded.tomcat.TomcatWebServer;
+import org.springframework.boot.web.server.Http2;
+import org.springframework.boot.web.server.WebServer;
+
+import static com.moguyn.deepdesk.config.CoreSettingsBuilder.coreSettings;
+
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import reactor.netty.http.server.HttpServer;
+
+/**
+ * Checks the HTTP/2 limits and load-tests cleartext h2c against HTTP/1.1 with
+ * many concurrent SSE streams held open at the same time
+ */
+@Slf4j
+class Http2ConfigTest {
+
+    private static final int STREAMS = 64;
+
+    private WebServer server;
+
+    @AfterEach
+    void tearDown() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    void tomcatCustomizer_raisesStreamLimits() {
+        // Arrange
+        SseServlet servlet = new SseServlet(1);
+
+        // Act
+        server = start(servlet, new CoreSettings.Http2(500, 1 << 20));
+
+        // Assert
+        Http2Protocol protocol = http2Protocol(((TomcatWebServer) server).getTomcat().getConnector());
+        assertEquals(500, protocol.getMaxConcurrentStreams());
+        assertEquals(500, protocol.getMaxConcurrentStreamExecution());
+        assertEquals(1 << 20, protocol.getInitialWindowSize());
+    }
+
+    @Test
+    void nettyCustomizer_keepsServer_whenNotConfigured() {
+        HttpServer netty = HttpServer.create();
+
+        assertEquals(netty, Http2Config.customize(netty, null));
+    }
+
+    @Test
+    void h2c_multiplexesConcurrentStreamsOverOneConnection() throws Exception {
+        // Arrange
+        SseServlet servlet = new SseServlet(STREAMS);
+        server = start(servlet, new CoreSettings.Http2(STREAMS * 2, 0));
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+        // The first request upgrades the connection, later ones reuse it
+        client.send(request("/warmup"), HttpResponse.BodyHandlers.ofString());
+        servlet.reset(STREAMS);
+
+        // Act
+        LoadResult result = load(client, servlet);
+
+        // Assert
+        assertEquals(Set.of("HTTP/2.0"), servlet.protocols);
+        assertEquals(1, result.connections());
+        assertTrue(result.bodies().stream().allMatch(body -> body.contains("data: done")));
+    }
+
+    @Test
+    void http11_needsOneConnectionPerStream() throws Exception {
+        // Arrange
+        SseServlet servlet = new SseServlet(STREAMS);
+        server = start(servlet, null);
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+        // Act
+        LoadResult result = load(client, servlet);
+
+        // Assert
+        assertEquals(Set.of("HTTP/1.1"), servlet.protocols);
+        assertEquals(STREAMS, result.connections());
+    }
+
+    /**
+     * Opens every stream at once; the servlet holds each stream until all of
+     * them are open, so they are all in flight together
+     */
+    private LoadResult load(HttpClient client, SseServlet servlet) throws Exception {
+        System.gc();
+        long heapBefore = usedHeap();
+        long started = System.nanoTime();
+        List<CompletableFuture<HttpResponse<String>>> responses = IntStream.range(0, STREAMS)
+                .mapToObj(i -> client.sendAsync(request("/sse"), HttpResponse.BodyHandlers.ofString()))
+                .toList();
+        CompletableFuture.allOf(responses.toArray(CompletableFuture[]::new)).get(30, TimeUnit.SECONDS);
+        long elapsed = System.nanoTime() - started;
+        long heapAfter = usedHeap();
+
+        LoadResult result = new LoadResult(servlet.connections.size(),
+                responses.stream().map(CompletableFuture::join).map(HttpResponse::body).toList());
+        log.info("{} concurrent SSE streams over {}: {} connection(s), {} ms, ~{} KiB heap",
+                STREAMS, client.version(), result.connections(), TimeUnit.NANOSECONDS.toMillis(elapsed),
+                Math.max(0, heapAfter - heapBefore) / 1024);
+        return result;
+    }
+
+    private WebServer start(SseServlet servlet, CoreSettings.Http2 http2) {
+        TomcatServletWebServerFactory factory = new TomcatServletWebServerFactory(0);
+        if (http2 != null) {
+            Http2 enabled = new Http2();
+            enabled.setEnabled(true);
+            factory.setHttp2(enabled);
+            new Http2Config.Tomcat()
+                    .http2TomcatCustomizer(coreSettings().http2(http2).build())
+                    .customize(factory);
+        }
+        WebServer webServer = factory.getWebServer(context -> context.addServlet("sse", servlet).addMapping("/*"));
+        webServer.start();
+        return webServer;
+    }
+
+    private HttpRequest request(String path) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + path))
+                .timeout(Duration.ofSeconds(30))
+                .build();
+    }
+
+    private static Http2Protocol http2Protocol(Connector connector) {
+        for (UpgradeProtocol protocol : connector.findUpgradeProtocols()) {
+            if (protocol instanceof Http2Protocol h2) {
+                return h2;
+            }
+        }
+        throw new AssertionError("HTTP/2 is not enabled");
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private record LoadResult(int connections, List<String> bodies) {
+
+    }
+
+    /**
+     * Streams a few SSE events once every expected stream is open, recording
+     * the protocol and the client port of each request
+     */
+    private static final class SseServlet extends HttpServlet {
+
+        private final Set<Integer> connections = ConcurrentHashMap.newKeySet();
+        private final Set<String> protocols = ConcurrentHashMap.newKeySet();
+        private volatile CountDownLatch allOpen;
+
+        SseServlet(int streams) {
+            reset(streams);
+        }
+
+        void reset(int streams) {
+            connections.clear();
+            protocols.clear();
+            allOpen = new CountDownLatch(streams);
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            connections.add(request.getRemotePort());
+            protocols.add(request.getProtocol());
+            response.setContentType("text/event-stream");
+            PrintWriter writer = response.getWriter();
+            writer.write(": keepalive\n\n");
+            writer.flush();
+            if (request.getRequestURI().equals("/sse")) {
+                allOpen.countDown();
+                try {
+                    allOpen.await(20, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            writer.write("data: {\"delta\":\"hello\"}\n\ndata: done\n\n");
+            writer.flush();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.moguyn.deepdesk.config;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.MockedStatic;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.springframework.ai.chroma.vectorstore.ChromaApi;
+import org.springframework.ai.chroma.vectorstore.ChromaVectorStore;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.chroma.autoconfigure.ChromaVectorStoreAutoConfiguration;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.moguyn.deepdesk.vectorstore.HnswVectorStore;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Tests for the vector store configuration, in an application context
+ * together with Spring AI's Chroma auto-configuration
+ */
+class VectorStoreConfigTest {
+
+    @TempDir
+    Path directory;
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(ChromaVectorStoreAutoConfiguration.class))
+            .withUserConfiguration(VectorStoreConfig.class, Dependencies.class, MemoryConfig.class)
+            .withPropertyValues(
+                    "spring.ai.vectorstore.chroma.collection-name=deepdesk",
+                    "spring.ai.vectorstore.chroma.initialize-schema=false");
+
+    @Test
+    void hnsw_isTheOnlyVectorStore_andChromaStaysOff() {
+        contextRunner
+                .withPropertyValues("spring.ai.vectorstore.type=hnsw", "core.vector-store.directory=" + directory)
+                .run(context -> {
+                    assertThat(context).hasNotFailed();
+                    Map<String, VectorStore> stores = context.getBeansOfType(VectorStore.class);
+                    assertThat(stores).containsOnlyKeys("hnswVectorStore");
+                    assertThat(context).doesNotHaveBean(ChromaApi.class);
+                    assertThat(context.getBean(Memory.class).vectorStore()).isInstanceOf(HnswVectorStore.class);
+                });
+    }
+
+    @Test
+    void chroma_isTheOnlyVectorStore_byDefault() {
+        // Arrange
+        ChromaApi chromaApi = mock(ChromaApi.class);
+        when(chromaApi.getCollection("deepdesk")).thenReturn(new ChromaApi.Collection("c1", "deepdesk", Map.of()));
+
+        // Act & Assert
+        contextRunner
+                .withBean(ChromaApi.class, () -> chromaApi)
+                .run(context -> {
+                    assertThat(context).hasNotFailed();
+                    Map<String, VectorStore> stores = context.getBeansOfType(VectorStore.class);
+                    assertThat(stores).containsOnlyKeys("chromaVectorStore");
+                    assertThat(context.getBean(Memory.class).vectorStore()).isSameAs(stores.get("chromaVectorStore"));
+                });
+    }
+
+    @Test
+    void migration_runsAgainstTheHnswStore_withoutAChromaStore() {
+        contextRunner
+                .withPropertyValues("spring.ai.vectorstore.type=hnsw", "core.vector-store.directory=" + directory,
+                        "core.vector-store.migrate-from=chroma")
+                .run(context -> {
+                    assertThat(context).hasNotFailed();
+                    assertThat(context).hasBean("vectorStoreMigration");
+                    assertThat(context).doesNotHaveBean(ChromaVectorStore.class);
+                });
+    }
+
+    @Test
+    void migration_isSkipped_withChroma() {
+        ChromaApi chromaApi = mock(ChromaApi.class);
+        when(chromaApi.getCollection("deepdesk")).thenReturn(new ChromaApi.Collection("c1", "deepdesk", Map.of()));
+
+        contextRunner
+                .withBean(ChromaApi.class, () -> chromaApi)
+                .withPropertyValues("core.vector-store.migrate-from=chroma")
+                .run(context -> {
+                    assertThat(context).hasNotFailed();
+                    assertThat(context).doesNotHaveBean("vectorStoreMigration");
+                });
+    }
+
+    @Test
+    void chromaVectorStore_isBuiltWithTheCollectionSettings() {
+        // Arrange
+        VectorStoreConfig config = new VectorStoreConfig();
+        ChromaApi chromaApi = mock(ChromaApi.class);
+        EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+        ChromaVectorStore.Builder builderMock = mock(ChromaVectorStore.Builder.class);
+        ChromaVectorStore vectorStoreMock = mock(ChromaVectorStore.class);
+
+        try (MockedStatic<ChromaVectorStore> mockedStatic = mockStatic(ChromaVectorStore.class)) {
+            mockedStatic.when(() -> ChromaVectorStore.builder(chromaApi, embeddingModel))
+                    .thenReturn(builderMock);
+            when(builderMock.collectionName("testCollection")).thenReturn(builderMock);
+            when(builderMock.initializeSchema(true)).thenReturn(builderMock);
+            when(builderMock.build()).thenReturn(vectorStoreMock);
+
+            // Act
+            VectorStore result = config.chromaVectorStore(embeddingModel, chromaApi, "testCollection", true);
+
+            // Assert
+            assertNotNull(result);
+            assertSame(vectorStoreMock, result);
+            verify(builderMock).collectionName("testCollection");
+            verify(builderMock).initializeSchema(true);
+        }
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @EnableConfigurationProperties(CoreSettings.class)
+    static class Dependencies {
+
+        @Bean
+        EmbeddingModel embeddingModel() {
+            return mock(EmbeddingModel.class);
+        }
+
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+
+    /**
+     * Takes a VectorStore by the parameter name vectorStore, as the chat
+     * memory beans do
+     */
+    @Configuration(proxyBeanMethods = false)
+    static class MemoryConfig {
+
+        @Bean
+        Memory memory(VectorStore vectorStore) {
+            return new Memory(vectorStore);
+        }
+    }
+
+    record Memory(VectorStore vectorStore) {
+
+    }
+}
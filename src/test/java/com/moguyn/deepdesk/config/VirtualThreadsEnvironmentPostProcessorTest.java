@@ -0,0 +1,47 @@
+package com.moguyn.deepdesk.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import static com.moguyn.deepdesk.config.VirtualThreadsEnvironmentPostProcessor.REACTOR_VIRTUAL_THREADS;
+
+class VirtualThreadsEnvironmentPostProcessorTest {
+
+    private final VirtualThreadsEnvironmentPostProcessor postProcessor = new VirtualThreadsEnvironmentPostProcessor();
+
+    @AfterEach
+    void tearDown() {
+        System.clearProperty(REACTOR_VIRTUAL_THREADS);
+    }
+
+    @Test
+    void shouldEnableReactorVirtualThreads_whenVirtualThreadsEnabled() {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("spring.threads.virtual.enabled", "true");
+
+        postProcessor.postProcessEnvironment(environment, null);
+
+        assertEquals("true", System.getProperty(REACTOR_VIRTUAL_THREADS));
+    }
+
+    @Test
+    void shouldLeaveReactorUntouched_whenVirtualThreadsDisabled() {
+        postProcessor.postProcessEnvironment(new MockEnvironment(), null);
+
+        assertNull(System.getProperty(REACTOR_VIRTUAL_THREADS));
+    }
+
+    @Test
+    void shouldRespectExplicitReactorSetting() {
+        System.setProperty(REACTOR_VIRTUAL_THREADS, "false");
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("spring.threads.virtual.enabled", "true");
+
+        postProcessor.postProcessEnvironment(environment, null);
+
+        assertEquals("false", System.getProperty(REACTOR_VIRTUAL_THREADS));
+    }
+}
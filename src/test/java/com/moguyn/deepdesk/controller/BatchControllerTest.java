@@ -0,0 +1,107 @@
+package com.moguyn.deepdesk.controller;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moguyn.deepdesk.batch.BatchService;
+import com.moguyn.deepdesk.batch.BatchStore;
+import com.moguyn.deepdesk.chat.AdmissionControl;
+import com.moguyn.deepdesk.chat.CompletionLimiter;
+import com.moguyn.deepdesk.chat.OpenAiService;
+import com.moguyn.deepdesk.chat.RateLimiter;
+import com.moguyn.deepdesk.openai.model.Batch;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class BatchControllerTest {
+
+    @TempDir
+    Path directory;
+
+    private BatchService batchService;
+    private BatchStore batchStore;
+    private WebTestClient client;
+
+    @BeforeEach
+    void setUp() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        batchStore = new BatchStore(directory, objectMapper);
+        OpenAiService openAiService = mock(OpenAiService.class);
+        when(openAiService.processChat(any())).thenThrow(new IllegalArgumentException("unknown model"));
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        batchService = new BatchService(batchStore, openAiService,
+                new AdmissionControl(0, 0, 0, Duration.ZERO, meterRegistry), new CompletionLimiter(0),
+                new RateLimiter(0, 0, null, null, meterRegistry), objectMapper, 1, 1, Duration.ZERO, meterRegistry);
+        client = WebTestClient
+                .bindToController(new BatchController(batchService, batchStore))
+                .controllerAdvice(new ChatExceptionHandler())
+                .build();
+    }
+
+    @Test
+    void create_returnsBatch_andServesErrorFile() throws Exception {
+        Batch batch = client.post().uri("/openai/batches?job=nightly")
+                .contentType(BatchController.JSONL)
+                .bodyValue("{\"custom_id\":\"a\",\"body\":{\"messages\":[{\"role\":\"user\",\"content\":\"hi\"}]}}")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(Batch.class)
+                .returnResult()
+                .getResponseBody();
+
+        assertEquals("nightly", batch.getMetadata().get("job"));
+        for (int i = 0; i < 500 && Batch.IN_PROGRESS.equals(batchService.get(batch.getId()).getStatus()); i++) {
+            Thread.sleep(10);
+        }
+
+        client.get().uri("/openai/batches/{id}", batch.getId())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.status").isEqualTo(Batch.COMPLETED)
+                .jsonPath("$.request_counts.failed").isEqualTo(1);
+        client.get().uri("/openai/batches/{id}/errors", batch.getId())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .value(body -> assertTrue(body.contains("\"custom_id\":\"a\"")));
+        client.get().uri("/openai/batches")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.object").isEqualTo("list")
+                .jsonPath("$.data[0].id").isEqualTo(batch.getId());
+    }
+
+    @Test
+    void create_returnsBadRequest_whenInputIsInvalid() {
+        client.post().uri("/openai/batches")
+                .contentType(MediaType.TEXT_PLAIN)
+                .bodyValue("not json")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.error.code").isEqualTo("invalid_batch");
+    }
+
+    @Test
+    void get_returnsNotFound_forUnknownBatch() {
+        client.get().uri("/openai/batches/batch_missing")
+                .exchange()
+                .expectStatus().isNotFound()
+                .expectBody()
+                .jsonPath("$.error.code").isEqualTo("not_found");
+    }
+}
@@ -0,0 +1,118 @@
+package com.moguyn.deepdesk.controller;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moguyn.deepdesk.chat.AdmissionControl;
+import com.moguyn.deepdesk.chat.OpenAiService;
+import com.moguyn.deepdesk.chat.RateLimiter;
+import com.moguyn.deepdesk.chat.ResponseBuilder;
+import com.moguyn.deepdesk.chat.SseKeepAlive;
+import com.moguyn.deepdesk.job.JobService;
+import com.moguyn.deepdesk.job.JobStore;
+import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
+import com.moguyn.deepdesk.openai.model.ChatCompletionResponse;
+import com.moguyn.deepdesk.openai.model.ChatMessage;
+import com.moguyn.deepdesk.openai.model.Job;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+
+class JobControllerTest {
+
+    @TempDir
+    Path directory;
+
+    private JobService jobService;
+    private WebTestClient client;
+
+    @BeforeEach
+    void setUp() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        OpenAiService openAiService = mock(OpenAiService.class);
+        when(openAiService.streamChat(any())).thenReturn(Flux.just(ChatCompletionChunk.builder()
+                .id("chunk")
+                .object("chat.completion.chunk")
+                .choices(List.of(ChatCompletionChunk.ChunkChoice.builder()
+                        .index(0)
+                        .delta(ChatMessage.of("", "Hello"))
+                        .build()))
+                .build()));
+        ResponseBuilder responseBuilder = mock(ResponseBuilder.class);
+        when(responseBuilder.buildResponse(any(), anyList())).thenReturn(new ChatCompletionResponse());
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        jobService = new JobService(new JobStore(directory, objectMapper), openAiService,
+                new AdmissionControl(0, 0, 0, Duration.ZERO, meterRegistry),
+                new RateLimiter(0, 0, null, null, meterRegistry), responseBuilder, 1, 4, Duration.ofHours(1),
+                meterRegistry);
+        client = WebTestClient
+                .bindToController(new JobController(jobService, objectMapper, new SseKeepAlive(Duration.ZERO)))
+                .controllerAdvice(new ChatExceptionHandler())
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        jobService.shutdown();
+    }
+
+    @Test
+    void submit_returnsAcceptedJob_thatCanBePolledAndStreamed() throws Exception {
+        Job job = client.post().uri("/openai/jobs")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"model\":\"m\",\"messages\":[{\"role\":\"user\",\"content\":\"hi\"}]}")
+                .exchange()
+                .expectStatus().isAccepted()
+                .expectBody(Job.class)
+                .returnResult()
+                .getResponseBody();
+
+        assertTrue(job.getId().startsWith("job_"));
+        for (int i = 0; i < 500 && !jobService.get(job.getId()).isFinished(); i++) {
+            Thread.sleep(10);
+        }
+
+        client.get().uri("/openai/jobs/{id}", job.getId())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.status").isEqualTo(Job.COMPLETED)
+                .jsonPath("$.object").isEqualTo("chat.completion.job");
+        String stream = client.get().uri("/openai/jobs/{id}/stream", job.getId())
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(String.class)
+                .getResponseBody()
+                .collectList()
+                .map(events -> String.join("\n", events))
+                .block();
+        assertTrue(stream.contains("\"content\":\"Hello\""));
+    }
+
+    @Test
+    void get_returnsNotFound_forUnknownJob() {
+        client.get().uri("/openai/jobs/job_missing")
+                .exchange()
+                .expectStatus().isNotFound()
+                .expectBody()
+                .jsonPath("$.error.code").isEqualTo("not_found");
+        client.get().uri("/openai/jobs/job_missing/stream")
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+}
@@ -1,19 +1,24 @@
 package com.moguyn.deepdesk.controller;
 
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import static org.mockito.ArgumentMatchers.any;
 import org.mockito.Captor;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.context.annotation.Import;
@@ -32,7 +37,14 @@ import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moguyn.deepdesk.chat.AdmissionControl;
+import com.moguyn.deepdesk.chat.AdmissionRejectedException;
+import com.moguyn.deepdesk.chat.InvalidRequestException;
 import com.moguyn.deepdesk.chat.OpenAiService;
+import com.moguyn.deepdesk.chat.PromptTokenCounter;
+import com.moguyn.deepdesk.chat.RateLimiter;
+import com.moguyn.deepdesk.chat.ResumableStreams;
+import com.moguyn.deepdesk.chat.SseKeepAlive;
 import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
 import com.moguyn.deepdesk.openai.model.ChatCompletionRequest;
 import com.moguyn.deepdesk.openai.model.ChatCompletionResponse;
@@ -40,6 +52,7 @@ import com.moguyn.deepdesk.openai.model.ChatMessage;
 import com.moguyn.deepdesk.openai.model.Choice;
 import com.moguyn.deepdesk.openai.model.OpenAiUsage;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import reactor.core.publisher.Flux;
 
 /**
@@ -222,6 +235,39 @@ public class OpenAiChatControllerTest {
         verify(openAiService, never()).streamChat(any(ChatCompletionRequest.class));
     }
 
+    @Test
+    void chat_shouldRefundTokens_whenAdmissionRejects() {
+        // Arrange
+        AdmissionControl admissionControl = new AdmissionControl(1, 0, 0, Duration.ofSeconds(5),
+                new SimpleMeterRegistry());
+        AdmissionControl.Permit held = admissionControl.acquire("other");
+        OpenAiChatController controller = controller(admissionControl, tokenLimiter());
+        when(openAiService.processChat(any(ChatCompletionRequest.class))).thenReturn(defaultResponse);
+
+        // Act
+        assertThrows(AdmissionRejectedException.class, () -> controller.chat(request(), null));
+        held.release();
+
+        // Assert - two prompts do not fit the budget, so the rejected one was refunded
+        assertNotNull(controller.chat(request(), null));
+    }
+
+    @Test
+    void chat_shouldRefundTokens_whenProcessingFails() {
+        // Arrange
+        OpenAiChatController controller = controller(
+                new AdmissionControl(0, 0, 0, Duration.ZERO, new SimpleMeterRegistry()), tokenLimiter());
+        when(openAiService.processChat(any(ChatCompletionRequest.class)))
+                .thenThrow(new InvalidRequestException("n must be between 1 and 8, got 9", "n"))
+                .thenReturn(defaultResponse);
+
+        // Act
+        assertThrows(InvalidRequestException.class, () -> controller.chat(request(), null));
+
+        // Assert
+        assertNotNull(controller.chat(request(), null));
+    }
+
     @Test
     void getModels_shouldReturnAvailableModels() throws Exception {
         // Arrange
@@ -243,4 +289,25 @@ public class OpenAiChatControllerTest {
                 .andExpect(header().string("Access-Control-Allow-Methods", "GET, OPTIONS"))
                 .andExpect(header().string("Access-Control-Allow-Headers", "Content-Type, Authorization"));
     }
+
+    private OpenAiChatController controller(AdmissionControl admissionControl, RateLimiter rateLimiter) {
+        return new OpenAiChatController(openAiService, objectMapper, admissionControl, rateLimiter,
+                new SseKeepAlive(Duration.ZERO), new ResumableStreams(Duration.ZERO, 0, 0, new SimpleMeterRegistry()));
+    }
+
+    /**
+     * A token budget that holds one prompt of {@link #request()} but not two
+     */
+    private static RateLimiter tokenLimiter() {
+        TokenCountEstimator estimator = mock(TokenCountEstimator.class);
+        when(estimator.estimate(any(String.class))).thenReturn(60);
+        return new RateLimiter(0, 100, new PromptTokenCounter(estimator, 10), estimator, new SimpleMeterRegistry());
+    }
+
+    private static ChatCompletionRequest request() {
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setModel(TEST_MODEL);
+        request.setMessages(List.of(ChatMessage.of("user", TEST_USER_MESSAGE)));
+        return request;
+    }
 }
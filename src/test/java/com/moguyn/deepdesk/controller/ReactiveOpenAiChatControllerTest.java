@@ -0,0 +1,328 @@
+package com.moguyn.deepdesk.controller;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moguyn.deepdesk.chat.AdmissionControl;
+import com.moguyn.deepdesk.chat.InvalidRequestException;
+import com.moguyn.deepdesk.chat.OpenAiService;
+import com.moguyn.deepdesk.chat.PromptTokenCounter;
+import com.moguyn.deepdesk.chat.RateLimiter;
+import com.moguyn.deepdesk.chat.ResumableStreams;
+import com.moguyn.deepdesk.chat.SseKeepAlive;
+import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
+import com.moguyn.deepdesk.openai.model.ChatCompletionRequest;
+import com.moguyn.deepdesk.openai.model.ChatCompletionResponse;
+import com.moguyn.deepdesk.openai.model.ChatMessage;
+import com.moguyn.deepdesk.openai.model.Choice;
+import com.moguyn.deepdesk.openai.model.OpenAiUsage;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+class ReactiveOpenAiChatControllerTest {
+
+    private static final String TEST_MODEL = "gpt-3.5-turbo";
+
+    private OpenAiService openAiService;
+    private ResumableStreams resumableStreams;
+    private WebTestClient client;
+
+    @BeforeEach
+    void setUp() {
+        openAiService = mock(OpenAiService.class);
+        resumableStreams = new ResumableStreams(Duration.ofSeconds(30), 1 << 16, 1 << 20, new SimpleMeterRegistry());
+        client = client(new AdmissionControl(0, 0, 0, Duration.ZERO, new SimpleMeterRegistry()));
+    }
+
+    private WebTestClient client(AdmissionControl admissionControl) {
+        return client(admissionControl, new RateLimiter(0, 0, null, null, new SimpleMeterRegistry()));
+    }
+
+    private WebTestClient client(AdmissionControl admissionControl, RateLimiter rateLimiter) {
+        return WebTestClient
+                .bindToController(new ReactiveOpenAiChatController(openAiService, new ObjectMapper(),
+                        admissionControl, rateLimiter, new SseKeepAlive(Duration.ZERO), resumableStreams))
+                .controllerAdvice(new ChatExceptionHandler())
+                .build();
+    }
+
+    @Test
+    void chat_shouldReturnJsonResponse_whenNotStreaming() {
+        ChatCompletionResponse response = new ChatCompletionResponse("chatcmpl-1", "chat.completion", 1L, TEST_MODEL,
+                null, List.of(new Choice(0, ChatMessage.of("assistant", "Hi"), "stop", null)),
+                new OpenAiUsage(1, 1, 2));
+        when(openAiService.processChatReactive(any(ChatCompletionRequest.class))).thenReturn(Mono.just(response));
+
+        client.post().uri("/openai/chat/completions")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(request(false))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_JSON)
+                .expectBody()
+                .jsonPath("$.id").isEqualTo("chatcmpl-1")
+                .jsonPath("$.choices[0].message.content").isEqualTo("Hi");
+
+        verify(openAiService, never()).processChat(any(ChatCompletionRequest.class));
+    }
+
+    @Test
+    void chat_shouldReturnEventStream_whenStreaming() {
+        ChatCompletionChunk chunk = ChatCompletionChunk.builder()
+                .id("chunk-1")
+                .object("chat.completion.chunk")
+                .model(TEST_MODEL)
+                .choices(List.of(ChatCompletionChunk.ChunkChoice.builder()
+                        .index(0)
+                        .delta(ChatMessage.of("assistant", "Hello"))
+                        .build()))
+                .build();
+        when(openAiService.streamChat(any(ChatCompletionRequest.class))).thenReturn(Flux.just(chunk));
+
+        client.post().uri("/openai/chat/completions")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(request(true))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.TEXT_EVENT_STREAM)
+                .expectBody(String.class)
+                .value(body -> assertTrue(body.contains("\"content\":\"Hello\"")));
+    }
+
+    @Test
+    void chat_shouldEmitErrorChunk_whenStreamFails() {
+        when(openAiService.streamChat(any(ChatCompletionRequest.class)))
+                .thenReturn(Flux.error(new RuntimeException("boom")));
+
+        client.post().uri("/openai/chat/completions")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(request(true))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .value(body -> assertTrue(body.contains("\"finish_reason\":\"error\"")));
+    }
+
+    @Test
+    void chat_shouldResumeStreamAfterLastEventId_withoutNewGeneration() {
+        Sinks.Many<ChatCompletionChunk> upstream = Sinks.many().unicast().onBackpressureBuffer();
+        when(openAiService.streamChat(any(ChatCompletionRequest.class))).thenReturn(upstream.asFlux());
+        upstream.tryEmitNext(contentChunk("Hello"));
+
+        ServerSentEvent<String> first = client.post().uri("/openai/chat/completions")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(request(true))
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<String>>() {
+                })
+                .getResponseBody()
+                .blockFirst(Duration.ofSeconds(5));
+        upstream.tryEmitNext(contentChunk(" again"));
+        upstream.tryEmitComplete();
+
+        List<ServerSentEvent<String>> rest = client.post().uri("/openai/chat/completions")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header("Last-Event-ID", first.id())
+                .bodyValue(request(true))
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<String>>() {
+                })
+                .getResponseBody()
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertTrue(first.data().contains("\"content\":\"Hello\""));
+        assertEquals(1, rest.size());
+        assertTrue(rest.get(0).data().contains("\"content\":\" again\""));
+        verify(openAiService, times(1)).streamChat(any(ChatCompletionRequest.class));
+    }
+
+    @Test
+    void chat_shouldReturnTooManyRequests_whenAdmissionQueueIsFull() {
+        AdmissionControl admissionControl = new AdmissionControl(1, 0, 0, Duration.ofSeconds(5),
+                new SimpleMeterRegistry());
+        AdmissionControl.Permit held = admissionControl.acquire("other");
+
+        client(admissionControl).post().uri("/openai/chat/completions")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(request(false))
+                .exchange()
+                .expectStatus().isEqualTo(429)
+                .expectHeader().valueEquals("Retry-After", "5")
+                .expectBody()
+                .jsonPath("$.error.code").isEqualTo("rate_limit_exceeded")
+                .jsonPath("$.error.type").isEqualTo("requests");
+
+        verify(openAiService, never()).processChatReactive(any(ChatCompletionRequest.class));
+        held.release();
+    }
+
+    @Test
+    void chat_shouldReleasePermit_whenResponseCompletes() {
+        AdmissionControl admissionControl = new AdmissionControl(1, 0, 1, Duration.ofSeconds(5),
+                new SimpleMeterRegistry());
+        when(openAiService.streamChat(any(ChatCompletionRequest.class))).thenReturn(Flux.empty());
+        WebTestClient limited = client(admissionControl);
+
+        for (int i = 0; i < 2; i++) {
+            limited.post().uri("/openai/chat/completions")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(request(true))
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectBody(String.class);
+        }
+    }
+
+    @Test
+    void chat_shouldReturnRateLimitHeaders_whenUserBudgetIsExhausted() {
+        ChatCompletionResponse response = new ChatCompletionResponse("chatcmpl-1", "chat.completion", 1L, TEST_MODEL,
+                null, List.of(new Choice(0, ChatMessage.of("assistant", "Hi"), "stop", null)),
+                new OpenAiUsage(1, 1, 2));
+        when(openAiService.processChatReactive(any(ChatCompletionRequest.class))).thenReturn(Mono.just(response));
+        TokenCountEstimator estimator = mock(TokenCountEstimator.class);
+        WebTestClient limited = client(new AdmissionControl(0, 0, 0, Duration.ZERO, new SimpleMeterRegistry()),
+                new RateLimiter(1, 0, new PromptTokenCounter(estimator, 10), estimator, new SimpleMeterRegistry()));
+
+        limited.post().uri("/openai/chat/completions")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(request(false))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("x-ratelimit-limit-requests", "1")
+                .expectHeader().valueEquals("x-ratelimit-remaining-requests", "0");
+
+        limited.post().uri("/openai/chat/completions")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(request(false))
+                .exchange()
+                .expectStatus().isEqualTo(429)
+                .expectHeader().valueEquals("Retry-After", "1")
+                .expectHeader().exists("x-ratelimit-reset-requests")
+                .expectBody()
+                .jsonPath("$.error.type").isEqualTo("requests")
+                .jsonPath("$.error.code").isEqualTo("rate_limit_exceeded");
+    }
+
+    @Test
+    void chat_shouldRefundTokens_whenAdmissionRejects() {
+        AdmissionControl admissionControl = new AdmissionControl(1, 0, 0, Duration.ofSeconds(5),
+                new SimpleMeterRegistry());
+        AdmissionControl.Permit held = admissionControl.acquire("other");
+        when(openAiService.processChatReactive(any(ChatCompletionRequest.class)))
+                .thenReturn(Mono.just(new ChatCompletionResponse()));
+        WebTestClient limited = client(admissionControl, tokenLimiter());
+
+        limited.post().uri("/openai/chat/completions")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(request(false))
+                .exchange()
+                .expectStatus().isEqualTo(429);
+        held.release();
+
+        // Two prompts do not fit the budget, so the rejected one was refunded
+        limited.post().uri("/openai/chat/completions")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(request(false))
+                .exchange()
+                .expectStatus().isOk();
+    }
+
+    @Test
+    void chat_shouldRefundTokens_whenProcessingFails() {
+        when(openAiService.processChatReactive(any(ChatCompletionRequest.class)))
+                .thenReturn(Mono.error(new InvalidRequestException("n must be between 1 and 8, got 9", "n")))
+                .thenReturn(Mono.just(new ChatCompletionResponse()));
+        WebTestClient limited = client(new AdmissionControl(0, 0, 0, Duration.ZERO, new SimpleMeterRegistry()),
+                tokenLimiter());
+
+        limited.post().uri("/openai/chat/completions")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(request(false))
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        limited.post().uri("/openai/chat/completions")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(request(false))
+                .exchange()
+                .expectStatus().isOk();
+    }
+
+    @Test
+    void chat_shouldReturnBadRequest_whenRequestIsInvalid() {
+        when(openAiService.processChatReactive(any(ChatCompletionRequest.class)))
+                .thenReturn(Mono.error(new InvalidRequestException("n must be between 1 and 8, got 9", "n")));
+
+        client.post().uri("/openai/chat/completions")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(request(false))
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.error.type").isEqualTo("invalid_request_error")
+                .jsonPath("$.error.param").isEqualTo("n");
+    }
+
+    @Test
+    void models_shouldReturnAvailableModels() {
+        when(openAiService.getModels()).thenReturn(List.of("deepdesk"));
+
+        client.get().uri("/openai/models")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0]").isEqualTo("deepdesk");
+    }
+
+    private static ChatCompletionChunk contentChunk(String content) {
+        return ChatCompletionChunk.builder()
+                .id("chunk-1")
+                .object("chat.completion.chunk")
+                .model(TEST_MODEL)
+                .choices(List.of(ChatCompletionChunk.ChunkChoice.builder()
+                        .index(0)
+                        .delta(ChatMessage.of("", content))
+                        .build()))
+                .build();
+    }
+
+    /**
+     * A token budget that holds one prompt of the test requests but not two
+     */
+    private static RateLimiter tokenLimiter() {
+        TokenCountEstimator estimator = mock(TokenCountEstimator.class);
+        when(estimator.estimate(any(String.class))).thenReturn(60);
+        return new RateLimiter(0, 100, new PromptTokenCounter(estimator, 10), estimator, new SimpleMeterRegistry());
+    }
+
+    private ChatCompletionRequest request(boolean stream) {
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setModel(TEST_MODEL);
+        request.setMessages(List.of(ChatMessage.of("user", "Hello")));
+        request.setStream(stream);
+        return request;
+    }
+}
@@ -1,5 +1,6 @@
 package com.moguyn.deepdesk.controller;
 
+import java.time.Duration;
 import java.util.List;
 
 import org.springframework.boot.test.context.TestConfiguration;
@@ -10,6 +11,13 @@ import org.springframework.http.converter.json.MappingJackson2HttpMessageConvert
 import org.springframework.lang.NonNull;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import com.moguyn.deepdesk.chat.AdmissionControl;
+import com.moguyn.deepdesk.chat.RateLimiter;
+import com.moguyn.deepdesk.chat.ResumableStreams;
+import com.moguyn.deepdesk.chat.SseKeepAlive;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 @TestConfiguration
 public class TestConfig implements WebMvcConfigurer {
 
@@ -28,4 +36,24 @@ public class TestConfig implements WebMvcConfigurer {
         ));
         return converter;
     }
+
+    @Bean
+    public AdmissionControl admissionControl() {
+        return new AdmissionControl(0, 0, 0, Duration.ZERO, new SimpleMeterRegistry());
+    }
+
+    @Bean
+    public RateLimiter rateLimiter() {
+        return new RateLimiter(0, 0, null, null, new SimpleMeterRegistry());
+    }
+
+    @Bean
+    public SseKeepAlive sseKeepAlive() {
+        return new SseKeepAlive(Duration.ZERO);
+    }
+
+    @Bean
+    public ResumableStreams resumableStreams() {
+        return new ResumableStreams(Duration.ZERO, 0, 0, new SimpleMeterRegistry());
+    }
 }
@@ -0,0 +1,110 @@
+package com.moguyn.deepdesk.embedding;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptionsBuilder;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class CachingEmbeddingModelTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final EmbeddingModel delegate = mock(EmbeddingModel.class);
+    private final EmbeddingCache cache = new EmbeddingCache(true, "small", 1 << 20, null, 0, meterRegistry);
+    private final EmbeddingModel model = cache.decorate(delegate);
+
+    @Test
+    void call_onlyEmbedsTextsNotSeenBefore_inOneCall() {
+        // Arrange
+        when(delegate.call(any(EmbeddingRequest.class)))
+                .thenReturn(response(new float[]{1, 0}))
+                .thenReturn(response(new float[]{0, 1}));
+        model.embed("known");
+
+        // Act
+        List<float[]> vectors = model.embed(List.of("new", "known"));
+
+        // Assert
+        ArgumentCaptor<EmbeddingRequest> requests = ArgumentCaptor.forClass(EmbeddingRequest.class);
+        verify(delegate, times(2)).call(requests.capture());
+        assertEquals(List.of("new"), requests.getAllValues().get(1).getInstructions());
+        assertArrayEquals(new float[]{0, 1}, vectors.get(0));
+        assertArrayEquals(new float[]{1, 0}, vectors.get(1));
+    }
+
+    @Test
+    void call_skipsModel_whenEverythingIsCached() {
+        // Arrange
+        when(delegate.call(any(EmbeddingRequest.class))).thenReturn(response(new float[]{1, 2}, new float[]{3, 4}));
+        model.embed(List.of("a", "b"));
+
+        // Act
+        EmbeddingResponse response = model.call(new EmbeddingRequest(List.of("b", "a"), null));
+
+        // Assert
+        verify(delegate, times(1)).call(any(EmbeddingRequest.class));
+        assertArrayEquals(new float[]{3, 4}, response.getResults().get(0).getOutput());
+        assertEquals(1, response.getResults().get(1).getIndex());
+        assertEquals(1.0, meterRegistry.get("deepdesk.embedding.upstream.saved").counter().count());
+    }
+
+    @Test
+    void call_keepsModelsApart() {
+        // Arrange
+        when(delegate.call(any(EmbeddingRequest.class)))
+                .thenReturn(response(new float[]{1}))
+                .thenReturn(response(new float[]{2}));
+        model.embed("text");
+
+        // Act
+        EmbeddingResponse response = model.call(new EmbeddingRequest(List.of("text"),
+                EmbeddingOptionsBuilder.builder().withModel("large").build()));
+
+        // Assert
+        verify(delegate, times(2)).call(any(EmbeddingRequest.class));
+        assertArrayEquals(new float[]{2}, response.getResult().getOutput());
+    }
+
+    @Test
+    void call_fails_whenModelReturnsFewerEmbeddingsThanTexts() {
+        // Arrange
+        when(delegate.call(any(EmbeddingRequest.class))).thenReturn(response(new float[]{1, 2}));
+
+        // Act & Assert
+        assertThrows(IllegalStateException.class, () -> model.embed(List.of("a", "b")));
+        assertArrayEquals(new float[]{1, 2}, cache.get("small", "a"));
+        assertNull(cache.get("small", "b"));
+    }
+
+    @Test
+    void decorate_returnsModel_whenCacheIsDisabled() {
+        EmbeddingCache disabled = new EmbeddingCache(false, "small", 1 << 20, null, 0, meterRegistry);
+
+        assertSame(delegate, disabled.decorate(delegate));
+    }
+
+    private static EmbeddingResponse response(float[]... vectors) {
+        List<Embedding> embeddings = new ArrayList<>();
+        for (int i = 0; i < vectors.length; i++) {
+            embeddings.add(new Embedding(vectors[i], i));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+}
@@ -0,0 +1,100 @@
+package com.moguyn.deepdesk.embedding;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class EmbeddingCacheTest {
+
+    @TempDir
+    Path directory;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void get_returnsStoredVector_perModel() {
+        EmbeddingCache cache = cache(directory.resolve("embeddings.bin"), 1 << 20);
+
+        cache.put("small", "hello", new float[]{1, 2, 3});
+
+        assertArrayEquals(new float[]{1, 2, 3}, cache.get("small", "hello"));
+        assertNull(cache.get("large", "hello"));
+        assertNull(cache.get("small", "hello!"));
+        assertEquals(1.0, lookups("heap"));
+        assertEquals(2.0, lookups("miss"));
+        cache.close();
+    }
+
+    @Test
+    void file_survivesRestart() {
+        // Arrange
+        Path file = directory.resolve("embeddings.bin");
+        EmbeddingCache first = cache(file, 1 << 20);
+        first.put("small", "hello", new float[]{0.5f, -1.25f});
+        first.put("small", "world", new float[]{3, 4});
+        first.close();
+
+        // Act
+        EmbeddingCache second = cache(file, 1 << 20);
+
+        // Assert
+        assertArrayEquals(new float[]{0.5f, -1.25f}, second.get("small", "hello"));
+        assertArrayEquals(new float[]{3, 4}, second.get("small", "world"));
+        assertEquals(2.0, lookups("file"));
+        second.close();
+    }
+
+    @Test
+    void file_stopsStoring_whenFull() {
+        // Arrange: room for the header and one record of two floats
+        Path file = directory.resolve("embeddings.bin");
+        int recordBytes = EmbeddingFile.KEY_BYTES + Integer.BYTES + 2 * Float.BYTES;
+        EmbeddingFile embeddings = new EmbeddingFile(file, EmbeddingFile.HEADER_BYTES + recordBytes);
+
+        // Act & Assert
+        assertTrue(embeddings.put(EmbeddingCache.key("m", "a"), new float[]{1, 2}));
+        assertFalse(embeddings.put(EmbeddingCache.key("m", "b"), new float[]{1, 2}));
+        assertEquals(EmbeddingFile.HEADER_BYTES + recordBytes, embeddings.usedBytes());
+        assertEquals(1, embeddings.size());
+    }
+
+    @Test
+    void file_inUnknownFormat_isStartedOver() throws Exception {
+        Path file = directory.resolve("embeddings.bin");
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+
+        EmbeddingFile embeddings = new EmbeddingFile(file, 1024);
+
+        assertEquals(0, embeddings.size());
+        assertEquals(EmbeddingFile.HEADER_BYTES, embeddings.usedBytes());
+    }
+
+    @Test
+    void returnedVectors_areCopies() {
+        EmbeddingCache cache = cache(null, 0);
+        float[] vector = {1, 2};
+        cache.put("m", "text", vector);
+
+        vector[0] = 9;
+        cache.get("m", "text")[1] = 9;
+
+        assertArrayEquals(new float[]{1, 2}, cache.get("m", "text"));
+    }
+
+    private EmbeddingCache cache(Path file, long maxFileBytes) {
+        return new EmbeddingCache(true, "small", 1 << 20, file, maxFileBytes, meterRegistry);
+    }
+
+    private double lookups(String result) {
+        return meterRegistry.get("deepdesk.embedding.cache.lookups").tag("result", result).counter().count();
+    }
+}
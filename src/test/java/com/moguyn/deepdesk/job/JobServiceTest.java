@@ -0,0 +1,340 @@
+package com.moguyn.deepdesk.job;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moguyn.deepdesk.chat.AdmissionControl;
+import com.moguyn.deepdesk.chat.AdmissionRejectedException;
+import com.moguyn.deepdesk.chat.InvalidRequestException;
+import com.moguyn.deepdesk.chat.OpenAiService;
+import com.moguyn.deepdesk.chat.RateLimitExceededException;
+import com.moguyn.deepdesk.chat.RateLimiter;
+import com.moguyn.deepdesk.chat.ResponseBuilder;
+import com.moguyn.deepdesk.openai.model.ChatCompletionChunk;
+import com.moguyn.deepdesk.openai.model.ChatCompletionRequest;
+import com.moguyn.deepdesk.openai.model.ChatCompletionResponse;
+import com.moguyn.deepdesk.openai.model.ChatMessage;
+import com.moguyn.deepdesk.openai.model.Job;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+class JobServiceTest {
+
+    @TempDir
+    Path directory;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final OpenAiService openAiService = mock(OpenAiService.class);
+    private final ResponseBuilder responseBuilder = mock(ResponseBuilder.class);
+    private AdmissionControl admissionControl = new AdmissionControl(0, 0, 10, Duration.ofSeconds(5), meterRegistry);
+    private RateLimiter rateLimiter = new RateLimiter(0, 0, null, null, meterRegistry);
+    private JobStore store;
+    private JobService service;
+
+    @BeforeEach
+    void setUp() {
+        store = new JobStore(directory, objectMapper);
+        service = newService(1, 1, Duration.ofHours(1));
+        when(responseBuilder.buildResponse(any(), anyList())).thenAnswer(invocation -> {
+            ChatCompletionResponse response = new ChatCompletionResponse();
+            response.setId("chatcmpl-1");
+            return response;
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void submit_runsJobInBackground_andStoresAggregatedResult() throws Exception {
+        // Arrange
+        when(openAiService.streamChat(any())).thenReturn(Flux.just(chunk(0, "Hello"), chunk(0, " world")));
+
+        // Act
+        Job submitted = service.submit(request());
+        assertTrue(service.awaitTermination(submitted.getId(), Duration.ofSeconds(5)));
+
+        // Assert
+        Job job = service.get(submitted.getId());
+        assertEquals(Job.COMPLETED, job.getStatus());
+        assertEquals("chatcmpl-1", job.getResult().getId());
+        assertNotNull(job.getFinishedAt());
+        assertEquals(job.getFinishedAt() + 3600, job.getExpiresAt());
+        verify(openAiService).streamChat(argThat(ChatCompletionRequest::isStream));
+        verify(responseBuilder).buildResponse(any(), eq(List.of("Hello world")));
+        assertEquals(1.0, meterRegistry.get("deepdesk.jobs").tag("outcome", "completed").counter().count());
+    }
+
+    @Test
+    void attach_replaysFinishedJobFromDisk() throws Exception {
+        // Arrange
+        when(openAiService.streamChat(any())).thenReturn(Flux.just(chunk(0, "a"), chunk(1, "b")));
+        Job submitted = service.submit(request());
+        service.awaitTermination(submitted.getId(), Duration.ofSeconds(5));
+
+        // Act & Assert
+        StepVerifier.create(service.attach(submitted.getId()).map(JobServiceTest::text))
+                .expectNext("a", "b")
+                .verifyComplete();
+        verify(responseBuilder).buildResponse(any(), eq(List.of("a", "b")));
+    }
+
+    @Test
+    void attach_followsRunningJobFromFirstChunk() throws Exception {
+        // Arrange
+        Sinks.Many<ChatCompletionChunk> upstream = Sinks.many().unicast().onBackpressureBuffer();
+        when(openAiService.streamChat(any())).thenReturn(upstream.asFlux());
+        Job submitted = service.submit(request());
+        awaitStatus(submitted.getId(), Job.IN_PROGRESS);
+        upstream.tryEmitNext(chunk(0, "first"));
+
+        // Act & Assert
+        StepVerifier.create(service.attach(submitted.getId()).map(JobServiceTest::text))
+                .expectNext("first")
+                .then(() -> upstream.tryEmitNext(chunk(0, "second")))
+                .expectNext("second")
+                .then(upstream::tryEmitComplete)
+                .verifyComplete();
+    }
+
+    @Test
+    void cancel_disposesRunningGeneration() throws Exception {
+        // Arrange
+        AtomicBoolean upstreamCancelled = new AtomicBoolean();
+        when(openAiService.streamChat(any()))
+                .thenReturn(Flux.<ChatCompletionChunk>never().doOnCancel(() -> upstreamCancelled.set(true)));
+        Job submitted = service.submit(request());
+        awaitStatus(submitted.getId(), Job.IN_PROGRESS);
+
+        // Act
+        service.cancel(submitted.getId());
+        assertTrue(service.awaitTermination(submitted.getId(), Duration.ofSeconds(5)));
+
+        // Assert
+        assertTrue(upstreamCancelled.get());
+        Job job = service.get(submitted.getId());
+        assertEquals(Job.CANCELLED, job.getStatus());
+        assertEquals(Job.CANCELLED, store.load(submitted.getId()).orElseThrow().getStatus());
+    }
+
+    @Test
+    void cancel_queuedJob_neverStartsIt() throws Exception {
+        // Arrange
+        when(openAiService.streamChat(any())).thenReturn(Flux.never());
+        Job running = service.submit(request());
+        awaitStatus(running.getId(), Job.IN_PROGRESS);
+        Job queued = service.submit(request());
+
+        // Act
+        Job cancelled = service.cancel(queued.getId());
+
+        // Assert
+        assertEquals(Job.CANCELLED, cancelled.getStatus());
+        assertEquals(Job.IN_PROGRESS, service.get(running.getId()).getStatus());
+    }
+
+    @Test
+    void submit_rejectsJob_whenQueueIsFull() throws Exception {
+        // Arrange
+        when(openAiService.streamChat(any())).thenReturn(Flux.never());
+        Job running = service.submit(request());
+        awaitStatus(running.getId(), Job.IN_PROGRESS);
+        service.submit(request());
+
+        // Act & Assert
+        assertThrows(AdmissionRejectedException.class, () -> service.submit(request()));
+        assertEquals(2, store.list().size());
+    }
+
+    @Test
+    void submit_rejectsRequestWithoutMessages() {
+        assertThrows(InvalidRequestException.class, () -> service.submit(new ChatCompletionRequest()));
+    }
+
+    @Test
+    void submit_rejectsJob_whenUserIsOverRateLimit() {
+        // Arrange
+        service.shutdown();
+        rateLimiter = new RateLimiter(1, 0, null, null, meterRegistry);
+        service = newService(1, 4, Duration.ofHours(1));
+        when(openAiService.streamChat(any())).thenReturn(Flux.never());
+        service.submit(request("alice"));
+
+        // Act & Assert
+        assertThrows(RateLimitExceededException.class, () -> service.submit(request("alice")));
+        assertEquals(1, store.list().size());
+    }
+
+    @Test
+    void job_waitsForAdmissionPermitOfItsUser() throws Exception {
+        // Arrange
+        service.shutdown();
+        admissionControl = new AdmissionControl(0, 1, 10, Duration.ofMillis(50), meterRegistry);
+        service = newService(1, 4, Duration.ofHours(1));
+        when(openAiService.streamChat(any())).thenReturn(Flux.just(chunk(0, "done")));
+        AdmissionControl.Permit held = admissionControl.acquire("alice");
+
+        // Act
+        Job submitted = service.submit(request("alice"));
+        Thread.sleep(200);
+
+        // Assert
+        verify(openAiService, never()).streamChat(any());
+        held.release();
+        awaitStatus(submitted.getId(), Job.COMPLETED);
+        // The permit is released once the finished job is recorded
+        for (int i = 0; i < 500 && admissionControl.inFlight() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, admissionControl.inFlight());
+    }
+
+    @Test
+    void cancel_jobWaitingForAdmission_leavesAdmissionQueue() throws Exception {
+        // Arrange
+        service.shutdown();
+        admissionControl = new AdmissionControl(1, 0, 10, Duration.ofSeconds(5), meterRegistry);
+        service = newService(1, 4, Duration.ofHours(1));
+        when(openAiService.streamChat(any())).thenReturn(Flux.just(chunk(0, "done")));
+        AdmissionControl.Permit held = admissionControl.acquire("bob");
+        Job submitted = service.submit(request("alice"));
+        awaitStatus(submitted.getId(), Job.IN_PROGRESS);
+        for (int i = 0; i < 500 && admissionControl.queueDepth() == 0; i++) {
+            Thread.sleep(10);
+        }
+
+        // Act
+        service.cancel(submitted.getId());
+        assertTrue(service.awaitTermination(submitted.getId(), Duration.ofSeconds(5)));
+
+        // Assert
+        assertEquals(Job.CANCELLED, service.get(submitted.getId()).getStatus());
+        assertEquals(0, admissionControl.queueDepth());
+        verify(openAiService, never()).streamChat(any());
+        held.release();
+        assertNotNull(admissionControl.tryAdmit("carol"));
+    }
+
+    @Test
+    void failedJob_keepsError_andAttachEndsWithIt() throws Exception {
+        // Arrange
+        when(openAiService.streamChat(any()))
+                .thenReturn(Flux.concat(Flux.just(chunk(0, "partial")), Flux.error(new IllegalStateException("boom"))));
+
+        // Act
+        Job submitted = service.submit(request());
+        service.awaitTermination(submitted.getId(), Duration.ofSeconds(5));
+
+        // Assert
+        Job job = service.get(submitted.getId());
+        assertEquals(Job.FAILED, job.getStatus());
+        assertEquals(new Job.Error("server_error", "boom"), job.getError());
+        StepVerifier.create(service.attach(submitted.getId()).map(JobServiceTest::text))
+                .expectNext("partial")
+                .verifyErrorMessage("boom");
+    }
+
+    @Test
+    void resume_restartsUnfinishedJobs_afterRestart() throws Exception {
+        // Arrange
+        when(openAiService.streamChat(any())).thenReturn(Flux.never());
+        Job submitted = service.submit(request());
+        awaitStatus(submitted.getId(), Job.IN_PROGRESS);
+        service.shutdown();
+        when(openAiService.streamChat(any())).thenReturn(Flux.just(chunk(0, "done")));
+
+        // Act
+        service = newService(1, 1, Duration.ofHours(1));
+        service.resume();
+        awaitStatus(submitted.getId(), Job.COMPLETED);
+
+        // Assert
+        StepVerifier.create(service.attach(submitted.getId()).map(JobServiceTest::text))
+                .expectNext("done")
+                .verifyComplete();
+    }
+
+    @Test
+    void expire_deletesFinishedJobs_afterTtl() throws Exception {
+        // Arrange
+        service.shutdown();
+        service = newService(1, 1, Duration.ZERO);
+        when(openAiService.streamChat(any())).thenReturn(Flux.just(chunk(0, "a")));
+        Job submitted = service.submit(request());
+        service.awaitTermination(submitted.getId(), Duration.ofSeconds(5));
+
+        // Act
+        service.expire();
+
+        // Assert
+        assertFalse(store.exists(submitted.getId()));
+        assertThrows(JobNotFoundException.class, () -> service.get(submitted.getId()));
+        assertThrows(JobNotFoundException.class, () -> service.attach(submitted.getId()));
+    }
+
+    private JobService newService(int workers, int maxQueued, Duration ttl) {
+        return new JobService(store, openAiService, admissionControl, rateLimiter, responseBuilder, workers, maxQueued,
+                ttl, meterRegistry);
+    }
+
+    private void awaitStatus(String id, String status) throws InterruptedException {
+        for (int i = 0; i < 500 && !status.equals(service.get(id).getStatus()); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(status, service.get(id).getStatus());
+    }
+
+    private static ChatCompletionRequest request() {
+        return request(null);
+    }
+
+    private static ChatCompletionRequest request(String user) {
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setModel("m");
+        request.setUser(user);
+        request.setMessages(List.of(ChatMessage.of("user", "hi")));
+        return request;
+    }
+
+    private static ChatCompletionChunk chunk(int index, String content) {
+        return ChatCompletionChunk.builder()
+                .id("chunk")
+                .object("chat.completion.chunk")
+                .choices(List.of(ChatCompletionChunk.ChunkChoice.builder()
+                        .index(index)
+                        .delta(ChatMessage.of("", content))
+                        .build()))
+                .build();
+    }
+
+    private static String text(ChatCompletionChunk chunk) {
+        return chunk.getChoices().get(0).getDelta().content();
+    }
+}
@@ -1,16 +1,27 @@
 package com.moguyn.deepdesk.tools;
 
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import org.springframework.ai.chat.model.ToolContext;
 import org.springframework.ai.tool.definition.ToolDefinition;
 import org.springframework.ai.tool.execution.ToolExecutionException;
 
+import com.moguyn.deepdesk.chat.CancellationToken;
+
 import io.modelcontextprotocol.client.McpSyncClient;
 import io.modelcontextprotocol.spec.McpSchema.CallToolRequest;
 import io.modelcontextprotocol.spec.McpSchema.Tool;
@@ -70,4 +81,44 @@ class SyncMcpToolAdapterTest {
         // Verify the original exception is wrapped
         assertEquals(clientException, exception.getCause());
     }
+
+    @Test
+    void call_shouldNotCallClient_whenCompletionIsAlreadyCancelled() {
+        // Given - a cancelled completion
+        CancellationToken token = new CancellationToken();
+        token.cancel("client_disconnect");
+
+        // When/Then
+        assertThrows(CancellationException.class,
+                () -> adapter.call("{}", new ToolContext(Map.of(CancellationToken.CONTEXT_KEY, token))));
+        verify(mockClient, never()).callTool(any(CallToolRequest.class));
+    }
+
+    @Test
+    void call_shouldInterruptBlockedClient_whenCompletionIsCancelled() throws Exception {
+        // Given - a client blocked until interrupted
+        CountDownLatch calling = new CountDownLatch(1);
+        when(mockClient.callTool(any(CallToolRequest.class))).thenAnswer(invocation -> {
+            calling.countDown();
+            Thread.sleep(5_000);
+            return null;
+        });
+        CancellationToken token = new CancellationToken();
+        ToolContext toolContext = new ToolContext(Map.of(CancellationToken.CONTEXT_KEY, token));
+
+        // When
+        Thread.ofVirtual().start(() -> {
+            try {
+                calling.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            token.cancel("client_disconnect");
+        });
+
+        // Then - the call gives up instead of waiting for the result
+        long started = System.nanoTime();
+        assertThrows(CancellationException.class, () -> adapter.call("{}", toolContext));
+        assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(4));
+    }
 }
@@ -0,0 +1,73 @@
+package com.moguyn.deepdesk.vectorstore;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import org.springframework.ai.chroma.vectorstore.ChromaApi;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ChromaMigrationTest {
+
+    @TempDir
+    Path directory;
+
+    private final ChromaApi chromaApi = mock(ChromaApi.class);
+    private final EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+
+    @Test
+    void migrate_copiesEveryPageWithItsEmbeddings_andQuantizes() {
+        // Arrange
+        when(chromaApi.getCollection("deepdesk")).thenReturn(new ChromaApi.Collection("c1", "deepdesk", Map.of()));
+        when(chromaApi.getEmbeddings(eq("c1"), argThat(request -> request != null && request.offset() == 0)))
+                .thenReturn(new ChromaApi.GetEmbeddingResponse(List.of("1", "2"),
+                        List.of(new float[]{1, 0, 0}, new float[]{0, 1, 0}),
+                        List.of("a cat", "a dog"),
+                        List.of(Map.of("conversationId", "alice"), Map.of("conversationId", "bob"))));
+        when(chromaApi.getEmbeddings(eq("c1"), argThat(request -> request != null && request.offset() == 2)))
+                .thenReturn(new ChromaApi.GetEmbeddingResponse(List.of("3"),
+                        List.<float[]>of(new float[]{0, 0, 1}),
+                        List.of("a fish"),
+                        Arrays.asList((Map<String, String>) null)));
+        when(embeddingModel.embed(any(String.class))).thenReturn(new float[]{0, 1, 0});
+        HnswVectorStore target = new HnswVectorStore(embeddingModel, directory, 8, 50, 32,
+                new Quantization(Quantization.Kind.INT8, 0, 1000, 4), new SimpleMeterRegistry());
+
+        // Act
+        int copied = new ChromaMigration(chromaApi, 2).migrate("deepdesk", target);
+
+        // Assert
+        assertEquals(3, copied);
+        assertEquals(3, target.documents());
+        assertEquals(Quantization.Kind.INT8, target.quantizedAs());
+        List<Document> found = target.similaritySearch(SearchRequest.builder().query("dog").topK(1).build());
+        assertEquals("2", found.get(0).getId());
+        assertEquals("bob", found.get(0).getMetadata().get("conversationId"));
+        target.close();
+    }
+
+    @Test
+    void migrate_withUnknownCollection_fails() {
+        HnswVectorStore target = new HnswVectorStore(embeddingModel, directory, 8, 50, 32, new SimpleMeterRegistry());
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new ChromaMigration(chromaApi, 2).migrate("missing", target));
+        verifyNoInteractions(embeddingModel);
+        target.close();
+    }
+}
@@ -0,0 +1,230 @@
+package com.moguyn.deepdesk.vectorstore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the latency of a top 10 search through the graph with scanning
+ * every vector, on clustered vectors shaped like text embeddings, with and
+ * without quantized codes. As in the store, the quantizer is trained once
+ * the training sample is added and the remaining vectors are linked through
+ * it. The index is then reopened and searched, and the recall of the graph
+ * against the scan is printed with the bytes each kind of file takes on disk
+ * and the bytes of it the searches brought into memory, read from
+ * /proc/self/smaps where there is one. Run with
+ * {@code ./mvnw -Pbenchmark test-compile exec:exec
+ * -Djmh.args="HnswIndexBenchmark -p efSearch=64,256"} to see recall traded
+ * for latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HnswIndexBenchmark {
+
+    private static final int K = 10;
+    private static final int QUERIES = 200;
+    private static final int FEW_QUERIES = 10;
+    private static final int CLUSTERS = 100;
+    private static final Pattern MAPPING = Pattern.compile("[0-9a-f]+-[0-9a-f]+ ");
+
+    @Param({"20000"})
+    public int size;
+
+    @Param({"384"})
+    public int dimensions;
+
+    @Param({"64"})
+    public int efSearch;
+
+    @Param({"NONE", "INT8", "PQ"})
+    public Quantization.Kind quantization;
+
+    private Path directory;
+    private HnswIndex index;
+    private float[][] queries;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        float[][] centers = new float[CLUSTERS][];
+        for (int c = 0; c < CLUSTERS; c++) {
+            centers[c] = gaussian(random, 1);
+        }
+        Path built = Files.createTempDirectory("hnsw-benchmark");
+        Quantization settings = new Quantization(quantization, 0, Math.min(size, 5000), 4);
+        index = new HnswIndex(built, dimensions, 16, 200, 42, settings);
+        for (int i = 0; i < size; i++) {
+            index.add(near(centers[random.nextInt(CLUSTERS)], random));
+            if (index.needsQuantizer()) {
+                index.quantize();
+            }
+        }
+        index.close();
+        // Segments stay mapped until collected, so the copy is opened to
+        // count only the pages the searches map in
+        directory = Files.createTempDirectory("hnsw-benchmark");
+        try (Stream<Path> files = Files.list(built)) {
+            for (Path file : files.toList()) {
+                Files.copy(file, directory.resolve(file.getFileName()));
+            }
+        }
+        delete(built);
+        index = new HnswIndex(directory, dimensions, 16, 200, 42, settings);
+        queries = new float[QUERIES][];
+        for (int q = 0; q < QUERIES; q++) {
+            queries[q] = near(centers[random.nextInt(CLUSTERS)], random);
+        }
+
+        List<Set<Integer>> results = new ArrayList<>(QUERIES);
+        Map<String, Long> residentAfterFew = null;
+        for (float[] query : queries) {
+            results.add(nodes(index.search(query, K, efSearch, null)));
+            if (results.size() == FEW_QUERIES) {
+                residentAfterFew = residentBytes();
+            }
+        }
+        // Before the scan below, which reads every full vector
+        Map<String, Long> resident = residentBytes();
+        int found = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            found += (int) nodes(index.exact(queries[q], K, null)).stream()
+                    .filter(results.get(q)::contains)
+                    .count();
+        }
+        System.out.printf("recall@%d with efSearch=%d over %d vectors quantized as %s: %.3f%n",
+                K, efSearch, size, quantization, found / (double) (K * QUERIES));
+        System.out.printf("  on disk: %s%n", mebibytes(diskBytes()));
+        System.out.printf("  resident after %d searches: %s%n", FEW_QUERIES, mebibytes(residentAfterFew));
+        System.out.printf("  resident after %d searches: %s%n", QUERIES, mebibytes(resident));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        index.close();
+        delete(directory);
+    }
+
+    @Benchmark
+    public List<HnswIndex.Scored> hnsw() {
+        return index.search(nextQuery(), K, efSearch, null);
+    }
+
+    @Benchmark
+    public List<HnswIndex.Scored> bruteForce() {
+        return index.exact(nextQuery(), K, null);
+    }
+
+    private float[] nextQuery() {
+        next = (next + 1) % QUERIES;
+        return queries[next];
+    }
+
+    private float[] near(float[] center, Random random) {
+        float[] noise = gaussian(random, 3);
+        for (int i = 0; i < dimensions; i++) {
+            noise[i] += center[i];
+        }
+        return HnswVectorStore.normalize(noise);
+    }
+
+    private float[] gaussian(Random random, double deviation) {
+        float[] vector = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = (float) (random.nextGaussian() * deviation);
+        }
+        return vector;
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Bytes of the files in the index directory by kind of file. Segment
+     * files are created at full size, so the last one of each kind is mostly
+     * empty.
+     */
+    private Map<String, Long> diskBytes() throws IOException {
+        Map<String, Long> bytes = new TreeMap<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                bytes.merge(kind(file.getFileName().toString()), Files.size(file), Long::sum);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Resident bytes of the files mapped from the index directory by kind of
+     * file, empty when the mappings cannot be read
+     */
+    private Map<String, Long> residentBytes() throws IOException {
+        Path smaps = Path.of("/proc/self/smaps");
+        Map<String, Long> bytes = new TreeMap<>();
+        if (!Files.isReadable(smaps)) {
+            return bytes;
+        }
+        String prefix = directory.toString() + "/";
+        String kind = null;
+        for (String line : Files.readAllLines(smaps)) {
+            if (MAPPING.matcher(line).lookingAt()) {
+                int path = line.indexOf(prefix);
+                kind = path >= 0 ? kind(line.substring(path + prefix.length()).trim()) : null;
+            } else if (kind != null && line.startsWith("Rss:")) {
+                long kibibytes = Long.parseLong(line.substring(4).replace("kB", "").trim());
+                bytes.merge(kind, kibibytes * 1024, Long::sum);
+            }
+        }
+        return bytes;
+    }
+
+    private static String kind(String fileName) {
+        return fileName.replaceFirst("-\\d+\\.bin$", "");
+    }
+
+    private static String mebibytes(Map<String, Long> bytes) {
+        if (bytes.isEmpty()) {
+            return "not measured";
+        }
+        return bytes.entrySet().stream()
+                .map(entry -> String.format("%s %.1f MiB", entry.getKey(), entry.getValue() / 1048576.0))
+                .collect(Collectors.joining(", "));
+    }
+
+    private static Set<Integer> nodes(List<HnswIndex.Scored> scored) {
+        return scored.stream().map(HnswIndex.Scored::node).collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,334 @@
+package com.moguyn.deepdesk.vectorstore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class HnswIndexTest {
+
+    private static final int DIMENSIONS = 32;
+
+    @TempDir
+    Path directory;
+
+    private final Random random = new Random(7);
+
+    @Test
+    void search_findsMostOfTheExactNeighbours() {
+        // Arrange
+        HnswIndex index = new HnswIndex(directory, DIMENSIONS, 16, 100, 1);
+        for (int i = 0; i < 2000; i++) {
+            index.add(randomVector());
+        }
+
+        // Act
+        int found = 0;
+        for (int q = 0; q < 50; q++) {
+            float[] query = randomVector();
+            Set<Integer> expected = nodes(index.exact(query, 10, null));
+            found += (int) nodes(index.search(query, 10, 64, null)).stream().filter(expected::contains).count();
+        }
+
+        // Assert
+        double recall = found / 500.0;
+        assertTrue(recall >= 0.9, "recall@10 was " + recall);
+        index.close();
+    }
+
+    @Test
+    void search_onlyReturnsAcceptedNodes() {
+        HnswIndex index = new HnswIndex(directory, DIMENSIONS, 8, 50, 1);
+        for (int i = 0; i < 500; i++) {
+            index.add(randomVector());
+        }
+
+        List<HnswIndex.Scored> found = index.search(randomVector(), 10, 64, node -> node % 2 == 0);
+
+        assertEquals(10, found.size());
+        assertTrue(found.stream().allMatch(scored -> scored.node() % 2 == 0));
+        index.close();
+    }
+
+    @Test
+    void reopen_keepsFlushedGraph() {
+        // Arrange
+        HnswIndex first = new HnswIndex(directory, DIMENSIONS, 8, 50, 1);
+        for (int i = 0; i < 300; i++) {
+            first.add(randomVector());
+        }
+        float[] query = randomVector();
+        List<HnswIndex.Scored> before = first.search(query, 5, 32, null);
+        first.close();
+
+        // Act
+        HnswIndex second = new HnswIndex(directory, DIMENSIONS, 8, 50, 1);
+
+        // Assert
+        assertEquals(300, second.size());
+        assertEquals(DIMENSIONS, HnswIndex.storedDimensions(directory));
+        assertEquals(before, second.search(query, 5, 32, null));
+        second.close();
+    }
+
+    @Test
+    void reopen_dropsNodesAddedAfterLastFlush() {
+        // Arrange: the first instance is never closed, as after a crash
+        HnswIndex crashed = new HnswIndex(directory, DIMENSIONS, 8, 50, 1);
+        for (int i = 0; i < 200; i++) {
+            crashed.add(randomVector());
+        }
+        crashed.flush();
+        for (int i = 0; i < 50; i++) {
+            crashed.add(randomVector());
+        }
+
+        // Act
+        HnswIndex reopened = new HnswIndex(directory, DIMENSIONS, 8, 50, 1);
+        List<HnswIndex.Scored> found = reopened.search(randomVector(), 20, 64, null);
+
+        // Assert
+        assertEquals(200, reopened.size());
+        assertEquals(20, found.size());
+        assertTrue(found.stream().allMatch(scored -> scored.node() < 200));
+        reopened.close();
+    }
+
+    @Test
+    void flush_appendsChangesToLogAndKeepsSnapshot() throws Exception {
+        // Arrange
+        HnswIndex index = new HnswIndex(directory, DIMENSIONS, 8, 50, 1);
+        for (int i = 0; i < 100; i++) {
+            index.add(randomVector());
+        }
+        index.flush();
+        byte[] snapshot = Files.readAllBytes(directory.resolve(HnswIndex.GRAPH_FILE));
+
+        // Act
+        for (int i = 0; i < 100; i++) {
+            index.add(randomVector());
+            index.flush();
+        }
+        float[] query = randomVector();
+        List<HnswIndex.Scored> expected = index.search(query, 10, 64, null);
+        HnswIndex reopened = new HnswIndex(directory, DIMENSIONS, 8, 50, 1);
+
+        // Assert
+        assertArrayEquals(snapshot, Files.readAllBytes(directory.resolve(HnswIndex.GRAPH_FILE)));
+        assertEquals(200, reopened.size());
+        assertEquals(expected, reopened.search(query, 10, 64, null));
+        index.close();
+        reopened.close();
+    }
+
+    @Test
+    void reopen_ignoresTornLogRecord() throws Exception {
+        // Arrange
+        HnswIndex index = new HnswIndex(directory, DIMENSIONS, 8, 50, 1);
+        for (int i = 0; i < 100; i++) {
+            index.add(randomVector());
+        }
+        index.flush();
+        index.add(randomVector());
+        index.flush();
+        List<Path> logs;
+        try (Stream<Path> files = Files.list(directory)) {
+            logs = files.filter(file -> file.getFileName().toString().endsWith(HnswIndex.GRAPH_LOG_SUFFIX)).toList();
+        }
+        Files.write(logs.get(0), new byte[] {0, 0, 1, 0, 42}, StandardOpenOption.APPEND);
+
+        // Act
+        HnswIndex reopened = new HnswIndex(directory, DIMENSIONS, 8, 50, 1);
+        int reopenedSize = reopened.size();
+        reopened.add(randomVector());
+        reopened.flush();
+        HnswIndex again = new HnswIndex(directory, DIMENSIONS, 8, 50, 1);
+
+        // Assert
+        assertEquals(1, logs.size());
+        assertEquals(101, reopenedSize);
+        assertEquals(102, again.size());
+        reopened.close();
+        again.close();
+    }
+
+    @Test
+    void search_withQuantization_rerankedToHighRecall() {
+        // Arrange
+        HnswIndex exact = new HnswIndex(directory.resolve("exact"), DIMENSIONS, 16, 100, 1);
+        HnswIndex int8 = new HnswIndex(directory.resolve("int8"), DIMENSIONS, 16, 100, 1,
+                new Quantization(Quantization.Kind.INT8, 0, 500, 4));
+        HnswIndex pq = new HnswIndex(directory.resolve("pq"), DIMENSIONS, 16, 100, 1,
+                new Quantization(Quantization.Kind.PQ, 8, 500, 4));
+        for (int i = 0; i < 2000; i++) {
+            float[] vector = randomVector();
+            exact.add(vector);
+            int8.add(vector);
+            pq.add(vector);
+        }
+        int8.quantize();
+        pq.quantize();
+
+        // Act
+        int foundInt8 = 0;
+        int foundPq = 0;
+        for (int q = 0; q < 50; q++) {
+            float[] query = randomVector();
+            Set<Integer> expected = nodes(exact.exact(query, 10, null));
+            foundInt8 += (int) nodes(int8.search(query, 10, 64, null)).stream().filter(expected::contains).count();
+            foundPq += (int) nodes(pq.search(query, 10, 64, null)).stream().filter(expected::contains).count();
+        }
+
+        // Assert
+        assertTrue(foundInt8 / 500.0 >= 0.9, "int8 recall@10 was " + foundInt8 / 500.0);
+        assertTrue(foundPq / 500.0 >= 0.8, "pq recall@10 was " + foundPq / 500.0);
+        assertEquals(4, int8.vectorBytes() / int8.codeBytes());
+        assertEquals(16, pq.vectorBytes() / pq.codeBytes());
+        exact.close();
+        int8.close();
+        pq.close();
+    }
+
+    @Test
+    void needsQuantizer_onceTrainingSizeIsReached() {
+        HnswIndex index = new HnswIndex(directory, DIMENSIONS, 8, 50, 1,
+                new Quantization(Quantization.Kind.INT8, 0, 100, 4));
+        for (int i = 0; i < 99; i++) {
+            index.add(randomVector());
+        }
+        assertFalse(index.needsQuantizer());
+
+        index.add(randomVector());
+        assertTrue(index.needsQuantizer());
+        index.quantize();
+
+        assertFalse(index.needsQuantizer());
+        assertEquals(Quantization.Kind.INT8, index.quantizedAs());
+        assertEquals(100L * DIMENSIONS, index.codeBytes());
+        index.close();
+    }
+
+    @Test
+    void quantize_inSteps_codesNodesAddedWhileTraining() {
+        // Arrange
+        HnswIndex index = new HnswIndex(directory, DIMENSIONS, 8, 50, 1,
+                new Quantization(Quantization.Kind.INT8, 0, 100, 4));
+        for (int i = 0; i < 200; i++) {
+            index.add(randomVector());
+        }
+        HnswIndex.Training training = index.startQuantizing();
+        training.run();
+
+        // Act
+        for (int i = 0; i < 50; i++) {
+            index.add(randomVector());
+        }
+        float[] query = randomVector();
+        List<HnswIndex.Scored> whileTraining = index.search(query, 5, 64, null);
+        index.finishQuantizing(training);
+
+        // Assert
+        assertEquals(Quantization.Kind.INT8, index.quantizedAs());
+        assertEquals(250L * DIMENSIONS, index.codeBytes());
+        assertEquals(nodes(index.exact(query, 5, null)), nodes(whileTraining));
+        assertEquals(nodes(index.exact(query, 5, null)), nodes(index.search(query, 5, 64, null)));
+        index.close();
+    }
+
+    @Test
+    void add_afterQuantizing_linksNewNodesThroughCodesToHighRecall() {
+        // Arrange
+        HnswIndex index = new HnswIndex(directory, DIMENSIONS, 16, 100, 1,
+                new Quantization(Quantization.Kind.INT8, 0, 300, 4));
+        for (int i = 0; i < 300; i++) {
+            index.add(randomVector());
+        }
+        index.quantize();
+
+        // Act
+        for (int i = 0; i < 1700; i++) {
+            index.add(randomVector());
+        }
+
+        // Assert
+        int found = 0;
+        for (int q = 0; q < 50; q++) {
+            float[] query = randomVector();
+            Set<Integer> expected = nodes(index.exact(query, 10, null));
+            found += (int) nodes(index.search(query, 10, 64, null)).stream().filter(expected::contains).count();
+        }
+        assertTrue(found / 500.0 >= 0.9, "recall@10 was " + found / 500.0);
+        index.close();
+    }
+
+    @Test
+    void finishQuantizing_afterClose_dropsTraining() {
+        HnswIndex index = new HnswIndex(directory, DIMENSIONS, 8, 50, 1,
+                new Quantization(Quantization.Kind.INT8, 0, 100, 4));
+        for (int i = 0; i < 100; i++) {
+            index.add(randomVector());
+        }
+        HnswIndex.Training training = index.startQuantizing();
+        training.run();
+        index.close();
+
+        index.finishQuantizing(training);
+
+        assertEquals(Quantization.Kind.NONE, index.quantizedAs());
+        assertFalse(Files.exists(directory.resolve(HnswIndex.QUANTIZER_FILE)));
+    }
+
+    @Test
+    void reopen_withOtherQuantization_quantizesAgain() {
+        // Arrange
+        HnswIndex first = new HnswIndex(directory, DIMENSIONS, 8, 50, 1,
+                new Quantization(Quantization.Kind.INT8, 0, 100, 4));
+        for (int i = 0; i < 300; i++) {
+            first.add(randomVector());
+        }
+        float[] query = randomVector();
+        List<HnswIndex.Scored> expected = first.exact(query, 5, null);
+        first.close();
+
+        // Act
+        HnswIndex second = new HnswIndex(directory, DIMENSIONS, 8, 50, 1,
+                new Quantization(Quantization.Kind.PQ, 8, 100, 10));
+        Quantization.Kind reopenedAs = second.quantizedAs();
+        boolean needsQuantizer = second.needsQuantizer();
+        second.quantize();
+        second.close();
+        HnswIndex third = new HnswIndex(directory, DIMENSIONS, 8, 50, 1,
+                new Quantization(Quantization.Kind.PQ, 8, 100, 10));
+
+        // Assert
+        assertEquals(Quantization.Kind.NONE, reopenedAs);
+        assertTrue(needsQuantizer);
+        assertEquals(Quantization.Kind.PQ, third.quantizedAs());
+        assertEquals(300L * 8, third.codeBytes());
+        assertEquals(nodes(expected), nodes(third.search(query, 5, 64, null)));
+        third.close();
+    }
+
+    private float[] randomVector() {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return HnswVectorStore.normalize(vector);
+    }
+
+    private static Set<Integer> nodes(List<HnswIndex.Scored> scored) {
+        return scored.stream().map(HnswIndex.Scored::node).collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,247 @@
+package com.moguyn.deepdesk.vectorstore;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.FilterExpressionTextParser;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class HnswVectorStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<HnswVectorStore> opened = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        opened.forEach(HnswVectorStore::close);
+    }
+
+    @Test
+    void similaritySearch_returnsNearestDocuments_withScoreAndDistance() {
+        // Arrange
+        HnswVectorStore store = open();
+        store.add(List.of(document("1", "a cat", "alice"), document("2", "a dog", "alice"),
+                document("3", "a fish", "alice")));
+
+        // Act
+        List<Document> found = store.similaritySearch(SearchRequest.builder().query("cat").topK(2).build());
+
+        // Assert
+        assertEquals(2, found.size());
+        assertEquals("1", found.get(0).getId());
+        assertEquals("a cat", found.get(0).getText());
+        assertEquals(1.0, found.get(0).getScore(), 1e-6);
+        assertEquals(0.0, ((Number) found.get(0).getMetadata().get("distance")).doubleValue(), 1e-6);
+        assertEquals("alice", found.get(0).getMetadata().get("conversationId"));
+    }
+
+    @Test
+    void similaritySearch_appliesThreshold() {
+        HnswVectorStore store = open();
+        store.add(List.of(document("1", "a cat", "alice"), document("2", "a dog", "alice")));
+
+        List<Document> found = store.similaritySearch(SearchRequest.builder()
+                .query("cat")
+                .topK(5)
+                .similarityThreshold(0.5)
+                .build());
+
+        assertEquals(List.of("1"), ids(found));
+    }
+
+    @Test
+    void similaritySearch_onlyReturnsDocumentsMatchingFilter() {
+        // Arrange
+        HnswVectorStore store = open();
+        store.add(List.of(document("1", "a cat", "alice"), document("2", "a cat and a dog", "bob"),
+                document("3", "a dog", "bob")));
+
+        // Act
+        List<Document> found = store.similaritySearch(SearchRequest.builder()
+                .query("cat")
+                .topK(5)
+                .filterExpression("conversationId == 'bob'")
+                .build());
+
+        // Assert
+        assertEquals(List.of("2", "3"), ids(found));
+        assertEquals(1.0, meterRegistry.get("deepdesk.vectorstore.searches").tag("plan", "exact").counter().count());
+    }
+
+    @Test
+    void similaritySearch_byConversation_onlyFindsItsLiveDocuments() {
+        // Arrange
+        HnswVectorStore store = open();
+        store.add(List.of(document("1", "a cat", "alice"), document("2", "a cat", "bob"),
+                document("3", "a dog", "bob")));
+        store.add(List.of(document("2", "a cat", "alice")));
+        store.delete(List.of("3"));
+        store.add(List.of(document("4", "a fish", "bob")));
+
+        // Act
+        List<Document> alice = store.similaritySearch(SearchRequest.builder()
+                .query("cat")
+                .topK(5)
+                .filterExpression("conversationId == 'alice'")
+                .build());
+        List<Document> bob = store.similaritySearch(SearchRequest.builder()
+                .query("cat")
+                .topK(5)
+                .filterExpression("conversationId == 'bob' && turn != 1")
+                .build());
+
+        // Assert
+        assertEquals(Set.of("1", "2"), Set.copyOf(ids(alice)));
+        assertEquals(List.of("4"), ids(bob));
+    }
+
+    @Test
+    void add_withStoredId_replacesDocument() {
+        HnswVectorStore store = open();
+        store.add(List.of(document("1", "a cat", "alice")));
+
+        store.add(List.of(document("1", "a dog", "alice")));
+
+        List<Document> found = store.similaritySearch(SearchRequest.builder().query("cat").topK(5).build());
+        assertEquals(1, store.documents());
+        assertEquals(1, found.size());
+        assertEquals("a dog", found.get(0).getText());
+    }
+
+    @Test
+    void delete_removesDocumentsByIdAndByFilter() {
+        // Arrange
+        HnswVectorStore store = open();
+        store.add(List.of(document("1", "a cat", "alice"), document("2", "a dog", "bob"),
+                document("3", "a fish", "carol")));
+
+        // Act
+        store.delete(List.of("1"));
+        store.delete(new FilterExpressionTextParser().parse("conversationId == 'bob'"));
+
+        // Assert
+        List<Document> found = store.similaritySearch(SearchRequest.builder().query("cat").topK(5).build());
+        assertEquals(List.of("3"), ids(found));
+        assertEquals(1, store.documents());
+    }
+
+    @Test
+    void reopen_restoresDocumentsAndDeletes() {
+        // Arrange
+        HnswVectorStore first = open();
+        first.add(List.of(document("1", "a cat", "alice"), document("2", "a dog", "bob")));
+        first.add(List.of(document("3", "a fish", "bob")));
+        first.delete(List.of("2"));
+        first.close();
+        opened.remove(first);
+
+        // Act
+        HnswVectorStore second = open();
+
+        // Assert
+        assertEquals(2, second.documents());
+        List<Document> found = second.similaritySearch(SearchRequest.builder()
+                .query("fish")
+                .topK(5)
+                .filterExpression("conversationId == 'bob'")
+                .build());
+        assertEquals(List.of("3"), ids(found));
+        assertEquals("bob", found.get(0).getMetadata().get("conversationId"));
+    }
+
+    @Test
+    void similaritySearch_onEmptyStore_returnsNothing() {
+        HnswVectorStore store = open();
+
+        assertTrue(store.similaritySearch(SearchRequest.builder().query("cat").build()).isEmpty());
+    }
+
+    @Test
+    void add_pastTrainingSize_quantizesInTheBackground() throws InterruptedException {
+        // Arrange
+        HnswVectorStore store = new HnswVectorStore(new KeywordEmbeddingModel(), directory, 8, 50, 32,
+                new Quantization(Quantization.Kind.INT8, 0, 20, 4), meterRegistry);
+        opened.add(store);
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            documents.add(document(String.valueOf(i), i % 2 == 0 ? "a cat" : "a dog", "alice"));
+        }
+
+        // Act
+        store.add(documents);
+        for (int i = 0; i < 500 && store.quantizedAs() == Quantization.Kind.NONE; i++) {
+            Thread.sleep(10);
+        }
+
+        // Assert
+        assertEquals(Quantization.Kind.INT8, store.quantizedAs());
+        List<Document> found = store.similaritySearch(SearchRequest.builder().query("dog").topK(3).build());
+        assertEquals(3, found.size());
+        assertTrue(found.stream().allMatch(document -> document.getText().equals("a dog")));
+    }
+
+    private HnswVectorStore open() {
+        HnswVectorStore store = new HnswVectorStore(new KeywordEmbeddingModel(), directory, 8, 50, 32, meterRegistry);
+        opened.add(store);
+        return store;
+    }
+
+    private static Document document(String id, String text, String conversationId) {
+        return Document.builder().id(id).text(text).metadata(Map.of("conversationId", conversationId)).build();
+    }
+
+    private static List<String> ids(List<Document> documents) {
+        return documents.stream().map(Document::getId).toList();
+    }
+
+    /**
+     * Embeds a text by the animals it mentions
+     */
+    private static class KeywordEmbeddingModel implements EmbeddingModel {
+
+        private static final String[] KEYWORDS = {"cat", "dog", "fish"};
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (String text : request.getInstructions()) {
+                embeddings.add(new Embedding(embed(text), embeddings.size()));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return embed(document.getText());
+        }
+
+        @Override
+        public float[] embed(String text) {
+            float[] vector = new float[KEYWORDS.length + 1];
+            for (int i = 0; i < KEYWORDS.length; i++) {
+                vector[i] = text.contains(KEYWORDS[i]) ? 1 : 0;
+            }
+            // Keeps texts without a keyword off the origin
+            vector[KEYWORDS.length] = 0.01f;
+            return vector;
+        }
+    }
+}
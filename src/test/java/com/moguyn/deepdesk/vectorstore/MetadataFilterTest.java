@@ -0,0 +1,71 @@
+package com.moguyn.deepdesk.vectorstore;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.vectorstore.filter.FilterExpressionTextParser;
+
+class MetadataFilterTest {
+
+    private static final Map<String, Object> METADATA = Map.of(
+            "conversationId", "alice",
+            "messageType", "USER",
+            "turn", 3,
+            "score", 0.75);
+
+    @Test
+    void equality_comparesStringsAndNumbersByValue() {
+        assertTrue(matches("conversationId == 'alice'"));
+        assertFalse(matches("conversationId == 'bob'"));
+        assertTrue(matches("turn == 3.0"));
+        assertTrue(matches("conversationId != 'bob'"));
+    }
+
+    @Test
+    void ordering_comparesNumbers() {
+        assertTrue(matches("turn >= 3 && turn < 4"));
+        assertTrue(matches("score > 0.5"));
+        assertFalse(matches("score <= 0.5"));
+    }
+
+    @Test
+    void in_andNotIn_matchAnyOfTheValues() {
+        assertTrue(matches("messageType in ['USER', 'ASSISTANT']"));
+        assertFalse(matches("messageType nin ['USER', 'ASSISTANT']"));
+    }
+
+    @Test
+    void logicalOperators_combineExpressions() {
+        assertTrue(matches("conversationId == 'bob' || (turn > 2 && messageType == 'USER')"));
+        assertFalse(matches("not(conversationId == 'alice')"));
+    }
+
+    @Test
+    void missingKey_onlyMatchesNegations() {
+        assertFalse(matches("topic == 'cars'"));
+        assertFalse(matches("topic > 1"));
+        assertTrue(matches("topic != 'cars'"));
+        assertTrue(matches("topic nin ['cars']"));
+    }
+
+    @Test
+    void requiredValue_isFoundInEqualitiesAndConjunctionsOnly() {
+        assertEquals("alice", requiredValue("conversationId == 'alice'"));
+        assertEquals("alice", requiredValue("turn > 2 && (messageType == 'USER' && conversationId == 'alice')"));
+        assertNull(requiredValue("conversationId == 'alice' || turn > 2"));
+        assertNull(requiredValue("not(conversationId == 'alice')"));
+        assertNull(requiredValue("conversationId in ['alice']"));
+    }
+
+    private static String requiredValue(String filter) {
+        return MetadataFilter.requiredValue(new FilterExpressionTextParser().parse(filter), "conversationId");
+    }
+
+    private static boolean matches(String filter) {
+        return MetadataFilter.matches(new FilterExpressionTextParser().parse(filter), METADATA);
+    }
+}
@@ -0,0 +1,111 @@
+package com.moguyn.deepdesk.vectorstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+class QuantizerTest {
+
+    private static final int DIMENSIONS = 64;
+
+    private final Random random = new Random(3);
+    private final List<float[]> sample = sample(1000);
+
+    @Test
+    void scalar_scoresCloseToFullPrecision() {
+        Quantizer quantizer = ScalarQuantizer.train(sample, DIMENSIONS);
+
+        assertEquals(DIMENSIONS, quantizer.codeBytes());
+        assertScoresClose(quantizer, 0.02);
+    }
+
+    @Test
+    void product_scoresCloseToFullPrecision() {
+        Quantizer quantizer = ProductQuantizer.train(sample, DIMENSIONS, 16, random);
+
+        assertEquals(16, quantizer.codeBytes());
+        assertScoresClose(quantizer, 0.15);
+    }
+
+    @Test
+    void decode_scoresLikeTheCode() {
+        List<Quantizer> quantizers = List.of(ScalarQuantizer.train(sample, DIMENSIONS),
+                ProductQuantizer.train(sample, DIMENSIONS, 16, random));
+
+        for (Quantizer quantizer : quantizers) {
+            float[] query = sample.get(0);
+            byte[] code = new byte[quantizer.codeBytes()];
+            quantizer.encode(sample.get(1), code);
+            float[] decoded = new float[DIMENSIONS];
+            quantizer.decode(ByteBuffer.wrap(code), 0, decoded);
+
+            assertEquals(quantizer.scorer(query).score(ByteBuffer.wrap(code), 0), dot(query, decoded), 1e-4);
+        }
+    }
+
+    @Test
+    void read_restoresWrittenQuantizer() throws Exception {
+        // Arrange
+        Quantizer quantizer = ProductQuantizer.train(sample, DIMENSIONS, 8, random);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        quantizer.write(new DataOutputStream(bytes));
+
+        // Act
+        Quantizer read = Quantizer.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        // Assert
+        float[] vector = sample.get(0);
+        float[] query = sample.get(1);
+        assertEquals(Quantization.Kind.PQ, read.kind());
+        assertEquals(score(quantizer, query, vector), score(read, query, vector));
+    }
+
+    /**
+     * Compares scores of codes with the inner products of the vectors they
+     * were encoded from
+     */
+    private void assertScoresClose(Quantizer quantizer, double maxMeanError) {
+        double error = 0;
+        for (int i = 0; i < 100; i++) {
+            float[] query = sample.get(i);
+            float[] vector = sample.get(999 - i);
+            error += Math.abs(score(quantizer, query, vector) - dot(query, vector));
+        }
+        double meanError = error / 100;
+        assertEquals(0, meanError, maxMeanError);
+    }
+
+    private static float score(Quantizer quantizer, float[] query, float[] vector) {
+        byte[] code = new byte[quantizer.codeBytes()];
+        quantizer.encode(vector, code);
+        return quantizer.scorer(query).score(ByteBuffer.wrap(code), 0);
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    private List<float[]> sample(int size) {
+        List<float[]> vectors = new ArrayList<>(size);
+        for (int n = 0; n < size; n++) {
+            float[] vector = new float[DIMENSIONS];
+            for (int i = 0; i < DIMENSIONS; i++) {
+                vector[i] = (float) random.nextGaussian();
+            }
+            vectors.add(HnswVectorStore.normalize(vector));
+        }
+        return vectors;
+    }
+}